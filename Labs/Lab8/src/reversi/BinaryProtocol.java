@@ -0,0 +1,284 @@
+package reversi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The compact binary form of the {@link ReversiProtocol} messages, which a
+ * client may switch to once connected.
+ * <p>
+ * The server offers it by adding {@link ReversiProtocol#BINARY} to its
+ * {@link ReversiProtocol#CONNECT} line, as in {@code CONNECT 6 BINARY}.  A
+ * client that wants it answers with a {@code BINARY} line.  The server
+ * acknowledges with a {@code BINARY} line of its own, and everything it
+ * sends after that is a frame.  Clients may send frames as soon as they
+ * have seen the acknowledgement; the server tells frames from text lines
+ * by their first byte, so a reply already on its way as text still works.
+ * Clients that never answer the offer go on with text as always.
+ * <p>
+ * A frame is a two byte big-endian length, counting the bytes that follow
+ * it, then an opcode byte and the opcode's payload:
+ * <ul>
+ *     <li>{@link #MOVE} and {@link #MOVE_MADE}: row and column, two bytes
+ *     each, big-endian;</li>
+ *     <li>{@link #ERROR}: the message in UTF-8;</li>
+ *     <li>{@link #BOARD}: the dimension, two bytes big-endian, then every
+ *     square row by row, four to a byte from the high bits down: 0 for
+ *     empty, 1 for player one, 2 for player two;</li>
+ *     <li>everything else: nothing.</li>
+ * </ul>
+ * Frames are at most {@link #MAX_FRAME} bytes long, so the first byte of a
+ * frame is always a control character, which no text message starts with.
+ * <p>
+ * Everything here encodes into and decodes from buffers the caller owns,
+ * so moves go back and forth without allocating.
+ */
+public final class BinaryProtocol {
+    /** the most bytes in a frame after its length */
+    public static final int MAX_FRAME = 1024;
+    /** room for a whole frame, length included */
+    public static final int BUFFER_SIZE = MAX_FRAME + 2;
+    /** the largest board a {@link #BOARD} frame holds */
+    public static final int MAX_BOARD_DIM = 63;
+    /** the most bytes in a text line read by {@link #readLine} */
+    public static final int MAX_LINE = 1024;
+
+    /** opcode for {@link ReversiProtocol#MAKE_MOVE} */
+    public static final byte MAKE_MOVE = 1;
+    /** opcode for {@link ReversiProtocol#MOVE} */
+    public static final byte MOVE = 2;
+    /** opcode for {@link ReversiProtocol#MOVE_MADE} */
+    public static final byte MOVE_MADE = 3;
+    /** opcode for {@link ReversiProtocol#GAME_WON} */
+    public static final byte GAME_WON = 4;
+    /** opcode for {@link ReversiProtocol#GAME_LOST} */
+    public static final byte GAME_LOST = 5;
+    /** opcode for {@link ReversiProtocol#GAME_TIED} */
+    public static final byte GAME_TIED = 6;
+    /** opcode for {@link ReversiProtocol#ERROR} */
+    public static final byte ERROR = 7;
+    /** opcode for {@link ReversiProtocol#BOARD} */
+    public static final byte BOARD = 8;
+
+    /** length of a move frame after its length: opcode, row and column */
+    public static final int MOVE_LENGTH = 5;
+
+    /**
+     * Not instantiable.
+     */
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Could this byte start a frame rather than a text line?
+     *
+     * @param first the first byte of a message
+     * @return true for a frame
+     */
+    public static boolean isFrameStart(int first) {
+        return first >= 0 && first < ' ';
+    }
+
+    /**
+     * Encode a message that has no payload.
+     *
+     * @param buffer where to put the frame, at least 3 bytes
+     * @param opcode the message
+     * @return the number of bytes in the frame
+     */
+    public static int encode(byte[] buffer, byte opcode) {
+        buffer[0] = 0;
+        buffer[1] = 1;
+        buffer[2] = opcode;
+        return 3;
+    }
+
+    /**
+     * Encode a {@link #MOVE} or {@link #MOVE_MADE}.
+     *
+     * @param buffer where to put the frame, at least 7 bytes
+     * @param opcode {@link #MOVE} or {@link #MOVE_MADE}
+     * @param row the row
+     * @param col the column
+     * @return the number of bytes in the frame
+     */
+    public static int encodeMove(byte[] buffer, byte opcode, int row, int col) {
+        buffer[0] = 0;
+        buffer[1] = MOVE_LENGTH;
+        buffer[2] = opcode;
+        buffer[3] = (byte) (row >>> 8);
+        buffer[4] = (byte) row;
+        buffer[5] = (byte) (col >>> 8);
+        buffer[6] = (byte) col;
+        return MOVE_LENGTH + 2;
+    }
+
+    /**
+     * Encode an {@link #ERROR}, cutting the message short if it does not
+     * fit in a frame.
+     *
+     * @param buffer where to put the frame, {@link #BUFFER_SIZE} bytes
+     * @param message the error message
+     * @return the number of bytes in the frame
+     */
+    public static int encodeError(byte[] buffer, String message) {
+        byte[] text = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(text.length, MAX_FRAME - 1);
+        buffer[0] = (byte) ((length + 1) >>> 8);
+        buffer[1] = (byte) (length + 1);
+        buffer[2] = ERROR;
+        System.arraycopy(text, 0, buffer, 3, length);
+        return length + 3;
+    }
+
+    /**
+     * Encode a {@link #BOARD}.  Boards up to {@link #MAX_BOARD_DIM}
+     * squares across fit in a frame.
+     *
+     * @param buffer where to put the frame, {@link #BUFFER_SIZE} bytes
+     * @param DIM square dimension of board
+     * @param squares every square row by row: 0 for empty, 1 for player
+     *                one, 2 for player two
+     * @return the number of bytes in the frame
+     */
+    public static int encodeBoard(byte[] buffer, int DIM, byte[] squares) {
+        int packed = (DIM * DIM + 3) / 4;
+        int length = 3 + packed;
+        buffer[0] = (byte) (length >>> 8);
+        buffer[1] = (byte) length;
+        buffer[2] = BOARD;
+        buffer[3] = (byte) (DIM >>> 8);
+        buffer[4] = (byte) DIM;
+        Arrays.fill(buffer, 5, 5 + packed, (byte) 0);
+        for (int i = 0; i < DIM * DIM; ++i) {
+            buffer[5 + i / 4] |= (byte) (squares[i] << (6 - 2 * (i % 4)));
+        }
+        return length + 2;
+    }
+
+    /**
+     * Get the dimension from a board frame read by {@link #readFrame}.
+     *
+     * @param frame the frame
+     * @return the square dimension of the board
+     */
+    public static int boardDIM(byte[] frame) {
+        return ((frame[1] & 0xff) << 8) | (frame[2] & 0xff);
+    }
+
+    /**
+     * Get a square from a board frame read by {@link #readFrame}.
+     *
+     * @param frame the frame
+     * @param square the square, as row * DIM + column
+     * @return 0 for empty, 1 for player one, 2 for player two
+     */
+    public static int boardSquare(byte[] frame, int square) {
+        return (frame[3 + square / 4] >>> (6 - 2 * (square % 4))) & 3;
+    }
+
+    /**
+     * Read one frame.  The opcode ends up in {@code frame[0]} and the
+     * payload after it.
+     *
+     * @param in where to read from
+     * @param frame where to put the frame, {@link #MAX_FRAME} bytes
+     * @return the length of the frame, opcode included
+     * @throws EOFException if the stream ends first
+     * @throws IOException if the stream fails or the frame is malformed
+     */
+    public static int readFrame(InputStream in, byte[] frame) throws IOException {
+        int high = in.read();
+        int low = in.read();
+        if (low < 0) {
+            throw new EOFException();
+        }
+        int length = (high << 8) | low;
+        if (length < 1 || length > Math.min(MAX_FRAME, frame.length)) {
+            throw new IOException("Bad frame length " + length);
+        }
+        if (in.readNBytes(frame, 0, length) < length) {
+            throw new EOFException();
+        }
+        return length;
+    }
+
+    /**
+     * Get the row from a move frame read by {@link #readFrame}.
+     *
+     * @param frame the frame
+     * @return the row
+     */
+    public static int row(byte[] frame) {
+        return ((frame[1] & 0xff) << 8) | (frame[2] & 0xff);
+    }
+
+    /**
+     * Get the column from a move frame read by {@link #readFrame}.
+     *
+     * @param frame the frame
+     * @return the column
+     */
+    public static int col(byte[] frame) {
+        return ((frame[3] & 0xff) << 8) | (frame[4] & 0xff);
+    }
+
+    /**
+     * Get the message from an error frame read by {@link #readFrame}.
+     *
+     * @param frame the frame
+     * @param length the length of the frame
+     * @return the message
+     */
+    public static String errorMessage(byte[] frame, int length) {
+        return new String(frame, 1, length - 1, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write a frame, or do nothing if the connection has failed; as with
+     * a {@link java.io.PrintStream}, the next read will find that out.
+     *
+     * @param out where to write
+     * @param buffer the frame
+     * @param length the number of bytes in the frame
+     */
+    public static void write(OutputStream out, byte[] buffer, int length) {
+        try {
+            out.write(buffer, 0, length);
+        } catch (IOException e) {
+            // the reader sees the connection close
+        }
+    }
+
+    /**
+     * Read one text line from a connection that may later switch to
+     * frames, without reading past it.
+     *
+     * @param in where to read from
+     * @param buffer where to put the bytes, {@link #MAX_LINE} long
+     * @return the line, without its line terminator
+     * @throws EOFException if the stream ends first
+     * @throws IOException if the stream fails or the line is too long
+     */
+    public static String readLine(InputStream in, byte[] buffer) throws IOException {
+        int length = 0;
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException();
+            }
+            if (length == buffer.length) {
+                throw new IOException("Line too long");
+            }
+            buffer[length++] = (byte) b;
+        }
+        if (length > 0 && buffer[length - 1] == '\r') {
+            --length;
+        }
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,683 @@
+package reversi;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bitboard representation of the discs on a Reversi board.  Each player's
+ * discs are kept in a bitset where square (row, col) is bit
+ * {@code row * DIM + col}.
+ * <P>
+ * Boards of up to 8x8 fit in a single {@code long} per player, and flips and
+ * neighbor tests are done by shifting whole bitsets at once.  Larger boards
+ * use multi-word bitsets and step through the bit indices instead.
+ * <P>
+ * The board also keeps its frontier: the empty squares next to a disc,
+ * which under the relaxed rules are exactly the valid moves.  Flips do
+ * not change which squares are empty, so only placing or removing a disc
+ * changes the frontier, and then only around that square.  It is kept up
+ * to date as discs are set, so testing a square is one bit and listing
+ * the moves costs one step per move, however big the board.
+ * <P>
+ * A large board is two bits a square, one in each player's bitset, and
+ * one more for the frontier.  It also keeps an index of the frontier
+ * words that are not zero, so stepping through or counting a sparse
+ * frontier on a board hundreds of squares a side skips 4096 squares at a
+ * time.
+ * <P>
+ * This class only knows about discs.  Whose turn it is, and what counts as
+ * a valid move under other rules, are left to {@link Reversi} and
+ * {@link reversi2.Board}.
+ */
+public class BitBoard {
+    /** value for an empty square */
+    public static final int NONE = 0;
+    /** value for a square held by the first player */
+    public static final int PLAYER_ONE = 1;
+    /** value for a square held by the second player */
+    public static final int PLAYER_TWO = 2;
+
+    /** largest dimension whose squares fit in a single long */
+    public static final int MAX_SMALL_DIM = 8;
+
+    /** the squares next to each square, by small board dimension */
+    private static final Map<Integer, long[]> ADJACENT = new ConcurrentHashMap<>();
+
+    /** row deltas for the eight directions, N, NE, E, SE, S, SW, W, NW */
+    private static final int[] ROW_DELTAS = {-1, -1, 0, 1, 1, 1, 0, -1};
+    /** column deltas for the eight directions, N, NE, E, SE, S, SW, W, NW */
+    private static final int[] COL_DELTAS = {0, 1, 1, 1, 0, -1, -1, -1};
+
+    /** square dimension of board */
+    private final int DIM;
+    /** whether the board fits in a single word per player */
+    private final boolean small;
+    /** number of longs in each player's bitset for large boards */
+    private final int words;
+
+    /** first player's discs on a small board */
+    private long one;
+    /** second player's discs on a small board */
+    private long two;
+    /** first player's discs on a large board */
+    private final long[] ones;
+    /** second player's discs on a large board */
+    private final long[] twos;
+    /** empty squares next to a disc on a small board */
+    private long frontier;
+    /** empty squares next to a disc on a large board */
+    private final long[] frontiers;
+    /** which words of {@link #frontiers} are not zero (large boards) */
+    private final long[] frontierIndex;
+    /** the squares next to each square (small boards); shared */
+    private final long[] adjacent;
+
+    /** squares flipped by the last call to {@link #flip(int, int, int)} */
+    private final int[] flipped;
+
+    /** bit index delta for each direction (small boards) */
+    private final int[] shifts;
+    /** mask applied after shifting in each direction (small boards) */
+    private final long[] shiftMasks;
+    /** mask of every square on the board (small boards) */
+    private final long full;
+
+    /**
+     * Create an empty board.
+     *
+     * @param DIM square dimension of board
+     */
+    public BitBoard(int DIM) {
+        this.DIM = DIM;
+        this.small = DIM <= MAX_SMALL_DIM;
+        this.words = (DIM * DIM + 63) >>> 6;
+        // a move can flip at most DIM-2 discs in each of eight directions
+        this.flipped = new int[8 * DIM];
+        this.shifts = new int[8];
+        this.shiftMasks = new long[8];
+
+        if (this.small) {
+            this.ones = null;
+            this.twos = null;
+            this.frontiers = null;
+            this.frontierIndex = null;
+
+            // build the masks that stop shifted bits wrapping between rows
+            int squares = DIM * DIM;
+            long all = squares == 64 ? -1L : (1L << squares) - 1;
+            long notFirstCol = 0;
+            long notLastCol = 0;
+            for (int sq = 0; sq < squares; ++sq) {
+                if (sq % DIM != 0) {
+                    notFirstCol |= 1L << sq;
+                }
+                if (sq % DIM != DIM - 1) {
+                    notLastCol |= 1L << sq;
+                }
+            }
+            for (int d = 0; d < 8; ++d) {
+                this.shifts[d] = ROW_DELTAS[d] * DIM + COL_DELTAS[d];
+                if (COL_DELTAS[d] == 1) {
+                    this.shiftMasks[d] = all & notFirstCol;
+                } else if (COL_DELTAS[d] == -1) {
+                    this.shiftMasks[d] = all & notLastCol;
+                } else {
+                    this.shiftMasks[d] = all;
+                }
+            }
+            this.full = all;
+            this.adjacent = ADJACENT.computeIfAbsent(DIM, d -> {
+                long[] masks = new long[squares];
+                for (int sq = 0; sq < squares; ++sq) {
+                    masks[sq] = neighbors(1L << sq);
+                }
+                return masks;
+            });
+        } else {
+            this.ones = new long[this.words];
+            this.twos = new long[this.words];
+            this.frontiers = new long[this.words];
+            this.frontierIndex = new long[(this.words + 63) >>> 6];
+            this.full = 0;
+            this.adjacent = null;
+        }
+    }
+
+    /**
+     * Create a copy of another board.
+     *
+     * @param other the board to copy
+     */
+    public BitBoard(BitBoard other) {
+        this(other.DIM);
+        this.copyFrom(other);
+    }
+
+    /**
+     * Overwrite the discs on this board with those of another board of the
+     * same dimension.
+     *
+     * @param other the board to copy
+     */
+    public void copyFrom(BitBoard other) {
+        if (this.small) {
+            this.one = other.one;
+            this.two = other.two;
+            this.frontier = other.frontier;
+        } else {
+            System.arraycopy(other.ones, 0, this.ones, 0, this.words);
+            System.arraycopy(other.twos, 0, this.twos, 0, this.words);
+            System.arraycopy(other.frontiers, 0, this.frontiers, 0, this.words);
+            System.arraycopy(other.frontierIndex, 0, this.frontierIndex, 0, this.frontierIndex.length);
+        }
+    }
+
+    /**
+     * Get square dimension of board
+     *
+     * @return dimension
+     */
+    public int getDimension() {
+        return this.DIM;
+    }
+
+    /**
+     * Remove every disc from the board.
+     */
+    public void clear() {
+        if (this.small) {
+            this.one = 0;
+            this.two = 0;
+            this.frontier = 0;
+        } else {
+            Arrays.fill(this.ones, 0);
+            Arrays.fill(this.twos, 0);
+            Arrays.fill(this.frontiers, 0);
+            Arrays.fill(this.frontierIndex, 0);
+        }
+    }
+
+    /**
+     * Who is at this square?
+     *
+     * @param row the row
+     * @param col the column
+     * @return {@link #NONE}, {@link #PLAYER_ONE} or {@link #PLAYER_TWO}
+     */
+    public int get(int row, int col) {
+        int sq = row * this.DIM + col;
+        if (this.small) {
+            long bit = 1L << sq;
+            if ((this.one & bit) != 0) {
+                return PLAYER_ONE;
+            } else if ((this.two & bit) != 0) {
+                return PLAYER_TWO;
+            } else {
+                return NONE;
+            }
+        } else if (test(this.ones, sq)) {
+            return PLAYER_ONE;
+        } else if (test(this.twos, sq)) {
+            return PLAYER_TWO;
+        } else {
+            return NONE;
+        }
+    }
+
+    /**
+     * Is this square empty?
+     *
+     * @param row the row
+     * @param col the column
+     * @return whether neither player has a disc there
+     */
+    public boolean isEmpty(int row, int col) {
+        int sq = row * this.DIM + col;
+        if (this.small) {
+            return ((this.one | this.two) & (1L << sq)) == 0;
+        } else {
+            return !test(this.ones, sq) && !test(this.twos, sq);
+        }
+    }
+
+    /**
+     * Put a disc (or nothing) at a square, replacing whatever was there.
+     *
+     * @param row the row
+     * @param col the column
+     * @param player {@link #NONE}, {@link #PLAYER_ONE} or {@link #PLAYER_TWO}
+     */
+    public void set(int row, int col, int player) {
+        set(row * this.DIM + col, player);
+    }
+
+    /**
+     * Put a disc (or nothing) at a square, replacing whatever was there.
+     * Placing a disc on an empty square, or taking one off, updates the
+     * frontier around it.
+     *
+     * @param sq the square, as row * DIM + col
+     * @param player {@link #NONE}, {@link #PLAYER_ONE} or {@link #PLAYER_TWO}
+     */
+    public void set(int sq, int player) {
+        if (this.small) {
+            long bit = 1L << sq;
+            boolean was = ((this.one | this.two) & bit) != 0;
+            this.one &= ~bit;
+            this.two &= ~bit;
+            if (player == PLAYER_ONE) {
+                this.one |= bit;
+            } else if (player == PLAYER_TWO) {
+                this.two |= bit;
+            }
+            if (!was && player != NONE) {
+                this.frontier = (this.frontier | this.adjacent[sq]) & ~(this.one | this.two);
+            } else if (was && player == NONE) {
+                long occupied = this.one | this.two;
+                this.frontier = neighbors(occupied) & ~occupied;
+            }
+        } else {
+            int w = sq >>> 6;
+            long bit = 1L << sq;
+            boolean was = ((this.ones[w] | this.twos[w]) & bit) != 0;
+            this.ones[w] &= ~bit;
+            this.twos[w] &= ~bit;
+            if (player == PLAYER_ONE) {
+                this.ones[w] |= bit;
+            } else if (player == PLAYER_TWO) {
+                this.twos[w] |= bit;
+            }
+            if (was != (player != NONE)) {
+                updateFrontier(sq);
+            }
+        }
+    }
+
+    /**
+     * Bring the frontier of a large board up to date around a square
+     * that has just been filled or emptied: the square itself and its
+     * empty neighbors are the only ones that can have changed.
+     *
+     * @param sq the square, as row * DIM + col
+     */
+    private void updateFrontier(int sq) {
+        int row = sq / this.DIM;
+        int col = sq % this.DIM;
+        boolean filled = test(this.ones, sq) || test(this.twos, sq);
+        for (int r = Math.max(0, row - 1); r <= Math.min(this.DIM - 1, row + 1); ++r) {
+            for (int c = Math.max(0, col - 1); c <= Math.min(this.DIM - 1, col + 1); ++c) {
+                int near = r * this.DIM + c;
+                boolean empty = !test(this.ones, near) && !test(this.twos, near);
+                setFrontier(near, empty && (filled || occupiedNeighbor(r, c)));
+            }
+        }
+    }
+
+    /**
+     * Put a square of a large board on the frontier or take it off,
+     * keeping the index of non-zero words in step.
+     *
+     * @param sq the square, as row * DIM + col
+     * @param on whether it is on the frontier
+     */
+    private void setFrontier(int sq, boolean on) {
+        int w = sq >>> 6;
+        if (on) {
+            this.frontiers[w] |= 1L << sq;
+            this.frontierIndex[w >>> 6] |= 1L << w;
+        } else if ((this.frontiers[w] &= ~(1L << sq)) == 0) {
+            this.frontierIndex[w >>> 6] &= ~(1L << w);
+        }
+    }
+
+    /**
+     * Count the discs a player has on the board.
+     *
+     * @param player {@link #PLAYER_ONE} or {@link #PLAYER_TWO}
+     * @return the number of discs
+     */
+    public int count(int player) {
+        if (this.small) {
+            return Long.bitCount(player == PLAYER_ONE ? this.one : this.two);
+        }
+        long[] bits = player == PLAYER_ONE ? this.ones : this.twos;
+        int total = 0;
+        for (long word : bits) {
+            total += Long.bitCount(word);
+        }
+        return total;
+    }
+
+    /**
+     * Sum a per-square weight over a player's discs.
+     *
+     * @param player {@link #PLAYER_ONE} or {@link #PLAYER_TWO}
+     * @param weights weight of each square, indexed by row * DIM + col
+     * @return the total weight of the player's discs
+     */
+    public int weightedCount(int player, int[] weights) {
+        int total = 0;
+        if (this.small) {
+            long bits = player == PLAYER_ONE ? this.one : this.two;
+            while (bits != 0) {
+                total += weights[Long.numberOfTrailingZeros(bits)];
+                bits &= bits - 1;
+            }
+            return total;
+        }
+        long[] bits = player == PLAYER_ONE ? this.ones : this.twos;
+        for (int w = 0; w < this.words; ++w) {
+            long word = bits[w];
+            while (word != 0) {
+                total += weights[(w << 6) + Long.numberOfTrailingZeros(word)];
+                word &= word - 1;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Check that there is an occupied neighbor of any color.
+     *
+     * @param row the row
+     * @param col the column
+     * @return whether there is an occupied neighbor or not
+     */
+    public boolean occupiedNeighbor(int row, int col) {
+        if (this.small) {
+            return (neighbors(1L << (row * this.DIM + col)) & (this.one | this.two)) != 0;
+        }
+        for (int d = 0; d < 8; ++d) {
+            int r = row + ROW_DELTAS[d];
+            int c = col + COL_DELTAS[d];
+            if (r >= 0 && r < this.DIM && c >= 0 && c < this.DIM) {
+                int sq = r * this.DIM + c;
+                if (test(this.ones, sq) || test(this.twos, sq)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Flip every run of opponent discs that is bracketed between the disc
+     * at (row, col) and another disc of the same player.  The flipped
+     * squares can be read back with {@link #getFlipped(int)}.
+     *
+     * @param row the row of the disc just placed
+     * @param col the column of the disc just placed
+     * @param player the player who owns the disc just placed
+     * @return the number of discs flipped
+     */
+    public int flip(int row, int col, int player) {
+        if (this.small) {
+            long me = player == PLAYER_ONE ? this.one : this.two;
+            long opp = player == PLAYER_ONE ? this.two : this.one;
+            long move = 1L << (row * this.DIM + col);
+            long flips = 0;
+
+            // slide along each direction while on opponent discs, and keep
+            // the run only if it ends on one of our own discs
+            for (int d = 0; d < 8; ++d) {
+                long run = 0;
+                long x = shift(move, d);
+                while ((x & opp) != 0) {
+                    run |= x;
+                    x = shift(x, d);
+                }
+                if ((x & me) != 0) {
+                    flips |= run;
+                }
+            }
+
+            if (player == PLAYER_ONE) {
+                this.one = me | flips;
+                this.two = opp & ~flips;
+            } else {
+                this.two = me | flips;
+                this.one = opp & ~flips;
+            }
+
+            int count = 0;
+            while (flips != 0) {
+                this.flipped[count++] = Long.numberOfTrailingZeros(flips);
+                flips &= flips - 1;
+            }
+            return count;
+        }
+
+        long[] me = player == PLAYER_ONE ? this.ones : this.twos;
+        long[] opp = player == PLAYER_ONE ? this.twos : this.ones;
+        int count = 0;
+        for (int d = 0; d < 8; ++d) {
+            int rd = ROW_DELTAS[d];
+            int cd = COL_DELTAS[d];
+            int r = row + rd;
+            int c = col + cd;
+            while (r >= 0 && r < this.DIM && c >= 0 && c < this.DIM &&
+                    test(opp, r * this.DIM + c)) {
+                r += rd;
+                c += cd;
+            }
+            if (r >= 0 && r < this.DIM && c >= 0 && c < this.DIM &&
+                    test(me, r * this.DIM + c)) {
+                r = row + rd;
+                c = col + cd;
+                int sq = r * this.DIM + c;
+                while (test(opp, sq)) {
+                    me[sq >>> 6] |= 1L << sq;
+                    opp[sq >>> 6] &= ~(1L << sq);
+                    this.flipped[count++] = sq;
+                    sq += rd * this.DIM + cd;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get one of the squares flipped by the last call to
+     * {@link #flip(int, int, int)}.
+     *
+     * @param i which flipped square, from 0 up to the count flip returned
+     * @return the square, as row * DIM + col
+     */
+    public int getFlipped(int i) {
+        return this.flipped[i];
+    }
+
+    /**
+     * Find every empty square, whether or not it can be played yet.
+     *
+     * @param squares where to put the square indices ({@code row * DIM + col});
+     *                must hold at least DIM*DIM entries
+     * @return how many squares were stored
+     */
+    public int emptySquares(int[] squares) {
+        int n = 0;
+        if (this.small) {
+            long empty = ~(this.one | this.two) & this.full;
+            while (empty != 0) {
+                squares[n++] = Long.numberOfTrailingZeros(empty);
+                empty &= empty - 1;
+            }
+            return n;
+        }
+        int total = this.DIM * this.DIM;
+        for (int w = 0; w < this.words; ++w) {
+            long empty = ~(this.ones[w] | this.twos[w]);
+            while (empty != 0) {
+                int sq = (w << 6) + Long.numberOfTrailingZeros(empty);
+                empty &= empty - 1;
+                if (sq >= total) {
+                    break;
+                }
+                squares[n++] = sq;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Is this square on the frontier: empty, with an occupied neighbor?
+     * Under the relaxed rules that makes it a valid move.
+     *
+     * @param row the row
+     * @param col the column
+     * @return whether the square is on the frontier
+     */
+    public boolean isFrontier(int row, int col) {
+        int sq = row * this.DIM + col;
+        if (this.small) {
+            return (this.frontier & (1L << sq)) != 0;
+        }
+        return test(this.frontiers, sq);
+    }
+
+    /**
+     * Get the frontier of a board of up to {@link #MAX_SMALL_DIM} squares
+     * a side as a bitmask, square (row, col) being bit
+     * {@code row * DIM + col}.
+     *
+     * @return the frontier
+     * @throws IllegalStateException if the board is too big for one long
+     */
+    public long getFrontier() {
+        if (!this.small) {
+            throw new IllegalStateException("A " + this.DIM + "x" + this.DIM + " frontier does not fit in a long");
+        }
+        return this.frontier;
+    }
+
+    /**
+     * Find the first square on the frontier at or after a square, to
+     * step through the frontier in order without copying it.
+     *
+     * @param from the square to start at, as row * DIM + col
+     * @return the square, or -1 if there are no more
+     */
+    public int nextFrontier(int from) {
+        int squares = this.DIM * this.DIM;
+        if (from >= squares) {
+            return -1;
+        }
+        if (this.small) {
+            long rest = this.frontier & (-1L << from);
+            return rest == 0 ? -1 : Long.numberOfTrailingZeros(rest);
+        }
+        int w = from >>> 6;
+        long word = this.frontiers[w] & (-1L << from);
+        if (word != 0) {
+            return (w << 6) + Long.numberOfTrailingZeros(word);
+        }
+        // look up the next non-zero word in the index
+        if (++w == this.words) {
+            return -1;
+        }
+        int i = w >>> 6;
+        long index = this.frontierIndex[i] & (-1L << w);
+        while (index == 0) {
+            if (++i == this.frontierIndex.length) {
+                return -1;
+            }
+            index = this.frontierIndex[i];
+        }
+        w = (i << 6) + Long.numberOfTrailingZeros(index);
+        return (w << 6) + Long.numberOfTrailingZeros(this.frontiers[w]);
+    }
+
+    /**
+     * Count the squares on the frontier.
+     *
+     * @return the count
+     */
+    public int countFrontier() {
+        if (this.small) {
+            return Long.bitCount(this.frontier);
+        }
+        int total = 0;
+        for (int i = 0; i < this.frontierIndex.length; ++i) {
+            long index = this.frontierIndex[i];
+            while (index != 0) {
+                total += Long.bitCount(this.frontiers[(i << 6) + Long.numberOfTrailingZeros(index)]);
+                index &= index - 1;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Find every empty square that has an occupied neighbor.  Under the
+     * relaxed rules these are exactly the valid moves.  They are read off
+     * the frontier, one step per square.
+     *
+     * @param moves where to put the square indices ({@code row * DIM + col});
+     *              must hold at least DIM*DIM entries
+     * @return how many squares were stored
+     */
+    public int legalMoves(int[] moves) {
+        int n = 0;
+        if (this.small) {
+            long candidates = this.frontier;
+            while (candidates != 0) {
+                moves[n++] = Long.numberOfTrailingZeros(candidates);
+                candidates &= candidates - 1;
+            }
+            return n;
+        }
+        for (int i = 0; i < this.frontierIndex.length; ++i) {
+            long index = this.frontierIndex[i];
+            while (index != 0) {
+                int w = (i << 6) + Long.numberOfTrailingZeros(index);
+                index &= index - 1;
+                long word = this.frontiers[w];
+                while (word != 0) {
+                    moves[n++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Shift a small-board bitset one step in a direction, dropping bits that
+     * would fall off the board.
+     *
+     * @param bits the bitset
+     * @param d the direction index
+     * @return the shifted bitset
+     */
+    private long shift(long bits, int d) {
+        int delta = this.shifts[d];
+        long moved = delta > 0 ? bits << delta : bits >>> -delta;
+        return moved & this.shiftMasks[d];
+    }
+
+    /**
+     * Get every square adjacent to a bit in a small-board bitset.
+     *
+     * @param bits the bitset
+     * @return the union of the bitset shifted in all eight directions
+     */
+    private long neighbors(long bits) {
+        long result = 0;
+        for (int d = 0; d < 8; ++d) {
+            result |= shift(bits, d);
+        }
+        return result & this.full;
+    }
+
+    /**
+     * Test a bit in a multi-word bitset.
+     *
+     * @param bits the bitset
+     * @param sq the bit index
+     * @return whether the bit is set
+     */
+    private static boolean test(long[] bits, int sq) {
+        return (bits[sq >>> 6] & (1L << sq)) != 0;
+    }
+}
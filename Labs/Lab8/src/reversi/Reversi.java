@@ -1,8 +1,18 @@
 package reversi;
 
+import java.util.Arrays;
+
 /**
  * Implementation of the game board representation and move making for
- * Reversi.
+ * Reversi.  The discs themselves are kept in a {@link BitBoard}.
+ * <P>
+ * Every move made is recorded on an undo stack of primitive arrays, so
+ * {@link #unmakeMove()} can take it back.  This lets a search walk the
+ * game tree on a single Reversi object instead of copying it at every
+ * position.  A game that will never take a move back, like one the server
+ * referees, can be made without the undo stack, which would otherwise grow
+ * to several bytes a square over the game; on a board hundreds of squares
+ * across that is more than the board itself.
  *
  * @author Sean Strout @ RIT CS
  * @author Robert St Jacques @ RIT SE
@@ -31,11 +41,32 @@ public class Reversi {
     /** square dimensions of board */
     private int DIM;
     /** the board */
-    private Move[][] board;
+    private BitBoard board;
     /** which player's turn is it? */
     private boolean p1Turn;
     /** how many valid moves have been made? */
     private int numMoves;
+    /** how many disks the first player has; the second has the rest */
+    private int p1Disks;
+    /** the Zobrist keys for this board size */
+    private Zobrist keys;
+    /** Zobrist hash of the current position */
+    private long hash;
+
+    /** initial size of the undo stacks; they grow as needed */
+    private static final int UNDO_CAPACITY = 64;
+    /** whether moves are recorded so they can be taken back */
+    private boolean undoable;
+    /** square of each move on the undo stack */
+    private int[] undoMoves;
+    /** where each move's flipped squares start in {@link #undoFlips} */
+    private int[] undoFlipStart;
+    /** how many moves are on the undo stack */
+    private int undoDepth;
+    /** squares flipped by every move on the undo stack, one after another */
+    private int[] undoFlips;
+    /** how many squares are in {@link #undoFlips} */
+    private int undoFlipCount;
 
     /**
      * Construct a board of a specified size.
@@ -46,23 +77,87 @@ public class Reversi {
      * DIM must be even
      */
     public Reversi(int DIM) {
-        // initialize all spots on the board to empty
-        this.board = new Move[DIM][DIM];
-        for (int row=0; row<DIM; ++row) {
-            for (int col=0; col<DIM; ++col) {
-                this.board[row][col] = Move.NONE;
-            }
-        }
+        this(DIM, true);
+    }
+
+    /**
+     * Construct a board of a specified size, which may keep no undo stack.
+     *
+     * @param DIM square dimensions of board
+     * @param undoable whether moves can be taken back; if not,
+     *                 {@link #unmakeMove()} always fails
+     *
+     * @rit.pre the board dimensions cannot be smaller than 2x2 and
+     * DIM must be even
+     */
+    public Reversi(int DIM, boolean undoable) {
+        // all spots on a new board are empty
+        this.board = new BitBoard(DIM);
+
         // populate the center of the board with pieces
-        this.board[DIM/2-1][DIM/2-1] = Move.PLAYER_ONE;
-        this.board[DIM/2][DIM/2] = Move.PLAYER_ONE;
-        this.board[DIM/2-1][DIM/2] = Move.PLAYER_TWO;
-        this.board[DIM/2][DIM/2-1] = Move.PLAYER_TWO;
+        this.board.set(DIM/2-1, DIM/2-1, BitBoard.PLAYER_ONE);
+        this.board.set(DIM/2, DIM/2, BitBoard.PLAYER_ONE);
+        this.board.set(DIM/2-1, DIM/2, BitBoard.PLAYER_TWO);
+        this.board.set(DIM/2, DIM/2-1, BitBoard.PLAYER_TWO);
 
         // finishing setting up all instance data
         this.DIM = DIM;
         this.p1Turn = true;
         this.numMoves = 4;
+        this.p1Disks = 2;
+        this.keys = Zobrist.forDimension(DIM);
+        this.hash = this.keys.hash(this.board, true);
+        this.undoable = undoable;
+        allocateUndo();
+    }
+
+    /**
+     * Construct a copy of another game, so it can be played forward without
+     * changing the original.  The copy starts with an empty undo stack.
+     *
+     * @param other the game to copy
+     */
+    public Reversi(Reversi other) {
+        this.board = new BitBoard(other.board);
+        this.DIM = other.DIM;
+        this.p1Turn = other.p1Turn;
+        this.numMoves = other.numMoves;
+        this.p1Disks = other.p1Disks;
+        this.keys = other.keys;
+        this.hash = other.hash;
+        this.undoable = true;
+        allocateUndo();
+    }
+
+    /**
+     * Construct a game from a position that is already on a board, such
+     * as the copy of the board kept by a client.
+     *
+     * @param board the discs on the board; the game takes ownership of it
+     * @param p1Turn whether it is the first player's turn
+     */
+    public Reversi(BitBoard board, boolean p1Turn) {
+        this.board = board;
+        this.DIM = board.getDimension();
+        this.p1Turn = p1Turn;
+        this.p1Disks = board.count(BitBoard.PLAYER_ONE);
+        this.numMoves = this.p1Disks + board.count(BitBoard.PLAYER_TWO);
+        this.keys = Zobrist.forDimension(this.DIM);
+        this.hash = this.keys.hash(board, p1Turn);
+        this.undoable = true;
+        allocateUndo();
+    }
+
+    /**
+     * Create empty undo stacks, if moves can be taken back.
+     */
+    private void allocateUndo() {
+        int capacity = this.undoable ? UNDO_CAPACITY : 0;
+        this.undoMoves = new int[capacity];
+        this.undoFlipStart = new int[capacity];
+        this.undoFlips = new int[capacity];
+        this.undoDepth = 0;
+        this.undoFlipCount = 0;
     }
 
     /**
@@ -73,26 +168,131 @@ public class Reversi {
     public int getDimension() { return this.DIM; }
 
     /**
-     * Check that there is an occupied neighbor - we relax the official rules
-     * here that say the neighbor must be the same color.
+     * What is at this square?
      *
      * @param row the row
      * @param col the column
-     * @return whether there is an occupied neighbor or not
-     */
-    private boolean occupiedNeighbor(int row, int col) {
-        // scan through all neighbors and see if there is at least one that is occupied
-        for (int r=row-1; r<=row+1; ++r) {
-            for (int c=col-1; c<=col+1; ++c) {
-                if (!(r == row && c == col)) {
-                    if (r >= 0 && r < this.DIM && c >= 0 && c < this.DIM &&
-                            this.board[r][c] != Move.NONE) {
-                        return true;
-                    }
-                }
-            }
+     * @return the player (or {@link Move#NONE}) at the given location
+     */
+    public Move getContents(int row, int col) {
+        switch (this.board.get(row, col)) {
+            case BitBoard.PLAYER_ONE:
+                return Move.PLAYER_ONE;
+            case BitBoard.PLAYER_TWO:
+                return Move.PLAYER_TWO;
+            default:
+                return Move.NONE;
         }
-        return false;
+    }
+
+    /**
+     * Is it the first player's turn?
+     *
+     * @return true if {@link Move#PLAYER_ONE} moves next
+     */
+    public boolean isP1Turn() { return this.p1Turn; }
+
+    /**
+     * Get the number of disks on the board, including the four that the
+     * game starts with.
+     *
+     * @return number of moves made
+     */
+    public int getNumMoves() { return this.numMoves; }
+
+    /**
+     * Get the Zobrist hash of the current position.  It is kept up to date
+     * as disks are placed and flipped, so this is cheap.
+     *
+     * @return the hash
+     */
+    public long getHash() { return this.hash; }
+
+    /**
+     * Count the disks a player has on the board.
+     *
+     * @param player the player
+     * @return the number of disks
+     */
+    public int countDisks(Move player) {
+        return player == Move.PLAYER_ONE ? this.p1Disks : this.numMoves - this.p1Disks;
+    }
+
+    /**
+     * Sum a per-square weight over every disk a player has on the board.
+     *
+     * @param player the player
+     * @param weights weight of each square, indexed by row * DIM + col
+     * @return the total weight of the player's disks
+     */
+    public int weightedDisks(Move player, int[] weights) {
+        return this.board.weightedCount(player == Move.PLAYER_ONE ? BitBoard.PLAYER_ONE : BitBoard.PLAYER_TWO,
+                weights);
+    }
+
+    /**
+     * Would this move be accepted by {@link #makeMove(int, int)}?
+     *
+     * @param row the row
+     * @param col the column
+     * @return true iff the square is on the board, empty and next to a disk
+     */
+    public boolean isValidMove(int row, int col) {
+        return row >= 0 && row < this.DIM && col >= 0 && col < this.DIM &&
+                this.board.isFrontier(row, col);
+    }
+
+    /**
+     * Copy the disks on the board into another bitboard of the same size.
+     *
+     * @param target where to copy the disks
+     */
+    public void copyBoard(BitBoard target) {
+        target.copyFrom(this.board);
+    }
+
+    /**
+     * Find all valid moves for the player whose turn it is.
+     *
+     * @param moves where to put the moves, as row * DIM + col; must hold
+     *              at least DIM*DIM entries
+     * @return the number of valid moves
+     */
+    public int validMoves(int[] moves) {
+        return this.board.legalMoves(moves);
+    }
+
+    /**
+     * Count the valid moves for the player whose turn it is, without
+     * listing them.
+     *
+     * @return the number of valid moves
+     */
+    public int countValidMoves() {
+        return this.board.countFrontier();
+    }
+
+    /**
+     * Find the first valid move at or after a square, to step through the
+     * valid moves in order without copying them.
+     *
+     * @param from the square to start at, as row * DIM + col
+     * @return the move, as row * DIM + col, or -1 if there are no more
+     */
+    public int nextValidMove(int from) {
+        return this.board.nextFrontier(from);
+    }
+
+    /**
+     * Find every empty square on the board, including those that cannot
+     * be played yet.
+     *
+     * @param squares where to put the squares, as row * DIM + col; must
+     *                hold at least DIM*DIM entries
+     * @return the number of empty squares
+     */
+    public int emptySquares(int[] squares) {
+        return this.board.emptySquares(squares);
     }
 
     /**
@@ -101,46 +301,27 @@ public class Reversi {
      *
      * @param row the row
      * @param col the column
+     * @return how many disks were flipped
      */
-    private void flipPieces(int row, int col) {
-        // figure out who made the move and who the other player is
-        Move me = this.board[row][col];
-        Move other = me == Move.PLAYER_ONE ? Move.PLAYER_TWO : Move.PLAYER_ONE;
-
-        // generate row and column deltas [-1, 0, +1] to check the eight directions
-        // on the board.  this code comes courtesy of a port of python code from
-        // the great and mighty oracle himself, Jim. <3
-        for (int rd=-1; rd<=1; ++rd) {
-            for (int cd=-1; cd<=1; ++cd) {
-                if (rd == 0 && cd == 0) {
-                    continue;
-                }
-
-                int r = row + rd;
-                int c = col + cd;
-
-                // Continue in the current direction until we go off the end of the
-                // board or we reach a square that does not contain an opponent's disc.
-                while (r >= 0 && r < this.DIM && c >= 0 && c < this.DIM && this.board[r][c] == other) {
-                    r += rd;
-                    c += cd;
-                }
-
-                // If we did not go off the board and the square we stopped on
-                // contains one of this player's discs, flips the ones in between.
-                if (r >= 0 && r < this.DIM && c >= 0 && c < this.DIM && this.board[r][c] == me) {
-                    // restart
-                    r = row + rd;
-                    c = col + cd;
-
-                    while (r >= 0 && r < this.DIM && c >= 0 && c < this.DIM && this.board[r][c] == other) {
-                        this.board[r][c] = me;
-                        r += rd;
-                        c += cd;
-                    }
-                }
+    private int flipPieces(int row, int col) {
+        int me = this.board.get(row, col);
+        int other = me == BitBoard.PLAYER_ONE ? BitBoard.PLAYER_TWO : BitBoard.PLAYER_ONE;
+        int flipped = this.board.flip(row, col, me);
+
+        if (this.undoable && this.undoFlipCount + flipped > this.undoFlips.length) {
+            this.undoFlips = Arrays.copyOf(this.undoFlips,
+                    Math.max(this.undoFlips.length * 2, this.undoFlipCount + flipped));
+        }
+
+        // swap each flipped disk's key in the hash, and remember it for undo
+        for (int i = 0; i < flipped; ++i) {
+            int square = this.board.getFlipped(i);
+            this.hash ^= this.keys.disk(other, square) ^ this.keys.disk(me, square);
+            if (this.undoable) {
+                this.undoFlips[this.undoFlipCount++] = square;
             }
         }
+        return flipped;
     }
 
     /**
@@ -157,24 +338,82 @@ public class Reversi {
             throw new ReversiException("Invalid row: " + row);
         } else if (col < 0 || col >= this.DIM) {
             throw new ReversiException("Invalid column: " + col);
-        } else if (this.board[row][col] != Move.NONE) {
+        } else if (!this.board.isEmpty(row, col)) {
             throw new ReversiException("Cell occupied: " + "(" + row + ", " + col + ")");
         } else {
-            if (!occupiedNeighbor(row, col)) {
+            // we relax the official rules here: any occupied neighbor will do
+            if (!this.board.isFrontier(row, col)) {
                 throw new ReversiException("No neighbor: " + "(" + row + ", " + col + ")");
             }
         }
 
+        // remember the move so it can be undone
+        if (this.undoable) {
+            if (this.undoDepth == this.undoMoves.length) {
+                this.undoMoves = Arrays.copyOf(this.undoMoves, this.undoDepth * 2);
+                this.undoFlipStart = Arrays.copyOf(this.undoFlipStart, this.undoDepth * 2);
+            }
+            this.undoMoves[this.undoDepth] = row * this.DIM + col;
+            this.undoFlipStart[this.undoDepth] = this.undoFlipCount;
+            ++this.undoDepth;
+        }
+
         // place piece on board
         ++this.numMoves;
-        this.board[row][col] = this.p1Turn ? Move.PLAYER_ONE : Move.PLAYER_TWO;
+        int player = this.p1Turn ? BitBoard.PLAYER_ONE : BitBoard.PLAYER_TWO;
+        this.board.set(row, col, player);
+        this.hash ^= this.keys.disk(player, row * this.DIM + col);
+
+        // flip opposite neighbors, and keep the disk count
+        int flipped = flipPieces(row, col);
+        this.p1Disks += this.p1Turn ? 1 + flipped : -flipped;
+
+        this.p1Turn = !this.p1Turn;
+        this.hash ^= this.keys.sideToMove();
+    }
 
-        // flip opposite neighbors
-        flipPieces(row, col);
+    /**
+     * Take back the last move made, restoring the board, the turn and the
+     * hash to what they were before it.
+     *
+     * @throws ReversiException if there is no move to take back
+     */
+    public void unmakeMove() throws ReversiException {
+        if (this.undoDepth == 0) {
+            throw new ReversiException("No move to undo");
+        }
+        --this.undoDepth;
+        int square = this.undoMoves[this.undoDepth];
+        int start = this.undoFlipStart[this.undoDepth];
 
+        // the player who made the move is the one whose turn it no longer is
         this.p1Turn = !this.p1Turn;
+        this.hash ^= this.keys.sideToMove();
+        int me = this.p1Turn ? BitBoard.PLAYER_ONE : BitBoard.PLAYER_TWO;
+        int other = this.p1Turn ? BitBoard.PLAYER_TWO : BitBoard.PLAYER_ONE;
+
+        // give the flipped disks back
+        for (int i = start; i < this.undoFlipCount; ++i) {
+            int flipped = this.undoFlips[i];
+            this.board.set(flipped, other);
+            this.hash ^= this.keys.disk(me, flipped) ^ this.keys.disk(other, flipped);
+        }
+        this.p1Disks -= this.p1Turn ? 1 + this.undoFlipCount - start : start - this.undoFlipCount;
+        this.undoFlipCount = start;
+
+        // and take the placed disk off the board
+        this.board.set(square, BitBoard.NONE);
+        this.hash ^= this.keys.disk(me, square);
+        --this.numMoves;
     }
 
+    /**
+     * Get how many moves can currently be taken back.
+     *
+     * @return the depth of the undo stack
+     */
+    public int getUndoDepth() { return this.undoDepth; }
+
     /**
      * Check to see if the game is over (board is filled)
      *
@@ -191,18 +430,12 @@ public class Reversi {
      * @return The winner.
      */
     public Move getWinner() {
-        // count the disks for each player
-        int p1Disks = 0;
-        int p2Disks = 0;
-        for (int row=0; row<this.DIM; ++row) {
-            for (int col=0; col<this.DIM; ++col) {
-                if (this.board[row][col] == Move.PLAYER_ONE) {
-                    ++p1Disks;
-                } else {
-                    ++p2Disks;
-                }
-            }
-        }
+        // count the disks for each player (any empty square counts for
+        // player two, as it did when the board was scanned cell by cell);
+        // the count is kept move by move, so this is free however big the
+        // board is
+        int p1Disks = this.p1Disks;
+        int p2Disks = this.DIM * this.DIM - p1Disks;
 
         // determine winner
         if (p1Disks == p2Disks) {
@@ -243,7 +476,7 @@ public class Reversi {
             builder.append(r);
             for(int c=0; c<this.DIM; ++c) {
                 builder.append('[');
-                builder.append(this.board[r][c].getSymbol());
+                builder.append(getContents(r, c).getSymbol());
                 builder.append(']');
             }
             builder.append('\n');
@@ -23,7 +23,13 @@ public interface ReversiProtocol {
      * understands the {@link ReversiProtocol protocol}.  The dimensions
      * of the board are sent in the request.<P>
      *
-     *  For example if there were 6 rows and 7 columns: CONNECT 6 7\n
+     *  For example if there were 6 rows and 7 columns: CONNECT 6 7\n<P>
+     *
+     *  A server that can speak the {@link BinaryProtocol} says so after the
+     *  dimension: CONNECT 6 BINARY\n<P>
+     *
+     *  A server that journals its games gives each connection a
+     *  {@link #SESSION} token before that: CONNECT 6 SESSION 5c1d0e9a27f3b4e8 BINARY\n
      */
     public static final String CONNECT = "CONNECT";
 
@@ -74,4 +80,67 @@ public interface ReversiProtocol {
      * client and the connection is terminated (as is the game).
      */
     public static final String ERROR = "ERROR";
+
+    /**
+     * Sent by a client in answer to a {@link #CONNECT} that offers it, to
+     * switch to the {@link BinaryProtocol}, and sent back by the server
+     * as the last text line before it switches.<P>
+     *
+     * For example: BINARY\n
+     */
+    public static final String BINARY = "BINARY";
+
+    /**
+     * Sent to the reversi.server by an admin client instead of playing, to ask
+     * for the server's metrics. The reply is the same word followed by
+     * name=value pairs, after which the client should hang up.<P>
+     *
+     * For example: STATS players=4 active_games=2 ...\n
+     */
+    public static final String STATS = "STATS";
+
+    /**
+     * Sent in the {@link #CONNECT} request, followed by a token in hex, by a
+     * reversi.server that journals its games.  If the reversi.server stops
+     * while the game that starts on this connection is being played, the
+     * client can get the game back with the token once the server is
+     * running again; see {@link #RESUME}.
+     */
+    public static final String SESSION = "SESSION";
+
+    /**
+     * Sent by a client in answer to a {@link #CONNECT}, with the
+     * {@link #SESSION} token of the connection its game started on, to
+     * carry on with that game after the reversi.server has restarted.  The
+     * reversi.server waits for the other player to come back too, then
+     * sends a {@link #MOVE_MADE} for every move already made, and play
+     * goes on.  A resumed game keeps the tokens it started with.  If
+     * there is no such game the reply is an {@link #ERROR}.<P>
+     *
+     * For example: RESUME 5c1d0e9a27f3b4e8\n
+     */
+    public static final String RESUME = "RESUME";
+
+    /**
+     * Sent by a client in answer to a {@link #CONNECT}, instead of playing,
+     * to watch a game being played: the game with the number given, or
+     * without one the newest.  The reversi.server answers with a
+     * {@link #BOARD} showing the game as it stands, then a
+     * {@link #MOVE_MADE} for every move, and at the end a
+     * {@link #GAME_WON}, {@link #GAME_LOST} or {@link #GAME_TIED} as player
+     * one would be told, or an {@link #ERROR}.  A spectator that falls too
+     * far behind is disconnected.<P>
+     *
+     * For example: WATCH 12\n
+     */
+    public static final String WATCH = "WATCH";
+
+    /**
+     * Sent by the reversi.server to a client that has asked to
+     * {@link #WATCH} a game: the dimension, then every square row by row
+     * with the symbols of {@link Reversi.Move}.<P>
+     *
+     * For example (on a 4 by 4 board): BOARD 4 .....OX..XO.....\n
+     */
+    public static final String BOARD = "BOARD";
 }
@@ -0,0 +1,96 @@
+package reversi;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Random keys for Zobrist hashing of {@link Reversi} positions.  The hash of
+ * a position is the XOR of one key for every disk on the board, plus one
+ * more when it is the second player's turn, so it can be kept up to date a
+ * disk at a time as moves are made.
+ * <P>
+ * The keys come from a fixed seed, so a position hashes the same way in
+ * every run of the program.  There is one shared set of keys per board size.
+ */
+public class Zobrist {
+    /** seed the keys are generated from */
+    private static final long SEED = 0x5EED_2E7E_251L;
+
+    /** the keys for every board size asked for so far */
+    private static final Map<Integer, Zobrist> KEYS = new ConcurrentHashMap<>();
+
+    /** key for a first player disk on each square */
+    private final long[] playerOne;
+    /** key for a second player disk on each square */
+    private final long[] playerTwo;
+    /** key included when it is the second player's turn */
+    private final long playerTwoToMove;
+
+    /**
+     * Generate the keys for a board size.
+     *
+     * @param DIM square dimension of board
+     */
+    private Zobrist(int DIM) {
+        SplittableRandom rng = new SplittableRandom(SEED ^ DIM);
+        this.playerOne = new long[DIM * DIM];
+        this.playerTwo = new long[DIM * DIM];
+        for (int sq = 0; sq < DIM * DIM; ++sq) {
+            this.playerOne[sq] = rng.nextLong();
+            this.playerTwo[sq] = rng.nextLong();
+        }
+        this.playerTwoToMove = rng.nextLong();
+    }
+
+    /**
+     * Get the keys for a board size.
+     *
+     * @param DIM square dimension of board
+     * @return the shared keys
+     */
+    public static Zobrist forDimension(int DIM) {
+        return KEYS.computeIfAbsent(DIM, Zobrist::new);
+    }
+
+    /**
+     * Get the key for a disk.
+     *
+     * @param player {@link BitBoard#PLAYER_ONE} or {@link BitBoard#PLAYER_TWO}
+     * @param square the square, as row * DIM + col
+     * @return the key
+     */
+    public long disk(int player, int square) {
+        return player == BitBoard.PLAYER_ONE ? this.playerOne[square] : this.playerTwo[square];
+    }
+
+    /**
+     * Get the key that is included when the second player is to move.
+     *
+     * @return the key
+     */
+    public long sideToMove() {
+        return this.playerTwoToMove;
+    }
+
+    /**
+     * Hash a whole board from scratch.
+     *
+     * @param board the discs on the board
+     * @param p1Turn whether it is the first player's turn
+     * @return the hash
+     */
+    public long hash(BitBoard board, boolean p1Turn) {
+        int DIM = board.getDimension();
+        long hash = p1Turn ? 0 : this.playerTwoToMove;
+        for (int row = 0; row < DIM; ++row) {
+            for (int col = 0; col < DIM; ++col) {
+                int player = board.get(row, col);
+                if (player != BitBoard.NONE) {
+                    hash ^= disk(player, row * DIM + col);
+                }
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,191 @@
+package reversi.bench;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+import reversi.bot.AlphaBetaSearch;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Measures how much garbage a game-tree search makes, as bytes allocated
+ * per million nodes.  A plain fixed-depth negamax is run twice over the
+ * same positions: once copying the {@link Reversi} at every node, and once
+ * making and unmaking moves on a single copy.  The full
+ * {@link AlphaBetaSearch} is measured as well.
+ * <P>
+ * Allocation is read from the HotSpot per-thread allocation counter, so
+ * this needs a HotSpot based JVM.
+ */
+public class AllocationBenchmark {
+    /** the HotSpot thread bean, which can report allocated bytes */
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /** nodes visited by the current measurement */
+    private static long nodes;
+
+    /**
+     * Negamax that copies the position for every child.
+     *
+     * @param game the position
+     * @param depth plies left to search
+     * @param moves a move buffer for each ply
+     * @return the disk difference for the player to move
+     * @throws ReversiException if a move is rejected
+     */
+    private static int copySearch(Reversi game, int depth, int[][] moves) throws ReversiException {
+        ++nodes;
+        if (depth == 0 || game.gameOver()) {
+            return diskDifference(game);
+        }
+        int DIM = game.getDimension();
+        int[] plyMoves = moves[depth];
+        int count = game.validMoves(plyMoves);
+        int best = Integer.MIN_VALUE;
+        for (int i = 0; i < count; ++i) {
+            Reversi child = new Reversi(game);
+            child.makeMove(plyMoves[i] / DIM, plyMoves[i] % DIM);
+            best = Math.max(best, -copySearch(child, depth - 1, moves));
+        }
+        return best;
+    }
+
+    /**
+     * Negamax that makes and unmakes moves on one position.
+     *
+     * @param game the position
+     * @param depth plies left to search
+     * @param moves a move buffer for each ply
+     * @return the disk difference for the player to move
+     * @throws ReversiException if a move is rejected
+     */
+    private static int undoSearch(Reversi game, int depth, int[][] moves) throws ReversiException {
+        ++nodes;
+        if (depth == 0 || game.gameOver()) {
+            return diskDifference(game);
+        }
+        int DIM = game.getDimension();
+        int[] plyMoves = moves[depth];
+        int count = game.validMoves(plyMoves);
+        int best = Integer.MIN_VALUE;
+        for (int i = 0; i < count; ++i) {
+            game.makeMove(plyMoves[i] / DIM, plyMoves[i] % DIM);
+            best = Math.max(best, -undoSearch(game, depth - 1, moves));
+            game.unmakeMove();
+        }
+        return best;
+    }
+
+    /**
+     * Score a position by disks alone.
+     *
+     * @param game the position
+     * @return the disk difference for the player to move
+     */
+    private static int diskDifference(Reversi game) {
+        int diff = game.countDisks(Reversi.Move.PLAYER_ONE) - game.countDisks(Reversi.Move.PLAYER_TWO);
+        return game.isP1Turn() ? diff : -diff;
+    }
+
+    /**
+     * Get the total number of collections so far over all collectors.
+     *
+     * @return the collection count
+     */
+    private static long gcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionCount());
+        }
+        return total;
+    }
+
+    /**
+     * Print one line of results.
+     *
+     * @param name what was measured
+     * @param bytes bytes allocated
+     * @param count nodes visited
+     * @param gcs collections that happened
+     * @param nanos time taken
+     */
+    private static void report(String name, long bytes, long count, long gcs, long nanos) {
+        System.out.printf("%-22s %,14d nodes %,16.0f bytes/million nodes %,6d GCs %,12.0f nodes/sec%n",
+                name, count, bytes * 1e6 / Math.max(count, 1), gcs, count * 1e9 / nanos);
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args the board dimension, the search depth and how many
+     *             positions to search
+     * @throws ReversiException if a move is rejected
+     */
+    public static void main(String[] args) throws ReversiException {
+        if (args.length != 3) {
+            System.out.println("Usage: java reversi.bench.AllocationBenchmark DIM depth positions");
+            System.exit(1);
+        }
+        int DIM = Integer.parseInt(args[0]);
+        int depth = Integer.parseInt(args[1]);
+        int positions = Integer.parseInt(args[2]);
+
+        // a fixed set of positions, each a few plies into a game
+        Reversi[] suite = new Reversi[positions];
+        Random rng = new Random(7);
+        int[] moves = new int[DIM * DIM];
+        for (int i = 0; i < positions; ++i) {
+            Reversi game = new Reversi(DIM);
+            for (int ply = 0; ply < 4 + i % 6 && !game.gameOver(); ++ply) {
+                int square = moves[rng.nextInt(game.validMoves(moves))];
+                game.makeMove(square / DIM, square % DIM);
+            }
+            suite[i] = game;
+        }
+        int[][] plyMoves = new int[depth + 1][DIM * DIM];
+        long thread = Thread.currentThread().getId();
+
+        for (int round = 0; round < 3; ++round) {
+            System.out.println("round " + round);
+
+            nodes = 0;
+            long bytes = THREADS.getThreadAllocatedBytes(thread);
+            long gcs = gcCount();
+            long start = System.nanoTime();
+            for (Reversi game : suite) {
+                copySearch(game, depth, plyMoves);
+            }
+            report("copy per node", THREADS.getThreadAllocatedBytes(thread) - bytes, nodes,
+                    gcCount() - gcs, System.nanoTime() - start);
+
+            nodes = 0;
+            Reversi[] copies = new Reversi[positions];
+            for (int i = 0; i < positions; ++i) {
+                copies[i] = new Reversi(suite[i]);
+            }
+            bytes = THREADS.getThreadAllocatedBytes(thread);
+            gcs = gcCount();
+            start = System.nanoTime();
+            for (Reversi game : copies) {
+                undoSearch(game, depth, plyMoves);
+            }
+            report("make/unmake", THREADS.getThreadAllocatedBytes(thread) - bytes, nodes,
+                    gcCount() - gcs, System.nanoTime() - start);
+
+            AlphaBetaSearch search = new AlphaBetaSearch(3_600_000L, depth);
+            search.search(suite[0]);
+            long searchNodes = 0;
+            bytes = THREADS.getThreadAllocatedBytes(thread);
+            gcs = gcCount();
+            start = System.nanoTime();
+            for (Reversi game : suite) {
+                search.search(game);
+                searchNodes += search.getNodes();
+            }
+            report("AlphaBetaSearch", THREADS.getThreadAllocatedBytes(thread) - bytes, searchNodes,
+                    gcCount() - gcs, System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package reversi.bench;
+
+import reversi.BitBoard;
+import reversi.Reversi;
+import reversi.ReversiException;
+
+import java.util.Random;
+
+/**
+ * Compares how many moves per second the bitboard based {@link Reversi} can
+ * make against the original array based implementation.  A set of random
+ * games is generated up front and then replayed on both implementations,
+ * so both do exactly the same work.
+ */
+public class BoardBenchmark {
+    /** how many times each implementation replays the game set */
+    private static final int ROUNDS = 10;
+
+    /**
+     * Generate a random game by always picking a random valid move.
+     *
+     * @param DIM square dimension of board
+     * @param rng the random number generator
+     * @return the moves of the game as square indices
+     */
+    private static int[] randomGame(int DIM, Random rng) {
+        BitBoard board = new BitBoard(DIM);
+        board.set(DIM/2-1, DIM/2-1, BitBoard.PLAYER_ONE);
+        board.set(DIM/2, DIM/2, BitBoard.PLAYER_ONE);
+        board.set(DIM/2-1, DIM/2, BitBoard.PLAYER_TWO);
+        board.set(DIM/2, DIM/2-1, BitBoard.PLAYER_TWO);
+
+        int[] game = new int[DIM * DIM - 4];
+        int[] moves = new int[DIM * DIM];
+        int player = BitBoard.PLAYER_ONE;
+        for (int i = 0; i < game.length; ++i) {
+            int n = board.legalMoves(moves);
+            int sq = moves[rng.nextInt(n)];
+            board.set(sq / DIM, sq % DIM, player);
+            board.flip(sq / DIM, sq % DIM, player);
+            game[i] = sq;
+            player = player == BitBoard.PLAYER_ONE ? BitBoard.PLAYER_TWO : BitBoard.PLAYER_ONE;
+        }
+        return game;
+    }
+
+    /**
+     * Replay every game on the bitboard implementation.
+     *
+     * @param DIM square dimension of board
+     * @param games the games to play
+     * @return a value derived from the final boards so the work is not
+     * optimized away
+     * @throws ReversiException if a move is rejected
+     */
+    private static int replayBitBoard(int DIM, int[][] games) throws ReversiException {
+        int check = 0;
+        for (int[] game : games) {
+            Reversi reversi = new Reversi(DIM);
+            for (int sq : game) {
+                reversi.makeMove(sq / DIM, sq % DIM);
+            }
+            check += reversi.getWinner().ordinal();
+        }
+        return check;
+    }
+
+    /**
+     * Replay every game on the array implementation.
+     *
+     * @param DIM square dimension of board
+     * @param games the games to play
+     * @return a value derived from the final boards so the work is not
+     * optimized away
+     * @throws ReversiException if a move is rejected
+     */
+    private static int replayArray(int DIM, int[][] games) throws ReversiException {
+        int check = 0;
+        for (int[] game : games) {
+            ArrayReversi reversi = new ArrayReversi(DIM);
+            for (int sq : game) {
+                reversi.makeMove(sq / DIM, sq % DIM);
+            }
+            check += reversi.getWinner().ordinal();
+        }
+        return check;
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args the board dimension and the number of games to replay
+     * @throws ReversiException if either implementation rejects a move
+     */
+    public static void main(String[] args) throws ReversiException {
+        if (args.length != 2) {
+            System.out.println("Usage: java reversi.bench.BoardBenchmark DIM games");
+            System.exit(1);
+        }
+        int DIM = Integer.parseInt(args[0]);
+        int numGames = Integer.parseInt(args[1]);
+
+        Random rng = new Random(42);
+        int[][] games = new int[numGames][];
+        for (int i = 0; i < numGames; ++i) {
+            games[i] = randomGame(DIM, rng);
+        }
+        long movesPerRound = (long) numGames * (DIM * DIM - 4);
+
+        // make sure both implementations agree before timing them
+        for (int[] game : games) {
+            Reversi bits = new Reversi(DIM);
+            ArrayReversi array = new ArrayReversi(DIM);
+            for (int sq : game) {
+                bits.makeMove(sq / DIM, sq % DIM);
+                array.makeMove(sq / DIM, sq % DIM);
+            }
+            if (!bits.toString().equals(array.toString())) {
+                throw new ReversiException("Implementations disagree:\n" + bits + '\n' + array);
+            }
+        }
+
+        for (int round = 0; round < ROUNDS; ++round) {
+            long start = System.nanoTime();
+            int arrayCheck = replayArray(DIM, games);
+            long arrayTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int bitCheck = replayBitBoard(DIM, games);
+            long bitTime = System.nanoTime() - start;
+
+            if (arrayCheck != bitCheck) {
+                throw new ReversiException("Implementations disagree on winners");
+            }
+            System.out.printf("round %2d: array %,12.0f moves/sec  bitboard %,12.0f moves/sec  (%.2fx)%n",
+                    round,
+                    movesPerRound * 1e9 / arrayTime,
+                    movesPerRound * 1e9 / bitTime,
+                    (double) arrayTime / bitTime);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package reversi.bench;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+import reversi.bot.AlphaBetaSearch;
+import reversi.bot.EndgameSolver;
+
+import java.util.Random;
+
+/**
+ * Measures the {@link EndgameSolver} on positions with 16 to 24 empty
+ * squares (or the range given).  For each empty count a suite of random
+ * positions is solved exactly, and the same positions are searched to the
+ * end by a plain {@link AlphaBetaSearch} with the solver turned off, for
+ * comparison.  Each position gets a time limit; positions that run out
+ * are counted rather than timed.
+ * <P>
+ * Under the relaxed rules nearly every empty square is a valid move, so
+ * the tree is much bushier than in standard Reversi and each extra empty
+ * square costs several times more.  On one core, 8x8 positions with more
+ * than about 16 empties do not finish within a minute with either search;
+ * give a smaller range, like 10 to 16, to compare them.
+ */
+public class EndgameBenchmark {
+    /** fewest empty squares measured when no range is given */
+    private static final int DEFAULT_MIN_EMPTIES = 16;
+    /** most empty squares measured when no range is given */
+    private static final int DEFAULT_MAX_EMPTIES = 24;
+    /** time limit per position when none is given, in seconds */
+    private static final int DEFAULT_LIMIT_SECONDS = 60;
+
+    /**
+     * Build a suite of positions by playing random games until only so
+     * many empty squares are left.
+     *
+     * @param DIM square dimension of board
+     * @param empties how many empty squares each position has
+     * @param count how many positions
+     * @return the positions
+     * @throws ReversiException if a move is rejected
+     */
+    private static Reversi[] suite(int DIM, int empties, int count) throws ReversiException {
+        Random rng = new Random(1000 + empties);
+        int[] moves = new int[DIM * DIM];
+        Reversi[] positions = new Reversi[count];
+        for (int i = 0; i < count; ++i) {
+            Reversi game = new Reversi(DIM);
+            while (DIM * DIM - game.getNumMoves() > empties) {
+                int square = moves[rng.nextInt(game.validMoves(moves))];
+                game.makeMove(square / DIM, square % DIM);
+            }
+            positions[i] = game;
+        }
+        return positions;
+    }
+
+    /**
+     * Print one line of results.
+     *
+     * @param name what was measured
+     * @param empties the empty count
+     * @param solved how many positions finished in time
+     * @param total how many positions there were
+     * @param nodes nodes visited by the finished positions
+     * @param nanos time taken by the finished positions
+     */
+    private static void report(String name, int empties, int solved, int total, long nodes, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%2d empties %-12s %3d/%-3d solved  %10.3f s/position  %,16d nodes  %,12.0f nodes/sec%n",
+                empties, name, solved, total, solved == 0 ? 0 : seconds / solved, nodes,
+                seconds == 0 ? 0 : nodes / seconds);
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args the board dimension, how many positions per empty count,
+     *             and optionally the smallest and largest empty counts and
+     *             the time limit per position in seconds
+     * @throws ReversiException if a move is rejected
+     */
+    public static void main(String[] args) throws ReversiException {
+        if (args.length != 2 && args.length != 4 && args.length != 5) {
+            System.out.println("Usage: java reversi.bench.EndgameBenchmark DIM positions " +
+                    "[minEmpties maxEmpties [limitSeconds]]");
+            System.exit(1);
+        }
+        int DIM = Integer.parseInt(args[0]);
+        int count = Integer.parseInt(args[1]);
+        int minEmpties = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MIN_EMPTIES;
+        int maxEmpties = args.length > 2 ? Integer.parseInt(args[3]) : DEFAULT_MAX_EMPTIES;
+        long limitNanos = (args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_LIMIT_SECONDS) *
+                1_000_000_000L;
+
+        EndgameSolver solver = new EndgameSolver();
+        for (int empties = minEmpties; empties <= maxEmpties; ++empties) {
+            Reversi[] positions = suite(DIM, empties, count);
+
+            int solved = 0;
+            long nodes = 0;
+            long nanos = 0;
+            for (Reversi position : positions) {
+                long start = System.nanoTime();
+                int move = solver.solve(position, start + limitNanos);
+                if (move >= 0) {
+                    ++solved;
+                    nodes += solver.getNodes();
+                    nanos += System.nanoTime() - start;
+                }
+            }
+            report("solver", empties, solved, count, nodes, nanos);
+
+            AlphaBetaSearch search = new AlphaBetaSearch(limitNanos / 1_000_000L, empties);
+            search.setEndgameThreshold(0);
+            solved = 0;
+            nodes = 0;
+            nanos = 0;
+            for (Reversi position : positions) {
+                long start = System.nanoTime();
+                search.search(position);
+                if (search.getDepthReached() == empties) {
+                    ++solved;
+                    nodes += search.getNodes();
+                    nanos += System.nanoTime() - start;
+                }
+            }
+            report("alpha-beta", empties, solved, count, nodes, nanos);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package reversi.bench;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+import reversi.record.GameRecord;
+import reversi.record.GameRecordReader;
+import reversi.record.GameRecordWriter;
+import reversi.record.PositionDatabase;
+import reversi.record.PositionDatabaseBuilder;
+import reversi.util.LatencyHistogram;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+
+/**
+ * Measures the {@link GameRecord} format and the {@link PositionDatabase}
+ * built from it, at the scale of millions of games.
+ * <ul>
+ *     <li>Recording: random games are written with a
+ *     {@link GameRecordWriter}.  Reported as games per second and bytes
+ *     per game.</li>
+ *     <li>Building: the records are read back and counted by a
+ *     {@link PositionDatabaseBuilder}, and the database written.
+ *     Reported as games per second, and the positions and size of the
+ *     database.</li>
+ *     <li>Querying: positions from the games, up to the plies the
+ *     database covers, are explored over and over.  Reported as the
+ *     time a query takes, its percentiles, and how many found moves,
+ *     which should be all of them.</li>
+ * </ul>
+ * The files go in a temporary directory, or the one given.
+ */
+public class ExplorerBenchmark {
+    /** positions kept to query */
+    private static final int SAMPLES = 20_000;
+    /** queries made */
+    private static final int QUERIES = 1_000_000;
+
+    /**
+     * Write random games.
+     *
+     * @param file the record file
+     * @param DIM square dimension of board
+     * @param games how many games
+     * @throws ReversiException if the file cannot be written or a valid
+     *                          move is rejected
+     */
+    private static void record(Path file, int DIM, int games) throws ReversiException {
+        SplittableRandom rng = new SplittableRandom(2017);
+        GameRecord record = new GameRecord(DIM);
+        int[] valid = new int[DIM * DIM];
+        try (GameRecordWriter writer = new GameRecordWriter(file)) {
+            for (int g = 0; g < games; ++g) {
+                Reversi game = new Reversi(DIM);
+                record.reset(DIM);
+                while (!game.gameOver()) {
+                    int square = valid[rng.nextInt(game.validMoves(valid))];
+                    game.makeMove(square / DIM, square % DIM);
+                    record.addMove(square / DIM, square % DIM);
+                }
+                record.setResult(game.getWinner(), false);
+                writer.write(record);
+            }
+        }
+    }
+
+    /**
+     * Take positions from the games to query.
+     *
+     * @param file the record file
+     * @param games how many games it has
+     * @param plies the plies the database covers
+     * @return the positions
+     * @throws ReversiException if the file cannot be read
+     * @throws IOException if the file cannot be closed
+     */
+    private static Reversi[] sample(Path file, int games, int plies) throws ReversiException, IOException {
+        SplittableRandom rng = new SplittableRandom(2018);
+        Reversi[] positions = new Reversi[Math.min(SAMPLES, games)];
+        int every = Math.max(1, games / positions.length);
+        GameRecord record = new GameRecord(0);
+        try (GameRecordReader reader = new GameRecordReader(file)) {
+            for (int g = 0, n = 0; n < positions.length && reader.next(record); ++g) {
+                if (g % every != 0) {
+                    continue;
+                }
+                int DIM = record.getDimension();
+                Reversi game = new Reversi(DIM);
+                int length = rng.nextInt(Math.min(plies, record.getMoveCount()));
+                for (int i = 0; i < length; ++i) {
+                    game.makeMove(record.getSquare(i) / DIM, record.getSquare(i) % DIM);
+                }
+                positions[n++] = new Reversi(game);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args the board dimension, how many games, how many plies of
+     *             each to put in the database and the directory for the
+     *             files, all optional
+     * @throws ReversiException if a valid move is rejected
+     * @throws IOException if the files cannot be written
+     */
+    public static void main(String[] args) throws ReversiException, IOException {
+        if (args.length > 4) {
+            System.out.println("Usage: java reversi.bench.ExplorerBenchmark [DIM [games [plies [dir]]]]");
+            System.exit(1);
+        }
+        int DIM = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+        int plies = args.length > 2 ? Integer.parseInt(args[2]) : 12;
+        Path dir = args.length > 3 ? Paths.get(args[3]) : Files.createTempDirectory("explorer");
+        Path records = dir.resolve("games.rec");
+        Path database = dir.resolve("games.pdb");
+        Files.deleteIfExists(records);
+
+        System.out.printf("%,d random games of %dx%d, %d plies of each in the database%n", games, DIM, DIM,
+                plies);
+        long start = System.nanoTime();
+        record(records, DIM, games);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("  recording: %,.0f games/s, %.1f bytes/game, %,d bytes%n", games / seconds,
+                (double) Files.size(records) / games, Files.size(records));
+
+        start = System.nanoTime();
+        PositionDatabaseBuilder builder = new PositionDatabaseBuilder(DIM, plies);
+        builder.addAll(records);
+        int positions = builder.write(database, 1);
+        seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("  building:  %,.0f games/s, %,d positions, %,d moves from them, %,d bytes%n",
+                games / seconds, positions, builder.getEntries(), Files.size(database));
+        builder = null;
+
+        PositionDatabase explorer = PositionDatabase.open(database);
+        Reversi[] sample = sample(records, games, plies);
+        LatencyHistogram latency = new LatencyHistogram();
+        long found = 0;
+        long moves = 0;
+        // warm up, then measure
+        for (int round = 0; round < 2; ++round) {
+            latency.reset();
+            found = 0;
+            moves = 0;
+            start = System.nanoTime();
+            for (int q = 0; q < QUERIES; ++q) {
+                Reversi position = sample[q % sample.length];
+                long asked = System.nanoTime();
+                PositionDatabase.MoveStats[] stats = explorer.explore(position);
+                latency.record(System.nanoTime() - asked);
+                if (stats.length > 0) {
+                    ++found;
+                    moves += stats.length;
+                }
+            }
+            seconds = (System.nanoTime() - start) / 1e9;
+        }
+        System.out.printf("  querying:  %,.0f queries/s, mean %.2f us, p50 %.2f us, p99 %.2f us, " +
+                        "max %.2f us%n", QUERIES / seconds, latency.getMean() / 1000,
+                latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(99) / 1000.0,
+                latency.getMax() / 1000.0);
+        System.out.printf("             %,d of %,d found, %.1f moves each%n", found, QUERIES,
+                found == 0 ? 0.0 : (double) moves / found);
+    }
+}
@@ -0,0 +1,148 @@
+package reversi.bench;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+import reversi.server.GameJournal;
+import reversi.server.RecoveredGame;
+import reversi.util.LatencyHistogram;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the {@link GameJournal} the way a busy server uses it, then
+ * how long it takes to recover from a crash.
+ * <ul>
+ *     <li>Writing: a number of threads, standing in for game threads,
+ *     start games and journal random valid moves, stopping each game at a
+ *     random point so that none of them finish.  Reported as records and
+ *     bytes per second, how many records each force to disk covered, and
+ *     how long a game thread spent handing over each move.</li>
+ *     <li>Recovery: half a record is left at the end of the file, as a
+ *     crash in the middle of a write would, and the journal is opened
+ *     again, replaying every game.  Reported as the time to open it and
+ *     the games and moves recovered, which must be all of them.</li>
+ * </ul>
+ * The journal goes in a temporary directory, or the one given, which
+ * should be on the disk the server would use.
+ */
+public class JournalBenchmark {
+    /**
+     * Journal a share of the games.
+     *
+     * @param journal the journal
+     * @param DIM square dimension of board
+     * @param games how many games to journal
+     * @param seed seed for the moves
+     * @param handOver where to record how long each move took to journal
+     * @param moves counts the moves journaled
+     * @throws ReversiException if a move the board said was valid is not
+     */
+    private static void play(GameJournal journal, int DIM, int games, long seed,
+                             LatencyHistogram handOver, AtomicLong moves) throws ReversiException {
+        Random rng = new Random(seed);
+        int[] valid = new int[DIM * DIM];
+        long made = 0;
+        for (int g = 0; g < games; ++g) {
+            Reversi board = new Reversi(DIM);
+            long id = journal.start(DIM, GameJournal.newSession(), GameJournal.newSession());
+            // stop short of the end, as a game cut off by a crash would
+            int length = rng.nextInt(DIM * DIM - board.getNumMoves());
+            for (int m = 0; m < length; ++m) {
+                int move = valid[rng.nextInt(board.validMoves(valid))];
+                board.makeMove(move / DIM, move % DIM);
+                long start = System.nanoTime();
+                journal.move(id, move / DIM, move % DIM);
+                handOver.record(System.nanoTime() - start);
+            }
+            made += length;
+        }
+        moves.addAndGet(made);
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args the board dimension, how many games, how many threads
+     *             and the directory to put the journal in, all optional
+     * @throws Exception if the journal cannot be written or read
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 4) {
+            System.out.println("Usage: java reversi.bench.JournalBenchmark [DIM [games [threads [dir]]]]");
+            System.exit(1);
+        }
+        int DIM = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        Path directory = args.length > 3 ? Path.of(args[3]) : Files.createTempDirectory("journal");
+        Path file = directory.resolve("bench.journal");
+        Files.deleteIfExists(file);
+
+        LatencyHistogram handOver = new LatencyHistogram();
+        AtomicLong moves = new AtomicLong();
+        long records;
+        long bytes;
+        long batches;
+        long start = System.nanoTime();
+        try (GameJournal journal = new GameJournal(file)) {
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; ++t) {
+                int share = games / threads + (t < games % threads ? 1 : 0);
+                long seed = t;
+                workers[t] = new Thread(() -> {
+                    try {
+                        play(journal, DIM, share, seed, handOver, moves);
+                    } catch (ReversiException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            journal.sync();
+            records = journal.getRecords();
+            bytes = journal.getBytes();
+            batches = journal.getBatches();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("wrote %,d games, %,d moves on %d threads in %.2f s%n", games, moves.get(),
+                threads, seconds);
+        System.out.printf("  %,.0f records/s, %,.1f MB/s, %,d forces, %,.0f records per force%n",
+                records / seconds, bytes / seconds / 1e6, batches, (double) records / Math.max(1, batches));
+        System.out.printf("  move hand-over p50 %,d ns  p99 %,d ns  p99.9 %,d ns  max %,d ns%n",
+                handOver.getValueAtPercentile(50), handOver.getValueAtPercentile(99),
+                handOver.getValueAtPercentile(99.9), handOver.getMax());
+
+        // a crash part way through a write
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[] {2, 0, 0, 0, 0, 0, 0, 0, 1, 0}));
+        }
+        long size = Files.size(file);
+
+        start = System.nanoTime();
+        try (GameJournal journal = new GameJournal(file)) {
+            double millis = (System.nanoTime() - start) / 1e6;
+            long recoveredMoves = 0;
+            for (RecoveredGame game : journal.getRecovered()) {
+                recoveredMoves += game.getMoveCount();
+            }
+            System.out.printf("recovered %,d games, %,d moves from %,.1f MB in %,.0f ms (%,d bytes left out)%n",
+                    journal.getRecovered().size(), recoveredMoves, size / 1e6, millis, journal.getDropped());
+            if (journal.getRecovered().size() != games || recoveredMoves != moves.get()) {
+                System.out.println("  MISMATCH: expected every game and move back");
+            }
+        }
+        Files.deleteIfExists(file);
+        if (args.length < 4) {
+            Files.deleteIfExists(directory);
+        }
+    }
+}
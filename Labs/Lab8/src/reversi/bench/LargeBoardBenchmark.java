@@ -0,0 +1,111 @@
+package reversi.bench;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+
+import java.util.SplittableRandom;
+
+/**
+ * Measures what it costs a server to host many games on a large board at
+ * once.  The games are played side by side, a random move in each in
+ * turn, checking {@link Reversi#gameOver()} after every move as the server
+ * does, and then every game is scored with {@link Reversi#getWinner()}.
+ * This is done twice, with games that keep no undo stack, as the server's
+ * do, and with games that do, as a search's do.
+ * Reported as moves per second, the time to score a game, and the heap
+ * each game holds once its moves are made.
+ */
+public class LargeBoardBenchmark {
+    /** times every game is scored */
+    private static final int SCORINGS = 100;
+
+    /**
+     * Get the heap in use, after collecting what can be.
+     *
+     * @return the bytes in use
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Host the games and report on them.
+     *
+     * @param DIM square dimension of board
+     * @param count how many games
+     * @param moves how many moves to make in each
+     * @param undoable whether the games keep an undo stack
+     * @throws ReversiException if a valid move is rejected
+     */
+    private static void host(int DIM, int count, int moves, boolean undoable) throws ReversiException {
+        SplittableRandom rng = new SplittableRandom(2017);
+        long before = usedHeap();
+        Reversi[] games = new Reversi[count];
+        for (int g = 0; g < count; ++g) {
+            games[g] = new Reversi(DIM, undoable);
+        }
+
+        long over = 0;
+        long start = System.nanoTime();
+        for (int m = 0; m < moves; ++m) {
+            for (Reversi game : games) {
+                if (game.gameOver()) {
+                    continue;
+                }
+                int square = game.nextValidMove(rng.nextInt(DIM * DIM));
+                if (square < 0) {
+                    square = game.nextValidMove(0);
+                }
+                game.makeMove(square / DIM, square % DIM);
+                if (game.gameOver()) {
+                    ++over;
+                }
+            }
+        }
+        double moveSeconds = (System.nanoTime() - start) / 1e9;
+
+        long winners = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < SCORINGS; ++i) {
+            for (Reversi game : games) {
+                if (game.getWinner() == Reversi.Move.PLAYER_ONE) {
+                    ++winners;
+                }
+            }
+        }
+        double scoreNanos = (double) (System.nanoTime() - start) / SCORINGS / count;
+
+        long held = usedHeap() - before;
+        System.out.printf("  %-8s %,12.0f moves/s  getWinner %,10.1f ns  %,12d bytes/game  (%d over, %d)%n",
+                undoable ? "undo" : "no undo", (double) count * moves / moveSeconds, scoreNanos,
+                held / count, over, winners);
+        // keep the games reachable until they are measured
+        games[0].getNumMoves();
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args the board dimension, how many games and how many moves
+     *             in each, all optional
+     * @throws ReversiException if a valid move is rejected
+     */
+    public static void main(String[] args) throws ReversiException {
+        if (args.length > 3) {
+            System.out.println("Usage: java reversi.bench.LargeBoardBenchmark [DIM [games [moves]]]");
+            System.exit(1);
+        }
+        int DIM = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int moves = args.length > 2 ? Integer.parseInt(args[2]) : 4000;
+        System.out.printf("%,d games of %dx%d, %,d random moves each%n", count, DIM, DIM, moves);
+        for (int round = 0; round < 2; ++round) {
+            host(DIM, count, moves, false);
+            host(DIM, count, moves, true);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package reversi.bench;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+import reversi2.Board;
+
+import java.util.Random;
+
+/**
+ * Measures how fast the valid moves can be found as a game goes on, the
+ * three ways the code asks for them:
+ * <ul>
+ *     <li>scan: a client's {@link Board} asked {@link Board#isValidMove}
+ *     for every square after every move, as the GUI does each time it
+ *     redraws;</li>
+ *     <li>list: {@link Reversi#validMoves} after every move, as a bot or
+ *     the server does;</li>
+ *     <li>search: a move made, the replies listed and the move taken back,
+ *     for every valid move of every position, as a search does.</li>
+ * </ul>
+ * Reported as positions per second for the first two and moves per
+ * second for the third, on random games generated up front.
+ */
+public class LegalMoveBenchmark {
+    /** how many times each measurement is repeated */
+    private static final int ROUNDS = 5;
+
+    /**
+     * Generate random games.
+     *
+     * @param DIM square dimension of board
+     * @param count how many games
+     * @return the moves of each game, as squares
+     * @throws ReversiException if a valid move is rejected
+     */
+    private static int[][] randomGames(int DIM, int count) throws ReversiException {
+        Random rng = new Random(2017);
+        int[][] games = new int[count][];
+        int[] moves = new int[DIM * DIM];
+        for (int g = 0; g < count; ++g) {
+            Reversi game = new Reversi(DIM);
+            games[g] = new int[DIM * DIM - game.getNumMoves()];
+            for (int i = 0; i < games[g].length; ++i) {
+                int square = moves[rng.nextInt(game.validMoves(moves))];
+                game.makeMove(square / DIM, square % DIM);
+                games[g][i] = square;
+            }
+        }
+        return games;
+    }
+
+    /**
+     * Play the games on client boards, scanning every square for valid
+     * moves after each move.
+     *
+     * @param DIM square dimension of board
+     * @param games the games
+     * @return how many valid moves were seen, so the work is not optimized
+     * away
+     * @throws ReversiException if the board cannot be made
+     */
+    private static long scan(int DIM, int[][] games) throws ReversiException {
+        long seen = 0;
+        for (int[] moves : games) {
+            Board board = new Board();
+            board.allocate(DIM);
+            board.initializeGame();
+            for (int square : moves) {
+                board.moveMade(square / DIM, square % DIM);
+                for (int row = 0; row < DIM; ++row) {
+                    for (int col = 0; col < DIM; ++col) {
+                        if (board.isValidMove(row, col)) {
+                            ++seen;
+                        }
+                    }
+                }
+            }
+        }
+        return seen;
+    }
+
+    /**
+     * Play the games, listing the valid moves after each move.
+     *
+     * @param DIM square dimension of board
+     * @param games the games
+     * @return how many valid moves were listed
+     * @throws ReversiException if a move is rejected
+     */
+    private static long list(int DIM, int[][] games) throws ReversiException {
+        long seen = 0;
+        int[] valid = new int[DIM * DIM];
+        for (int[] moves : games) {
+            Reversi game = new Reversi(DIM);
+            for (int square : moves) {
+                game.makeMove(square / DIM, square % DIM);
+                seen += game.validMoves(valid);
+            }
+        }
+        return seen;
+    }
+
+    /**
+     * Play the games, and at every position try each valid move, list the
+     * replies and take it back.
+     *
+     * @param DIM square dimension of board
+     * @param games the games
+     * @return how many replies were listed
+     * @throws ReversiException if a move is rejected
+     */
+    private static long search(int DIM, int[][] games) throws ReversiException {
+        long seen = 0;
+        int[] valid = new int[DIM * DIM];
+        int[] replies = new int[DIM * DIM];
+        for (int[] moves : games) {
+            Reversi game = new Reversi(DIM);
+            for (int square : moves) {
+                int count = game.validMoves(valid);
+                for (int i = 0; i < count; ++i) {
+                    game.makeMove(valid[i] / DIM, valid[i] % DIM);
+                    seen += game.validMoves(replies);
+                    game.unmakeMove();
+                }
+                game.makeMove(square / DIM, square % DIM);
+            }
+        }
+        return seen;
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args the board dimension and how many games
+     * @throws ReversiException if a move is rejected
+     */
+    public static void main(String[] args) throws ReversiException {
+        if (args.length != 2) {
+            System.out.println("Usage: java reversi.bench.LegalMoveBenchmark DIM games");
+            System.exit(1);
+        }
+        int DIM = Integer.parseInt(args[0]);
+        int[][] games = randomGames(DIM, Integer.parseInt(args[1]));
+        long positions = (long) games.length * games[0].length;
+
+        for (int round = 0; round < ROUNDS; ++round) {
+            long start = System.nanoTime();
+            long scanned = scan(DIM, games);
+            double scanSeconds = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            long listed = list(DIM, games);
+            double listSeconds = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            long replies = search(DIM, games);
+            double searchSeconds = (System.nanoTime() - start) / 1e9;
+            if (scanned != listed) {
+                throw new IllegalStateException("Scan found " + scanned + " moves but the list " + listed);
+            }
+            System.out.printf("round %d: scan %,12.0f positions/s  list %,12.0f positions/s  " +
+                            "search %,12.0f moves/s%n", round, positions / scanSeconds, positions / listSeconds,
+                    listed / searchSeconds);
+        }
+    }
+}
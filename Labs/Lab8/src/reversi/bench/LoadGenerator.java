@@ -0,0 +1,294 @@
+package reversi.bench;
+
+import reversi.server.ReversiNioServer;
+import reversi.server.ReversiServer;
+import reversi.util.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A headless load test for {@link ReversiServer} (or
+ * {@link ReversiNioServer}), speaking the real text protocol.  Simulated
+ * players, all driven by {@link SelectorClients} on one thread, play
+ * random valid moves.
+ * <p>
+ * There are two ways to apply load.
+ * <ul>
+ *     <li>Closed loop (the default): keep a number of players connected,
+ *     replacing each one as its game ends.  The number follows a ramp-up
+ *     schedule of stages, each a target and how many seconds to move to
+ *     it in a straight line, and is then held for a while.  With
+ *     {@code --ramp 100:10,1000:20 --duration 30} the players go from
+ *     none to 100 over 10 seconds, then to 1,000 over 20, then stay at
+ *     1,000 for 30 more.</li>
+ *     <li>Open loop ({@code --rate}): start new games at a fixed rate for
+ *     a while, however the server is coping.  Connections are opened on a
+ *     fixed timetable, and late ones are opened as soon as the generator
+ *     catches up, so a slow server cannot slow the arrivals and hide its
+ *     own latency.</li>
+ * </ul>
+ * Every second a progress line is printed.  At the end come the
+ * connection setup time and move round-trip time (send {@code MOVE},
+ * receive its {@code MOVE_MADE}) at the 50th, 99th and 99.9th
+ * percentiles, and the games finished per second.
+ * <p>
+ * The server has to play many games at once for this to mean anything,
+ * for instance {@code java ReversiServer 8 5555 1000}.
+ */
+public class LoadGenerator {
+    /** how long to wait for games still in play once the load stops */
+    private static final long DRAIN_MILLIS = 30_000L;
+    /** how long the games in play may go without a move before giving up on them */
+    private static final long STALL_NANOS = 1_000_000_000L;
+
+    /**
+     * One stage of a ramp-up schedule.
+     */
+    private static class Stage {
+        /** how many players to have at the end of the stage */
+        final int clients;
+        /** how long the stage lasts */
+        final long nanos;
+
+        /**
+         * Create a stage.
+         *
+         * @param clients how many players to have at the end of the stage
+         * @param seconds how long the stage lasts
+         */
+        Stage(int clients, double seconds) {
+            this.clients = clients;
+            this.nanos = (long) (seconds * 1e9);
+        }
+    }
+
+    /**
+     * Parse a ramp-up schedule such as {@code 100:10,1000:20}.
+     *
+     * @param schedule the schedule
+     * @return the stages
+     */
+    private static List<Stage> parseSchedule(String schedule) {
+        List<Stage> stages = new ArrayList<>();
+        for (String stage : schedule.split(",")) {
+            String[] parts = stage.split(":");
+            stages.add(new Stage(Integer.parseInt(parts[0]),
+                    parts.length > 1 ? Double.parseDouble(parts[1]) : 0));
+        }
+        return stages;
+    }
+
+    /**
+     * Work out how many players the schedule wants at a given time.
+     *
+     * @param stages the schedule
+     * @param elapsed nanoseconds since the start
+     * @return the number of players; after the last stage, its target
+     */
+    private static int target(List<Stage> stages, long elapsed) {
+        int from = 0;
+        for (Stage stage : stages) {
+            if (elapsed < stage.nanos) {
+                return from + (int) ((stage.clients - from) * (double) elapsed / stage.nanos);
+            }
+            elapsed -= stage.nanos;
+            from = stage.clients;
+        }
+        return from;
+    }
+
+    /**
+     * Print a progress line.
+     *
+     * @param clients the players
+     * @param seconds seconds since the start
+     * @param lastFinished players finished at the last progress line
+     * @param lastMoves moves sent at the last progress line
+     */
+    private static void progress(SelectorClients clients, double seconds, int lastFinished, long lastMoves) {
+        System.out.printf("%6.1fs  %,7d open  %,7d connecting  %,8.1f games/s  %,9d moves/s  %,d failed%n",
+                seconds, clients.getOpen(), clients.getPending(),
+                (clients.getFinished() - lastFinished) / 2.0, clients.getMoves() - lastMoves,
+                clients.getFailed());
+    }
+
+    /**
+     * Keep players connected according to a ramp-up schedule, then hold.
+     *
+     * @param clients the players
+     * @param address the server
+     * @param stages the ramp-up schedule
+     * @param holdNanos how long to hold the last stage's target
+     * @throws IOException if a connection cannot be opened
+     */
+    private static void closedLoop(SelectorClients clients, InetSocketAddress address, List<Stage> stages,
+                                   long holdNanos) throws IOException {
+        long start = System.nanoTime();
+        long total = holdNanos;
+        for (Stage stage : stages) {
+            total += stage.nanos;
+        }
+        long nextReport = start + 1_000_000_000L;
+        int lastFinished = 0;
+        long lastMoves = 0;
+        long now;
+        while ((now = System.nanoTime()) - start < total) {
+            int target = target(stages, now - start);
+            while (clients.getOpen() < target && clients.getPending() < SelectorClients.MAX_PENDING) {
+                clients.open(address);
+            }
+            clients.poll(1);
+            if (now >= nextReport) {
+                progress(clients, (now - start) / 1e9, lastFinished, lastMoves);
+                lastFinished = clients.getFinished();
+                lastMoves = clients.getMoves();
+                nextReport += 1_000_000_000L;
+            }
+        }
+    }
+
+    /**
+     * Start games at a fixed rate, whatever the server is doing.
+     *
+     * @param clients the players
+     * @param address the server
+     * @param gamesPerSecond how many games to start each second
+     * @param durationNanos how long to keep starting them
+     * @throws IOException if a connection cannot be opened
+     */
+    private static void openLoop(SelectorClients clients, InetSocketAddress address, double gamesPerSecond,
+                                 long durationNanos) throws IOException {
+        // two players to a game
+        double interval = 1e9 / (2 * gamesPerSecond);
+        long start = System.nanoTime();
+        long nextReport = start + 1_000_000_000L;
+        int lastFinished = 0;
+        long lastMoves = 0;
+        long arrivals = 0;
+        long maxLate = 0;
+        long now;
+        while ((now = System.nanoTime()) - start < durationNanos) {
+            // open everyone who is due, however far behind we are
+            while (start + (long) (arrivals * interval) <= now) {
+                maxLate = Math.max(maxLate, now - (start + (long) (arrivals * interval)));
+                clients.open(address);
+                ++arrivals;
+            }
+            long untilNext = start + (long) (arrivals * interval) - System.nanoTime();
+            clients.poll(untilNext >= 1_000_000L ? untilNext / 1_000_000L : 0);
+            if (now >= nextReport) {
+                progress(clients, (now - start) / 1e9, lastFinished, lastMoves);
+                lastFinished = clients.getFinished();
+                lastMoves = clients.getMoves();
+                nextReport += 1_000_000_000L;
+            }
+        }
+        System.out.printf("opened %,d players; the latest was %,.1f ms behind its time%n",
+                arrivals, maxLate / 1e6);
+    }
+
+    /**
+     * Print the usage message and quit.
+     */
+    private static void usage() {
+        System.out.println("Usage: java reversi.bench.LoadGenerator host port [options]");
+        System.out.println("  --clients N        closed loop with N players (default 100)");
+        System.out.println("  --ramp SCHEDULE    closed loop ramp-up, clients:seconds,... (default N:0)");
+        System.out.println("  --rate R           open loop, starting R games per second");
+        System.out.println("  --duration S       seconds to hold the load, or to keep starting games (default 30)");
+        System.out.println("  --seed S           seed for the random moves");
+        System.exit(1);
+    }
+
+    /**
+     * Run a load test.
+     *
+     * @param args the server host and port, then the options
+     * @throws IOException if the players cannot connect
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            usage();
+        }
+        InetSocketAddress address = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
+        String schedule = "100:0";
+        double rate = 0;
+        double duration = 30;
+        long seed = System.nanoTime();
+        for (int i = 2; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                usage();
+            }
+            switch (args[i]) {
+                case "--clients":
+                    schedule = args[i + 1] + ":0";
+                    break;
+                case "--ramp":
+                    schedule = args[i + 1];
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--duration":
+                    duration = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                default:
+                    usage();
+            }
+        }
+
+        try (SelectorClients clients = new SelectorClients(seed)) {
+            long start = System.nanoTime();
+            if (rate > 0) {
+                openLoop(clients, address, rate, (long) (duration * 1e9));
+            } else {
+                closedLoop(clients, address, parseSchedule(schedule), (long) (duration * 1e9));
+            }
+            // let the games in play finish, so their moves count, but stop
+            // once nothing moves: a player left without an opponent never will
+            long loadSeconds = System.nanoTime() - start;
+            long deadline = System.nanoTime() + DRAIN_MILLIS * 1_000_000L;
+            long lastProgress = System.nanoTime();
+            long progress = 0;
+            long now;
+            while (clients.getOpen() > 0 && (now = System.nanoTime()) < deadline &&
+                    now - lastProgress < STALL_NANOS) {
+                clients.poll(10);
+                long moved = clients.getMoves() + clients.getFinished() + clients.getFailed();
+                if (moved != progress) {
+                    progress = moved;
+                    lastProgress = now;
+                }
+            }
+            double seconds = (lastProgress - start) / 1e9;
+
+            System.out.println();
+            System.out.printf("load for %.1f s, games in play finished %.1f s later%n",
+                    loadSeconds / 1e9, seconds - loadSeconds / 1e9);
+            System.out.printf("players: %,d connected, %,d finished, %,d failed, %,d abandoned%n",
+                    clients.getConnected(), clients.getFinished(), clients.getFailed(), clients.getOpen());
+            System.out.printf("games:   %,.1f per second, %,.0f moves per second%n",
+                    clients.getFinished() / 2.0 / seconds, clients.getMoves() / seconds);
+            report("setup", clients.getSetupLatency());
+            report("move round trip", clients.getMoveLatency());
+        }
+    }
+
+    /**
+     * Print a latency summary.
+     *
+     * @param name what was measured
+     * @param histogram the latencies, in nanoseconds
+     */
+    private static void report(String name, LatencyHistogram histogram) {
+        System.out.printf("%-16s p50 %8.3f ms  p99 %8.3f ms  p99.9 %8.3f ms  max %8.3f ms  (%,d samples)%n",
+                name, histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(99) / 1e6,
+                histogram.getValueAtPercentile(99.9) / 1e6, histogram.getMax() / 1e6, histogram.getCount());
+    }
+}
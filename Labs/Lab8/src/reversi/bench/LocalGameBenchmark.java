@@ -0,0 +1,175 @@
+package reversi.bench;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+import reversi.bot.RandomBot;
+import reversi.server.LocalPlayer;
+import reversi.server.ReversiGame;
+import reversi.server.ServerMetrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Plays games between {@link RandomBot}s through {@link ReversiGame} with
+ * {@link LocalPlayer}s, the whole server game loop with no network, on a
+ * number of threads at once.  The same bots then play the same number of
+ * games on bare boards, with nothing between them, and the difference is
+ * what the game loop costs a move.
+ * <p>
+ * Reported: games per second and per minute both ways, moves per second,
+ * and how the games ended, which should be the same both ways since the
+ * bots are seeded alike.
+ */
+public class LocalGameBenchmark {
+    /**
+     * What one run counted.
+     */
+    private static class Tally {
+        /** games won by player one */
+        final LongAdder oneWon = new LongAdder();
+        /** games won by player two */
+        final LongAdder twoWon = new LongAdder();
+        /** games tied */
+        final LongAdder tied = new LongAdder();
+        /** games that ended in an error */
+        final LongAdder errors = new LongAdder();
+    }
+
+    /**
+     * Play games through the server game loop.
+     *
+     * @param DIM square dimension of board
+     * @param games how many games
+     * @param seed seed for the bots
+     * @param metrics the metrics the games count their moves in
+     * @param tally where to count the results
+     */
+    private static void served(int DIM, int games, long seed, ServerMetrics metrics, Tally tally) {
+        LocalPlayer one = new LocalPlayer(DIM, new RandomBot(seed));
+        LocalPlayer two = new LocalPlayer(DIM, new RandomBot(seed + 1));
+        for (int g = 0; g < games; ++g) {
+            one.reset();
+            two.reset();
+            new ReversiGame(DIM, one, two, metrics).run();
+            switch (one.getOutcome()) {
+                case WON:
+                    tally.oneWon.increment();
+                    break;
+                case LOST:
+                    tally.twoWon.increment();
+                    break;
+                case TIED:
+                    tally.tied.increment();
+                    break;
+                default:
+                    tally.errors.increment();
+            }
+        }
+    }
+
+    /**
+     * Play games on bare boards.
+     *
+     * @param DIM square dimension of board
+     * @param games how many games
+     * @param seed seed for the bots
+     * @param tally where to count the results
+     */
+    private static void bare(int DIM, int games, long seed, Tally tally) {
+        RandomBot one = new RandomBot(seed);
+        RandomBot two = new RandomBot(seed + 1);
+        for (int g = 0; g < games; ++g) {
+            try {
+                Reversi game = new Reversi(DIM);
+                while (!game.gameOver()) {
+                    int[] move = (game.isP1Turn() ? one : two).chooseMove(game);
+                    game.makeMove(move[0], move[1]);
+                }
+                switch (game.getWinner()) {
+                    case PLAYER_ONE:
+                        tally.oneWon.increment();
+                        break;
+                    case PLAYER_TWO:
+                        tally.twoWon.increment();
+                        break;
+                    default:
+                        tally.tied.increment();
+                }
+            } catch (ReversiException e) {
+                tally.errors.increment();
+            }
+        }
+    }
+
+    /**
+     * Play the games on a number of threads and report.
+     *
+     * @param name what is being run
+     * @param DIM square dimension of board
+     * @param games how many games in all
+     * @param threads how many threads
+     * @param served whether to play through the game loop
+     * @return seconds taken
+     * @throws InterruptedException if interrupted
+     */
+    private static double run(String name, int DIM, int games, int threads, boolean served)
+            throws InterruptedException {
+        Tally tally = new Tally();
+        ServerMetrics metrics = new ServerMetrics();
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; ++t) {
+            int share = games / threads + (t < games % threads ? 1 : 0);
+            long seed = 2L * t;
+            workers[t] = new Thread(() -> {
+                if (served) {
+                    served(DIM, share, seed, metrics, tally);
+                } else {
+                    bare(DIM, share, seed, tally);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (name != null) {
+            System.out.printf("  %-6s %,10.0f games/s  %,12.0f games/min", name, games / seconds,
+                    games / seconds * 60);
+            if (served) {
+                System.out.printf("  %,12.0f moves/s", metrics.getMoves() / seconds);
+            }
+            System.out.printf("   one %,d  two %,d  tied %,d  errors %,d%n", tally.oneWon.sum(),
+                    tally.twoWon.sum(), tally.tied.sum(), tally.errors.sum());
+        }
+        return seconds;
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args the board dimension, how many games and how many
+     *             threads, all optional
+     * @throws InterruptedException if interrupted
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 3) {
+            System.out.println("Usage: java reversi.bench.LocalGameBenchmark [DIM [games [threads]]]");
+            System.exit(1);
+        }
+        int DIM = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 500_000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) :
+                Runtime.getRuntime().availableProcessors();
+
+        // warm up both ways first
+        run(null, DIM, games / 10, threads, true);
+        run(null, DIM, games / 10, threads, false);
+        System.out.printf("%,d games of %dx%d on %d threads%n", games, DIM, DIM, threads);
+        double served = run("game", DIM, games, threads, true);
+        double bare = run("bare", DIM, games, threads, false);
+        long moves = (long) games * (DIM * DIM - 4);
+        System.out.printf("  the game loop costs %,.0f ns a move%n", (served - bare) * 1e9 * threads / moves);
+    }
+}
@@ -0,0 +1,91 @@
+package reversi.bench;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+import reversi.bot.ParallelSearch;
+
+import java.util.Random;
+
+/**
+ * Measures how {@link ParallelSearch} scales with threads.  A fixed suite
+ * of positions is searched to a fixed depth with 1, 2, 4, 8 and 16 threads
+ * (or the thread counts given), and the time to reach that depth is
+ * compared against one thread.
+ */
+public class ParallelBenchmark {
+    /** thread counts used when none are given */
+    private static final int[] DEFAULT_THREADS = {1, 2, 4, 8, 16};
+    /** transposition table size for each run */
+    private static final int TABLE_ENTRIES = 1 << 22;
+    /** a time budget long enough never to run out */
+    private static final long NO_TIME_LIMIT = 3_600_000L;
+
+    /**
+     * Build the position suite: positions a few random plies into games.
+     *
+     * @param DIM square dimension of board
+     * @param count how many positions
+     * @return the positions
+     * @throws ReversiException if a move is rejected
+     */
+    private static Reversi[] suite(int DIM, int count) throws ReversiException {
+        Random rng = new Random(2017);
+        int[] moves = new int[DIM * DIM];
+        Reversi[] positions = new Reversi[count];
+        for (int i = 0; i < count; ++i) {
+            Reversi game = new Reversi(DIM);
+            for (int ply = 0; ply < 6 + i % 10 && !game.gameOver(); ++ply) {
+                int square = moves[rng.nextInt(game.validMoves(moves))];
+                game.makeMove(square / DIM, square % DIM);
+            }
+            positions[i] = game;
+        }
+        return positions;
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args the board dimension, the search depth, the number of
+     *             positions and optionally a list of thread counts
+     * @throws ReversiException if a search fails
+     */
+    public static void main(String[] args) throws ReversiException {
+        if (args.length < 3) {
+            System.out.println("Usage: java reversi.bench.ParallelBenchmark DIM depth positions [threads...]");
+            System.exit(1);
+        }
+        int DIM = Integer.parseInt(args[0]);
+        int depth = Integer.parseInt(args[1]);
+        Reversi[] positions = suite(DIM, Integer.parseInt(args[2]));
+        int[] threadCounts = DEFAULT_THREADS;
+        if (args.length > 3) {
+            threadCounts = new int[args.length - 3];
+            for (int i = 3; i < args.length; ++i) {
+                threadCounts[i - 3] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors available");
+        double baseline = 0;
+        for (int threads : threadCounts) {
+            try (ParallelSearch search = new ParallelSearch(NO_TIME_LIMIT, depth, threads, TABLE_ENTRIES)) {
+                // warm up on the first position
+                search.search(positions[0]);
+
+                long nodes = 0;
+                long start = System.nanoTime();
+                for (Reversi position : positions) {
+                    search.search(position);
+                    nodes += search.getNodes();
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                if (baseline == 0) {
+                    baseline = seconds;
+                }
+                System.out.printf("%2d threads: %8.3f s  %,14d nodes  %,12.0f nodes/sec  speedup %5.2fx%n",
+                        threads, seconds, nodes, nodes / seconds, baseline / seconds);
+            }
+        }
+    }
+}
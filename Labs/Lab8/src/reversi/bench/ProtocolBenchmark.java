@@ -0,0 +1,333 @@
+package reversi.bench;
+
+import reversi.BinaryProtocol;
+import reversi.ReversiException;
+import reversi.ReversiProtocol;
+import reversi.server.ReversiServer;
+import reversi2.Board;
+import reversi2.NetworkClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pits the text {@link ReversiProtocol} against the {@link BinaryProtocol}
+ * in two ways.
+ * <ul>
+ *     <li>Codec: a million {@link ReversiProtocol#MOVE_MADE} messages are
+ *     encoded and decoded in memory, the text ones with a
+ *     {@link PrintStream} and a {@link Scanner} as the server and client
+ *     used to, the binary ones with {@link BinaryProtocol}.  Reported as
+ *     nanoseconds and bytes allocated per message.</li>
+ *     <li>End to end: random players on {@link NetworkClient} play whole
+ *     games against each other through a {@link ReversiServer} in this
+ *     JVM, once sticking to text and once switching to binary.  Reported
+ *     as games and moves per second.</li>
+ * </ul>
+ * Allocation is read from the HotSpot per-thread allocation counter, so
+ * this needs a HotSpot based JVM.
+ */
+public class ProtocolBenchmark implements ReversiProtocol {
+    /** the HotSpot thread bean, which can report allocated bytes */
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /** messages encoded and decoded by each codec run */
+    private static final int CODEC_MESSAGES = 1_000_000;
+    /** messages per batch written before reading them back */
+    private static final int BATCH = 1000;
+
+    /**
+     * A reusable in-memory buffer, written in full and then read back.
+     */
+    private static class Pipe {
+        /** the bytes */
+        private final byte[] bytes;
+        /** where the next write goes */
+        private int writeAt;
+        /** where the next read comes from */
+        private int readAt;
+
+        /** writes into the buffer */
+        final OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                Pipe.this.bytes[Pipe.this.writeAt++] = (byte) b;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                System.arraycopy(b, off, Pipe.this.bytes, Pipe.this.writeAt, len);
+                Pipe.this.writeAt += len;
+            }
+        };
+
+        /** reads back what was written */
+        final InputStream in = new InputStream() {
+            @Override
+            public int read() {
+                return Pipe.this.readAt < Pipe.this.writeAt ? Pipe.this.bytes[Pipe.this.readAt++] & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                int n = Math.min(len, Pipe.this.writeAt - Pipe.this.readAt);
+                if (n <= 0) {
+                    return len == 0 ? 0 : -1;
+                }
+                System.arraycopy(Pipe.this.bytes, Pipe.this.readAt, b, off, n);
+                Pipe.this.readAt += n;
+                return n;
+            }
+        };
+
+        /**
+         * Create a pipe.
+         *
+         * @param size how many bytes it holds
+         */
+        Pipe(int size) {
+            this.bytes = new byte[size];
+        }
+
+        /**
+         * Empty the pipe.
+         */
+        void clear() {
+            this.writeAt = 0;
+            this.readAt = 0;
+        }
+    }
+
+    /**
+     * Encode and decode moves as text, the way the server and the client
+     * did before the binary protocol.
+     *
+     * @param pipe the buffer to go through
+     * @return a checksum of the decoded moves
+     */
+    private static long textCodec(Pipe pipe) {
+        PrintStream printer = new PrintStream(pipe.out);
+        long sum = 0;
+        for (int done = 0; done < CODEC_MESSAGES; done += BATCH) {
+            pipe.clear();
+            for (int i = 0; i < BATCH; ++i) {
+                printer.println(MOVE_MADE + " " + (i & 7) + " " + (i >> 3 & 7));
+            }
+            Scanner scanner = new Scanner(pipe.in);
+            for (int i = 0; i < BATCH; ++i) {
+                scanner.next();
+                String[] fields = scanner.nextLine().trim().split(" ");
+                sum += Integer.parseInt(fields[0]) * 8 + Integer.parseInt(fields[1]);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Encode and decode moves as frames.
+     *
+     * @param pipe the buffer to go through
+     * @return a checksum of the decoded moves
+     * @throws IOException never, since the pipe is in memory
+     */
+    private static long binaryCodec(Pipe pipe) throws IOException {
+        byte[] out = new byte[BinaryProtocol.BUFFER_SIZE];
+        byte[] in = new byte[BinaryProtocol.MAX_FRAME];
+        long sum = 0;
+        for (int done = 0; done < CODEC_MESSAGES; done += BATCH) {
+            pipe.clear();
+            for (int i = 0; i < BATCH; ++i) {
+                int length = BinaryProtocol.encodeMove(out, BinaryProtocol.MOVE_MADE, i & 7, i >> 3 & 7);
+                BinaryProtocol.write(pipe.out, out, length);
+            }
+            for (int i = 0; i < BATCH; ++i) {
+                BinaryProtocol.readFrame(pipe.in, in);
+                sum += BinaryProtocol.row(in) * 8 + BinaryProtocol.col(in);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Time both codecs, after a warm-up round.
+     *
+     * @throws IOException never, since the pipe is in memory
+     */
+    private static void measureCodecs() throws IOException {
+        Pipe pipe = new Pipe(BATCH * 32);
+        for (int round = 0; round < 2; ++round) {
+            boolean report = round == 1;
+            long bytes = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            long sum = textCodec(pipe);
+            long textNanos = System.nanoTime() - start;
+            long textBytes = THREADS.getCurrentThreadAllocatedBytes() - bytes;
+
+            bytes = THREADS.getCurrentThreadAllocatedBytes();
+            start = System.nanoTime();
+            if (binaryCodec(pipe) != sum) {
+                throw new IllegalStateException("codecs disagree");
+            }
+            long binaryNanos = System.nanoTime() - start;
+            long binaryBytes = THREADS.getCurrentThreadAllocatedBytes() - bytes;
+            if (report) {
+                System.out.printf("codec   text   %7.1f ns/message  %7.1f bytes/message  %2d bytes on the wire%n",
+                        (double) textNanos / CODEC_MESSAGES, (double) textBytes / CODEC_MESSAGES,
+                        (MOVE_MADE + " 3 2\n").length());
+                System.out.printf("codec   binary %7.1f ns/message  %7.1f bytes/message  %2d bytes on the wire%n",
+                        (double) binaryNanos / CODEC_MESSAGES, (double) binaryBytes / CODEC_MESSAGES,
+                        BinaryProtocol.MOVE_LENGTH + 2);
+            }
+        }
+    }
+
+    /**
+     * A player that makes random valid moves through a
+     * {@link NetworkClient}.
+     */
+    private static class RandomPlayer implements Observer {
+        /** the player's view of the game */
+        private final Board model = new Board();
+        /** picks the moves */
+        private final Random rng;
+        /** the connection to the server */
+        private final NetworkClient serverConn;
+        /** run once the game is over */
+        private final Runnable done;
+        /** moves made by every player */
+        private final AtomicInteger moves;
+        /** whether the game is over for this player */
+        private boolean finished;
+
+        /**
+         * Connect to the server and start playing.
+         *
+         * @param port the server port
+         * @param binary whether to take up the binary protocol
+         * @param seed seed for the random moves
+         * @param done run once the game is over
+         * @param moves moves made by every player
+         * @throws ReversiException if the connection cannot be made
+         */
+        RandomPlayer(int port, boolean binary, long seed, Runnable done, AtomicInteger moves)
+                throws ReversiException {
+            this.rng = new Random(seed);
+            this.done = done;
+            this.moves = moves;
+            this.serverConn = new NetworkClient("localhost", port, this.model, binary);
+            this.model.initializeGame();
+            this.model.addObserver(this);
+            // the move request may have arrived before we started observing
+            update(this.model, null);
+        }
+
+        /**
+         * Move when asked to, and let go once the game is over.
+         *
+         * @param o the model
+         * @param arg not used
+         */
+        @Override
+        public synchronized void update(Observable o, Object arg) {
+            if (this.finished) {
+                return;
+            }
+            if (this.model.getStatus() != Board.Status.NOT_OVER) {
+                this.finished = true;
+                this.done.run();
+                return;
+            }
+            if (this.model.isMyTurn()) {
+                this.model.didMyTurn();
+                int DIM = this.model.getDIM();
+                int start = this.rng.nextInt(DIM * DIM);
+                for (int i = 0; i < DIM * DIM; ++i) {
+                    int square = (start + i) % (DIM * DIM);
+                    if (this.model.isValidMove(square / DIM, square % DIM)) {
+                        this.moves.incrementAndGet();
+                        this.serverConn.sendMove(square / DIM, square % DIM);
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Play games through a server in this JVM.
+     *
+     * @param DIM square dimension of board
+     * @param games how many games to play
+     * @param concurrent how many games to play at once
+     * @param binary whether the players take up the binary protocol
+     * @param out where to print the results
+     * @throws ReversiException if the server cannot be started or a
+     *                          player cannot connect
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static void measureGames(int DIM, int games, int concurrent, boolean binary, PrintStream out)
+            throws ReversiException, InterruptedException {
+        try (ReversiServer server = new ReversiServer(0)) {
+            Thread serverThread = new Thread(() -> server.run(DIM, concurrent, 2 * concurrent), "server");
+            serverThread.setDaemon(true);
+            serverThread.start();
+
+            CountDownLatch done = new CountDownLatch(2 * games);
+            AtomicInteger moves = new AtomicInteger();
+            // room for the players of the games being played
+            Semaphore seats = new Semaphore(2 * concurrent);
+            long start = System.nanoTime();
+            for (int i = 0; i < 2 * games; ++i) {
+                seats.acquire();
+                new RandomPlayer(server.getPort(), binary, i, () -> {
+                    seats.release();
+                    done.countDown();
+                }, moves);
+            }
+            done.await();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            out.printf("games   %-6s %8.1f games/sec  %,10.0f moves/sec%n",
+                    binary ? "binary" : "text", games / seconds, moves.get() / seconds);
+        }
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args the board dimension, and optionally how many games to
+     *             play and how many at once
+     * @throws Exception if anything goes wrong
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 3) {
+            System.out.println("Usage: java reversi.bench.ProtocolBenchmark DIM [games [concurrent]]");
+            System.exit(1);
+        }
+        int DIM = Integer.parseInt(args[0]);
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int concurrent = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+
+        measureCodecs();
+
+        // the server logs every game; keep that out of the results
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        for (int round = 0; round < 2; ++round) {
+            // the first round warms up
+            PrintStream report = round == 0 ? System.out : out;
+            measureGames(DIM, round == 0 ? games / 4 : games, concurrent, false, report);
+            measureGames(DIM, round == 0 ? games / 4 : games, concurrent, true, report);
+        }
+    }
+}
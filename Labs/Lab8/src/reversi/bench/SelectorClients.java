@@ -0,0 +1,435 @@
+package reversi.bench;
+
+import reversi.ReversiException;
+import reversi.ReversiProtocol;
+import reversi.util.LatencyHistogram;
+import reversi2.Board;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Many simulated players driven from one thread, for loading a server.
+ * Every player has its own non-blocking connection and its own
+ * {@link Board}, and answers each {@link #MAKE_MOVE} with a random move
+ * the board says is valid.  Since one thread plays all of them, the
+ * clients cost the machine far less than the server they are testing.
+ * <p>
+ * Players can be connected all at once with {@link #run}, or one at a
+ * time with {@link #open} while the caller keeps calling {@link #poll}.
+ * Two latencies are recorded, in nanoseconds: from starting to connect
+ * until {@link #CONNECT} arrives, and from sending a {@link #MOVE} until
+ * the server reports it back with {@link #MOVE_MADE}.
+ */
+class SelectorClients implements ReversiProtocol, Closeable {
+    /**
+     * the most players connecting but not yet sent {@link #CONNECT}; more
+     * than the server's accept backlog and the kernel drops handshakes
+     * the client already thinks are complete
+     */
+    static final int MAX_PENDING = 512;
+
+    /** the selector every connection is registered with */
+    private final Selector selector;
+    /** picks the random moves */
+    private final Random rng;
+
+    /** players opened */
+    private int opened;
+    /** players opened but not yet sent {@link #CONNECT} or finished */
+    private int pending;
+    /** players that have been sent {@link #CONNECT} */
+    private int connected;
+    /** players whose game has ended normally */
+    private int finished;
+    /** players that got an error or lost their connection */
+    private int failed;
+    /** moves sent by all players */
+    private long moves;
+    /** when the first connection was started */
+    private long startNanos;
+    /** when every player started by {@link #run} had been greeted */
+    private long allConnectedNanos;
+
+    /** time from starting to connect until {@link #CONNECT} arrives */
+    private final LatencyHistogram setupLatency = new LatencyHistogram();
+    /** time from sending a move until the server reports it made */
+    private final LatencyHistogram moveLatency = new LatencyHistogram();
+
+    /**
+     * One simulated player.
+     */
+    private static class Player {
+        /** the player's connection */
+        SocketChannel channel;
+        /** bytes read but not yet made into lines */
+        ByteBuffer in = ByteBuffer.allocate(256);
+        /** bytes waiting to be written */
+        ByteBuffer out = ByteBuffer.allocate(64);
+        /** the player's view of the game, once connected */
+        Board board;
+        /** when the player started to connect */
+        long openedNanos;
+        /** when the player's last move was sent, or 0 once it is reported */
+        long movedNanos;
+        /** whether the player has finished, one way or another */
+        boolean done;
+    }
+
+    /**
+     * Create a set of players, with none connected yet.
+     *
+     * @param seed seed for the random moves
+     * @throws IOException if the selector cannot be opened
+     */
+    SelectorClients(long seed) throws IOException {
+        this.selector = Selector.open();
+        this.rng = new Random(seed);
+    }
+
+    /**
+     * Start connecting one more player.  Keep an eye on
+     * {@link #getPending()} when opening many.
+     *
+     * @param address the server
+     * @throws IOException if the connection cannot be opened, for
+     *                     instance because the process is out of file
+     *                     descriptors
+     */
+    void open(InetSocketAddress address) throws IOException {
+        Player player = new Player();
+        player.openedNanos = System.nanoTime();
+        if (this.opened++ == 0) {
+            this.startNanos = player.openedNanos;
+        }
+        ++this.pending;
+        player.channel = SocketChannel.open();
+        try {
+            player.channel.configureBlocking(false);
+            player.channel.socket().setTcpNoDelay(true);
+            if (player.channel.connect(address)) {
+                player.channel.register(this.selector, SelectionKey.OP_READ, player);
+            } else {
+                player.channel.register(this.selector, SelectionKey.OP_CONNECT, player);
+            }
+        } catch (IOException e) {
+            end(player, false);
+        }
+    }
+
+    /**
+     * Connect a number of players and play until all their games end or
+     * time runs out.  At most {@link #MAX_PENDING} are connecting at once.
+     *
+     * @param host the server host
+     * @param port the server port
+     * @param count how many players
+     * @param timeoutMillis how long to keep going
+     * @throws IOException if the connections cannot be opened, for
+     *                     instance because the process is out of file
+     *                     descriptors
+     */
+    void run(String host, int port, int count, long timeoutMillis) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        for (int i = 0; i < count; ++i) {
+            open(address);
+            // keep serving the ones already connected while the rest connect
+            poll(0);
+            while (this.pending >= MAX_PENDING && System.nanoTime() < deadline) {
+                poll(10);
+            }
+        }
+        while (this.pending > 0 && System.nanoTime() < deadline) {
+            poll(100);
+        }
+        this.allConnectedNanos = System.nanoTime();
+        while (getOpen() > 0 && System.nanoTime() < deadline) {
+            poll(100);
+        }
+    }
+
+    /**
+     * Serve whichever connections are ready.
+     *
+     * @param timeoutMillis how long to wait for one to be ready, or 0 not
+     *                      to wait
+     * @throws IOException if the selector fails
+     */
+    void poll(long timeoutMillis) throws IOException {
+        if (timeoutMillis == 0) {
+            this.selector.selectNow();
+        } else {
+            this.selector.select(timeoutMillis);
+        }
+        Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            Player player = (Player) key.attachment();
+            try {
+                if (key.isConnectable()) {
+                    player.channel.finishConnect();
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+                if (key.isValid() && key.isReadable()) {
+                    read(player);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    flush(player);
+                }
+            } catch (IOException | ReversiException | RuntimeException e) {
+                // a RuntimeException is a message that would not parse
+                end(player, false);
+            }
+        }
+    }
+
+    /**
+     * Read and act on whatever the server has sent a player.
+     *
+     * @param player the player
+     * @throws IOException if the connection fails
+     * @throws ReversiException if the server sends a board too small
+     */
+    private void read(Player player) throws IOException, ReversiException {
+        if (player.channel.read(player.in) < 0) {
+            end(player, false);
+            return;
+        }
+        byte[] bytes = player.in.array();
+        int start = 0;
+        int end = player.in.position();
+        for (int i = 0; i < end && !player.done; ++i) {
+            if (bytes[i] == '\n') {
+                handle(player, new String(bytes, start, i - start, StandardCharsets.US_ASCII));
+                start = i + 1;
+            }
+        }
+        player.in.position(start).limit(end);
+        player.in.compact();
+    }
+
+    /**
+     * Act on one message from the server.
+     *
+     * @param player the player it was sent to
+     * @param line the message
+     * @throws IOException if the reply cannot be sent
+     * @throws ReversiException if the server sends a board too small
+     */
+    private void handle(Player player, String line) throws IOException, ReversiException {
+        String[] fields = line.trim().split(" ");
+        switch (fields[0]) {
+            case CONNECT:
+                player.board = new Board();
+                player.board.allocate(Integer.parseInt(fields[1]));
+                player.board.initializeGame();
+                ++this.connected;
+                --this.pending;
+                this.setupLatency.record(System.nanoTime() - player.openedNanos);
+                break;
+            case MAKE_MOVE:
+                int DIM = player.board.getDIM();
+                int squares = DIM * DIM;
+                int start = this.rng.nextInt(squares);
+                for (int i = 0; i < squares; ++i) {
+                    int square = (start + i) % squares;
+                    if (player.board.isValidMove(square / DIM, square % DIM)) {
+                        player.movedNanos = System.nanoTime();
+                        send(player, MOVE + " " + square / DIM + " " + square % DIM);
+                        ++this.moves;
+                        return;
+                    }
+                }
+                // asked to move on a full board
+                end(player, false);
+                break;
+            case MOVE_MADE:
+                if (player.movedNanos != 0) {
+                    // only our own move can be reported while we wait for it
+                    this.moveLatency.record(System.nanoTime() - player.movedNanos);
+                    player.movedNanos = 0;
+                }
+                player.board.moveMade(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+                break;
+            case GAME_WON:
+            case GAME_LOST:
+            case GAME_TIED:
+                end(player, true);
+                break;
+            default:
+                end(player, false);
+        }
+    }
+
+    /**
+     * Send a line to the server for a player.
+     *
+     * @param player the player
+     * @param line the message, without the newline
+     * @throws IOException if the connection fails
+     */
+    private void send(Player player, String line) throws IOException {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.US_ASCII);
+        if (player.out.remaining() < bytes.length) {
+            ByteBuffer bigger = ByteBuffer.allocate(player.out.capacity() * 2 + bytes.length);
+            player.out.flip();
+            bigger.put(player.out);
+            player.out = bigger;
+        }
+        player.out.put(bytes);
+        flush(player);
+    }
+
+    /**
+     * Write as much of a player's output as the connection will take.
+     *
+     * @param player the player
+     * @throws IOException if the connection fails
+     */
+    private void flush(Player player) throws IOException {
+        player.out.flip();
+        player.channel.write(player.out);
+        player.out.compact();
+        SelectionKey key = player.channel.keyFor(this.selector);
+        key.interestOps(player.out.position() == 0 ? SelectionKey.OP_READ :
+                SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Finish with a player and close its connection.
+     *
+     * @param player the player
+     * @param normally whether its game ended properly
+     */
+    private void end(Player player, boolean normally) {
+        if (player.done) {
+            return;
+        }
+        player.done = true;
+        if (player.board == null) {
+            --this.pending;
+        }
+        if (normally) {
+            ++this.finished;
+        } else {
+            ++this.failed;
+        }
+        try {
+            player.channel.close();
+        } catch (IOException ioe) {
+            // squash
+        }
+    }
+
+    /**
+     * Get how many players are still connecting or playing.
+     *
+     * @return open count
+     */
+    int getOpen() {
+        return this.opened - this.finished - this.failed;
+    }
+
+    /**
+     * Get how many players are connecting but have not been sent
+     * {@link #CONNECT}.
+     *
+     * @return pending count
+     */
+    int getPending() {
+        return this.pending;
+    }
+
+    /**
+     * Get how many players were sent {@link #CONNECT}.
+     *
+     * @return connected count
+     */
+    int getConnected() {
+        return this.connected;
+    }
+
+    /**
+     * Get how many players' games ended normally.
+     *
+     * @return finished count
+     */
+    int getFinished() {
+        return this.finished;
+    }
+
+    /**
+     * Get how many players got an error or lost their connection.
+     *
+     * @return failed count
+     */
+    int getFailed() {
+        return this.failed;
+    }
+
+    /**
+     * Get how many moves all the players sent.
+     *
+     * @return move count
+     */
+    long getMoves() {
+        return this.moves;
+    }
+
+    /**
+     * Get how long it took for every player started by {@link #run} to be
+     * sent {@link #CONNECT}.
+     *
+     * @return milliseconds, or -1 if {@link #run} has not got that far
+     */
+    long getSetupMillis() {
+        return this.allConnectedNanos == 0 ? -1 : (this.allConnectedNanos - this.startNanos) / 1_000_000L;
+    }
+
+    /**
+     * Get the time each player took from starting to connect until it
+     * was sent {@link #CONNECT}.
+     *
+     * @return the histogram, in nanoseconds
+     */
+    LatencyHistogram getSetupLatency() {
+        return this.setupLatency;
+    }
+
+    /**
+     * Get the time from each move being sent until it was reported made.
+     *
+     * @return the histogram, in nanoseconds
+     */
+    LatencyHistogram getMoveLatency() {
+        return this.moveLatency;
+    }
+
+    /**
+     * Close every connection still open, and the selector.
+     */
+    @Override
+    public void close() {
+        for (SelectionKey key : this.selector.keys()) {
+            Player player = (Player) key.attachment();
+            if (player != null) {
+                end(player, false);
+            }
+        }
+        try {
+            this.selector.close();
+        } catch (IOException ioe) {
+            // squash
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package reversi.bench;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+import reversi.ReversiProtocol;
+import reversi.server.ReversiServer;
+import reversi.server.ServerMetrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures what spectators cost a game.  A server is started in this JVM
+ * and one game is played on it, as fast as two players in this JVM can
+ * make random moves, first with nobody watching and then watched by a
+ * number of spectators, a few of which connect with a tiny receive
+ * buffer and never read.
+ * <p>
+ * Reported for each game: how long it took and its moves per second,
+ * which should hardly change with spectators, and for the watched game
+ * how far behind the last spectator was when the game ended, how many
+ * messages spectators were sent per second and how many were dropped
+ * for falling behind, which should only ever be stalled ones: a reading
+ * spectator that did not get the whole game is counted as cut short.
+ */
+public class SpectatorBenchmark {
+    /** receive buffer for the spectators that never read */
+    private static final int STALLED_BUFFER = 1024;
+    /** the end of each line */
+    private static final byte NEWLINE = '\n';
+
+    /**
+     * A player that plays random valid moves as fast as it can, once
+     * told to start.
+     */
+    private static class Player extends Thread {
+        /** the connection */
+        private final Socket socket;
+        /** released when the player may start moving */
+        private final CountDownLatch go;
+        /** seed for the moves */
+        private final long seed;
+        /** when the first move was asked for, once it has been */
+        private volatile long firstAsked;
+        /** when the game ended, once it has */
+        private volatile long ended;
+
+        /**
+         * Connect a player.
+         *
+         * @param port the server's port
+         * @param go released when the player may start moving
+         * @param seed seed for the moves
+         * @throws IOException if it cannot connect
+         */
+        Player(int port, CountDownLatch go, long seed) throws IOException {
+            this.socket = new Socket("localhost", port);
+            this.socket.setTcpNoDelay(true);
+            this.go = go;
+            this.seed = seed;
+        }
+
+        @Override
+        public void run() {
+            Random rng = new Random(this.seed);
+            try (Socket socket = this.socket) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                        StandardCharsets.UTF_8));
+                PrintStream out = new PrintStream(socket.getOutputStream(), true);
+                Reversi board = null;
+                int[] valid = null;
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] tokens = line.split(" ");
+                    if (tokens[0].equals(ReversiProtocol.CONNECT)) {
+                        int DIM = Integer.parseInt(tokens[1]);
+                        board = new Reversi(DIM);
+                        valid = new int[DIM * DIM];
+                    } else if (tokens[0].equals(ReversiProtocol.MAKE_MOVE)) {
+                        if (this.firstAsked == 0) {
+                            this.go.await();
+                            this.firstAsked = System.nanoTime();
+                        }
+                        int move = valid[rng.nextInt(board.validMoves(valid))];
+                        int DIM = board.getDimension();
+                        out.println(ReversiProtocol.MOVE + " " + move / DIM + " " + move % DIM);
+                    } else if (tokens[0].equals(ReversiProtocol.MOVE_MADE)) {
+                        board.makeMove(Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]));
+                    } else {
+                        break;
+                    }
+                }
+            } catch (IOException | ReversiException | InterruptedException e) {
+                System.out.println("player failed: " + e);
+            }
+            this.ended = System.nanoTime();
+        }
+    }
+
+    /**
+     * Play one game.
+     *
+     * @param server the server
+     * @param moves how many moves a game has
+     * @param spectators how many spectators watch
+     * @param stalled how many of them never read
+     * @param seed seed for the moves
+     * @throws Exception if a connection fails
+     */
+    private static void play(ReversiServer server, int moves, int spectators, int stalled, long seed)
+            throws Exception {
+        ServerMetrics metrics = server.getMetrics();
+        long droppedBefore = metrics.getSpectatorsDropped();
+        long started = metrics.getGamesStarted();
+        CountDownLatch go = new CountDownLatch(1);
+        Player one = new Player(server.getPort(), go, seed);
+        Player two = new Player(server.getPort(), go, seed + 1);
+        one.start();
+        two.start();
+        while (metrics.getGamesStarted() == started) {
+            Thread.sleep(1);
+        }
+
+        // connect the spectators and wait until every one is watching
+        Selector selector = Selector.open();
+        List<SocketChannel> channels = new ArrayList<>();
+        byte[] watch = (ReversiProtocol.WATCH + "\n").getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < spectators; ++i) {
+            SocketChannel channel = SocketChannel.open();
+            if (i < stalled) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, STALLED_BUFFER);
+            }
+            channel.connect(new InetSocketAddress("localhost", server.getPort()));
+            channel.write(ByteBuffer.wrap(watch));
+            channels.add(channel);
+            if (i >= stalled) {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, new long[1]);
+            }
+        }
+        while (metrics.getSpectators() < spectators) {
+            Thread.sleep(1);
+        }
+
+        go.countDown();
+        long lines = 0;
+        int finished = 0;
+        int cutShort = 0;
+        long lastFinished = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        while (finished < spectators - stalled) {
+            selector.select(1000);
+            for (SelectionKey key : selector.selectedKeys()) {
+                SocketChannel channel = (SocketChannel) key.channel();
+                long[] received = (long[]) key.attachment();
+                buffer.clear();
+                if (channel.read(buffer) < 0) {
+                    key.cancel();
+                    // CONNECT, BOARD, every move and the result
+                    if (received[0] < moves + 3) {
+                        ++cutShort;
+                    }
+                    ++finished;
+                    lastFinished = System.nanoTime();
+                    continue;
+                }
+                for (int i = 0; i < buffer.position(); ++i) {
+                    if (buffer.get(i) == NEWLINE) {
+                        ++received[0];
+                        ++lines;
+                    }
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+        one.join();
+        two.join();
+        for (SocketChannel channel : channels) {
+            channel.close();
+        }
+        selector.close();
+
+        long ended = Math.max(one.ended, two.ended);
+        double seconds = (ended - one.firstAsked) / 1e9;
+        System.out.printf("%,6d spectators (%d stalled): game %,8.1f ms, %,9.0f moves/s", spectators, stalled,
+                seconds * 1e3, moves / seconds);
+        if (spectators > 0) {
+            System.out.printf(", last spectator %,6.1f ms behind, %,10.0f messages/s, %d dropped, " +
+                            "%d readers cut short", Math.max(0, lastFinished - ended) / 1e6,
+                    lines / ((lastFinished - one.firstAsked) / 1e9),
+                    metrics.getSpectatorsDropped() - droppedBefore, cutShort);
+        }
+        System.out.println();
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args the board dimension, how many spectators, how many of
+     *             them stall and how many times to play each game, all
+     *             optional
+     * @throws Exception if the server or a connection fails
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 4) {
+            System.out.println("Usage: java reversi.bench.SpectatorBenchmark [DIM [spectators [stalled [rounds]]]]");
+            System.exit(1);
+        }
+        int DIM = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        int spectators = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int stalled = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        try (ReversiServer server = new ReversiServer(0)) {
+            Thread serverThread = new Thread(() -> server.run(DIM, 2, spectators + 2, false), "server");
+            serverThread.setDaemon(true);
+            serverThread.start();
+            System.out.printf("%dx%d games, %,d moves each%n", DIM, DIM, DIM * DIM - 4);
+            for (int round = 0; round < rounds; ++round) {
+                play(server, DIM * DIM - 4, 0, 0, round);
+                play(server, DIM * DIM - 4, spectators, stalled, round);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package reversi.bench;
+
+import reversi.ReversiException;
+import reversi.server.ReversiServer;
+import reversi.server.ServerThreads;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Compares {@link ReversiServer} running its lobby on platform threads and
+ * on virtual threads, at 1,000, 10,000 and 50,000 connections (or the
+ * counts given).  For each count and thread mode a server is started in
+ * this JVM with room for every game at once, and {@link SelectorClients}
+ * connect that many random players to it from a single thread.
+ * <p>
+ * Reported for each run: how long until every client was greeted, how
+ * long until every game ended, games per second, the peak number of live
+ * threads and the heap in use once the games were running.  Each
+ * connection needs a file descriptor at both ends, so the larger counts
+ * need a high open file limit.
+ * <p>
+ * Virtual threads are only measured on Java 21 or later.  On an older JVM
+ * the virtual mode falls back to platform threads with a small stack and
+ * is reported as "fallback", so the comparison is then between two kinds
+ * of platform thread.
+ */
+public class ThreadModeBenchmark {
+    /** connection counts used when none are given */
+    private static final int[] DEFAULT_CONNECTIONS = {1000, 10000, 50000};
+    /** how long one run may take */
+    private static final long TIMEOUT_MILLIS = 600_000L;
+    /** longest to wait for the last run's threads to end */
+    private static final long SETTLE_MILLIS = 30_000L;
+
+    /**
+     * Wait for the threads of the last run to end, so they are not counted
+     * in the next run's peak.
+     *
+     * @param threads the thread bean
+     * @param idle how many threads there were before any run
+     */
+    private static void settle(ThreadMXBean threads, int idle) {
+        long deadline = System.currentTimeMillis() + SETTLE_MILLIS;
+        while (threads.getThreadCount() > idle && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Run the server and the clients once.
+     *
+     * @param DIM square dimension of board
+     * @param connections how many clients to connect
+     * @param virtualThreads whether the server uses virtual threads
+     * @param out where to print the results
+     * @param idle how many threads there were before any run
+     */
+    private static void measure(int DIM, int connections, boolean virtualThreads, PrintStream out,
+                                int idle) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        settle(threads, idle);
+        System.gc();
+        threads.resetPeakThreadCount();
+        // on a JVM without virtual threads the virtual mode is not what it says
+        String mode = !virtualThreads ? "platform" :
+                ServerThreads.virtualThreadsAvailable() ? "virtual" : "fallback";
+
+        try (ReversiServer server = new ReversiServer(0);
+             SelectorClients clients = new SelectorClients(connections)) {
+            Thread serverThread = new Thread(
+                    () -> server.run(DIM, connections / 2 + 1, connections, virtualThreads), "server");
+            serverThread.setDaemon(true);
+            serverThread.start();
+
+            long start = System.nanoTime();
+            try {
+                clients.run("localhost", server.getPort(), connections, TIMEOUT_MILLIS);
+            } catch (IOException e) {
+                out.printf("%-8s %,7d connections: failed after %,d connected: %s%n",
+                        mode, connections, clients.getConnected(), e.getMessage());
+                return;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            Runtime runtime = Runtime.getRuntime();
+            long heap = runtime.totalMemory() - runtime.freeMemory();
+            int games = clients.getFinished() / 2;
+            out.printf("%-8s %,7d connections: setup %,7d ms  total %8.2f s  %,10.0f games/sec  " +
+                            "peak %,6d threads  %,6d MB heap  %,d failed%n",
+                    mode, connections, clients.getSetupMillis(), seconds, games / seconds,
+                    threads.getPeakThreadCount(), heap >> 20, clients.getFailed());
+        } catch (ReversiException | IOException e) {
+            out.println(mode + " " + connections + " connections: could not start: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args the board dimension and optionally the connection counts
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java reversi.bench.ThreadModeBenchmark DIM [connections...]");
+            System.exit(1);
+        }
+        int DIM = Integer.parseInt(args[0]);
+        int[] counts = DEFAULT_CONNECTIONS;
+        if (args.length > 1) {
+            counts = new int[args.length - 1];
+            for (int i = 1; i < args.length; ++i) {
+                counts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        // the server logs every game; keep that out of the results
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        out.println("virtual threads " + (ServerThreads.virtualThreadsAvailable() ? "available" :
+                "not available; the virtual mode falls back to small-stack platform threads"));
+        int idle = ManagementFactory.getThreadMXBean().getThreadCount();
+        for (int connections : counts) {
+            measure(DIM, connections, false, out, idle);
+            measure(DIM, connections, true, out, idle);
+        }
+    }
+}
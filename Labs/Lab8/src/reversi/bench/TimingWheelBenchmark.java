@@ -0,0 +1,232 @@
+package reversi.bench;
+
+import reversi.server.TimingWheel;
+import reversi.util.LatencyHistogram;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pits the {@link TimingWheel} that runs the game clocks against one
+ * shared {@link ScheduledThreadPoolExecutor}, the usual single timer,
+ * with as many clocks running as a very busy server would have.
+ * <ul>
+ *     <li>Churn: every clock is started, then threads standing in for game
+ *     threads stop and restart them round and round, as moves arriving
+ *     would, with none ever running out.  Reported as restarts per
+ *     second.</li>
+ *     <li>Firing: every clock is started with a random limit of a few
+ *     seconds and left to run out.  Reported as how late they fired.</li>
+ * </ul>
+ */
+public class TimingWheelBenchmark {
+    /** a limit long enough that no clock runs out while churning */
+    private static final long LONG_MILLIS = 60_000L;
+    /** the shortest limit when measuring firing */
+    private static final long MIN_MILLIS = 500;
+    /** the spread of limits when measuring firing */
+    private static final long SPREAD_MILLIS = 2_000;
+
+    /**
+     * One of the two timers, however it works.
+     */
+    private interface Timer {
+        /**
+         * Start a clock.
+         *
+         * @param task what to do when it runs out
+         * @param millis the limit
+         * @return something to stop it with
+         */
+        Object start(Runnable task, long millis);
+
+        /**
+         * Stop a clock.
+         *
+         * @param clock what {@link #start} returned
+         */
+        void stop(Object clock);
+
+        /**
+         * Stop the timer.
+         */
+        void close();
+    }
+
+    /**
+     * Make a timer on a {@link TimingWheel} set up as the server sets it up.
+     *
+     * @return the timer
+     */
+    private static Timer wheel() {
+        TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 1024);
+        return new Timer() {
+            @Override
+            public Object start(Runnable task, long millis) {
+                return wheel.schedule(task, millis, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public void stop(Object clock) {
+                ((TimingWheel.Timeout) clock).cancel();
+            }
+
+            @Override
+            public void close() {
+                wheel.close();
+            }
+        };
+    }
+
+    /**
+     * Make a timer on a {@link ScheduledThreadPoolExecutor} with one thread,
+     * which takes cancelled tasks out of its queue at once.
+     *
+     * @return the timer
+     */
+    private static Timer executor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+        return new Timer() {
+            @Override
+            public Object start(Runnable task, long millis) {
+                return executor.schedule(task, millis, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public void stop(Object clock) {
+                ((ScheduledFuture<?>) clock).cancel(false);
+            }
+
+            @Override
+            public void close() {
+                executor.shutdownNow();
+            }
+        };
+    }
+
+    /**
+     * Restart clocks round and round for a while.
+     *
+     * @param timer the timer
+     * @param clocks how many clocks
+     * @param threads how many threads restart them
+     * @param millis how long to keep going
+     * @return restarts per second
+     * @throws InterruptedException if interrupted
+     */
+    private static double churn(Timer timer, int clocks, int threads, long millis)
+            throws InterruptedException {
+        Runnable never = () -> { };
+        Object[] running = new Object[clocks];
+        for (int i = 0; i < clocks; ++i) {
+            running[i] = timer.start(never, LONG_MILLIS);
+        }
+        AtomicLong restarts = new AtomicLong();
+        long end = System.nanoTime() + millis * 1_000_000L;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; ++t) {
+            int first = t;
+            workers[t] = new Thread(() -> {
+                long done = 0;
+                // each thread has its own clocks, as each game has its own
+                while (System.nanoTime() < end) {
+                    for (int i = first; i < clocks; i += threads) {
+                        timer.stop(running[i]);
+                        running[i] = timer.start(never, LONG_MILLIS);
+                    }
+                    done += (clocks - first + threads - 1) / threads;
+                }
+                restarts.addAndGet(done);
+            });
+            workers[t].start();
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return restarts.get() * 1e9 / (System.nanoTime() - start);
+    }
+
+    /**
+     * Start clocks with random limits and let them all run out.
+     *
+     * @param timer the timer
+     * @param clocks how many clocks
+     * @param seed seed for the limits
+     * @return how late each clock ran out, in nanoseconds
+     * @throws InterruptedException if interrupted
+     */
+    private static LatencyHistogram fire(Timer timer, int clocks, long seed) throws InterruptedException {
+        LatencyHistogram late = new LatencyHistogram();
+        CountDownLatch left = new CountDownLatch(clocks);
+        Random rng = new Random(seed);
+        for (int i = 0; i < clocks; ++i) {
+            long millis = MIN_MILLIS + (long) (rng.nextDouble() * SPREAD_MILLIS);
+            long due = System.nanoTime() + millis * 1_000_000L;
+            timer.start(() -> {
+                late.record(System.nanoTime() - due);
+                left.countDown();
+            }, millis);
+        }
+        left.await();
+        return late;
+    }
+
+    /**
+     * Print how late clocks fired.
+     *
+     * @param name the timer
+     * @param late the histogram
+     */
+    private static void report(String name, LatencyHistogram late) {
+        System.out.printf("  %-10s late by p50 %6.2f ms  p99 %6.2f ms  max %6.2f ms%n", name,
+                late.getValueAtPercentile(50) / 1e6, late.getValueAtPercentile(99) / 1e6, late.getMax() / 1e6);
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args how many clocks, how many threads restart them and for
+     *             how many seconds, all optional
+     * @throws InterruptedException if interrupted
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 3) {
+            System.out.println("Usage: java reversi.bench.TimingWheelBenchmark [clocks [threads [seconds]]]");
+            System.exit(1);
+        }
+        int clocks = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        long millis = (long) ((args.length > 2 ? Double.parseDouble(args[2]) : 5) * 1000);
+
+        System.out.printf("%,d clocks restarted by %d threads%n", clocks, threads);
+        for (int round = 0; round < 2; ++round) {
+            // the first round warms up
+            long length = round == 0 ? millis / 5 : millis;
+            Timer wheel = wheel();
+            double wheelRate = churn(wheel, clocks, threads, length);
+            wheel.close();
+            Timer executor = executor();
+            double executorRate = churn(executor, clocks, threads, length);
+            executor.close();
+            if (round > 0) {
+                System.out.printf("  wheel      %,12.0f restarts/s%n", wheelRate);
+                System.out.printf("  executor   %,12.0f restarts/s%n", executorRate);
+            }
+        }
+
+        System.out.printf("%,d clocks running out %d-%d ms after starting%n", clocks,
+                MIN_MILLIS, MIN_MILLIS + SPREAD_MILLIS);
+        Timer wheel = wheel();
+        report("wheel", fire(wheel, clocks, 1));
+        wheel.close();
+        Timer executor = executor();
+        report("executor", fire(executor, clocks, 1));
+        executor.close();
+    }
+}
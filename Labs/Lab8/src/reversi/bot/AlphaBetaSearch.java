@@ -0,0 +1,618 @@
+package reversi.bot;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A computer player that searches the game tree with negamax alpha-beta.
+ * The search is iteratively deepened until a time budget for the move runs
+ * out, and the best move from the last finished depth is played.
+ * <P>
+ * Moves are tried in the order most likely to cause a cutoff: the best
+ * move from the previous depth first, then killer moves for the ply, then
+ * by history score and finally by square weight.  The best move stored
+ * in the {@link TranspositionTable} for a position is tried first of all,
+ * and its stored score can cut off the search without trying any moves.
+ * <P>
+ * Once fewer than a threshold of empty squares are left, the position is
+ * handed to an {@link EndgameSolver} instead, which finds the exact final
+ * disk difference.  The same happens below the root whenever the search
+ * would reach the end of the game anyway.
+ * <P>
+ * The whole search runs on one copy of the position, making and unmaking
+ * moves on it, and all of its tables are allocated up front, so searching
+ * does not allocate anything per node.
+ */
+public class AlphaBetaSearch implements Bot {
+    /** deepest search that will ever be attempted */
+    public static final int MAX_DEPTH = 64;
+    /** size of the transposition table a search makes for itself */
+    public static final int DEFAULT_TABLE_ENTRIES = 1 << 20;
+
+    /** a score bigger than any position can have */
+    private static final int INFINITY = 1_000_000;
+    /** score for a won game, before adding the disk difference */
+    private static final int WIN = 100_000;
+    /** how many nodes to search between looks at the clock (power of 2) */
+    private static final int CLOCK_INTERVAL = 1024;
+    /** ordering bonus for the first killer move */
+    private static final int KILLER_ONE = 1 << 28;
+    /** ordering bonus for the second killer move */
+    private static final int KILLER_TWO = 1 << 27;
+
+    /** how long each move may take, in nanoseconds */
+    private final long budgetNanos;
+    /** deepest depth to search to */
+    private final int maxDepth;
+    /** results of earlier searches, possibly shared with other searches */
+    private final TranspositionTable table;
+
+    /** square dimension of the board being searched */
+    private int DIM;
+    /** static evaluation for the board size */
+    private Evaluation evaluation;
+    /** move list for each ply */
+    private int[][] moves;
+    /** ordering scores matching each ply's move list */
+    private int[][] orderScores;
+    /** two killer moves for each ply */
+    private int[][] killers;
+    /** history heuristic score for each square */
+    private int[] history;
+
+    /** solves positions with few empty squares; made on first use */
+    private EndgameSolver solver;
+    /** empty count below which the endgame solver takes over */
+    private int endgameThreshold = EndgameSolver.DEFAULT_THRESHOLD;
+
+    /** depth the iterative deepening starts at */
+    private int startDepth = 1;
+    /** raised by another thread to stop the search early, or null */
+    private AtomicBoolean stopSignal;
+    /** whether each search starts a new generation in the table */
+    private boolean agesTable = true;
+
+    /** when the current search has to stop */
+    private long deadline;
+    /** set when the search ran out of time */
+    private boolean stopped;
+
+    /** nodes visited by the last search */
+    private long nodes;
+    /** deepest depth the last search finished */
+    private int depthReached;
+    /** score of the chosen move in the last search */
+    private int score;
+    /** how long the last search took, in nanoseconds */
+    private long elapsedNanos;
+    /**
+     * the best move so far in the current search and the depth it came
+     * from, as {@code depth << 32 | square}, or -1 before the first depth
+     * finishes; for another thread to read while the search goes on
+     */
+    private volatile long progress = -1;
+
+    /**
+     * Create a search with a time budget per move.
+     *
+     * @param budgetMillis how long to think about each move
+     */
+    public AlphaBetaSearch(long budgetMillis) {
+        this(budgetMillis, MAX_DEPTH);
+    }
+
+    /**
+     * Create a search with a time budget and a depth limit per move.
+     *
+     * @param budgetMillis how long to think about each move
+     * @param maxDepth the deepest depth to search to
+     */
+    public AlphaBetaSearch(long budgetMillis, int maxDepth) {
+        this(budgetMillis, maxDepth, new TranspositionTable(DEFAULT_TABLE_ENTRIES));
+    }
+
+    /**
+     * Create a search that uses a transposition table which may be shared
+     * with other searches.
+     *
+     * @param budgetMillis how long to think about each move
+     * @param maxDepth the deepest depth to search to
+     * @param table the transposition table
+     */
+    public AlphaBetaSearch(long budgetMillis, int maxDepth, TranspositionTable table) {
+        this.budgetNanos = budgetMillis * 1_000_000L;
+        this.maxDepth = Math.min(maxDepth, MAX_DEPTH);
+        this.table = table;
+    }
+
+    @Override
+    public int[] chooseMove(Reversi game) throws ReversiException {
+        int square = search(game);
+        return new int[] {square / this.DIM, square % this.DIM};
+    }
+
+    /**
+     * Search a position and return the best move found.
+     *
+     * @param game the position to search; it is not changed
+     * @return the best move, as row * DIM + col
+     * @throws ReversiException if there are no valid moves, or the board
+     *                          is more than {@link TranspositionTable#MAX_DIM}
+     *                          across
+     */
+    public int search(Reversi game) throws ReversiException {
+        long start = System.nanoTime();
+        if (game.getDimension() > TranspositionTable.MAX_DIM) {
+            throw new ReversiException("Board too large to search: " + game.getDimension());
+        }
+        prepare(game.getDimension());
+        if (this.agesTable) {
+            this.table.newSearch();
+        }
+        this.deadline = start + this.budgetNanos;
+        this.stopped = false;
+        this.nodes = 0;
+        this.depthReached = 0;
+        this.progress = -1;
+
+        Reversi position = new Reversi(game);
+        int[] rootMoves = this.moves[0];
+        int count = position.validMoves(rootMoves);
+        if (count == 0) {
+            throw new ReversiException("No valid moves");
+        }
+        orderMoves(0, count, -1);
+        int best = rootMoves[0];
+        this.score = 0;
+
+        int empties = this.DIM * this.DIM - position.getNumMoves();
+        if (empties < this.endgameThreshold) {
+            beginEndgame();
+            int solved = this.solver.solve(position, this.deadline);
+            this.nodes += this.solver.getNodes();
+            if (solved >= 0) {
+                this.score = toScore(this.solver.getScore());
+                this.depthReached = empties;
+                this.progress = (long) empties << 32 | solved;
+                this.elapsedNanos = System.nanoTime() - start;
+                return solved;
+            }
+            // out of time; fall back to whatever a shallow search finds
+        } else if (this.endgameThreshold > 0) {
+            beginEndgame();
+        }
+
+        int limit = Math.min(this.maxDepth, empties);
+        for (int depth = Math.min(this.startDepth, limit); depth <= limit && !this.stopped; ++depth) {
+            // search the previous best move first
+            orderMoves(0, count, best);
+
+            int alpha = -INFINITY;
+            int iterationBest = -1;
+            for (int i = 0; i < count; ++i) {
+                int square = rootMoves[i];
+                position.makeMove(square / this.DIM, square % this.DIM);
+                int value = -negamax(position, depth - 1, 1, -INFINITY, -alpha);
+                position.unmakeMove();
+                if (this.stopped) {
+                    break;
+                }
+                if (value > alpha) {
+                    alpha = value;
+                    iterationBest = square;
+                }
+            }
+
+            // an unfinished depth is only trusted for the moves it finished
+            if (iterationBest >= 0) {
+                best = iterationBest;
+                this.score = alpha;
+            }
+            if (!this.stopped) {
+                this.depthReached = depth;
+            }
+            if (this.depthReached > 0) {
+                this.progress = (long) this.depthReached << 32 | best;
+            }
+        }
+
+        if (this.solver != null) {
+            this.nodes += this.solver.getNodes();
+        }
+        this.elapsedNanos = System.nanoTime() - start;
+        return best;
+    }
+
+    /**
+     * Search a position below the root.
+     *
+     * @param game the position; moves are made and unmade on it, so it is
+     *             left as it was
+     * @param depth how many more plies to search
+     * @param ply how far from the root this position is
+     * @param alpha lower bound of interesting scores
+     * @param beta upper bound of interesting scores
+     * @return the score from the point of view of the player to move
+     * @throws ReversiException if a generated move is rejected
+     */
+    private int negamax(Reversi game, int depth, int ply, int alpha, int beta)
+            throws ReversiException {
+        ++this.nodes;
+        if ((this.nodes & (CLOCK_INTERVAL - 1)) == 0 &&
+                (System.nanoTime() > this.deadline ||
+                        (this.stopSignal != null && this.stopSignal.get()))) {
+            this.stopped = true;
+        }
+        if (this.stopped) {
+            return 0;
+        }
+        if (game.gameOver()) {
+            return finalScore(game);
+        }
+        int empties = this.DIM * this.DIM - game.getNumMoves();
+        if (depth >= empties && empties < this.endgameThreshold) {
+            // the search would reach the end anyway, so solve it exactly
+            int value = this.solver.value(game, lowerDiff(alpha), upperDiff(beta));
+            if (this.solver.isStopped()) {
+                this.stopped = true;
+                return 0;
+            }
+            return toScore(value);
+        }
+        if (depth == 0) {
+            return this.evaluation.evaluate(game);
+        }
+
+        // use what an earlier visit to this position found
+        long hash = game.getHash();
+        int originalAlpha = alpha;
+        int hashMove = -1;
+        long entry = this.table.probe(hash);
+        if (entry != TranspositionTable.MISS) {
+            hashMove = TranspositionTable.move(entry);
+            if (TranspositionTable.depth(entry) >= depth) {
+                int stored = TranspositionTable.score(entry);
+                switch (TranspositionTable.flag(entry)) {
+                    case TranspositionTable.EXACT:
+                        return stored;
+                    case TranspositionTable.LOWER:
+                        alpha = Math.max(alpha, stored);
+                        break;
+                    case TranspositionTable.UPPER:
+                        beta = Math.min(beta, stored);
+                        break;
+                }
+                if (alpha >= beta) {
+                    return stored;
+                }
+            }
+        }
+
+        int[] plyMoves = this.moves[ply];
+        int count = game.validMoves(plyMoves);
+        orderMoves(ply, count, hashMove);
+
+        int best = -INFINITY;
+        int bestMove = -1;
+        for (int i = 0; i < count; ++i) {
+            int square = plyMoves[i];
+            game.makeMove(square / this.DIM, square % this.DIM);
+            int value = -negamax(game, depth - 1, ply + 1, -beta, -alpha);
+            game.unmakeMove();
+            if (this.stopped) {
+                return 0;
+            }
+            if (value > best) {
+                best = value;
+                bestMove = square;
+                if (value > alpha) {
+                    alpha = value;
+                    if (alpha >= beta) {
+                        recordCutoff(ply, square, depth);
+                        break;
+                    }
+                }
+            }
+        }
+
+        int flag = best <= originalAlpha ? TranspositionTable.UPPER :
+                best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+        this.table.store(hash, depth, flag, best, bestMove);
+        return best;
+    }
+
+    /**
+     * Score a finished game from the point of view of the player to move.
+     *
+     * @param game the finished game
+     * @return a score beyond any evaluation, adjusted by the disk difference
+     */
+    private static int finalScore(Reversi game) {
+        int p1 = game.countDisks(Reversi.Move.PLAYER_ONE);
+        int p2 = game.countDisks(Reversi.Move.PLAYER_TWO);
+        return toScore(game.isP1Turn() ? p1 - p2 : p2 - p1);
+    }
+
+    /**
+     * Turn a final disk difference into a search score.
+     *
+     * @param diff the disk difference for the player to move
+     * @return a score beyond any evaluation, adjusted by the disk difference
+     */
+    private static int toScore(int diff) {
+        if (diff > 0) {
+            return WIN + diff;
+        } else if (diff < 0) {
+            return -WIN + diff;
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Turn the lower end of a search window into disk differences: the
+     * biggest difference whose score is no more than {@code alpha}.
+     *
+     * @param alpha lower bound of interesting scores
+     * @return the matching bound on the disk difference
+     */
+    private static int lowerDiff(int alpha) {
+        if (alpha >= WIN) {
+            return alpha - WIN;
+        } else if (alpha >= 0) {
+            return 0;
+        } else if (alpha > -WIN) {
+            return -1;
+        } else {
+            return alpha + WIN;
+        }
+    }
+
+    /**
+     * Turn the upper end of a search window into disk differences: the
+     * smallest difference whose score is at least {@code beta}.
+     *
+     * @param beta upper bound of interesting scores
+     * @return the matching bound on the disk difference
+     */
+    private static int upperDiff(int beta) {
+        if (beta > WIN) {
+            return beta - WIN;
+        } else if (beta > 0) {
+            return 1;
+        } else if (beta > -WIN) {
+            return 0;
+        } else {
+            return beta + WIN;
+        }
+    }
+
+    /**
+     * Get the endgame solver ready for a new search.
+     */
+    private void beginEndgame() {
+        if (this.solver == null) {
+            this.solver = new EndgameSolver();
+        }
+        this.solver.setStopSignal(this.stopSignal);
+        this.solver.begin(this.DIM, this.deadline);
+    }
+
+    @Override
+    public String getStatistics() {
+        return "depth " + this.depthReached + ", " + this.nodes + " nodes, " +
+                getNodesPerSecond() + " nodes/sec, " +
+                String.format("%.1f%% hash hits", 100 * this.table.getHitRate());
+    }
+
+    /**
+     * Remember a move that caused a beta cutoff.
+     *
+     * @param ply the ply of the cutoff
+     * @param square the move
+     * @param depth the remaining depth, which weights the history score
+     */
+    private void recordCutoff(int ply, int square, int depth) {
+        int[] plyKillers = this.killers[ply];
+        if (plyKillers[0] != square) {
+            plyKillers[1] = plyKillers[0];
+            plyKillers[0] = square;
+        }
+        this.history[square] += depth * depth;
+    }
+
+    /**
+     * Sort a ply's move list so the most promising moves come first.
+     *
+     * @param ply the ply whose moves are sorted
+     * @param count how many moves there are
+     * @param first a move to put ahead of all others, or -1
+     */
+    private void orderMoves(int ply, int count, int first) {
+        int[] plyMoves = this.moves[ply];
+        int[] plyScores = this.orderScores[ply];
+        int[] plyKillers = this.killers[ply];
+        for (int i = 0; i < count; ++i) {
+            int square = plyMoves[i];
+            int value;
+            if (square == first) {
+                value = Integer.MAX_VALUE;
+            } else if (square == plyKillers[0]) {
+                value = KILLER_ONE;
+            } else if (square == plyKillers[1]) {
+                value = KILLER_TWO;
+            } else {
+                value = (this.history[square] << 4) + this.evaluation.weight(square);
+            }
+            plyScores[i] = value;
+        }
+
+        // insertion sort, best first; move lists are short
+        for (int i = 1; i < count; ++i) {
+            int square = plyMoves[i];
+            int value = plyScores[i];
+            int j = i - 1;
+            while (j >= 0 && plyScores[j] < value) {
+                plyMoves[j + 1] = plyMoves[j];
+                plyScores[j + 1] = plyScores[j];
+                --j;
+            }
+            plyMoves[j + 1] = square;
+            plyScores[j + 1] = value;
+        }
+    }
+
+    /**
+     * Set up the per-ply tables for a board size, reusing them if the size
+     * has not changed since the last search.
+     *
+     * @param DIM square dimension of board
+     */
+    private void prepare(int DIM) {
+        if (this.DIM != DIM || this.moves == null) {
+            this.DIM = DIM;
+            this.evaluation = new Evaluation(DIM);
+            this.moves = new int[MAX_DEPTH + 1][DIM * DIM];
+            this.orderScores = new int[MAX_DEPTH + 1][DIM * DIM];
+            this.killers = new int[MAX_DEPTH + 1][2];
+            this.history = new int[DIM * DIM];
+        } else {
+            // age the history so old games do not dominate
+            for (int i = 0; i < this.history.length; ++i) {
+                this.history[i] >>= 1;
+            }
+        }
+        for (int[] plyKillers : this.killers) {
+            plyKillers[0] = -1;
+            plyKillers[1] = -1;
+        }
+    }
+
+    /**
+     * Set how few empty squares there must be before the search hands the
+     * position to the endgame solver.
+     *
+     * @param endgameThreshold the solver takes over below this many empty
+     *                         squares; 0 turns it off
+     */
+    public void setEndgameThreshold(int endgameThreshold) {
+        this.endgameThreshold = Math.max(0, endgameThreshold);
+    }
+
+    /**
+     * Get how few empty squares there must be before the search hands the
+     * position to the endgame solver.
+     *
+     * @return the empty count threshold
+     */
+    public int getEndgameThreshold() {
+        return this.endgameThreshold;
+    }
+
+    /**
+     * Make the iterative deepening start deeper than one ply.  Helper
+     * threads in a {@link ParallelSearch} use this so they do not all
+     * search the same depth at the same time.
+     *
+     * @param startDepth the first depth to search
+     */
+    void setStartDepth(int startDepth) {
+        this.startDepth = Math.max(1, startDepth);
+    }
+
+    /**
+     * Give the search a flag that another thread can raise to stop it.
+     *
+     * @param stopSignal the flag, checked every so many nodes
+     */
+    void setStopSignal(AtomicBoolean stopSignal) {
+        this.stopSignal = stopSignal;
+    }
+
+    /**
+     * Choose whether each search starts a new generation in the
+     * transposition table.  When several searches share a table, only
+     * whoever coordinates them should do that.
+     *
+     * @param agesTable whether to start a new generation per search
+     */
+    void setAgesTable(boolean agesTable) {
+        this.agesTable = agesTable;
+    }
+
+    /**
+     * Get the best move found so far by the search that is running, or
+     * by the last one, from any thread.
+     *
+     * @return {@code depth << 32 | square}, the square being
+     *         row * DIM + col, or -1 if no depth has finished yet
+     */
+    long getProgress() {
+        return this.progress;
+    }
+
+    /**
+     * Forget the best move of the last search, so that {@link #getProgress()}
+     * says nothing until the next search has finished a depth.
+     */
+    void clearProgress() {
+        this.progress = -1;
+    }
+
+    /**
+     * Get the transposition table this search uses.
+     *
+     * @return the table
+     */
+    public TranspositionTable getTable() {
+        return this.table;
+    }
+
+    /**
+     * Get the number of positions visited by the last search.
+     *
+     * @return node count
+     */
+    public long getNodes() {
+        return this.nodes;
+    }
+
+    /**
+     * Get the deepest depth the last search finished completely.
+     *
+     * @return depth in plies
+     */
+    public int getDepthReached() {
+        return this.depthReached;
+    }
+
+    /**
+     * Get the score of the move chosen by the last search, from the point
+     * of view of the player who was to move.
+     *
+     * @return the score
+     */
+    public int getScore() {
+        return this.score;
+    }
+
+    /**
+     * Get how long the last search took.
+     *
+     * @return elapsed time in milliseconds
+     */
+    public long getElapsedMillis() {
+        return this.elapsedNanos / 1_000_000L;
+    }
+
+    /**
+     * Get the search speed of the last search.
+     *
+     * @return nodes visited per second
+     */
+    public long getNodesPerSecond() {
+        return this.elapsedNanos == 0 ? 0 : this.nodes * 1_000_000_000L / this.elapsedNanos;
+    }
+}
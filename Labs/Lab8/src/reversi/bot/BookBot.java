@@ -0,0 +1,70 @@
+package reversi.bot;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A computer player that plays from an {@link OpeningBook} while the game
+ * is still in the book, and asks another bot to search once it leaves it.
+ */
+public class BookBot implements Bot, Closeable {
+    /** the opening book, possibly shared with other bots */
+    private final OpeningBook book;
+    /** the bot that searches positions the book does not have */
+    private final Bot search;
+    /** whether the last move came from the book */
+    private boolean fromBook;
+
+    /**
+     * Put an opening book in front of another bot.
+     *
+     * @param book the opening book
+     * @param search the bot to use out of the book
+     */
+    public BookBot(OpeningBook book, Bot search) {
+        this.book = book;
+        this.search = search;
+    }
+
+    @Override
+    public int[] chooseMove(Reversi game) throws ReversiException {
+        int square = this.book.lookup(game);
+        this.fromBook = square >= 0;
+        if (this.fromBook) {
+            int DIM = game.getDimension();
+            return new int[] {square / DIM, square % DIM};
+        }
+        return this.search.chooseMove(game);
+    }
+
+    @Override
+    public String getStatistics() {
+        return this.fromBook ? "book move (" + this.book.getEntries() + " positions)" :
+                this.search.getStatistics();
+    }
+
+    /**
+     * Get the bot used once the game leaves the book.
+     *
+     * @return the search
+     */
+    public Bot getSearch() {
+        return this.search;
+    }
+
+    /**
+     * Close the search if it needs closing.  The book is shared, so it is
+     * left open.
+     *
+     * @throws IOException if the search fails to close
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.search instanceof Closeable) {
+            ((Closeable) this.search).close();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package reversi.bot;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+
+/**
+ * A computer player that picks moves for a {@link Reversi} game.
+ */
+public interface Bot {
+    /**
+     * Pick a move for the player whose turn it is.
+     *
+     * @param game the current position; it is not changed
+     * @return the row and column of the chosen move
+     * @throws ReversiException if the game has no valid moves left
+     */
+    int[] chooseMove(Reversi game) throws ReversiException;
+
+    /**
+     * Describe the work done to choose the last move, for logging.
+     *
+     * @return a one line summary
+     */
+    String getStatistics();
+}
@@ -0,0 +1,590 @@
+package reversi.bot;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Solves the end of a game exactly.  Near the end there are few enough
+ * empty squares left that the whole rest of the game can be searched, so
+ * instead of a heuristic evaluation this gives the final disk difference
+ * with best play from both sides.
+ * <P>
+ * With many squares left, moves are ordered by a one-ply search with the
+ * {@link Evaluation} below each of them, then by fastest-first: how few
+ * replies they leave the opponent.  The move an earlier visit found best,
+ * kept in the transposition table, always goes first.  Deeper in, where
+ * that costs more than it saves, moves are ordered by the {@link
+ * Evaluation} weight of the square and how often the square has caused a
+ * cutoff before, then by how many disks they flip and fastest-first.
+ * Either way a move into a quadrant with an odd number of empty squares
+ * gets a small bonus, since whoever plays last in a region tends to keep
+ * what they flip there.  Under the relaxed rules the opponent can play
+ * next to any disk, so fastest-first only separates moves that open up
+ * fewer new squares.  Once only a few squares are left, a simpler routine
+ * plays them out straight from a list of the empty squares, without
+ * generating or ordering moves at all.
+ * <P>
+ * Only the first move at each position is searched with the full window.
+ * The rest are searched with a null window just to show they are no
+ * better, and searched again properly only if one turns out to be.
+ */
+public class EndgameSolver {
+    /**
+     * empty count below which a search hands over to the solver by default:
+     * from 12 empties the solver beats searching to the end, and it still
+     * solves 12 in a fifth of a second on one core, well inside a move
+     */
+    public static final int DEFAULT_THRESHOLD = 13;
+    /** empty count at which the last-few-squares routine takes over */
+    public static final int LAST_FEW = 4;
+    /** size of the transposition table a solver makes for itself */
+    public static final int DEFAULT_TABLE_ENTRIES = 1 << 18;
+
+    /** empty count from which fastest-first ordering is worth its cost */
+    private static final int FASTEST_FIRST_EMPTIES = 7;
+    /** empty count from which moves are ordered by a shallow search */
+    private static final int SHALLOW_EMPTIES = 10;
+    /** plies below each move the shallow search looks; two cost more than they saved */
+    private static final int SHALLOW_DEPTH = 1;
+    /** ordering bonus for a move into an odd quadrant, with a shallow search */
+    private static final int SHALLOW_PARITY = 4;
+    /** how much the shallow search counts for, against replies */
+    private static final int SHALLOW_SCALE = 4;
+    /** empty count from which results are kept in the table */
+    private static final int TABLE_EMPTIES = 5;
+    /** how many nodes to search between looks at the clock (power of 2) */
+    private static final int CLOCK_INTERVAL = 1024;
+    /** ordering bonus for a move into an odd quadrant, about two interior disks */
+    private static final int ODD_PARITY = 8;
+    /** how much a square's weight counts for, against flips and replies */
+    private static final int WEIGHT_SCALE = 4;
+    /** history scores are shifted down this far before ordering */
+    private static final int HISTORY_SHIFT = 4;
+    /** history scores are halved once one of them passes this */
+    private static final int HISTORY_LIMIT = 1 << 24;
+
+    /** exact results of earlier solves */
+    private final TranspositionTable table;
+
+    /** square dimension of the board being solved */
+    private int DIM;
+    /** total number of squares on the board */
+    private int squares;
+    /** square weights for the board size */
+    private Evaluation evaluation;
+    /** how often each square has caused a cutoff, weighted by empties */
+    private int[] history;
+    /** which quadrant each square is in */
+    private int[] quadrant;
+    /** move list for each empty count */
+    private int[][] moves;
+    /** ordering scores matching each move list */
+    private int[][] orderScores;
+    /** empty squares for each empty count in the last-few routine */
+    private int[][] lastSquares;
+    /** empty squares in each quadrant, per empty count */
+    private int[][] quadrantEmpties;
+    /** the empty squares, found to count them by quadrant */
+    private int[] empty;
+
+    /** raised by another thread to stop the solve early, or null */
+    private AtomicBoolean stopSignal;
+    /** when the current solve has to stop */
+    private long deadline;
+    /** set when the solve ran out of time */
+    private boolean stopped;
+
+    /** nodes visited since the last {@link #begin} */
+    private long nodes;
+    /** disk difference of the last solve, for the player to move */
+    private int score;
+    /** how long the last solve took, in nanoseconds */
+    private long elapsedNanos;
+
+    /**
+     * Create a solver with its own transposition table.
+     */
+    public EndgameSolver() {
+        this(new TranspositionTable(DEFAULT_TABLE_ENTRIES));
+    }
+
+    /**
+     * Create a solver that keeps its results in the given table.  The
+     * scores it stores are disk differences, so it should not share a
+     * table with a heuristic search.
+     *
+     * @param table the transposition table
+     */
+    public EndgameSolver(TranspositionTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Solve a position with no time limit.
+     *
+     * @param game the position to solve; it is not changed
+     * @return the best move, as row * DIM + col
+     * @throws ReversiException if the game is already over, or the board is
+     *                          too large
+     */
+    public int solve(Reversi game) throws ReversiException {
+        return solve(game, Long.MAX_VALUE);
+    }
+
+    /**
+     * Solve a position, giving up at a deadline.
+     *
+     * @param game the position to solve; it is not changed
+     * @param deadline the {@link System#nanoTime()} at which to give up
+     * @return the best move, as row * DIM + col, or -1 if the deadline
+     *         passed first
+     * @throws ReversiException if the game is already over, or the board is
+     *                          more than {@link TranspositionTable#MAX_DIM}
+     *                          across
+     */
+    public int solve(Reversi game, long deadline) throws ReversiException {
+        long start = System.nanoTime();
+        if (game.gameOver()) {
+            throw new ReversiException("Game is over");
+        }
+        if (game.getDimension() > TranspositionTable.MAX_DIM) {
+            throw new ReversiException("Board too large to solve: " + game.getDimension());
+        }
+        begin(game.getDimension(), deadline);
+
+        Reversi position = new Reversi(game);
+        int empties = this.squares - position.getNumMoves();
+        int[] rootMoves = moveList(empties);
+        int count = position.validMoves(rootMoves);
+        // an earlier solve, or the search that handed over, may know the best move
+        long entry = empties >= TABLE_EMPTIES ? this.table.probe(position.getHash()) :
+                TranspositionTable.MISS;
+        orderMoves(position, empties, count,
+                entry == TranspositionTable.MISS ? -1 : TranspositionTable.move(entry));
+
+        int alpha = -this.squares - 1;
+        int best = -1;
+        for (int i = 0; i < count; ++i) {
+            int square = rootMoves[i];
+            position.makeMove(square / this.DIM, square % this.DIM);
+            int value;
+            if (i == 0) {
+                value = -value(position, -this.squares - 1, -alpha);
+            } else {
+                value = -value(position, -alpha - 1, -alpha);
+                if (value > alpha && !this.stopped) {
+                    value = -value(position, -this.squares - 1, -alpha);
+                }
+            }
+            position.unmakeMove();
+            if (this.stopped) {
+                best = -1;
+                break;
+            }
+            if (value > alpha) {
+                alpha = value;
+                best = square;
+            }
+        }
+
+        this.score = alpha;
+        this.elapsedNanos = System.nanoTime() - start;
+        return best;
+    }
+
+    /**
+     * Get ready to solve positions on a board, resetting the node count
+     * and the stop flag, and start a new generation in the table.
+     *
+     * @param DIM square dimension of board
+     * @param deadline the {@link System#nanoTime()} at which to give up
+     */
+    void begin(int DIM, long deadline) {
+        if (this.DIM != DIM || this.moves == null) {
+            this.DIM = DIM;
+            this.squares = DIM * DIM;
+            this.evaluation = new Evaluation(DIM);
+            this.quadrant = new int[this.squares];
+            int half = DIM / 2;
+            for (int sq = 0; sq < this.squares; ++sq) {
+                this.quadrant[sq] = (sq / DIM < half ? 0 : 2) + (sq % DIM < half ? 0 : 1);
+            }
+            this.moves = new int[this.squares + 1][];
+            this.orderScores = new int[this.squares + 1][];
+            this.quadrantEmpties = new int[this.squares + 1][4];
+            this.lastSquares = new int[LAST_FEW + 1][this.squares];
+            this.empty = new int[this.squares];
+            this.history = new int[this.squares];
+        } else {
+            ageHistory();
+        }
+        this.table.newSearch();
+        this.deadline = deadline;
+        this.stopped = false;
+        this.nodes = 0;
+    }
+
+    /**
+     * Find the exact value of a position.  {@link #begin} must have been
+     * called for the board size first.
+     *
+     * @param game the position; moves are made and unmade on it, so it is
+     *             left as it was
+     * @param alpha lower bound of interesting scores
+     * @param beta upper bound of interesting scores
+     * @return the final disk difference with best play, for the player to
+     *         move, or a bound on it if it is outside the window
+     * @throws ReversiException if a generated move is rejected
+     */
+    int value(Reversi game, int alpha, int beta) throws ReversiException {
+        ++this.nodes;
+        if ((this.nodes & (CLOCK_INTERVAL - 1)) == 0 &&
+                (System.nanoTime() > this.deadline ||
+                        (this.stopSignal != null && this.stopSignal.get()))) {
+            this.stopped = true;
+        }
+        if (this.stopped) {
+            return 0;
+        }
+        int empties = this.squares - game.getNumMoves();
+        if (empties == 0) {
+            return diskDifference(game);
+        }
+        if (empties <= LAST_FEW) {
+            int[] list = this.lastSquares[empties];
+            game.emptySquares(list);
+            return lastFew(game, list, empties, alpha, beta);
+        }
+
+        long hash = 0;
+        int originalAlpha = alpha;
+        int hashMove = -1;
+        if (empties >= TABLE_EMPTIES) {
+            hash = game.getHash();
+            long entry = this.table.probe(hash);
+            if (entry != TranspositionTable.MISS) {
+                hashMove = TranspositionTable.move(entry);
+                int stored = TranspositionTable.score(entry);
+                switch (TranspositionTable.flag(entry)) {
+                    case TranspositionTable.EXACT:
+                        return stored;
+                    case TranspositionTable.LOWER:
+                        alpha = Math.max(alpha, stored);
+                        break;
+                    case TranspositionTable.UPPER:
+                        beta = Math.min(beta, stored);
+                        break;
+                }
+                if (alpha >= beta) {
+                    return stored;
+                }
+            }
+        }
+
+        int[] nodeMoves = moveList(empties);
+        int count = game.validMoves(nodeMoves);
+        orderMoves(game, empties, count, hashMove);
+
+        int best = -this.squares - 1;
+        int bestMove = -1;
+        for (int i = 0; i < count; ++i) {
+            int square = nodeMoves[i];
+            game.makeMove(square / this.DIM, square % this.DIM);
+            int value;
+            if (i == 0) {
+                value = -value(game, -beta, -alpha);
+            } else {
+                value = -value(game, -alpha - 1, -alpha);
+                if (value > alpha && value < beta && !this.stopped) {
+                    value = -value(game, -beta, -alpha);
+                }
+            }
+            game.unmakeMove();
+            if (this.stopped) {
+                return 0;
+            }
+            if (value > best) {
+                best = value;
+                bestMove = square;
+                if (value > alpha) {
+                    alpha = value;
+                    if (alpha >= beta) {
+                        this.history[square] += empties * empties;
+                        if (this.history[square] > HISTORY_LIMIT) {
+                            ageHistory();
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (empties >= TABLE_EMPTIES) {
+            int flag = best <= originalAlpha ? TranspositionTable.UPPER :
+                    best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+            this.table.store(hash, empties, flag, best, bestMove);
+        }
+        return best;
+    }
+
+    /**
+     * Play out the last few squares.  The empty squares are kept in a
+     * list, and a square that has been played is swapped to the end of
+     * the list rather than the list being rebuilt.
+     *
+     * @param game the position
+     * @param list the empty squares; the first {@code count} are unplayed
+     * @param count how many squares are left
+     * @param alpha lower bound of interesting scores
+     * @param beta upper bound of interesting scores
+     * @return the final disk difference for the player to move, or a bound
+     * @throws ReversiException if a move is rejected
+     */
+    private int lastFew(Reversi game, int[] list, int count, int alpha, int beta)
+            throws ReversiException {
+        if (count == 1) {
+            // the last square always borders a disk, so it can be played
+            int square = list[0];
+            game.makeMove(square / this.DIM, square % this.DIM);
+            int value = -diskDifference(game);
+            game.unmakeMove();
+            ++this.nodes;
+            return value;
+        }
+
+        int best = -this.squares - 1;
+        for (int i = 0; i < count; ++i) {
+            int square = list[i];
+            int row = square / this.DIM;
+            int col = square % this.DIM;
+            if (!game.isValidMove(row, col)) {
+                continue;
+            }
+            list[i] = list[count - 1];
+            list[count - 1] = square;
+            game.makeMove(row, col);
+            ++this.nodes;
+            int value = -lastFew(game, list, count - 1, -beta, -alpha);
+            game.unmakeMove();
+            list[count - 1] = list[i];
+            list[i] = square;
+            if (value > best) {
+                best = value;
+                if (value > alpha) {
+                    alpha = value;
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Get the move list for an empty count, making it and its ordering
+     * scores the first time.  Only the counts near the end of the game
+     * are ever used, so they are not all made up front.
+     *
+     * @param empties how many empty squares the position has
+     * @return the move list
+     */
+    private int[] moveList(int empties) {
+        if (this.moves[empties] == null) {
+            this.moves[empties] = new int[this.squares];
+            this.orderScores[empties] = new int[this.squares];
+        }
+        return this.moves[empties];
+    }
+
+    /**
+     * Sort a move list by a shallow search, or deeper in by square weight,
+     * history and how many disks each move flips, then by how few replies
+     * it leaves the opponent and by parity.
+     *
+     * @param game the position the moves are for
+     * @param empties how many empty squares the position has
+     * @param count how many moves there are
+     * @param first a move to put ahead of all others, or -1
+     * @throws ReversiException if a move is rejected
+     */
+    private void orderMoves(Reversi game, int empties, int count, int first)
+            throws ReversiException {
+        int[] nodeMoves = this.moves[empties];
+        int[] scores = this.orderScores[empties];
+
+        int[] regions = this.quadrantEmpties[empties];
+        regions[0] = regions[1] = regions[2] = regions[3] = 0;
+        int emptyCount = game.emptySquares(this.empty);
+        for (int i = 0; i < emptyCount; ++i) {
+            ++regions[this.quadrant[this.empty[i]]];
+        }
+
+        boolean shallow = empties >= SHALLOW_EMPTIES;
+        boolean fastestFirst = empties >= FASTEST_FIRST_EMPTIES;
+        Reversi.Move player = game.isP1Turn() ? Reversi.Move.PLAYER_ONE : Reversi.Move.PLAYER_TWO;
+        for (int i = 0; i < count; ++i) {
+            int square = nodeMoves[i];
+            int value;
+            boolean odd = (regions[this.quadrant[square]] & 1) != 0;
+            if (square == first) {
+                value = Integer.MAX_VALUE;
+            } else if (shallow) {
+                value = odd ? SHALLOW_PARITY : 0;
+                game.makeMove(square / this.DIM, square % this.DIM);
+                value += -shallowValue(game, SHALLOW_DEPTH, -Integer.MAX_VALUE, Integer.MAX_VALUE) *
+                        SHALLOW_SCALE - game.countValidMoves();
+                game.unmakeMove();
+            } else {
+                value = odd ? ODD_PARITY : 0;
+                value += this.evaluation.weight(square) * WEIGHT_SCALE +
+                        (this.history[square] >> HISTORY_SHIFT);
+                if (fastestFirst) {
+                    int before = game.countDisks(player);
+                    game.makeMove(square / this.DIM, square % this.DIM);
+                    value += game.countDisks(player) - before - game.countValidMoves();
+                    game.unmakeMove();
+                }
+            }
+            scores[i] = value;
+        }
+
+        // insertion sort, best first
+        for (int i = 1; i < count; ++i) {
+            int square = nodeMoves[i];
+            int value = scores[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < value) {
+                nodeMoves[j + 1] = nodeMoves[j];
+                scores[j + 1] = scores[j];
+                --j;
+            }
+            nodeMoves[j + 1] = square;
+            scores[j + 1] = value;
+        }
+    }
+
+    /**
+     * Search a few plies with the {@link Evaluation}, to order moves.
+     *
+     * @param game the position
+     * @param depth how many more plies to search
+     * @param alpha lower bound of interesting scores
+     * @param beta upper bound of interesting scores
+     * @return the evaluation for the player to move, or a bound on it
+     * @throws ReversiException if a generated move is rejected
+     */
+    private int shallowValue(Reversi game, int depth, int alpha, int beta) throws ReversiException {
+        ++this.nodes;
+        int empties = this.squares - game.getNumMoves();
+        if (depth == 0 || empties == 0) {
+            return this.evaluation.evaluate(game);
+        }
+        int[] nodeMoves = moveList(empties);
+        int count = game.validMoves(nodeMoves);
+        int best = -Integer.MAX_VALUE;
+        for (int i = 0; i < count; ++i) {
+            int square = nodeMoves[i];
+            game.makeMove(square / this.DIM, square % this.DIM);
+            int value = -shallowValue(game, depth - 1, -beta, -alpha);
+            game.unmakeMove();
+            if (value > best) {
+                best = value;
+                if (value > alpha) {
+                    alpha = value;
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Halve every history score, so old cutoffs count for less.
+     */
+    private void ageHistory() {
+        for (int i = 0; i < this.history.length; ++i) {
+            this.history[i] >>= 1;
+        }
+    }
+
+    /**
+     * Get the disk difference of a full board.
+     *
+     * @param game the finished game
+     * @return the player to move's disks minus the opponent's
+     */
+    private int diskDifference(Reversi game) {
+        int p1 = game.countDisks(Reversi.Move.PLAYER_ONE);
+        int diff = 2 * p1 - this.squares;
+        return game.isP1Turn() ? diff : -diff;
+    }
+
+    /**
+     * Give the solver a flag that another thread can raise to stop it.
+     *
+     * @param stopSignal the flag, checked every so many nodes
+     */
+    void setStopSignal(AtomicBoolean stopSignal) {
+        this.stopSignal = stopSignal;
+    }
+
+    /**
+     * Did the last solve give up before finishing?
+     *
+     * @return true if it ran out of time or was stopped
+     */
+    public boolean isStopped() {
+        return this.stopped;
+    }
+
+    /**
+     * Get the transposition table this solver uses.
+     *
+     * @return the table
+     */
+    public TranspositionTable getTable() {
+        return this.table;
+    }
+
+    /**
+     * Get the number of positions visited by the last solve.
+     *
+     * @return node count
+     */
+    public long getNodes() {
+        return this.nodes;
+    }
+
+    /**
+     * Get the final disk difference the last solve found, for the player
+     * who was to move.
+     *
+     * @return the disk difference
+     */
+    public int getScore() {
+        return this.score;
+    }
+
+    /**
+     * Get how long the last solve took.
+     *
+     * @return elapsed time in milliseconds
+     */
+    public long getElapsedMillis() {
+        return this.elapsedNanos / 1_000_000L;
+    }
+
+    /**
+     * Get the speed of the last solve.
+     *
+     * @return nodes visited per second
+     */
+    public long getNodesPerSecond() {
+        return this.elapsedNanos == 0 ? 0 : this.nodes * 1_000_000_000L / this.elapsedNanos;
+    }
+}
@@ -0,0 +1,78 @@
+package reversi.bot;
+
+import reversi.Reversi;
+
+/**
+ * A static evaluation of a {@link Reversi} position.  Every disk is worth a
+ * point, adjusted by where it sits: corners can never be flipped, so they
+ * are worth a lot, while the squares next to an empty corner tend to give
+ * it away.
+ */
+public class Evaluation {
+    /** value of a disk in a corner */
+    private static final int CORNER = 20;
+    /** value of a disk diagonally next to a corner */
+    private static final int X_SQUARE = -6;
+    /** value of a disk on an edge next to a corner */
+    private static final int C_SQUARE = -3;
+    /** value of any other disk on an edge */
+    private static final int EDGE = 3;
+    /** value of any other disk */
+    private static final int INTERIOR = 1;
+
+    /** the value of a disk on each square, indexed by row * DIM + col */
+    private final int[] weights;
+
+    /**
+     * Build the square weights for a board size.
+     *
+     * @param DIM square dimension of board
+     */
+    public Evaluation(int DIM) {
+        this.weights = new int[DIM * DIM];
+        int last = DIM - 1;
+        for (int row = 0; row < DIM; ++row) {
+            for (int col = 0; col < DIM; ++col) {
+                int fromRowEdge = Math.min(row, last - row);
+                int fromColEdge = Math.min(col, last - col);
+                int weight;
+                if (fromRowEdge == 0 && fromColEdge == 0) {
+                    weight = CORNER;
+                } else if (fromRowEdge == 1 && fromColEdge == 1) {
+                    weight = X_SQUARE;
+                } else if (Math.min(fromRowEdge, fromColEdge) == 0 &&
+                        Math.max(fromRowEdge, fromColEdge) == 1) {
+                    weight = C_SQUARE;
+                } else if (fromRowEdge == 0 || fromColEdge == 0) {
+                    weight = EDGE;
+                } else {
+                    weight = INTERIOR;
+                }
+                this.weights[row * DIM + col] = weight;
+            }
+        }
+    }
+
+    /**
+     * Score a position from the point of view of the player whose turn it
+     * is.
+     *
+     * @param game the position
+     * @return positive if the player to move is ahead
+     */
+    public int evaluate(Reversi game) {
+        int p1 = game.weightedDisks(Reversi.Move.PLAYER_ONE, this.weights);
+        int p2 = game.weightedDisks(Reversi.Move.PLAYER_TWO, this.weights);
+        return game.isP1Turn() ? p1 - p2 : p2 - p1;
+    }
+
+    /**
+     * Get the weight given to a square, for ordering moves.
+     *
+     * @param square the square, as row * DIM + col
+     * @return its weight
+     */
+    public int weight(int square) {
+        return this.weights[square];
+    }
+}
@@ -0,0 +1,540 @@
+package reversi.bot;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A computer player using Monte Carlo Tree Search, for boards too big for
+ * a static evaluation to be much use.  Moves are picked in the tree with
+ * UCT, and positions at the edge of the tree are scored by playing random
+ * games to the end on a {@link PlayoutBoard}.
+ * <P>
+ * Several threads grow the same tree at once.  Every node a thread passes
+ * through on its way down gets a virtual loss, which makes the other
+ * threads prefer different paths until the real result is backed up.
+ * <P>
+ * After a move is played the part of the tree below it is kept, so the
+ * next search starts with the playouts already done for that position.
+ */
+public class MonteCarloSearch implements Bot, Closeable {
+    /** default limit on how many nodes the tree may grow to */
+    public static final int DEFAULT_MAX_NODES = 2_000_000;
+
+    /** UCT exploration constant */
+    private static final double EXPLORATION = 1.4;
+    /** visits added to a node while a thread is below it */
+    private static final int VIRTUAL_LOSS = 3;
+
+    /**
+     * A position in the search tree.  Rewards are counted in half points
+     * (2 for a win, 1 for a tie) for the player who moved into the node.
+     */
+    private static final class Node {
+        /** updates {@link #visits} atomically */
+        private static final AtomicIntegerFieldUpdater<Node> VISITS =
+                AtomicIntegerFieldUpdater.newUpdater(Node.class, "visits");
+        /** updates {@link #reward} atomically */
+        private static final AtomicLongFieldUpdater<Node> REWARD =
+                AtomicLongFieldUpdater.newUpdater(Node.class, "reward");
+
+        /** the move that led here, as row * DIM + col, or -1 */
+        private final int move;
+        /** whether the first player made the move that led here */
+        private final boolean p1Moved;
+        /** the positions one move on; null until the node is expanded */
+        private volatile Node[] children;
+        /** playouts through this node, plus any virtual losses */
+        private volatile int visits;
+        /** half points won through this node */
+        private volatile long reward;
+
+        /**
+         * Create an unexpanded node.
+         *
+         * @param move the move that led here
+         * @param p1Moved whether the first player made that move
+         */
+        private Node(int move, boolean p1Moved) {
+            this.move = move;
+            this.p1Moved = p1Moved;
+        }
+
+        /**
+         * Find the child reached by a move.
+         *
+         * @param square the move
+         * @return the child, or null if there is none
+         */
+        private Node child(int square) {
+            Node[] kids = this.children;
+            if (kids != null) {
+                for (Node kid : kids) {
+                    if (kid.move == square) {
+                        return kid;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /** how long each move may take, in nanoseconds */
+    private final long budgetNanos;
+    /** the most nodes the tree may have */
+    private final int maxNodes;
+    /** per-thread search state; the first runs on the calling thread */
+    private final Worker[] workers;
+    /** threads that run the other workers */
+    private final ExecutorService helpers;
+
+    /** square dimension of the board being searched */
+    private int DIM;
+    /** the root of the tree */
+    private Node root;
+    /** the position after the last move this search chose, for tree reuse */
+    private Reversi afterLastMove;
+    /** how many nodes the tree has */
+    private final AtomicInteger nodeCount = new AtomicInteger();
+    /** playouts finished in the current search */
+    private final LongAdder playouts = new LongAdder();
+    /** when the current search has to stop */
+    private volatile long deadline;
+
+    /** playouts done by the last search */
+    private long lastPlayouts;
+    /** how long the last search took, in nanoseconds */
+    private long elapsedNanos;
+    /** visits the root already had when the last search started */
+    private int reusedVisits;
+    /** how many workers the last search stopped early */
+    private int failedWorkers;
+    /** why a worker in the last search stopped early, or null */
+    private ReversiException workerFailure;
+
+    /**
+     * Create a search with a time budget per move.
+     *
+     * @param budgetMillis how long to think about each move
+     * @param threads how many threads run playouts
+     */
+    public MonteCarloSearch(long budgetMillis, int threads) {
+        this(budgetMillis, threads, DEFAULT_MAX_NODES);
+    }
+
+    /**
+     * Create a search.
+     *
+     * @param budgetMillis how long to think about each move
+     * @param threads how many threads run playouts
+     * @param maxNodes the most nodes the tree may grow to
+     */
+    public MonteCarloSearch(long budgetMillis, int threads, int maxNodes) {
+        this.budgetNanos = budgetMillis * 1_000_000L;
+        this.maxNodes = maxNodes;
+        this.workers = new Worker[Math.max(1, threads)];
+        for (int i = 0; i < this.workers.length; ++i) {
+            this.workers[i] = new Worker(i);
+        }
+        this.helpers = this.workers.length > 1 ?
+                Executors.newFixedThreadPool(this.workers.length - 1, r -> {
+                    Thread thread = new Thread(r, "playout-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }) : null;
+    }
+
+    @Override
+    public int[] chooseMove(Reversi game) throws ReversiException {
+        int square = search(game);
+        return new int[] {square / this.DIM, square % this.DIM};
+    }
+
+    /**
+     * Grow the tree for the time budget and return the most visited move.
+     *
+     * @param game the position to search; it is not changed
+     * @return the best move, as row * DIM + col
+     * @throws ReversiException if there are no valid moves, or every
+     *                          worker stopped early
+     */
+    public int search(Reversi game) throws ReversiException {
+        long start = System.nanoTime();
+        if (game.gameOver()) {
+            throw new ReversiException("No valid moves");
+        }
+        findRoot(game);
+        this.reusedVisits = this.root.visits;
+        this.playouts.reset();
+        this.deadline = start + this.budgetNanos;
+
+        // run the helpers and do a share of the work on this thread too
+        CountDownLatch done = new CountDownLatch(this.workers.length - 1);
+        for (int i = 1; i < this.workers.length; ++i) {
+            Worker worker = this.workers[i];
+            worker.prepare(game);
+            this.helpers.execute(() -> {
+                try {
+                    worker.run();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        this.workers[0].prepare(game);
+        this.workers[0].run();
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException ie) {
+                // the helpers stop on their own at the deadline
+            }
+        }
+
+        // a worker that stopped early leaves the tree to the others
+        this.failedWorkers = 0;
+        this.workerFailure = null;
+        for (Worker worker : this.workers) {
+            if (worker.failure != null) {
+                ++this.failedWorkers;
+                this.workerFailure = worker.failure;
+            }
+        }
+        if (this.failedWorkers == this.workers.length) {
+            throw new ReversiException("Every playout worker stopped", this.workerFailure);
+        }
+
+        // play the most visited move
+        Node best = null;
+        for (Node child : this.root.children) {
+            if (best == null || child.visits > best.visits) {
+                best = child;
+            }
+        }
+
+        this.afterLastMove = new Reversi(game);
+        this.afterLastMove.makeMove(best.move / this.DIM, best.move % this.DIM);
+        this.root = best;
+        this.lastPlayouts = this.playouts.sum();
+        this.elapsedNanos = System.nanoTime() - start;
+        return best.move;
+    }
+
+    /**
+     * Pick the root for a search.  If the game is one opponent move past
+     * the last move this search chose, the subtree for that position is
+     * reused; otherwise a fresh tree is started.
+     *
+     * @param game the position to search
+     */
+    private void findRoot(Reversi game) {
+        Node reused = null;
+        if (this.root != null && this.afterLastMove != null &&
+                this.DIM == game.getDimension() &&
+                this.afterLastMove.getNumMoves() + 1 == game.getNumMoves()) {
+            // find the opponent's move: the one square that got filled
+            int reply = -1;
+            for (int square = 0; square < this.DIM * this.DIM && reply < 0; ++square) {
+                int row = square / this.DIM;
+                int col = square % this.DIM;
+                if (this.afterLastMove.getContents(row, col) == Reversi.Move.NONE &&
+                        game.getContents(row, col) != Reversi.Move.NONE) {
+                    reply = square;
+                }
+            }
+            if (reply >= 0) {
+                try {
+                    this.afterLastMove.makeMove(reply / this.DIM, reply % this.DIM);
+                    if (this.afterLastMove.getHash() == game.getHash()) {
+                        reused = this.root.child(reply);
+                    }
+                } catch (ReversiException e) {
+                    // not a position we searched
+                }
+            }
+        }
+
+        this.DIM = game.getDimension();
+        if (reused != null) {
+            this.root = reused;
+            this.nodeCount.set(countNodes(reused));
+        } else {
+            this.root = new Node(-1, !game.isP1Turn());
+            this.nodeCount.set(1);
+        }
+    }
+
+    /**
+     * Count the nodes in a subtree.
+     *
+     * @param top the top of the subtree
+     * @return how many nodes it has
+     */
+    private static int countNodes(Node top) {
+        int count = 0;
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(top);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            ++count;
+            Node[] children = node.children;
+            if (children != null) {
+                for (Node child : children) {
+                    pending.push(child);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The state one thread needs to grow the tree.
+     */
+    private final class Worker {
+        /** this thread's copy of the root position */
+        private Reversi position;
+        /** the nodes on the current path, root first */
+        private Node[] path;
+        /** the board random games are played on */
+        private PlayoutBoard playout;
+        /** buffer for the moves of a node being expanded */
+        private int[] moves;
+        /** this thread's random numbers */
+        private final SplittableRandom rng;
+        /** why this worker stopped before the deadline, or null */
+        private ReversiException failure;
+
+        /**
+         * Create a worker.
+         *
+         * @param seed seed for its random numbers
+         */
+        private Worker(int seed) {
+            this.rng = new SplittableRandom(0x6D63_7473L + seed);
+        }
+
+        /**
+         * Get ready to search a position.
+         *
+         * @param game the root position
+         */
+        private void prepare(Reversi game) {
+            int squares = game.getDimension() * game.getDimension();
+            if (this.playout == null || this.moves.length != squares) {
+                this.playout = new PlayoutBoard(game.getDimension());
+                this.moves = new int[squares];
+                this.path = new Node[squares + 1];
+            }
+            this.position = new Reversi(game);
+            this.failure = null;
+        }
+
+        /**
+         * Run playouts until the deadline, or until a move from the tree
+         * is rejected, which means the tree does not match the position;
+         * the search is told why afterwards.
+         */
+        private void run() {
+            try {
+                do {
+                    iterate();
+                } while (System.nanoTime() < MonteCarloSearch.this.deadline);
+            } catch (ReversiException e) {
+                this.failure = e;
+            }
+        }
+
+        /**
+         * Do one selection, expansion, playout and backup.
+         *
+         * @throws ReversiException if a move from the tree is rejected
+         */
+        private void iterate() throws ReversiException {
+            int DIM = MonteCarloSearch.this.DIM;
+            Node node = MonteCarloSearch.this.root;
+            int depth = 0;
+            this.path[depth++] = node;
+
+            // walk down the tree
+            while (true) {
+                Node[] children = node.children;
+                if (children == null) {
+                    if (this.position.gameOver() ||
+                            MonteCarloSearch.this.nodeCount.get() >= MonteCarloSearch.this.maxNodes) {
+                        break;
+                    }
+                    children = expand(node);
+                }
+                if (children.length == 0) {
+                    break;
+                }
+                node = select(node, children);
+                Node.VISITS.addAndGet(node, VIRTUAL_LOSS);
+                this.position.makeMove(node.move / DIM, node.move % DIM);
+                this.path[depth++] = node;
+                if (node.visits == VIRTUAL_LOSS) {
+                    // first time here: score it with a playout
+                    break;
+                }
+            }
+
+            // score the leaf
+            int diff;
+            if (this.position.gameOver()) {
+                diff = this.position.countDisks(Reversi.Move.PLAYER_ONE) -
+                        this.position.countDisks(Reversi.Move.PLAYER_TWO);
+            } else {
+                this.playout.load(this.position);
+                diff = this.playout.play(this.rng);
+            }
+
+            // back the result up the path, removing the virtual losses
+            long p1Points = diff > 0 ? 2 : diff == 0 ? 1 : 0;
+            Node.VISITS.incrementAndGet(this.path[0]);
+            for (int i = 1; i < depth; ++i) {
+                Node visited = this.path[i];
+                Node.REWARD.addAndGet(visited, visited.p1Moved ? p1Points : 2 - p1Points);
+                Node.VISITS.addAndGet(visited, 1 - VIRTUAL_LOSS);
+            }
+            for (int i = 1; i < depth; ++i) {
+                this.position.unmakeMove();
+            }
+            MonteCarloSearch.this.playouts.increment();
+        }
+
+        /**
+         * Give a node its children, unless another thread already has.
+         *
+         * @param node the node, whose position is {@link #position}
+         * @return the node's children
+         */
+        private Node[] expand(Node node) {
+            synchronized (node) {
+                if (node.children == null) {
+                    int count = this.position.validMoves(this.moves);
+                    boolean p1Moves = this.position.isP1Turn();
+                    Node[] children = new Node[count];
+                    for (int i = 0; i < count; ++i) {
+                        children[i] = new Node(this.moves[i], p1Moves);
+                    }
+                    MonteCarloSearch.this.nodeCount.addAndGet(count);
+                    node.children = children;
+                }
+                return node.children;
+            }
+        }
+
+        /**
+         * Pick the child with the best UCT score.  Unvisited children
+         * come first.
+         *
+         * @param parent the node being walked through
+         * @param children its children
+         * @return the chosen child
+         */
+        private Node select(Node parent, Node[] children) {
+            double logVisits = Math.log(Math.max(1, parent.visits));
+            Node best = children[0];
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (Node child : children) {
+                int visits = child.visits;
+                if (visits == 0) {
+                    return child;
+                }
+                double value = child.reward / (2.0 * visits) +
+                        EXPLORATION * Math.sqrt(logVisits / visits);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = child;
+                }
+            }
+            return best;
+        }
+    }
+
+    @Override
+    public String getStatistics() {
+        return this.lastPlayouts + " playouts, " + getPlayoutsPerSecond() + " playouts/sec, " +
+                this.reusedVisits + " reused, " + this.nodeCount.get() + " nodes" +
+                (this.failedWorkers == 0 ? "" :
+                        ", " + this.failedWorkers + " workers stopped: " + this.workerFailure.getMessage());
+    }
+
+    /**
+     * Get why a worker stopped before the deadline in the last search.
+     * The move found by the others still stands.
+     *
+     * @return the error, or null if every worker ran to the deadline
+     */
+    public ReversiException getWorkerFailure() {
+        return this.workerFailure;
+    }
+
+    /**
+     * Get how many playouts the last search did.
+     *
+     * @return playout count
+     */
+    public long getPlayouts() {
+        return this.lastPlayouts;
+    }
+
+    /**
+     * Get the playout speed of the last search, over all threads.
+     *
+     * @return playouts per second
+     */
+    public long getPlayoutsPerSecond() {
+        return this.elapsedNanos == 0 ? 0 : this.lastPlayouts * 1_000_000_000L / this.elapsedNanos;
+    }
+
+    /**
+     * Get how many visits the root already had from earlier searches when
+     * the last search started.
+     *
+     * @return visits reused from the previous tree
+     */
+    public int getReusedVisits() {
+        return this.reusedVisits;
+    }
+
+    /**
+     * Get how many nodes the tree has.
+     *
+     * @return node count
+     */
+    public int getNodeCount() {
+        return this.nodeCount.get();
+    }
+
+    /**
+     * Get how long the last search took.
+     *
+     * @return elapsed time in milliseconds
+     */
+    public long getElapsedMillis() {
+        return this.elapsedNanos / 1_000_000L;
+    }
+
+    /**
+     * Stop the worker threads.
+     */
+    @Override
+    public void close() {
+        if (this.helpers != null) {
+            this.helpers.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package reversi.bot;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A book of opening moves, read from a file built ahead of time by
+ * {@link OpeningBookBuilder}.
+ * <P>
+ * Positions are keyed by their canonical hash (see {@link Symmetry}), so
+ * one entry covers all eight rotations and reflections of a position.
+ * The file is an open-addressing hash table: a header, then a power of two
+ * of fixed-size slots, and a position is found by probing from the slot its
+ * hash picks.  The file is memory-mapped read-only, and every bot in the
+ * JVM that opens the same file gets the same book, so the operating system
+ * keeps one copy of it in memory however many games are running.
+ * <P>
+ * File layout, all big-endian:
+ * <pre>
+ *   header:  int magic, int version, int DIM, int slots, int entries,
+ *            int maxMoves, 8 bytes reserved
+ *   slot:    long canonical hash (0 = empty), int move, int score
+ * </pre>
+ * The move is in the canonical position's frame, and the score is the
+ * search score the builder found, for the player to move.
+ */
+public class OpeningBook {
+    /** first bytes of every book file: "RVOB" */
+    public static final int MAGIC = 0x52564F42;
+    /** version of the file layout */
+    public static final int VERSION = 1;
+    /** bytes before the first slot */
+    public static final int HEADER_BYTES = 32;
+    /** bytes in each slot */
+    public static final int SLOT_BYTES = 16;
+
+    /** every book opened so far, by absolute file path */
+    private static final Map<Path, OpeningBook> BOOKS = new ConcurrentHashMap<>();
+
+    /** the mapped file; only absolute reads are used, so threads can share it */
+    private final ByteBuffer data;
+    /** square dimension of board the book is for */
+    private final int DIM;
+    /** slot count minus one; the slot count is a power of two */
+    private final int mask;
+    /** how many positions the book holds */
+    private final int entries;
+    /** the book has nothing for positions with more moves than this */
+    private final int maxMoves;
+    /** symmetries of the board size */
+    private final Symmetry symmetry;
+
+    /** how many times the book was asked for a move */
+    private final LongAdder lookups = new LongAdder();
+    /** how many of those found one */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Read a book from a buffer holding the whole file.
+     *
+     * @param data the file contents
+     * @throws ReversiException if the data is not a book
+     */
+    private OpeningBook(ByteBuffer data) throws ReversiException {
+        if (data.limit() < HEADER_BYTES || data.getInt(0) != MAGIC) {
+            throw new ReversiException("Not an opening book");
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new ReversiException("Unsupported opening book version " + data.getInt(4));
+        }
+        this.data = data;
+        this.DIM = data.getInt(8);
+        int slots = data.getInt(12);
+        this.entries = data.getInt(16);
+        this.maxMoves = data.getInt(20);
+        if (Integer.bitCount(slots) != 1 ||
+                data.limit() < HEADER_BYTES + (long) slots * SLOT_BYTES) {
+            throw new ReversiException("Opening book is truncated");
+        }
+        this.mask = slots - 1;
+        this.symmetry = new Symmetry(this.DIM);
+    }
+
+    /**
+     * Open a book file, or get the book already opened from it.
+     *
+     * @param file the book file
+     * @return the shared book
+     * @throws ReversiException if the file cannot be read or is not a book
+     */
+    public static OpeningBook open(Path file) throws ReversiException {
+        Path key = file.toAbsolutePath().normalize();
+        OpeningBook book = BOOKS.get(key);
+        if (book != null) {
+            return book;
+        }
+        synchronized (BOOKS) {
+            book = BOOKS.get(key);
+            if (book == null) {
+                try (FileChannel channel = FileChannel.open(key, StandardOpenOption.READ)) {
+                    MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    book = new OpeningBook(mapped);
+                } catch (IOException e) {
+                    throw new ReversiException("Cannot read opening book " + file, e);
+                }
+                BOOKS.put(key, book);
+            }
+            return book;
+        }
+    }
+
+    /**
+     * Find the book move for a position.
+     *
+     * @param game the position
+     * @return the move, as row * DIM + col, or -1 if the book has none
+     */
+    public int lookup(Reversi game) {
+        this.lookups.increment();
+        if (game.getDimension() != this.DIM || game.getNumMoves() > this.maxMoves) {
+            return -1;
+        }
+        long[] hashes = new long[Symmetry.COUNT];
+        int sym = this.symmetry.canonical(game, hashes);
+        long hash = hashes[sym];
+        if (hash == 0) {
+            return -1;
+        }
+
+        for (int slot = (int) hash & this.mask; ; slot = (slot + 1) & this.mask) {
+            int offset = HEADER_BYTES + slot * SLOT_BYTES;
+            long stored = this.data.getLong(offset);
+            if (stored == 0) {
+                return -1;
+            }
+            if (stored == hash) {
+                int square = this.symmetry.undo(sym, this.data.getInt(offset + 8));
+                if (!game.isValidMove(square / this.DIM, square % this.DIM)) {
+                    return -1;
+                }
+                this.hits.increment();
+                return square;
+            }
+        }
+    }
+
+    /**
+     * Write a book file.
+     *
+     * @param file where to write it
+     * @param DIM square dimension of board
+     * @param maxMoves the most moves any of the positions has had
+     * @param hashes canonical hash of each position; none may be 0
+     * @param moves book move of each position, in the canonical frame
+     * @param scores search score of each position
+     * @param count how many positions there are
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path file, int DIM, int maxMoves, long[] hashes, int[] moves, int[] scores,
+                             int count) throws IOException {
+        // keep the table at most half full so probes stay short
+        int slots = Integer.highestOneBit(Math.max(16, count * 2 - 1)) << 1;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + slots * SLOT_BYTES);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, DIM);
+        buffer.putInt(12, slots);
+        buffer.putInt(16, count);
+        buffer.putInt(20, maxMoves);
+
+        int mask = slots - 1;
+        for (int i = 0; i < count; ++i) {
+            int slot = (int) hashes[i] & mask;
+            while (buffer.getLong(HEADER_BYTES + slot * SLOT_BYTES) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            int offset = HEADER_BYTES + slot * SLOT_BYTES;
+            buffer.putLong(offset, hashes[i]);
+            buffer.putInt(offset + 8, moves[i]);
+            buffer.putInt(offset + 12, scores[i]);
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Get the board size the book is for.
+     *
+     * @return square dimension of board
+     */
+    public int getDimension() {
+        return this.DIM;
+    }
+
+    /**
+     * Get how many positions the book holds.
+     *
+     * @return entry count
+     */
+    public int getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * Get the most moves a position the book covers can have.
+     *
+     * @return move count
+     */
+    public int getMaxMoves() {
+        return this.maxMoves;
+    }
+
+    /**
+     * Get how many times the book has been asked for a move, by every bot
+     * that shares it.
+     *
+     * @return lookup count
+     */
+    public long getLookups() {
+        return this.lookups.sum();
+    }
+
+    /**
+     * Get how many lookups found a move.
+     *
+     * @return hit count
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+}
@@ -0,0 +1,92 @@
+package reversi.bot;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Builds an {@link OpeningBook} file by self-play.  Games are played out
+ * for a number of plies, and every position reached is searched with
+ * {@link AlphaBetaSearch} once; the move found becomes the book move.
+ * Some of the moves played are random instead of the book move, so the
+ * games spread out over many openings rather than repeating one line.
+ */
+public class OpeningBookBuilder {
+    /** chance of playing a random move rather than the book move */
+    private static final double EXPLORE = 0.3;
+    /** seed used when none is given, so a build can be repeated */
+    private static final long DEFAULT_SEED = 2017;
+
+    /**
+     * Build a book.
+     *
+     * @param args the board dimension, how many games to play, how many
+     *             plies of each game to put in the book, the search time
+     *             per position in milliseconds, the output file and
+     *             optionally a random seed
+     * @throws ReversiException if a move is rejected
+     * @throws IOException if the book cannot be written
+     */
+    public static void main(String[] args) throws ReversiException, IOException {
+        if (args.length != 5 && args.length != 6) {
+            System.out.println("Usage: java reversi.bot.OpeningBookBuilder DIM games plies " +
+                    "millis-per-position output [seed]");
+            System.exit(1);
+        }
+        int DIM = Integer.parseInt(args[0]);
+        int games = Integer.parseInt(args[1]);
+        int plies = Integer.parseInt(args[2]);
+        AlphaBetaSearch search = new AlphaBetaSearch(Long.parseLong(args[3]));
+        Path output = Paths.get(args[4]);
+        Random rng = new Random(args.length > 5 ? Long.parseLong(args[5]) : DEFAULT_SEED);
+
+        // canonical hash -> {move in the canonical frame, score}
+        Map<Long, int[]> book = new HashMap<>();
+        Symmetry symmetry = new Symmetry(DIM);
+        long[] hashes = new long[Symmetry.COUNT];
+        int[] moves = new int[DIM * DIM];
+        int maxMoves = 0;
+
+        for (int g = 0; g < games; ++g) {
+            Reversi game = new Reversi(DIM);
+            for (int ply = 0; ply < plies && !game.gameOver(); ++ply) {
+                int sym = symmetry.canonical(game, hashes);
+                long hash = hashes[sym];
+                int[] entry = book.get(hash);
+                int best;
+                if (entry == null) {
+                    best = search.search(game);
+                    if (hash != 0) {
+                        book.put(hash, new int[] {symmetry.apply(sym, best), search.getScore()});
+                        maxMoves = Math.max(maxMoves, game.getNumMoves());
+                    }
+                } else {
+                    best = symmetry.undo(sym, entry[0]);
+                }
+
+                int square = rng.nextDouble() < EXPLORE ? moves[rng.nextInt(game.validMoves(moves))] : best;
+                game.makeMove(square / DIM, square % DIM);
+            }
+            System.out.println("game " + (g + 1) + ": " + book.size() + " positions");
+        }
+
+        long[] bookHashes = new long[book.size()];
+        int[] bookMoves = new int[book.size()];
+        int[] bookScores = new int[book.size()];
+        int i = 0;
+        for (Map.Entry<Long, int[]> entry : book.entrySet()) {
+            bookHashes[i] = entry.getKey();
+            bookMoves[i] = entry.getValue()[0];
+            bookScores[i] = entry.getValue()[1];
+            ++i;
+        }
+        OpeningBook.write(output, DIM, maxMoves, bookHashes, bookMoves, bookScores, book.size());
+        System.out.println("Wrote " + book.size() + " positions to " + output);
+    }
+}
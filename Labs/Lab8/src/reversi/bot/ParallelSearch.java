@@ -0,0 +1,236 @@
+package reversi.bot;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A multi-threaded search using Lazy SMP.  Every thread runs its own
+ * {@link AlphaBetaSearch} on the same position, and they all share one
+ * lock-free {@link TranspositionTable}.  The threads never talk to each
+ * other directly; they help each other through the results they leave in
+ * the table.  Half the helper threads start their iterative deepening a
+ * ply deeper so the threads spread over different depths.
+ * <P>
+ * The calling thread does the main search.  When it finishes, the helpers
+ * are stopped, and the move from whichever thread finished the deepest
+ * depth is played.
+ */
+public class ParallelSearch implements Bot, Closeable {
+    /** square dimension of the last board searched */
+    private int DIM;
+    /** one search per thread; the first runs on the calling thread */
+    private final AlphaBetaSearch[] searches;
+    /** threads that run the helper searches */
+    private final ExecutorService helpers;
+    /** raised to stop the helpers once the main search is done */
+    private final AtomicBoolean stopSignal;
+    /** the table every search shares */
+    private final TranspositionTable table;
+
+    /** nodes visited by all threads in the last search */
+    private long nodes;
+    /** deepest depth finished in the last search */
+    private int depthReached;
+    /** how long the last search took, in nanoseconds */
+    private long elapsedNanos;
+
+    /**
+     * Create a parallel search with a time budget per move.
+     *
+     * @param budgetMillis how long to think about each move
+     * @param threads how many threads to search with
+     */
+    public ParallelSearch(long budgetMillis, int threads) {
+        this(budgetMillis, AlphaBetaSearch.MAX_DEPTH, threads,
+                AlphaBetaSearch.DEFAULT_TABLE_ENTRIES);
+    }
+
+    /**
+     * Create a parallel search.
+     *
+     * @param budgetMillis how long to think about each move
+     * @param maxDepth the deepest depth to search to
+     * @param threads how many threads to search with
+     * @param tableEntries size of the shared transposition table
+     */
+    public ParallelSearch(long budgetMillis, int maxDepth, int threads, int tableEntries) {
+        int count = Math.max(1, threads);
+        this.table = new TranspositionTable(tableEntries);
+        this.stopSignal = new AtomicBoolean();
+        this.searches = new AlphaBetaSearch[count];
+        for (int i = 0; i < count; ++i) {
+            this.searches[i] = new AlphaBetaSearch(budgetMillis, maxDepth, this.table);
+            this.searches[i].setStopSignal(this.stopSignal);
+            this.searches[i].setAgesTable(false);
+            if (i % 2 == 1) {
+                this.searches[i].setStartDepth(2);
+            }
+        }
+        this.helpers = count > 1 ? Executors.newFixedThreadPool(count - 1, r -> {
+            Thread thread = new Thread(r, "search-helper");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    @Override
+    public int[] chooseMove(Reversi game) throws ReversiException {
+        int square = search(game);
+        return new int[] {square / this.DIM, square % this.DIM};
+    }
+
+    /**
+     * Search a position on all threads and return the best move found.
+     *
+     * @param game the position to search; it is not changed
+     * @return the best move, as row * DIM + col
+     * @throws ReversiException if there are no valid moves
+     */
+    public int search(Reversi game) throws ReversiException {
+        long start = System.nanoTime();
+        this.DIM = game.getDimension();
+        this.stopSignal.set(false);
+        this.table.newSearch();
+
+        // start the helpers, each on its own copy of the position
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 1; i < this.searches.length; ++i) {
+            AlphaBetaSearch helper = this.searches[i];
+            Reversi copy = new Reversi(game);
+            results.add(this.helpers.submit(() -> helper.search(copy)));
+        }
+
+        int best;
+        int bestDepth;
+        try {
+            best = this.searches[0].search(game);
+            bestDepth = this.searches[0].getDepthReached();
+        } finally {
+            this.stopSignal.set(true);
+        }
+
+        // take a helper's move only if it got deeper than the main search
+        this.nodes = this.searches[0].getNodes();
+        for (int i = 1; i < this.searches.length; ++i) {
+            int move = waitFor(results.get(i - 1));
+            AlphaBetaSearch helper = this.searches[i];
+            this.nodes += helper.getNodes();
+            if (helper.getDepthReached() > bestDepth) {
+                best = move;
+                bestDepth = helper.getDepthReached();
+            }
+        }
+        this.depthReached = bestDepth;
+        this.elapsedNanos = System.nanoTime() - start;
+        return best;
+    }
+
+    @Override
+    public String getStatistics() {
+        return this.searches.length + " threads, depth " + this.depthReached + ", " +
+                this.nodes + " nodes, " + getNodesPerSecond() + " nodes/sec, " +
+                String.format("%.1f%% hash hits", 100 * this.table.getHitRate());
+    }
+
+    /**
+     * Wait for a helper to finish.  An interrupt does not cut the wait
+     * short, since the helper has already been told to stop, but the
+     * thread is left interrupted for whoever called the search.
+     *
+     * @param result the helper's pending result
+     * @return the helper's move
+     * @throws ReversiException if the helper failed
+     */
+    private static int waitFor(Future<Integer> result) throws ReversiException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return result.get();
+                } catch (InterruptedException ie) {
+                    // keep waiting; the helper has already been told to stop
+                    interrupted = true;
+                } catch (ExecutionException ee) {
+                    throw new ReversiException("Helper search failed", ee.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Get how many threads search.
+     *
+     * @return thread count, including the calling thread
+     */
+    public int getThreads() {
+        return this.searches.length;
+    }
+
+    /**
+     * Get the transposition table the threads share.
+     *
+     * @return the table
+     */
+    public TranspositionTable getTable() {
+        return this.table;
+    }
+
+    /**
+     * Get the number of positions visited by all threads in the last search.
+     *
+     * @return node count
+     */
+    public long getNodes() {
+        return this.nodes;
+    }
+
+    /**
+     * Get the deepest depth any thread finished in the last search.
+     *
+     * @return depth in plies
+     */
+    public int getDepthReached() {
+        return this.depthReached;
+    }
+
+    /**
+     * Get how long the last search took.
+     *
+     * @return elapsed time in milliseconds
+     */
+    public long getElapsedMillis() {
+        return this.elapsedNanos / 1_000_000L;
+    }
+
+    /**
+     * Get the combined speed of all threads in the last search.
+     *
+     * @return nodes visited per second
+     */
+    public long getNodesPerSecond() {
+        return this.elapsedNanos == 0 ? 0 : this.nodes * 1_000_000_000L / this.elapsedNanos;
+    }
+
+    /**
+     * Stop the helper threads.
+     */
+    @Override
+    public void close() {
+        if (this.helpers != null) {
+            this.helpers.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package reversi.bot;
+
+import reversi.BitBoard;
+import reversi.Reversi;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A board for playing random games to the end as fast as possible.  It
+ * keeps the frontier (every empty square next to a disk, which under the
+ * relaxed rules is every valid move) in an array, so a random move can be
+ * picked in constant time.  Everything is allocated when the board is
+ * made, so playing games on it makes no garbage.
+ */
+public class PlayoutBoard {
+    /** square dimension of board */
+    private final int DIM;
+    /** the disks */
+    private final BitBoard board;
+    /** the empty squares that have an occupied neighbor */
+    private final int[] frontier;
+    /** where each square is in {@link #frontier}, or -1 */
+    private final int[] where;
+    /** how many squares are in {@link #frontier} */
+    private int size;
+    /** whether the first player moves next */
+    private boolean p1Turn;
+
+    /**
+     * Create a playout board.
+     *
+     * @param DIM square dimension of board
+     */
+    public PlayoutBoard(int DIM) {
+        this.DIM = DIM;
+        this.board = new BitBoard(DIM);
+        this.frontier = new int[DIM * DIM];
+        this.where = new int[DIM * DIM];
+    }
+
+    /**
+     * Set the board up in the same position as a game.
+     *
+     * @param game the position to copy
+     */
+    public void load(Reversi game) {
+        game.copyBoard(this.board);
+        this.p1Turn = game.isP1Turn();
+        Arrays.fill(this.where, -1);
+        this.size = this.board.legalMoves(this.frontier);
+        for (int i = 0; i < this.size; ++i) {
+            this.where[this.frontier[i]] = i;
+        }
+    }
+
+    /**
+     * Play random moves until the board is full.
+     *
+     * @param rng where the random moves come from
+     * @return the first player's disks minus the second player's
+     */
+    public int play(SplittableRandom rng) {
+        while (this.size > 0) {
+            int square = this.frontier[rng.nextInt(this.size)];
+            int row = square / this.DIM;
+            int col = square % this.DIM;
+            int player = this.p1Turn ? BitBoard.PLAYER_ONE : BitBoard.PLAYER_TWO;
+
+            remove(square);
+            this.board.set(square, player);
+            this.board.flip(row, col, player);
+
+            // the new disk makes its empty neighbors valid moves
+            for (int r = Math.max(0, row - 1); r <= Math.min(this.DIM - 1, row + 1); ++r) {
+                for (int c = Math.max(0, col - 1); c <= Math.min(this.DIM - 1, col + 1); ++c) {
+                    int neighbor = r * this.DIM + c;
+                    if (this.where[neighbor] < 0 && this.board.isEmpty(r, c)) {
+                        this.where[neighbor] = this.size;
+                        this.frontier[this.size++] = neighbor;
+                    }
+                }
+            }
+            this.p1Turn = !this.p1Turn;
+        }
+        return this.board.count(BitBoard.PLAYER_ONE) - this.board.count(BitBoard.PLAYER_TWO);
+    }
+
+    /**
+     * Take a square out of the frontier by moving the last entry into its
+     * place.
+     *
+     * @param square the square to remove
+     */
+    private void remove(int square) {
+        int index = this.where[square];
+        int last = this.frontier[--this.size];
+        this.frontier[index] = last;
+        this.where[last] = index;
+        this.where[square] = -1;
+    }
+}
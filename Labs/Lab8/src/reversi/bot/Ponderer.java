@@ -0,0 +1,240 @@
+package reversi.bot;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Thinks about a game in the background, so that a player who asks for a
+ * hint gets one at once.
+ * <P>
+ * On the player's own turn the position is searched until something else
+ * is asked for.  On the opponent's turn a short search first predicts the
+ * opponent's reply, and then the position that reply would leave is
+ * searched.  If the opponent does play it, that is a ponder hit and the
+ * search just carries on.  Any other reply stops the search and starts
+ * one on the real position, but what the stopped search found is still in
+ * the {@link TranspositionTable}, which is kept from move to move, so the
+ * new search can reuse the parts of the tree they share.
+ * <P>
+ * All the searching is done on one daemon thread.  {@link #ponder} and
+ * {@link #hint} only hand over or read state, and never wait for it.
+ */
+public class Ponderer implements Closeable {
+    /** how long a position is searched if nothing else is asked for: a day */
+    private static final long PONDER_MILLIS = 24 * 60 * 60 * 1000L;
+    /** how long to spend predicting the opponent's reply */
+    private static final long PREDICT_MILLIS = 200;
+
+    /** the table both searches share, kept from move to move */
+    private final TranspositionTable table;
+    /** the search that ponders */
+    private final AlphaBetaSearch search;
+    /** the short search that predicts the opponent's reply */
+    private final AlphaBetaSearch predictor;
+    /** raised to stop both searches */
+    private final AtomicBoolean stopSignal;
+    /** the thread the searching is done on */
+    private final ExecutorService thread;
+
+    /** counts the positions handed over, so a stale one is skipped; guarded by this */
+    private long generation;
+    /** the generation whose search has started and whose progress can be shown; guarded by this */
+    private long started = -1;
+    /** hash of the position being searched for the player to move in; guarded by this */
+    private long target;
+    /** whether {@link #target} is known yet; guarded by this */
+    private boolean targeted;
+    /** whether the last position handed over was the opponent's to move; guarded by this */
+    private boolean predicting;
+    /** how many of the opponent's replies were predicted; guarded by this */
+    private int hits;
+    /** how many were not; guarded by this */
+    private int misses;
+    /** how deep the move behind the last hint was searched; guarded by this */
+    private int hintDepth;
+
+    /**
+     * Create a ponderer with a table of the default size.
+     */
+    public Ponderer() {
+        this(AlphaBetaSearch.DEFAULT_TABLE_ENTRIES);
+    }
+
+    /**
+     * Create a ponderer.
+     *
+     * @param tableEntries size of the transposition table
+     */
+    public Ponderer(int tableEntries) {
+        this.table = new TranspositionTable(tableEntries);
+        this.stopSignal = new AtomicBoolean();
+        this.search = new AlphaBetaSearch(PONDER_MILLIS, AlphaBetaSearch.MAX_DEPTH, this.table);
+        this.predictor = new AlphaBetaSearch(PREDICT_MILLIS, AlphaBetaSearch.MAX_DEPTH, this.table);
+        for (AlphaBetaSearch s : new AlphaBetaSearch[] {this.search, this.predictor}) {
+            s.setStopSignal(this.stopSignal);
+            s.setAgesTable(false);
+        }
+        this.thread = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "ponder");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Start thinking about a position, unless it is already being thought
+     * about.
+     *
+     * @param game the position; it is copied, not kept
+     * @param mine whether it is the player's turn in it, as opposed to
+     *             the opponent's
+     */
+    public synchronized void ponder(Reversi game, boolean mine) {
+        if (mine && this.targeted && this.target == game.getHash()) {
+            if (this.predicting) {
+                ++this.hits;
+                this.predicting = false;
+            }
+            return;
+        }
+        if (mine && this.predicting) {
+            ++this.misses;
+        }
+        stop();
+        this.predicting = !mine;
+        this.target = game.getHash();
+        this.targeted = mine;
+        if (game.gameOver()) {
+            return;
+        }
+        long generation = this.generation;
+        Reversi position = new Reversi(game);
+        this.thread.execute(() -> think(position, mine, generation));
+    }
+
+    /**
+     * Search a position handed over by {@link #ponder}, on the ponder
+     * thread.
+     *
+     * @param position the position
+     * @param mine whether it is the player's turn in it
+     * @param generation which position this is
+     */
+    private void think(Reversi position, boolean mine, long generation) {
+        synchronized (this) {
+            if (generation != this.generation) {
+                return;
+            }
+            this.stopSignal.set(false);
+            this.search.clearProgress();
+            this.started = generation;
+            this.table.newSearch();
+        }
+        try {
+            if (!mine) {
+                int DIM = position.getDimension();
+                int reply = this.predictor.search(position);
+                if (this.stopSignal.get()) {
+                    return;
+                }
+                position.makeMove(reply / DIM, reply % DIM);
+                if (position.gameOver()) {
+                    return;
+                }
+                synchronized (this) {
+                    if (generation != this.generation) {
+                        return;
+                    }
+                    this.target = position.getHash();
+                    this.targeted = true;
+                }
+            }
+            this.search.search(position);
+        } catch (ReversiException e) {
+            // no valid moves, so nothing to think about
+        }
+    }
+
+    /**
+     * Suggest a move, straight away, from whatever has been found so far.
+     * That is the pondering search's best move if it is searching this
+     * position, or else the move the table holds for it, or else just the
+     * first valid move.
+     *
+     * @param game the position, with the player to move
+     * @return the move, as row * DIM + col, or -1 if there are no valid
+     *         moves
+     */
+    public synchronized int hint(Reversi game) {
+        long hash = game.getHash();
+        long progress = this.search.getProgress();
+        if (this.targeted && this.target == hash && this.started == this.generation && progress >= 0) {
+            this.hintDepth = (int) (progress >>> 32);
+            return (int) progress;
+        }
+        long entry = this.table.probe(hash);
+        if (entry != TranspositionTable.MISS) {
+            int move = TranspositionTable.move(entry);
+            int DIM = game.getDimension();
+            if (move >= 0 && game.isValidMove(move / DIM, move % DIM)) {
+                this.hintDepth = TranspositionTable.depth(entry);
+                return move;
+            }
+        }
+        this.hintDepth = 0;
+        return game.nextValidMove(0);
+    }
+
+    /**
+     * Get how deep the move behind the last hint was searched.
+     *
+     * @return the depth in plies, or 0 if the hint was not searched at all
+     */
+    public synchronized int getHintDepth() {
+        return this.hintDepth;
+    }
+
+    /**
+     * Get how many of the opponent's replies were predicted, so the search
+     * carried on.
+     *
+     * @return the ponder hits
+     */
+    public synchronized int getHits() {
+        return this.hits;
+    }
+
+    /**
+     * Get how many of the opponent's replies were not predicted, so the
+     * search was started again.
+     *
+     * @return the ponder misses
+     */
+    public synchronized int getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Stop thinking, for instance because the game is over.  The table is
+     * kept, so the work is not lost if thinking starts again.
+     */
+    public synchronized void stop() {
+        ++this.generation;
+        this.targeted = false;
+        this.stopSignal.set(true);
+    }
+
+    /**
+     * Stop thinking and the ponder thread.
+     */
+    @Override
+    public void close() {
+        stop();
+        this.thread.shutdownNow();
+    }
+}
@@ -0,0 +1,46 @@
+package reversi.bot;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+
+import java.util.SplittableRandom;
+
+/**
+ * A computer player that picks any valid move at random.  It thinks about
+ * nothing, so games between random bots measure whatever plays them, and
+ * it is the weakest opponent to test other bots against.
+ */
+public class RandomBot implements Bot {
+    /** where the moves come from */
+    private final SplittableRandom rng;
+    /** the valid moves, as squares */
+    private int[] moves = new int[0];
+
+    /**
+     * Create a random bot.
+     *
+     * @param seed seed for the moves, so games can be played again
+     */
+    public RandomBot(long seed) {
+        this.rng = new SplittableRandom(seed);
+    }
+
+    @Override
+    public int[] chooseMove(Reversi game) throws ReversiException {
+        int DIM = game.getDimension();
+        if (this.moves.length < DIM * DIM) {
+            this.moves = new int[DIM * DIM];
+        }
+        int count = game.validMoves(this.moves);
+        if (count == 0) {
+            throw new ReversiException("No valid moves left");
+        }
+        int square = this.moves[this.rng.nextInt(count)];
+        return new int[] {square / DIM, square % DIM};
+    }
+
+    @Override
+    public String getStatistics() {
+        return "random move";
+    }
+}
@@ -0,0 +1,119 @@
+package reversi.bot;
+
+import reversi.BitBoard;
+import reversi.Reversi;
+import reversi.Zobrist;
+
+/**
+ * The eight symmetries of a square board: four rotations, each with and
+ * without a mirror.  Positions that are the same up to a symmetry are the
+ * same for play, so a position is given a canonical hash, the smallest of
+ * its Zobrist hashes under all eight symmetries, and moves are stored
+ * relative to the symmetry that gave it.
+ */
+public class Symmetry {
+    /** how many symmetries a square board has */
+    public static final int COUNT = 8;
+
+    /** square dimension of board */
+    private final int DIM;
+    /** where each symmetry sends each square */
+    private final int[][] forward;
+    /** where the inverse of each symmetry sends each square */
+    private final int[][] inverse;
+    /** the hash keys for the board size */
+    private final Zobrist keys;
+
+    /**
+     * Build the symmetries of a board size.
+     *
+     * @param DIM square dimension of board
+     */
+    public Symmetry(int DIM) {
+        this.DIM = DIM;
+        this.keys = Zobrist.forDimension(DIM);
+        this.forward = new int[COUNT][DIM * DIM];
+        this.inverse = new int[COUNT][DIM * DIM];
+        int last = DIM - 1;
+        for (int row = 0; row < DIM; ++row) {
+            for (int col = 0; col < DIM; ++col) {
+                int[] rows = {row, col, last - row, last - col, row, col, last - row, last - col};
+                int[] cols = {col, last - row, last - col, row, last - col, row, col, last - row};
+                int square = row * DIM + col;
+                for (int sym = 0; sym < COUNT; ++sym) {
+                    int image = rows[sym] * DIM + cols[sym];
+                    this.forward[sym][square] = image;
+                    this.inverse[sym][image] = square;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the board size these symmetries are for.
+     *
+     * @return square dimension of board
+     */
+    public int getDimension() {
+        return this.DIM;
+    }
+
+    /**
+     * Hash a position under every symmetry and pick the canonical one.
+     *
+     * @param game the position; its dimension must match
+     * @param hashes filled with the hash under each symmetry; must hold
+     *               {@link #COUNT} entries
+     * @return the symmetry whose hash is the smallest, which is the
+     *         canonical hash
+     */
+    public int canonical(Reversi game, long[] hashes) {
+        long side = game.isP1Turn() ? 0 : this.keys.sideToMove();
+        for (int sym = 0; sym < COUNT; ++sym) {
+            hashes[sym] = side;
+        }
+        for (int row = 0; row < this.DIM; ++row) {
+            for (int col = 0; col < this.DIM; ++col) {
+                Reversi.Move contents = game.getContents(row, col);
+                if (contents == Reversi.Move.NONE) {
+                    continue;
+                }
+                int player = contents == Reversi.Move.PLAYER_ONE ? BitBoard.PLAYER_ONE : BitBoard.PLAYER_TWO;
+                int square = row * this.DIM + col;
+                for (int sym = 0; sym < COUNT; ++sym) {
+                    hashes[sym] ^= this.keys.disk(player, this.forward[sym][square]);
+                }
+            }
+        }
+
+        int best = 0;
+        for (int sym = 1; sym < COUNT; ++sym) {
+            if (Long.compareUnsigned(hashes[sym], hashes[best]) < 0) {
+                best = sym;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Move a square by a symmetry.
+     *
+     * @param sym the symmetry
+     * @param square the square, as row * DIM + col
+     * @return where the symmetry sends it
+     */
+    public int apply(int sym, int square) {
+        return this.forward[sym][square];
+    }
+
+    /**
+     * Move a square back by the inverse of a symmetry.
+     *
+     * @param sym the symmetry
+     * @param square the square, as row * DIM + col
+     * @return the square the symmetry sends to it
+     */
+    public int undo(int sym, int square) {
+        return this.inverse[sym][square];
+    }
+}
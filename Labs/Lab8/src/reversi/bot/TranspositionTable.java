@@ -0,0 +1,235 @@
+package reversi.bot;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size table of search results keyed by Zobrist hash, so a search
+ * does not have to redo work for positions it has already seen.
+ * <P>
+ * Entries live in one flat {@code long[]}, two longs per entry: the
+ * position's hash XORed with the packed data, and then the data itself.
+ * Several search threads can share a table without any locking.  If two
+ * threads write the same entry at once the halves of the entry may come
+ * from different writes, but then the XOR of the two halves no longer
+ * matches the hash, so a probe simply treats it as a miss.
+ * <P>
+ * When two positions land on the same entry, the one searched deeper is
+ * kept, unless the old entry is left over from an earlier search.
+ */
+public class TranspositionTable {
+    /** the stored score is exact */
+    public static final int EXACT = 1;
+    /** the stored score is a lower bound (the search failed high) */
+    public static final int LOWER = 2;
+    /** the stored score is an upper bound (the search failed low) */
+    public static final int UPPER = 3;
+
+    /** what {@link #probe(long)} returns when the position is not stored */
+    public static final long MISS = 0;
+
+    /** the largest board whose every square fits in an entry's move */
+    public static final int MAX_DIM = 2047;
+
+    // layout of the packed data, low bits first:
+    // score 24 bits (signed), move + 1 22 bits, depth 8 bits, flag 2 bits,
+    // generation 8 bits
+    private static final int MOVE_SHIFT = 24;
+    private static final int DEPTH_SHIFT = 46;
+    private static final int FLAG_SHIFT = 54;
+    private static final int GENERATION_SHIFT = 56;
+    private static final long MOVE_MASK = (1L << 22) - 1;
+
+    /** two longs per entry: hash ^ data, then data */
+    private final long[] table;
+    /** entry count minus one; the entry count is a power of two */
+    private final int mask;
+    /** which search the entries being written belong to */
+    private volatile int generation;
+
+    /** how many times the table was probed */
+    private final LongAdder probes = new LongAdder();
+    /** how many probes found their position */
+    private final LongAdder hits = new LongAdder();
+    /** how many probes found a different position in their entry */
+    private final LongAdder collisions = new LongAdder();
+    /** how many entries were written */
+    private final LongAdder stores = new LongAdder();
+
+    /**
+     * Create a table.
+     *
+     * @param entries how many entries to hold; rounded down to a power of two
+     */
+    public TranspositionTable(int entries) {
+        int size = Integer.highestOneBit(Math.max(entries, 1));
+        this.table = new long[size * 2];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Start a new search.  Entries from earlier searches can then be
+     * replaced regardless of their depth.
+     */
+    public void newSearch() {
+        this.generation = (this.generation + 1) & 0xFF;
+    }
+
+    /**
+     * Look up a position.
+     *
+     * @param hash the position's Zobrist hash
+     * @return the packed data for the position, or {@link #MISS}
+     */
+    public long probe(long hash) {
+        this.probes.increment();
+        int index = ((int) hash & this.mask) << 1;
+        long check = this.table[index];
+        long data = this.table[index + 1];
+        if (data == MISS) {
+            return MISS;
+        }
+        if ((check ^ data) == hash) {
+            this.hits.increment();
+            return data;
+        }
+        this.collisions.increment();
+        return MISS;
+    }
+
+    /**
+     * Store the result of searching a position.
+     *
+     * @param hash the position's Zobrist hash
+     * @param depth how deep the position was searched
+     * @param flag {@link #EXACT}, {@link #LOWER} or {@link #UPPER}
+     * @param score the score found
+     * @param move the best move found, or -1; it fits only on a board
+     *             no more than {@link #MAX_DIM} across
+     */
+    public void store(long hash, int depth, int flag, int score, int move) {
+        int index = ((int) hash & this.mask) << 1;
+        long oldData = this.table[index + 1];
+        if (oldData != MISS &&
+                (this.table[index] ^ oldData) != hash &&
+                generation(oldData) == this.generation &&
+                depth(oldData) > depth) {
+            // keep the deeper result from this search
+            return;
+        }
+
+        long data = (score & 0xFFFFFFL) |
+                ((move + 1) & MOVE_MASK) << MOVE_SHIFT |
+                (long) (depth & 0xFF) << DEPTH_SHIFT |
+                (long) flag << FLAG_SHIFT |
+                (long) this.generation << GENERATION_SHIFT;
+        this.table[index] = hash ^ data;
+        this.table[index + 1] = data;
+        this.stores.increment();
+    }
+
+    /**
+     * Get the score from packed data.
+     *
+     * @param data data returned by {@link #probe(long)}
+     * @return the score
+     */
+    public static int score(long data) {
+        return ((int) data << 8) >> 8;
+    }
+
+    /**
+     * Get the best move from packed data.
+     *
+     * @param data data returned by {@link #probe(long)}
+     * @return the move, as row * DIM + col, or -1 if none was stored
+     */
+    public static int move(long data) {
+        return (int) ((data >>> MOVE_SHIFT) & MOVE_MASK) - 1;
+    }
+
+    /**
+     * Get the search depth from packed data.
+     *
+     * @param data data returned by {@link #probe(long)}
+     * @return the depth
+     */
+    public static int depth(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & 0xFF;
+    }
+
+    /**
+     * Get the kind of score from packed data.
+     *
+     * @param data data returned by {@link #probe(long)}
+     * @return {@link #EXACT}, {@link #LOWER} or {@link #UPPER}
+     */
+    public static int flag(long data) {
+        return (int) (data >>> FLAG_SHIFT) & 0x3;
+    }
+
+    /**
+     * Get the generation from packed data.
+     *
+     * @param data data returned by {@link #probe(long)}
+     * @return the generation
+     */
+    private static int generation(long data) {
+        return (int) (data >>> GENERATION_SHIFT) & 0xFF;
+    }
+
+    /**
+     * Get how many times the table has been probed.
+     *
+     * @return probe count
+     */
+    public long getProbes() {
+        return this.probes.sum();
+    }
+
+    /**
+     * Get how many probes found their position.
+     *
+     * @return hit count
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Get how many probes found a different position in their entry.
+     *
+     * @return collision count
+     */
+    public long getCollisions() {
+        return this.collisions.sum();
+    }
+
+    /**
+     * Get how many entries have been written.
+     *
+     * @return store count
+     */
+    public long getStores() {
+        return this.stores.sum();
+    }
+
+    /**
+     * Get the fraction of probes that found their position.
+     *
+     * @return hit rate from 0 to 1
+     */
+    public double getHitRate() {
+        long probeCount = getProbes();
+        return probeCount == 0 ? 0 : (double) getHits() / probeCount;
+    }
+
+    /**
+     * Reset the statistics counters, without clearing the entries.
+     */
+    public void resetStatistics() {
+        this.probes.reset();
+        this.hits.reset();
+        this.collisions.reset();
+        this.stores.reset();
+    }
+}
@@ -0,0 +1,286 @@
+package reversi.record;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+
+import java.util.Arrays;
+
+/**
+ * A finished game, as its moves and its result, in a form small enough
+ * to keep millions of them.
+ * <p>
+ * In a file a record is a four byte header, then one byte per move:
+ * <pre>
+ *   header:  byte DIM, byte result, unsigned short move count
+ *   move:    unsigned byte row * DIM + col, or an unsigned short
+ *            on boards of more than 256 squares
+ * </pre>
+ * The result is {@link #DRAW}, {@link #PLAYER_ONE_WON},
+ * {@link #PLAYER_TWO_WON} or {@link #UNFINISHED}, with
+ * {@link #ON_TIME} added when the game was lost on time.  The moves are
+ * played from the usual starting position, so a game on a 6x6 board
+ * takes 36 bytes.
+ * <p>
+ * A record is reused from game to game: {@link #reset(int)} empties it
+ * for the next one.
+ */
+public class GameRecord {
+    /** result: the game was drawn */
+    public static final int DRAW = 0;
+    /** result: the first player won */
+    public static final int PLAYER_ONE_WON = 1;
+    /** result: the second player won */
+    public static final int PLAYER_TWO_WON = 2;
+    /** result: the game was abandoned before it was over */
+    public static final int UNFINISHED = 3;
+    /** added to the result when the loser ran out of time */
+    public static final int ON_TIME = 4;
+    /** bytes before the moves */
+    public static final int HEADER_BYTES = 4;
+    /** the largest board whose dimension fits in the header */
+    public static final int MAX_DIM = 255;
+    /** the most squares a board can have and still take a byte a move */
+    private static final int BYTE_SQUARES = 256;
+
+    /** square dimension of board */
+    private int DIM;
+    /** the result, as one of the constants */
+    private int result = UNFINISHED;
+    /** the moves, as row * DIM + col */
+    private int[] squares = new int[64];
+    /** how many moves there are */
+    private int count;
+
+    /**
+     * Create an empty record.
+     *
+     * @param DIM square dimension of board
+     */
+    public GameRecord(int DIM) {
+        reset(DIM);
+    }
+
+    /**
+     * Empty the record for another game.
+     *
+     * @param DIM square dimension of board
+     */
+    public void reset(int DIM) {
+        this.DIM = DIM;
+        this.result = UNFINISHED;
+        this.count = 0;
+    }
+
+    /**
+     * Add a move.
+     *
+     * @param row the row
+     * @param col the column
+     */
+    public void addMove(int row, int col) {
+        if (this.count == this.squares.length) {
+            this.squares = Arrays.copyOf(this.squares, this.count * 2);
+        }
+        this.squares[this.count++] = row * this.DIM + col;
+    }
+
+    /**
+     * Set the result from the winner on the board, or the winner on time.
+     *
+     * @param winner the winner, or {@link Reversi.Move#NONE} for a draw
+     * @param onTime whether the loser ran out of time
+     */
+    public void setResult(Reversi.Move winner, boolean onTime) {
+        switch (winner) {
+            case PLAYER_ONE:
+                this.result = PLAYER_ONE_WON;
+                break;
+            case PLAYER_TWO:
+                this.result = PLAYER_TWO_WON;
+                break;
+            default:
+                this.result = DRAW;
+        }
+        if (onTime) {
+            this.result |= ON_TIME;
+        }
+    }
+
+    /**
+     * Get the board size.
+     *
+     * @return square dimension of board
+     */
+    public int getDimension() {
+        return this.DIM;
+    }
+
+    /**
+     * Get the result.
+     *
+     * @return one of the results, with {@link #ON_TIME} added if the game
+     * was lost on time
+     */
+    public int getResult() {
+        return this.result;
+    }
+
+    /**
+     * Get the winner.
+     *
+     * @return the winner, or {@link Reversi.Move#NONE} for a draw or an
+     * unfinished game
+     */
+    public Reversi.Move getWinner() {
+        switch (this.result & ~ON_TIME) {
+            case PLAYER_ONE_WON:
+                return Reversi.Move.PLAYER_ONE;
+            case PLAYER_TWO_WON:
+                return Reversi.Move.PLAYER_TWO;
+            default:
+                return Reversi.Move.NONE;
+        }
+    }
+
+    /**
+     * Tell whether the game was played to a result.
+     *
+     * @return false if it was abandoned
+     */
+    public boolean isFinished() {
+        return this.result != UNFINISHED;
+    }
+
+    /**
+     * Get how many moves there are.
+     *
+     * @return the count
+     */
+    public int getMoveCount() {
+        return this.count;
+    }
+
+    /**
+     * Get a move.
+     *
+     * @param index which move, from 0
+     * @return the move, as row * DIM + col
+     */
+    public int getSquare(int index) {
+        return this.squares[index];
+    }
+
+    /**
+     * Play the moves on a new board.
+     *
+     * @return the board after the last move
+     * @throws ReversiException if a move is not valid
+     */
+    public Reversi replay() throws ReversiException {
+        Reversi game = new Reversi(this.DIM);
+        for (int i = 0; i < this.count; ++i) {
+            game.makeMove(this.squares[i] / this.DIM, this.squares[i] % this.DIM);
+        }
+        return game;
+    }
+
+    /**
+     * Get how many bytes the record takes in a file.
+     *
+     * @return the size
+     */
+    public int size() {
+        return HEADER_BYTES + this.count * bytesPerMove(this.DIM);
+    }
+
+    /**
+     * Get how many bytes a move takes on a board size.
+     *
+     * @param DIM square dimension of board
+     * @return 1, or 2 for boards of more than 256 squares
+     */
+    static int bytesPerMove(int DIM) {
+        return DIM * DIM <= BYTE_SQUARES ? 1 : 2;
+    }
+
+    /**
+     * Write the record into a buffer.
+     *
+     * @param buffer where to write it; must have {@link #size()} bytes
+     *               from the offset
+     * @param offset where to start
+     * @return the offset just past the record
+     */
+    public int encode(byte[] buffer, int offset) {
+        buffer[offset] = (byte) this.DIM;
+        buffer[offset + 1] = (byte) this.result;
+        buffer[offset + 2] = (byte) (this.count >>> 8);
+        buffer[offset + 3] = (byte) this.count;
+        offset += HEADER_BYTES;
+        boolean wide = bytesPerMove(this.DIM) == 2;
+        for (int i = 0; i < this.count; ++i) {
+            if (wide) {
+                buffer[offset++] = (byte) (this.squares[i] >>> 8);
+            }
+            buffer[offset++] = (byte) this.squares[i];
+        }
+        return offset;
+    }
+
+    /**
+     * Read the moves of a record whose header has been read.
+     *
+     * @param DIM square dimension of board, from the header
+     * @param result the result, from the header
+     * @param count how many moves, from the header
+     * @param moves the moves; {@link #bytesPerMove} bytes for each
+     * @param offset where the moves start
+     * @throws ReversiException if the header makes no sense
+     */
+    void decode(int DIM, int result, int count, byte[] moves, int offset) throws ReversiException {
+        if (DIM < 2 || result > (UNFINISHED | ON_TIME) || count > DIM * DIM) {
+            throw new ReversiException("Bad game record: DIM " + DIM + ", result " + result + ", " +
+                    count + " moves");
+        }
+        reset(DIM);
+        this.result = result;
+        if (this.squares.length < count) {
+            this.squares = new int[count];
+        }
+        boolean wide = bytesPerMove(DIM) == 2;
+        for (int i = 0; i < count; ++i) {
+            int square = moves[offset++] & 0xFF;
+            if (wide) {
+                square = square << 8 | moves[offset++] & 0xFF;
+            }
+            this.squares[i] = square;
+        }
+        this.count = count;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(this.DIM).append('x').append(this.DIM).append(' ');
+        switch (this.result & ~ON_TIME) {
+            case PLAYER_ONE_WON:
+                text.append("1-0");
+                break;
+            case PLAYER_TWO_WON:
+                text.append("0-1");
+                break;
+            case DRAW:
+                text.append("1/2-1/2");
+                break;
+            default:
+                text.append('*');
+        }
+        if ((this.result & ON_TIME) != 0) {
+            text.append(" on time");
+        }
+        for (int i = 0; i < this.count; ++i) {
+            text.append(' ').append(this.squares[i] / this.DIM).append(',').append(this.squares[i] % this.DIM);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,125 @@
+package reversi.record;
+
+import reversi.ReversiException;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads the {@link GameRecord}s in a file written by a
+ * {@link GameRecordWriter}, one at a time and into the same record, so
+ * that a file of millions of games can be read without making millions
+ * of objects.
+ * <p>
+ * A record cut short at the end of the file, as a crash can leave it, is
+ * taken as the end of the file.
+ */
+public class GameRecordReader implements Closeable {
+    /** size of the read buffer */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** the file */
+    private final InputStream in;
+    /** the moves of the record being read */
+    private byte[] moves = new byte[256];
+    /** whether the file ended in the middle of a record */
+    private boolean truncated;
+
+    /**
+     * Open a record file.
+     *
+     * @param file the file
+     * @throws ReversiException if the file cannot be read or is not a
+     *                          record file
+     */
+    public GameRecordReader(Path file) throws ReversiException {
+        checkHeader(file);
+        try {
+            this.in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+            this.in.skipNBytes(GameRecordWriter.HEADER_BYTES);
+        } catch (IOException e) {
+            throw new ReversiException("Cannot read game records " + file, e);
+        }
+    }
+
+    /**
+     * Make sure a file starts with the header of a record file.
+     *
+     * @param file the file
+     * @throws ReversiException if it does not, or cannot be read
+     */
+    static void checkHeader(Path file) throws ReversiException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            if (in.readInt() != GameRecordWriter.MAGIC) {
+                throw new ReversiException(file + " is not a game record file");
+            }
+            int version = in.readInt();
+            if (version != GameRecordWriter.VERSION) {
+                throw new ReversiException("Unsupported game record version " + version + " in " + file);
+            }
+        } catch (IOException e) {
+            throw new ReversiException("Cannot read game records " + file, e);
+        }
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @param record where to put it
+     * @return false at the end of the file
+     * @throws ReversiException if the file cannot be read, or the record
+     *                          makes no sense
+     */
+    public boolean next(GameRecord record) throws ReversiException {
+        try {
+            int DIM = this.in.read();
+            if (DIM < 0) {
+                return false;
+            }
+            int result = this.in.read();
+            int high = this.in.read();
+            int low = this.in.read();
+            if (low < 0) {
+                this.truncated = true;
+                return false;
+            }
+            int count = high << 8 | low;
+            int length = count * GameRecord.bytesPerMove(DIM);
+            if (this.moves.length < length) {
+                this.moves = new byte[length];
+            }
+            if (this.in.readNBytes(this.moves, 0, length) != length) {
+                this.truncated = true;
+                return false;
+            }
+            record.decode(DIM, result, count, this.moves, 0);
+            return true;
+        } catch (IOException e) {
+            throw new ReversiException(e);
+        }
+    }
+
+    /**
+     * Tell whether the file ended in the middle of a record.
+     *
+     * @return true if the last record was cut short
+     */
+    public boolean isTruncated() {
+        return this.truncated;
+    }
+
+    /**
+     * Close the file.
+     *
+     * @throws IOException if it cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+}
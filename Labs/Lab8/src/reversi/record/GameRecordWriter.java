@@ -0,0 +1,170 @@
+package reversi.record;
+
+import reversi.ReversiException;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends {@link GameRecord}s to a file, from any number of threads.
+ * <p>
+ * The file starts with an eight byte header, the magic number and the
+ * version, and the records follow one after another.  Opening a file
+ * that is already there adds to it.  Records are buffered, and the
+ * buffer is written out when it fills, when the writer is closed, and by
+ * a thread of the writer's own once a record has waited in it for a
+ * second, even if no more come.  So a crash loses the last second or so
+ * of games; unlike the {@link reversi.server.GameJournal journal}, the
+ * records are for looking back on, not for carrying on with.  A game
+ * thread never sees a disk error: the writer remembers it, stops
+ * writing, and says so in {@link #getFailure()}.
+ */
+public class GameRecordWriter implements Closeable {
+    /** first bytes of every record file: "RVGR" */
+    public static final int MAGIC = 0x52564752;
+    /** version of the file layout */
+    public static final int VERSION = 1;
+    /** bytes before the first record */
+    public static final int HEADER_BYTES = 8;
+    /** size of the write buffer */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** longest the buffer holds records before they are written out */
+    private static final long FLUSH_NANOS = 1_000_000_000L;
+    /** how often the buffer is looked at for records that have waited too long */
+    private static final long CHECK_NANOS = FLUSH_NANOS / 4;
+
+    /** the file */
+    private final OutputStream out;
+    /** a record is encoded here before it is written; guarded by this */
+    private byte[] scratch = new byte[1024];
+    /** when the oldest record not yet written out came in; guarded by this */
+    private long waitingSince;
+    /** whether the buffer holds records not yet written out; guarded by this */
+    private boolean waiting;
+    /** records written; guarded by this */
+    private long written;
+    /** why the writer stopped writing, if it has; guarded by this */
+    private IOException failure;
+    /** whether the writer has been closed; guarded by this */
+    private boolean closed;
+    /** writes out records that have waited too long */
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Open a record file to add to, creating it if need be.
+     *
+     * @param file the file
+     * @throws ReversiException if the file cannot be opened or is not a
+     *                          record file
+     */
+    public GameRecordWriter(Path file) throws ReversiException {
+        try {
+            boolean fresh = !Files.exists(file) || Files.size(file) == 0;
+            if (!fresh) {
+                GameRecordReader.checkHeader(file);
+            }
+            this.out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND), BUFFER_SIZE);
+            if (fresh) {
+                this.out.write(ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).array());
+            }
+        } catch (IOException e) {
+            throw new ReversiException("Cannot open game records " + file, e);
+        }
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "records");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flushWaiting, CHECK_NANOS, CHECK_NANOS,
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Add a record to the file.
+     *
+     * @param record the record
+     */
+    public synchronized void write(GameRecord record) {
+        if (this.closed || this.failure != null) {
+            return;
+        }
+        int size = record.size();
+        if (this.scratch.length < size) {
+            this.scratch = new byte[size];
+        }
+        record.encode(this.scratch, 0);
+        try {
+            this.out.write(this.scratch, 0, size);
+            ++this.written;
+            if (!this.waiting) {
+                this.waiting = true;
+                this.waitingSince = System.nanoTime();
+            }
+        } catch (IOException e) {
+            this.failure = e;
+        }
+    }
+
+    /**
+     * Write out the buffer if a record has waited in it for long enough.
+     */
+    private synchronized void flushWaiting() {
+        if (this.closed || this.failure != null || !this.waiting ||
+                System.nanoTime() - this.waitingSince < FLUSH_NANOS - CHECK_NANOS) {
+            return;
+        }
+        try {
+            this.out.flush();
+            this.waiting = false;
+        } catch (IOException e) {
+            this.failure = e;
+        }
+    }
+
+    /**
+     * Get how many records have been written.
+     *
+     * @return the count
+     */
+    public synchronized long getWritten() {
+        return this.written;
+    }
+
+    /**
+     * Get why the writer stopped writing.
+     *
+     * @return the error, or null if it has not
+     */
+    public synchronized IOException getFailure() {
+        return this.failure;
+    }
+
+    /**
+     * Write out the records still buffered and close the file.
+     */
+    @Override
+    public synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.flusher.shutdownNow();
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            if (this.failure == null) {
+                this.failure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package reversi.record;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+import reversi.bot.Symmetry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Counts of how the games in a set of {@link GameRecord}s went from each
+ * position they passed through, by the move played there: an opening
+ * explorer.  The file is built ahead of time by
+ * {@link PositionDatabaseBuilder} and memory-mapped read-only, so a
+ * query reads only the few pages it needs, and threads can share it.
+ * <P>
+ * Positions are keyed by their canonical hash (see {@link Symmetry}), so
+ * games that reach the same position by another order of moves, or
+ * reach a rotation or reflection of it, are counted together.  The
+ * positions are sorted by hash, and a directory indexed by the top bits
+ * of the hash narrows a search to a handful of them, so a query costs
+ * the hashing of the position and a few reads however many games went
+ * in.
+ * <P>
+ * File layout, all big-endian:
+ * <pre>
+ *   header:     int magic, int version, int DIM, int maxMoves,
+ *               long games, int positions, int entries, int bits,
+ *               4 bytes reserved
+ *   directory:  2^bits + 1 ints: the first position whose hash has each
+ *               value of its top bits, and then the position count
+ *   positions:  positions + 1 of long canonical hash, int first entry;
+ *               the last only marks where the entries end
+ *   entries:    int move, int player one wins, int player two wins,
+ *               int draws
+ * </pre>
+ * Hashes are sorted as unsigned numbers, and each position's entries are
+ * sorted by move, which is in the canonical position's frame.
+ */
+public class PositionDatabase {
+    /** first bytes of every position database: "RVPD" */
+    public static final int MAGIC = 0x52565044;
+    /** version of the file layout */
+    public static final int VERSION = 1;
+    /** bytes before the directory */
+    public static final int HEADER_BYTES = 40;
+    /** bytes in each position */
+    public static final int POSITION_BYTES = 12;
+    /** bytes in each entry */
+    public static final int ENTRY_BYTES = 16;
+
+    /**
+     * How the games went after one move from a position.
+     */
+    public static class MoveStats {
+        /** the move, as row * DIM + col */
+        private final int square;
+        /** games the first player won */
+        private final int playerOneWins;
+        /** games the second player won */
+        private final int playerTwoWins;
+        /** games drawn */
+        private final int draws;
+
+        /**
+         * Make the counts for a move.
+         *
+         * @param square the move, as row * DIM + col
+         * @param playerOneWins games the first player won
+         * @param playerTwoWins games the second player won
+         * @param draws games drawn
+         */
+        MoveStats(int square, int playerOneWins, int playerTwoWins, int draws) {
+            this.square = square;
+            this.playerOneWins = playerOneWins;
+            this.playerTwoWins = playerTwoWins;
+            this.draws = draws;
+        }
+
+        /**
+         * Get the move.
+         *
+         * @return the move, as row * DIM + col
+         */
+        public int getSquare() {
+            return this.square;
+        }
+
+        /**
+         * Get how many games the move was played in.
+         *
+         * @return the count
+         */
+        public long getGames() {
+            return (long) this.playerOneWins + this.playerTwoWins + this.draws;
+        }
+
+        /**
+         * Get how many of the games a player won.
+         *
+         * @param player {@link Reversi.Move#PLAYER_ONE} or
+         *               {@link Reversi.Move#PLAYER_TWO}
+         * @return the count
+         */
+        public int getWins(Reversi.Move player) {
+            return player == Reversi.Move.PLAYER_ONE ? this.playerOneWins : this.playerTwoWins;
+        }
+
+        /**
+         * Get how many of the games were drawn.
+         *
+         * @return the count
+         */
+        public int getDraws() {
+            return this.draws;
+        }
+
+        /**
+         * Get a player's score in the games, a draw counting half a win.
+         *
+         * @param player {@link Reversi.Move#PLAYER_ONE} or
+         *               {@link Reversi.Move#PLAYER_TWO}
+         * @return the score, from 0 to 1
+         */
+        public double getScore(Reversi.Move player) {
+            return (getWins(player) + 0.5 * this.draws) / getGames();
+        }
+    }
+
+    /** the mapped file; only absolute reads are used, so threads can share it */
+    private final ByteBuffer data;
+    /** square dimension of board the database is for */
+    private final int DIM;
+    /** the database has nothing for positions with more moves than this */
+    private final int maxMoves;
+    /** how many games went in */
+    private final long games;
+    /** how many positions the database holds */
+    private final int positions;
+    /** how many entries, position and move, the database holds */
+    private final int entries;
+    /** bits of the hash the directory is indexed by */
+    private final int bits;
+    /** where the positions start */
+    private final int positionStart;
+    /** where the entries start */
+    private final int entryStart;
+    /** symmetries of the board size */
+    private final Symmetry symmetry;
+
+    /**
+     * Read a database from a buffer holding the whole file.
+     *
+     * @param data the file contents
+     * @throws ReversiException if the data is not a position database
+     */
+    private PositionDatabase(ByteBuffer data) throws ReversiException {
+        if (data.limit() < HEADER_BYTES || data.getInt(0) != MAGIC) {
+            throw new ReversiException("Not a position database");
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new ReversiException("Unsupported position database version " + data.getInt(4));
+        }
+        this.data = data;
+        this.DIM = data.getInt(8);
+        this.maxMoves = data.getInt(12);
+        this.games = data.getLong(16);
+        this.positions = data.getInt(24);
+        this.entries = data.getInt(28);
+        this.bits = data.getInt(32);
+        this.positionStart = HEADER_BYTES + ((1 << this.bits) + 1) * 4;
+        this.entryStart = this.positionStart + (this.positions + 1) * POSITION_BYTES;
+        if (this.bits < 0 || this.bits > 30 ||
+                data.limit() < this.entryStart + (long) this.entries * ENTRY_BYTES) {
+            throw new ReversiException("Position database is truncated");
+        }
+        this.symmetry = new Symmetry(this.DIM);
+    }
+
+    /**
+     * Open a database file.
+     *
+     * @param file the file
+     * @return the database
+     * @throws ReversiException if the file cannot be read or is not a
+     *                          position database
+     */
+    public static PositionDatabase open(Path file) throws ReversiException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new ReversiException("Position database " + file + " is too big to map");
+            }
+            return new PositionDatabase(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            throw new ReversiException("Cannot read position database " + file, e);
+        }
+    }
+
+    /**
+     * Find where a position's entries are.
+     *
+     * @param hash the position's canonical hash
+     * @return the index of the position, or -1 if it is not there
+     */
+    private int find(long hash) {
+        int bucket = this.bits == 0 ? 0 : (int) (hash >>> (64 - this.bits));
+        int low = this.data.getInt(HEADER_BYTES + bucket * 4);
+        int high = this.data.getInt(HEADER_BYTES + (bucket + 1) * 4) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int order = Long.compareUnsigned(this.data.getLong(this.positionStart + middle * POSITION_BYTES), hash);
+            if (order < 0) {
+                low = middle + 1;
+            } else if (order > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get how the games went after each move played from a position.
+     *
+     * @param game the position
+     * @return the counts for each move played from it, most played
+     * first; none if the position is not in the database
+     */
+    public MoveStats[] explore(Reversi game) {
+        if (game.getDimension() != this.DIM || game.getNumMoves() > this.maxMoves) {
+            return new MoveStats[0];
+        }
+        long[] hashes = new long[Symmetry.COUNT];
+        int sym = this.symmetry.canonical(game, hashes);
+        int position = find(hashes[sym]);
+        if (position < 0) {
+            return new MoveStats[0];
+        }
+        int offset = this.positionStart + position * POSITION_BYTES;
+        int first = this.data.getInt(offset + 8);
+        int last = this.data.getInt(offset + POSITION_BYTES + 8);
+        MoveStats[] stats = new MoveStats[last - first];
+        for (int i = 0; i < stats.length; ++i) {
+            int entry = this.entryStart + (first + i) * ENTRY_BYTES;
+            stats[i] = new MoveStats(this.symmetry.undo(sym, this.data.getInt(entry)),
+                    this.data.getInt(entry + 4), this.data.getInt(entry + 8), this.data.getInt(entry + 12));
+        }
+        Arrays.sort(stats, (a, b) -> Long.compare(b.getGames(), a.getGames()));
+        return stats;
+    }
+
+    /**
+     * Get the board size the database is for.
+     *
+     * @return square dimension of board
+     */
+    public int getDimension() {
+        return this.DIM;
+    }
+
+    /**
+     * Get the most moves a position the database covers can have.
+     *
+     * @return move count
+     */
+    public int getMaxMoves() {
+        return this.maxMoves;
+    }
+
+    /**
+     * Get how many games went into the database.
+     *
+     * @return game count
+     */
+    public long getGames() {
+        return this.games;
+    }
+
+    /**
+     * Get how many positions the database holds.
+     *
+     * @return position count
+     */
+    public int getPositions() {
+        return this.positions;
+    }
+
+    /**
+     * Get how many moves from positions the database holds.
+     *
+     * @return entry count
+     */
+    public int getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * Show how the games went from a position.
+     *
+     * @param args the database file, then the moves to the position as
+     *             row,col
+     * @throws ReversiException if the database cannot be read or a move
+     *                          is not valid
+     */
+    public static void main(String[] args) throws ReversiException {
+        if (args.length < 1) {
+            System.out.println("Usage: java reversi.record.PositionDatabase database [row,col ...]");
+            System.exit(1);
+        }
+        PositionDatabase database = open(Paths.get(args[0]));
+        Reversi game = new Reversi(database.getDimension());
+        for (int i = 1; i < args.length; ++i) {
+            String[] coord = args[i].split(",");
+            game.makeMove(Integer.parseInt(coord[0]), Integer.parseInt(coord[1]));
+        }
+        System.out.printf("%,d games, %,d positions, %,d moves from them, up to move %d%n",
+                database.getGames(), database.getPositions(), database.getEntries(), database.getMaxMoves());
+        System.out.print(game);
+
+        long start = System.nanoTime();
+        MoveStats[] stats = database.explore(game);
+        long micros = (System.nanoTime() - start) / 1000;
+        Reversi.Move toMove = game.isP1Turn() ? Reversi.Move.PLAYER_ONE : Reversi.Move.PLAYER_TWO;
+        System.out.printf("%-8s %10s %8s %8s %8s %7s%n", "move", "games", "won", "lost", "drawn", "score");
+        Reversi.Move other = toMove == Reversi.Move.PLAYER_ONE ? Reversi.Move.PLAYER_TWO : Reversi.Move.PLAYER_ONE;
+        for (MoveStats move : stats) {
+            System.out.printf("%-8s %,10d %8d %8d %8d %6.1f%%%n",
+                    move.getSquare() / game.getDimension() + "," + move.getSquare() % game.getDimension(),
+                    move.getGames(), move.getWins(toMove), move.getWins(other), move.getDraws(),
+                    100 * move.getScore(toMove));
+        }
+        if (stats.length == 0) {
+            System.out.println("No games from here");
+        }
+        System.out.printf("Found in %d us (the first query includes loading)%n", micros);
+    }
+}
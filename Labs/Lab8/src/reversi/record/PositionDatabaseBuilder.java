@@ -0,0 +1,363 @@
+package reversi.record;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+import reversi.bot.Symmetry;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Builds a {@link PositionDatabase} file from {@link GameRecord}s.
+ * <p>
+ * Every game is replayed for a number of plies, and each position it
+ * passes through is counted against the move played there and the
+ * result, in an open-addressing hash table of primitive arrays that
+ * doubles as it fills: about fifty bytes for each position and move
+ * seen.  Writing the file sorts the positions by canonical hash and
+ * groups their moves, leaving out the moves played in fewer than a
+ * given number of games.  Unfinished games are left out.
+ */
+public class PositionDatabaseBuilder {
+    /** slots in the table to start with */
+    private static final int INITIAL_SLOTS = 1 << 16;
+    /** multiplier that spreads the keys over the table */
+    private static final long SPREAD = 0x9E3779B97F4A7C15L;
+    /** the most bits the directory is indexed by */
+    private static final int MAX_BITS = 22;
+
+    /** square dimension of board */
+    private final int DIM;
+    /** how many plies of each game are counted */
+    private final int plies;
+    /** symmetries of the board size */
+    private final Symmetry symmetry;
+    /** canonical hashes seen, by slot */
+    private long[] hashes;
+    /** move played from each, in the canonical frame, or -1 for an empty slot */
+    private int[] moves;
+    /** games the first player won, by slot */
+    private int[] oneWins;
+    /** games the second player won, by slot */
+    private int[] twoWins;
+    /** games drawn, by slot */
+    private int[] draws;
+    /** slots in use */
+    private int used;
+    /** games counted */
+    private long games;
+    /** games skipped, being unfinished or for another board size */
+    private long skipped;
+    /** most moves of any position counted */
+    private int maxMoves;
+
+    /**
+     * Start an empty database.
+     *
+     * @param DIM square dimension of board
+     * @param plies how many plies of each game to count
+     */
+    public PositionDatabaseBuilder(int DIM, int plies) {
+        this.DIM = DIM;
+        this.plies = plies;
+        this.symmetry = new Symmetry(DIM);
+        allocate(INITIAL_SLOTS);
+    }
+
+    /**
+     * Make an empty table.
+     *
+     * @param slots how many slots; a power of two
+     */
+    private void allocate(int slots) {
+        this.hashes = new long[slots];
+        this.moves = new int[slots];
+        Arrays.fill(this.moves, -1);
+        this.oneWins = new int[slots];
+        this.twoWins = new int[slots];
+        this.draws = new int[slots];
+    }
+
+    /**
+     * Find the slot of a position and move, taking an empty one if it is
+     * not there.
+     *
+     * @param hash the position's canonical hash
+     * @param move the move, in the canonical frame
+     * @return the slot
+     */
+    private int slot(long hash, int move) {
+        int mask = this.moves.length - 1;
+        int slot = (int) (((hash + move) * SPREAD) >>> 32) & mask;
+        while (this.moves[slot] >= 0 && (this.hashes[slot] != hash || this.moves[slot] != move)) {
+            slot = (slot + 1) & mask;
+        }
+        if (this.moves[slot] < 0) {
+            this.hashes[slot] = hash;
+            this.moves[slot] = move;
+            ++this.used;
+        }
+        return slot;
+    }
+
+    /**
+     * Double the table, once it is half full.
+     */
+    private void grow() {
+        long[] oldHashes = this.hashes;
+        int[] oldMoves = this.moves;
+        int[] oldOne = this.oneWins;
+        int[] oldTwo = this.twoWins;
+        int[] oldDraws = this.draws;
+        allocate(oldMoves.length * 2);
+        this.used = 0;
+        for (int i = 0; i < oldMoves.length; ++i) {
+            if (oldMoves[i] >= 0) {
+                int slot = slot(oldHashes[i], oldMoves[i]);
+                this.oneWins[slot] = oldOne[i];
+                this.twoWins[slot] = oldTwo[i];
+                this.draws[slot] = oldDraws[i];
+            }
+        }
+    }
+
+    /**
+     * Count a game.
+     *
+     * @param record the game
+     * @return false if it was skipped, being unfinished or for another
+     * board size
+     * @throws ReversiException if one of its moves is not valid
+     */
+    public boolean add(GameRecord record) throws ReversiException {
+        if (!record.isFinished() || record.getDimension() != this.DIM) {
+            ++this.skipped;
+            return false;
+        }
+        Reversi.Move winner = record.getWinner();
+        Reversi game = new Reversi(this.DIM);
+        long[] symmetric = new long[Symmetry.COUNT];
+        int count = Math.min(this.plies, record.getMoveCount());
+        for (int ply = 0; ply < count; ++ply) {
+            if (2 * this.used >= this.moves.length) {
+                grow();
+            }
+            int sym = this.symmetry.canonical(game, symmetric);
+            int square = record.getSquare(ply);
+            int slot = slot(symmetric[sym], this.symmetry.apply(sym, square));
+            switch (winner) {
+                case PLAYER_ONE:
+                    ++this.oneWins[slot];
+                    break;
+                case PLAYER_TWO:
+                    ++this.twoWins[slot];
+                    break;
+                default:
+                    ++this.draws[slot];
+            }
+            this.maxMoves = Math.max(this.maxMoves, game.getNumMoves());
+            game.makeMove(square / this.DIM, square % this.DIM);
+        }
+        ++this.games;
+        return true;
+    }
+
+    /**
+     * Count every game in a record file.
+     *
+     * @param file the file
+     * @throws ReversiException if the file cannot be read, or has a game
+     *                          with a move that is not valid
+     */
+    public void addAll(Path file) throws ReversiException {
+        GameRecord record = new GameRecord(this.DIM);
+        try (GameRecordReader reader = new GameRecordReader(file)) {
+            while (reader.next(record)) {
+                add(record);
+            }
+        } catch (IOException e) {
+            throw new ReversiException(e);
+        }
+    }
+
+    /**
+     * Get how many games have been counted.
+     *
+     * @return the count
+     */
+    public long getGames() {
+        return this.games;
+    }
+
+    /**
+     * Get how many games were skipped.
+     *
+     * @return the count
+     */
+    public long getSkipped() {
+        return this.skipped;
+    }
+
+    /**
+     * Get how many positions and moves have been seen.
+     *
+     * @return the count
+     */
+    public int getEntries() {
+        return this.used;
+    }
+
+    /**
+     * Write the database file.
+     *
+     * @param file where to write it
+     * @param minGames leave out moves played in fewer games than this
+     * @return how many positions were written
+     * @throws IOException if the file cannot be written, or would be too
+     *                     big to map
+     */
+    public int write(Path file, int minGames) throws IOException {
+        // the slots kept, and their hashes with the sign flipped so that a
+        // signed sort puts them in unsigned order
+        int[] kept = new int[this.used];
+        long[] flipped = new long[this.used];
+        int entries = 0;
+        for (int i = 0; i < this.moves.length; ++i) {
+            if (this.moves[i] >= 0 &&
+                    (long) this.oneWins[i] + this.twoWins[i] + this.draws[i] >= minGames) {
+                kept[entries] = i;
+                flipped[entries] = this.hashes[i] ^ Long.MIN_VALUE;
+                ++entries;
+            }
+        }
+
+        // the distinct positions, in order
+        long[] positions = Arrays.copyOf(flipped, entries);
+        Arrays.sort(positions);
+        int count = 0;
+        for (int i = 0; i < entries; ++i) {
+            if (count == 0 || positions[i] != positions[count - 1]) {
+                positions[count++] = positions[i];
+            }
+        }
+
+        // group the entries by position, and sort each group by move
+        int[] first = new int[count + 1];
+        int[] owner = new int[entries];
+        for (int i = 0; i < entries; ++i) {
+            owner[i] = Arrays.binarySearch(positions, 0, count, flipped[i]);
+            ++first[owner[i] + 1];
+        }
+        for (int p = 0; p < count; ++p) {
+            first[p + 1] += first[p];
+        }
+        int[] next = Arrays.copyOf(first, count);
+        int[] order = new int[entries];
+        for (int i = 0; i < entries; ++i) {
+            order[next[owner[i]]++] = kept[i];
+        }
+        for (int p = 0; p < count; ++p) {
+            for (int i = first[p] + 1; i < first[p + 1]; ++i) {
+                int slot = order[i];
+                int j = i;
+                for (; j > first[p] && this.moves[order[j - 1]] > this.moves[slot]; --j) {
+                    order[j] = order[j - 1];
+                }
+                order[j] = slot;
+            }
+        }
+
+        // a directory bucket for every two positions or so
+        int bits = count < 4 ? 0 : Math.min(MAX_BITS, 31 - Integer.numberOfLeadingZeros(count) - 1);
+        long size = PositionDatabase.HEADER_BYTES + ((1L << bits) + 1) * 4 +
+                (count + 1L) * PositionDatabase.POSITION_BYTES + (long) entries * PositionDatabase.ENTRY_BYTES;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Position database would be " + size + " bytes, too big to map; " +
+                    "count fewer plies or leave out more moves");
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file),
+                64 * 1024))) {
+            out.writeInt(PositionDatabase.MAGIC);
+            out.writeInt(PositionDatabase.VERSION);
+            out.writeInt(this.DIM);
+            out.writeInt(this.maxMoves);
+            out.writeLong(this.games);
+            out.writeInt(count);
+            out.writeInt(entries);
+            out.writeInt(bits);
+            out.writeInt(0);
+
+            int p = 0;
+            for (long bucket = 0; bucket < 1L << bits; ++bucket) {
+                while (p < count && bits > 0 && ((positions[p] ^ Long.MIN_VALUE) >>> (64 - bits)) < bucket) {
+                    ++p;
+                }
+                out.writeInt(p);
+            }
+            out.writeInt(count);
+
+            for (p = 0; p < count; ++p) {
+                out.writeLong(positions[p] ^ Long.MIN_VALUE);
+                out.writeInt(first[p]);
+            }
+            out.writeLong(0);
+            out.writeInt(entries);
+
+            for (int slot : order) {
+                out.writeInt(this.moves[slot]);
+                out.writeInt(this.oneWins[slot]);
+                out.writeInt(this.twoWins[slot]);
+                out.writeInt(this.draws[slot]);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Build a database.
+     *
+     * @param args optionally {@code --plies N} and {@code --min-games N},
+     *             then the board dimension, the output file and the
+     *             record files
+     * @throws ReversiException if a record file cannot be read
+     * @throws IOException if the database cannot be written
+     */
+    public static void main(String[] args) throws ReversiException, IOException {
+        int plies = 20;
+        int minGames = 1;
+        int i = 0;
+        for (; i + 1 < args.length && args[i].startsWith("--"); i += 2) {
+            if (args[i].equals("--plies")) {
+                plies = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--min-games")) {
+                minGames = Integer.parseInt(args[i + 1]);
+            } else {
+                break;
+            }
+        }
+        if (args.length - i < 3) {
+            System.out.println("Usage: java reversi.record.PositionDatabaseBuilder [--plies N] " +
+                    "[--min-games N] DIM output records...");
+            System.exit(1);
+        }
+        int DIM = Integer.parseInt(args[i]);
+        Path output = Paths.get(args[i + 1]);
+
+        long start = System.nanoTime();
+        PositionDatabaseBuilder builder = new PositionDatabaseBuilder(DIM, plies);
+        for (int f = i + 2; f < args.length; ++f) {
+            builder.addAll(Paths.get(args[f]));
+            System.out.printf("%s: %,d games so far, %,d positions and moves%n", args[f],
+                    builder.getGames(), builder.getEntries());
+        }
+        int positions = builder.write(output, minGames);
+        System.out.printf("Wrote %,d positions from %,d games (%,d skipped) to %s in %.1f s%n", positions,
+                builder.getGames(), builder.getSkipped(), output, (System.nanoTime() - start) / 1e9);
+    }
+}
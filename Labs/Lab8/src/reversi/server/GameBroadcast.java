@@ -0,0 +1,209 @@
+package reversi.server;
+
+import reversi.BinaryProtocol;
+import reversi.Reversi;
+import reversi.ReversiException;
+import reversi.ReversiProtocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A game's board as its {@link Spectator spectators} see it.  Moves are
+ * made on the board through here, so every spectator is sent each one as
+ * it is made, and one who arrives late is sent a {@link #snapshot()} of
+ * the board as it stands instead of every move so far.
+ * <p>
+ * Each message is encoded once, as a text line and as a
+ * {@link BinaryProtocol} frame, into arrays that are never written to
+ * again and are shared by every spectator; handing one over is a queue
+ * offer each, and the game thread never writes to a spectator's socket.
+ * With nobody watching, a move costs the game thread nothing more than it
+ * did before.
+ */
+public class GameBroadcast {
+    /**
+     * One message to spectators, encoded both ways.  Never changed after
+     * it is made.
+     */
+    static final class Message {
+        /** the text line, newline and all */
+        final byte[] text;
+        /** the frame, header and all */
+        final byte[] frame;
+        /** whether it is the last the spectator is sent */
+        final boolean last;
+
+        /**
+         * Create a message.
+         *
+         * @param text the text line, without the newline
+         * @param frame buffer holding the frame
+         * @param length length of the frame
+         * @param last whether it is the last the spectator is sent
+         */
+        private Message(String text, byte[] frame, int length, boolean last) {
+            this.text = (text + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+            this.frame = Arrays.copyOf(frame, length);
+            this.last = last;
+        }
+    }
+
+    /** no spectators at all */
+    private static final Spectator[] NOBODY = new Spectator[0];
+
+    /** the game board */
+    private final Reversi game;
+    /** the spectators; replaced, never changed, and only under the lock */
+    private volatile Spectator[] spectators = NOBODY;
+    /** whether the game is over; guarded by this */
+    private boolean over;
+    /** buffer frames are built in; guarded by this */
+    private final byte[] frame = new byte[BinaryProtocol.BUFFER_SIZE];
+
+    /**
+     * Create the broadcast for a game.
+     *
+     * @param game the game board, which is only to be played through here
+     */
+    public GameBroadcast(Reversi game) {
+        this.game = game;
+    }
+
+    /**
+     * Make a move, and send it to every spectator.
+     *
+     * @param row the row
+     * @param col the column
+     * @throws ReversiException if the move is not valid
+     */
+    public synchronized void makeMove(int row, int col) throws ReversiException {
+        this.game.makeMove(row, col);
+        if (this.spectators.length > 0) {
+            publish(new Message(ReversiProtocol.MOVE_MADE + " " + row + " " + col, this.frame,
+                    BinaryProtocol.encodeMove(this.frame, BinaryProtocol.MOVE_MADE, row, col), false));
+        }
+    }
+
+    /**
+     * Start sending the game to a spectator, beginning with the board as
+     * it stands.
+     *
+     * @param spectator the spectator
+     * @return false if the game is already over
+     */
+    synchronized boolean watch(Spectator spectator) {
+        if (this.over) {
+            return false;
+        }
+        if (spectator.send(snapshot())) {
+            Spectator[] more = Arrays.copyOf(this.spectators, this.spectators.length + 1);
+            more[more.length - 1] = spectator;
+            this.spectators = more;
+        }
+        return true;
+    }
+
+    /**
+     * Get how many are watching.
+     *
+     * @return the spectator count
+     */
+    public int getSpectators() {
+        return this.spectators.length;
+    }
+
+    /**
+     * Tell every spectator the game is over, as player one would be told,
+     * and let them go.  Does nothing if they have already been told.
+     *
+     * @param winner the winner, or {@link Reversi.Move#NONE} for a tie
+     */
+    public synchronized void gameOver(Reversi.Move winner) {
+        if (this.over) {
+            return;
+        }
+        this.over = true;
+        String text;
+        byte opcode;
+        switch (winner) {
+            case PLAYER_ONE:
+                text = ReversiProtocol.GAME_WON;
+                opcode = BinaryProtocol.GAME_WON;
+                break;
+            case PLAYER_TWO:
+                text = ReversiProtocol.GAME_LOST;
+                opcode = BinaryProtocol.GAME_LOST;
+                break;
+            default:
+                text = ReversiProtocol.GAME_TIED;
+                opcode = BinaryProtocol.GAME_TIED;
+        }
+        publish(new Message(text, this.frame, BinaryProtocol.encode(this.frame, opcode), true));
+        this.spectators = NOBODY;
+    }
+
+    /**
+     * Tell every spectator the game ended without a result, and let them
+     * go.  Does nothing if they have already been told the game is over.
+     *
+     * @param message why it ended
+     */
+    public synchronized void abandon(String message) {
+        if (this.over) {
+            return;
+        }
+        this.over = true;
+        publish(new Message(ReversiProtocol.ERROR + " " + message, this.frame,
+                BinaryProtocol.encodeError(this.frame, message), true));
+        this.spectators = NOBODY;
+    }
+
+    /**
+     * Encode the board as it stands.  Called under the lock, so no move
+     * falls between it and the spectator being added.
+     *
+     * @return the message
+     */
+    private Message snapshot() {
+        int DIM = this.game.getDimension();
+        StringBuilder text = new StringBuilder(ReversiProtocol.BOARD.length() + 8 + DIM * DIM);
+        text.append(ReversiProtocol.BOARD).append(' ').append(DIM).append(' ');
+        byte[] squares = new byte[DIM * DIM];
+        for (int row = 0; row < DIM; ++row) {
+            for (int col = 0; col < DIM; ++col) {
+                Reversi.Move owner = this.game.getContents(row, col);
+                text.append(owner.getSymbol());
+                squares[row * DIM + col] = (byte) (owner == Reversi.Move.PLAYER_ONE ? 1 :
+                        owner == Reversi.Move.PLAYER_TWO ? 2 : 0);
+            }
+        }
+        return new Message(text.toString(), this.frame,
+                BinaryProtocol.encodeBoard(this.frame, DIM, squares), false);
+    }
+
+    /**
+     * Hand a message to every spectator, forgetting any that have been
+     * dropped for falling behind.
+     *
+     * @param message the message
+     */
+    private void publish(Message message) {
+        Spectator[] all = this.spectators;
+        int kept = 0;
+        Spectator[] still = all;
+        for (int i = 0; i < all.length; ++i) {
+            if (all[i].send(message)) {
+                if (still != all) {
+                    still[kept] = all[i];
+                }
+                ++kept;
+            } else if (still == all) {
+                still = Arrays.copyOf(all, all.length);
+            }
+        }
+        if (still != all) {
+            this.spectators = Arrays.copyOf(still, kept);
+        }
+    }
+}
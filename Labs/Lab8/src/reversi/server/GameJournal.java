@@ -0,0 +1,553 @@
+package reversi.server;
+
+import reversi.ReversiException;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only journal of the games a server is playing, so that they
+ * outlive the server.  Every game start, move and end is a small record
+ * followed by its CRC, and a game with no end in the journal when the
+ * server starts again is {@link RecoveredGame recovered} by replaying its
+ * moves.
+ * <p>
+ * Game threads never wait for the disk.  They copy their records into a
+ * buffer and carry on, while the journal's own writer thread lets the
+ * buffer fill for a few milliseconds, swaps it for an empty one, writes it
+ * and forces it to disk.  The records that arrive during a force gather in
+ * the new buffer and go to disk together in the next, so the busier the
+ * server, the more moves each force covers.  A crash loses at most the
+ * records not yet forced, a few milliseconds' worth; the players are told
+ * every move again when they resume, so they always agree with the
+ * journal about the board.
+ * <p>
+ * Opening a journal recovers the games in it and compacts it, rewriting
+ * it with only the games still in play.  A record cut short or damaged
+ * by the crash, and everything after it, is left out.
+ */
+public class GameJournal implements Closeable {
+    /** record type: a game starting */
+    private static final byte START = 1;
+    /** record type: a move */
+    private static final byte MOVE = 2;
+    /** record type: a game ending */
+    private static final byte END = 3;
+    /** bytes in a start record: type, game, DIM, two sessions, CRC */
+    private static final int START_LENGTH = 1 + 8 + 4 + 8 + 8 + 4;
+    /** bytes in a move record: type, game, row, column, CRC */
+    private static final int MOVE_LENGTH = 1 + 8 + 4 + 4 + 4;
+    /** bytes in an end record: type, game, CRC */
+    private static final int END_LENGTH = 1 + 8 + 4;
+
+    /** size each batch buffer starts at */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** size a batch may grow to before game threads wait for the disk */
+    private static final int MAX_BUFFER = 4 * 1024 * 1024;
+    /**
+     * how long the writer lets a batch gather once something is in it;
+     * without this it wakes for every few records when the disk is fast
+     */
+    private static final long COMMIT_MILLIS = 5;
+
+    /** makes session tokens that cannot be guessed */
+    private static final SecureRandom SESSIONS = new SecureRandom();
+
+    /** the journal file, open for appending */
+    private final FileChannel channel;
+    /** games found unfinished when the journal was opened */
+    private final List<RecoveredGame> recovered;
+    /** bytes at the end of the file that could not be recovered */
+    private final long dropped;
+    /** writes batches to disk */
+    private final Thread writer;
+
+    /** guards everything below */
+    private final Object lock = new Object();
+    /** checks records; used while holding the lock */
+    private final CRC32C crc = new CRC32C();
+    /** the batch being filled by game threads */
+    private ByteBuffer filling = ByteBuffer.allocate(BUFFER_SIZE);
+    /** the batch being written, swapped with {@link #filling} */
+    private ByteBuffer writing = ByteBuffer.allocate(BUFFER_SIZE);
+    /** number of the next game to start */
+    private long nextGame = 1;
+    /** bytes appended since the journal was opened */
+    private long appended;
+    /** bytes forced to disk since the journal was opened */
+    private long durable;
+    /** records appended since the journal was opened */
+    private long records;
+    /** batches forced to disk since the journal was opened */
+    private long batches;
+    /** whether the journal has been closed */
+    private boolean closed;
+    /** why the journal stopped writing, if it has */
+    private IOException failure;
+
+    /**
+     * Open a journal, recovering any unfinished games in it, or create
+     * one if the file does not exist.
+     *
+     * @param file the journal file
+     * @throws ReversiException if the file cannot be read or rewritten
+     */
+    public GameJournal(Path file) throws ReversiException {
+        try {
+            Map<Long, RecoveredGame> games = new LinkedHashMap<>();
+            this.dropped = recover(file, games);
+            this.recovered = new ArrayList<>(games.values());
+            compact(file);
+            this.channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new ReversiException(e);
+        }
+        this.writer = new Thread(this::write, "journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Make a new session token for a player.
+     *
+     * @return a token that is not 0
+     */
+    public static long newSession() {
+        long session;
+        do {
+            session = SESSIONS.nextLong();
+        } while (session == 0);
+        return session;
+    }
+
+    /**
+     * Get the bytes in a record of a given type.
+     *
+     * @param type the record type
+     * @return the length, or 0 if the type is unknown
+     */
+    private static int length(int type) {
+        switch (type) {
+            case START:
+                return START_LENGTH;
+            case MOVE:
+                return MOVE_LENGTH;
+            case END:
+                return END_LENGTH;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Read a journal and replay the games that have no end.
+     *
+     * @param file the journal file
+     * @param games where to put the unfinished games, by number, in the
+     *              order they started
+     * @return how many bytes at the end of the file were left out
+     * @throws IOException if the file cannot be read
+     */
+    private long recover(Path file, Map<Long, RecoveredGame> games) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        byte[] record = new byte[START_LENGTH];
+        ByteBuffer fields = ByteBuffer.wrap(record);
+        long good = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE)) {
+            while (true) {
+                int type = in.read();
+                int length = length(type);
+                if (length == 0) {
+                    // the end of the file, or of what can be trusted
+                    break;
+                }
+                record[0] = (byte) type;
+                if (in.readNBytes(record, 1, length - 1) != length - 1) {
+                    break;
+                }
+                this.crc.reset();
+                this.crc.update(record, 0, length - 4);
+                if ((int) this.crc.getValue() != fields.getInt(length - 4)) {
+                    break;
+                }
+                long game = fields.getLong(1);
+                this.nextGame = Math.max(this.nextGame, game + 1);
+                if (type == START) {
+                    games.put(game, new RecoveredGame(game, fields.getInt(9),
+                            fields.getLong(13), fields.getLong(21)));
+                } else if (type == MOVE) {
+                    RecoveredGame recovered = games.get(game);
+                    if (recovered != null) {
+                        try {
+                            recovered.replay(fields.getInt(9), fields.getInt(13));
+                        } catch (ReversiException e) {
+                            // the journal cannot be trusted for this game
+                            games.remove(game);
+                        }
+                    }
+                } else {
+                    games.remove(game);
+                }
+                good += length;
+            }
+        }
+        return Files.size(file) - good;
+    }
+
+    /**
+     * Rewrite the journal with only the recovered games, then make the new
+     * file the journal.
+     *
+     * @param file the journal file
+     * @throws IOException if the file cannot be written
+     */
+    private void compact(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            for (RecoveredGame game : this.recovered) {
+                writeIfFull(out, buffer, START_LENGTH);
+                putStart(buffer, game.getId(), game.getDIM(), game.getSessionOne(), game.getSessionTwo());
+                for (int i = 0; i < game.getMoveCount(); ++i) {
+                    writeIfFull(out, buffer, MOVE_LENGTH);
+                    putMove(buffer, game.getId(), game.getRow(i), game.getCol(i));
+                }
+            }
+            writeIfFull(out, buffer, buffer.capacity());
+            out.force(false);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // make the rename itself durable
+        try (FileChannel directory = FileChannel.open(file.toAbsolutePath().getParent(),
+                StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // not every platform can open a directory; the rename stands anyway
+        }
+    }
+
+    /**
+     * Write out a buffer if there is no room in it for a record.
+     *
+     * @param out where to write
+     * @param buffer the buffer
+     * @param length the length of the record
+     * @throws IOException if the write fails
+     */
+    private static void writeIfFull(FileChannel out, ByteBuffer buffer, int length) throws IOException {
+        if (buffer.remaining() < length) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Append the CRC of a record to it.
+     *
+     * @param buffer the buffer holding the record
+     * @param start where the record starts
+     */
+    private void seal(ByteBuffer buffer, int start) {
+        this.crc.reset();
+        this.crc.update(buffer.array(), start, buffer.position() - start);
+        buffer.putInt((int) this.crc.getValue());
+    }
+
+    /**
+     * Put a start record in a buffer.
+     *
+     * @param buffer the buffer
+     * @param game the game's number
+     * @param DIM square dimension of board
+     * @param sessionOne first player's session token
+     * @param sessionTwo second player's session token
+     */
+    private void putStart(ByteBuffer buffer, long game, int DIM, long sessionOne, long sessionTwo) {
+        int start = buffer.position();
+        buffer.put(START).putLong(game).putInt(DIM).putLong(sessionOne).putLong(sessionTwo);
+        seal(buffer, start);
+    }
+
+    /**
+     * Put a move record in a buffer.
+     *
+     * @param buffer the buffer
+     * @param game the game's number
+     * @param row the row
+     * @param col the column
+     */
+    private void putMove(ByteBuffer buffer, long game, int row, int col) {
+        int start = buffer.position();
+        buffer.put(MOVE).putLong(game).putInt(row).putInt(col);
+        seal(buffer, start);
+    }
+
+    /**
+     * Put an end record in a buffer.
+     *
+     * @param buffer the buffer
+     * @param game the game's number
+     */
+    private void putEnd(ByteBuffer buffer, long game) {
+        int start = buffer.position();
+        buffer.put(END).putLong(game);
+        seal(buffer, start);
+    }
+
+    /**
+     * Make room in the batch being filled for a record, growing it or, if
+     * it is as big as it may get, waiting for the writer to take it.
+     * Called while holding the lock.
+     *
+     * @param length the length of the record
+     * @return false if the record cannot be journaled, because the
+     * journal is closed or has failed
+     */
+    private boolean room(int length) {
+        while (this.filling.remaining() < length && !this.closed && this.failure == null) {
+            if (this.filling.capacity() < MAX_BUFFER) {
+                ByteBuffer bigger = ByteBuffer.allocate(2 * this.filling.capacity());
+                this.filling.flip();
+                bigger.put(this.filling);
+                this.filling = bigger;
+            } else {
+                try {
+                    this.lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        if (this.closed || this.failure != null) {
+            return false;
+        }
+        if (this.filling.position() == 0) {
+            // the writer is waiting for something to write
+            this.lock.notifyAll();
+        }
+        this.appended += length;
+        ++this.records;
+        return true;
+    }
+
+    /**
+     * Journal a game starting.
+     *
+     * @param DIM square dimension of board
+     * @param sessionOne first player's session token
+     * @param sessionTwo second player's session token
+     * @return the game's number, for its other records
+     */
+    public long start(int DIM, long sessionOne, long sessionTwo) {
+        synchronized (this.lock) {
+            long game = this.nextGame++;
+            if (room(START_LENGTH)) {
+                putStart(this.filling, game, DIM, sessionOne, sessionTwo);
+            }
+            return game;
+        }
+    }
+
+    /**
+     * Journal a move.
+     *
+     * @param game the game's number
+     * @param row the row
+     * @param col the column
+     */
+    public void move(long game, int row, int col) {
+        synchronized (this.lock) {
+            if (room(MOVE_LENGTH)) {
+                putMove(this.filling, game, row, col);
+            }
+        }
+    }
+
+    /**
+     * Journal a game ending, however it ended.
+     *
+     * @param game the game's number
+     */
+    public void end(long game) {
+        synchronized (this.lock) {
+            if (room(END_LENGTH)) {
+                putEnd(this.filling, game);
+            }
+        }
+    }
+
+    /**
+     * Wait until every record journaled so far is on disk.
+     */
+    public void sync() {
+        synchronized (this.lock) {
+            long target = this.appended;
+            while (this.durable < target && this.failure == null) {
+                try {
+                    this.lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write batches to disk as they fill, until the journal is closed and
+     * everything has been written.
+     */
+    private void write() {
+        while (true) {
+            ByteBuffer batch;
+            synchronized (this.lock) {
+                while (this.filling.position() == 0 && !this.closed) {
+                    try {
+                        this.lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (this.filling.position() == 0) {
+                    return;
+                }
+            }
+            try {
+                Thread.sleep(COMMIT_MILLIS);
+            } catch (InterruptedException e) {
+                // write what there is
+            }
+            synchronized (this.lock) {
+                batch = this.filling;
+                this.filling = this.writing;
+                this.writing = batch;
+                // there is room again for anyone waiting
+                this.lock.notifyAll();
+            }
+
+            int length = batch.position();
+            batch.flip();
+            IOException failed = null;
+            try {
+                while (batch.hasRemaining()) {
+                    this.channel.write(batch);
+                }
+                this.channel.force(false);
+            } catch (IOException e) {
+                failed = e;
+            }
+            batch.clear();
+
+            synchronized (this.lock) {
+                if (failed != null) {
+                    System.err.println("Journal failed; games are no longer journaled: " + failed);
+                    this.failure = failed;
+                } else {
+                    this.durable += length;
+                    ++this.batches;
+                }
+                this.lock.notifyAll();
+            }
+            if (failed != null) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the games found unfinished when the journal was opened.
+     *
+     * @return the games, in the order they started
+     */
+    public List<RecoveredGame> getRecovered() {
+        return this.recovered;
+    }
+
+    /**
+     * Get how many bytes at the end of the file could not be recovered
+     * when the journal was opened, because they were cut short or damaged.
+     *
+     * @return the byte count
+     */
+    public long getDropped() {
+        return this.dropped;
+    }
+
+    /**
+     * Get how many records have been journaled since the journal was
+     * opened.
+     *
+     * @return the record count
+     */
+    public long getRecords() {
+        synchronized (this.lock) {
+            return this.records;
+        }
+    }
+
+    /**
+     * Get how many bytes have been journaled since the journal was opened.
+     *
+     * @return the byte count
+     */
+    public long getBytes() {
+        synchronized (this.lock) {
+            return this.appended;
+        }
+    }
+
+    /**
+     * Get how many batches have been forced to disk since the journal was
+     * opened.
+     *
+     * @return the batch count
+     */
+    public long getBatches() {
+        synchronized (this.lock) {
+            return this.batches;
+        }
+    }
+
+    /**
+     * Write out everything journaled and close the file.  Games still in
+     * play stay unfinished in the journal, to be recovered next time.
+     */
+    @Override
+    public void close() {
+        synchronized (this.lock) {
+            this.closed = true;
+            this.lock.notifyAll();
+        }
+        try {
+            this.writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            this.channel.close();
+        } catch (IOException ioe) {
+            // squash
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package reversi.server;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+import reversi.bot.Bot;
+
+/**
+ * A player in the same JVM as its {@link ReversiGame}: every request is
+ * a method call on the game's own thread, with no socket, no encoding and
+ * no thread switch.  The player keeps its own board, as a client would,
+ * and asks a {@link Bot} to pick each move from it.
+ * <p>
+ * Games between local players run as fast as the bots can think, which
+ * makes them the way to play very many games for testing engines, or to
+ * measure the game loop itself without the network.
+ */
+public class LocalPlayer implements PlayerTransport {
+    /**
+     * How a game ended, for this player.
+     */
+    public enum Outcome {
+        /** the game is not over */
+        NONE,
+        /** the player won */
+        WON,
+        /** the player lost */
+        LOST,
+        /** neither player won */
+        TIED,
+        /** the game ended in an error */
+        ERROR
+    }
+
+    /** the bot that picks the moves */
+    private final Bot bot;
+    /** the player's own copy of the board */
+    private Reversi board;
+    /** how the last game ended */
+    private Outcome outcome = Outcome.NONE;
+    /** the error that ended the last game, if one did */
+    private String message;
+
+    /**
+     * Create a local player.
+     *
+     * @param DIM square dimension of board
+     * @param bot the bot that picks the moves
+     */
+    public LocalPlayer(int DIM, Bot bot) {
+        this.bot = bot;
+        this.board = new Reversi(DIM);
+    }
+
+    /**
+     * Get ready for another game, so one player can play many in turn.
+     */
+    public void reset() {
+        this.board = new Reversi(this.board.getDimension());
+        this.outcome = Outcome.NONE;
+        this.message = null;
+    }
+
+    /**
+     * Get how the last game ended.
+     *
+     * @return the outcome, or {@link Outcome#NONE} if it has not
+     */
+    public Outcome getOutcome() {
+        return this.outcome;
+    }
+
+    /**
+     * Get the error that ended the last game.
+     *
+     * @return the message, or null if it did not end in an error
+     */
+    public String getMessage() {
+        return this.message;
+    }
+
+    /**
+     * Get the player's copy of the board.
+     *
+     * @return the board
+     */
+    public Reversi getBoard() {
+        return this.board;
+    }
+
+    @Override
+    public int[] makeMove() throws ReversiException {
+        return this.bot.chooseMove(this.board);
+    }
+
+    @Override
+    public void moveMade(int row, int column) {
+        try {
+            this.board.makeMove(row, column);
+        } catch (ReversiException e) {
+            // the game checked it; the boards can only differ if ours is wrong
+            throw new IllegalStateException("Board out of step with the game: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void gameWon() {
+        this.outcome = Outcome.WON;
+    }
+
+    @Override
+    public void gameLost() {
+        this.outcome = Outcome.LOST;
+    }
+
+    @Override
+    public void gameTied() {
+        this.outcome = Outcome.TIED;
+    }
+
+    @Override
+    public void error(String message) {
+        this.outcome = Outcome.ERROR;
+        this.message = message;
+    }
+
+    @Override
+    public long getSession() {
+        return 0;
+    }
+
+    /**
+     * Does nothing: the bot is thinking on the game's own thread, and the
+     * move is late only once it arrives.
+     */
+    @Override
+    public void stopWaiting() {
+    }
+
+    /**
+     * Does nothing: there is nothing to let go of.
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,239 @@
+package reversi.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One client connection to a {@link ReversiNioServer}.  The connection
+ * never blocks: bytes read from the client collect in an input buffer
+ * until a whole line has arrived, and lines sent to the client collect in
+ * an output buffer that the event loop writes out as the socket accepts
+ * them.
+ * <p>
+ * Only the event loop that owns the connection reads from it or writes to
+ * its socket.  Any thread may {@link #send(String) send} to it; the line
+ * is buffered and the owning loop is asked to write it.
+ */
+class NioConnection {
+    /** longest line a client may send */
+    static final int MAX_LINE = 1024;
+    /** starting size of each buffer; most messages are much shorter */
+    private static final int INITIAL_BUFFER = 64;
+
+    /** the client's socket */
+    private final SocketChannel channel;
+    /** the event loop that owns this connection */
+    private final ReversiNioServer.EventLoop loop;
+    /** the selection key, once the loop has registered the channel */
+    private SelectionKey key;
+
+    /** bytes read but not yet made into lines, in write mode */
+    private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER);
+    /** bytes waiting to be written, in write mode */
+    private ByteBuffer out = ByteBuffer.allocate(INITIAL_BUFFER);
+    /** close the connection once everything buffered has been written */
+    private boolean closeWhenFlushed;
+    /** set once the connection has been closed */
+    private volatile boolean closed;
+
+    /** the game this connection is playing in, or null while waiting */
+    private volatile NioGame game;
+
+    /**
+     * Create a connection.
+     *
+     * @param channel the client's socket, already non-blocking
+     * @param loop the event loop that will own it
+     */
+    NioConnection(SocketChannel channel, ReversiNioServer.EventLoop loop) {
+        this.channel = channel;
+        this.loop = loop;
+    }
+
+    /**
+     * Get the client's socket.
+     *
+     * @return the channel
+     */
+    SocketChannel getChannel() {
+        return this.channel;
+    }
+
+    /**
+     * Remember the key the channel was registered with.  Called by the
+     * owning event loop.
+     *
+     * @param key the selection key
+     */
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Get the game this connection is playing in.
+     *
+     * @return the game, or null if it is not playing yet
+     */
+    NioGame getGame() {
+        return this.game;
+    }
+
+    /**
+     * Put this connection in a game.
+     *
+     * @param game the game
+     */
+    void setGame(NioGame game) {
+        this.game = game;
+    }
+
+    /**
+     * Has this connection been closed?
+     *
+     * @return true once closed
+     */
+    boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Queue a line to be sent to the client.
+     *
+     * @param line the message, without the newline
+     */
+    void send(String line) {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.US_ASCII);
+        synchronized (this) {
+            if (this.closed || this.closeWhenFlushed) {
+                return;
+            }
+            if (this.out.remaining() < bytes.length) {
+                this.out = grow(this.out, bytes.length);
+            }
+            this.out.put(bytes);
+        }
+        this.loop.flushSoon(this);
+    }
+
+    /**
+     * Close the connection once everything already sent has been written.
+     */
+    void closeWhenFlushed() {
+        synchronized (this) {
+            this.closeWhenFlushed = true;
+        }
+        this.loop.flushSoon(this);
+    }
+
+    /**
+     * Write as much buffered output as the socket will take.  Called only
+     * by the owning event loop.
+     */
+    void flush() {
+        boolean done;
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            try {
+                this.out.flip();
+                this.channel.write(this.out);
+                this.out.compact();
+            } catch (IOException e) {
+                this.out.clear();
+                this.closeWhenFlushed = true;
+            }
+            done = this.out.position() == 0;
+            if (this.key != null && this.key.isValid()) {
+                this.key.interestOps(done ? SelectionKey.OP_READ :
+                        SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+            done = done && this.closeWhenFlushed;
+        }
+        if (done) {
+            close();
+        }
+    }
+
+    /**
+     * Read whatever the client has sent and hand each complete line to
+     * the server.  Called only by the owning event loop.
+     *
+     * @param server the server to pass lines to
+     */
+    void read(ReversiNioServer server) {
+        int count;
+        try {
+            count = this.channel.read(this.in);
+        } catch (IOException e) {
+            count = -1;
+        }
+        if (count < 0) {
+            close();
+            return;
+        }
+
+        // pull out every complete line; keep a partial one for next time
+        int start = 0;
+        int end = this.in.position();
+        byte[] bytes = this.in.array();
+        for (int i = 0; i < end && !this.closed; ++i) {
+            if (bytes[i] == '\n') {
+                int length = i > start && bytes[i - 1] == '\r' ? i - 1 - start : i - start;
+                server.lineReceived(this, new String(bytes, start, length, StandardCharsets.US_ASCII));
+                start = i + 1;
+            }
+        }
+        if (this.closed) {
+            return;
+        }
+        this.in.position(start).limit(end);
+        this.in.compact();
+
+        if (!this.in.hasRemaining()) {
+            if (this.in.capacity() >= MAX_LINE) {
+                send(ReversiNioServer.ERROR + " Line too long");
+                closeWhenFlushed();
+                return;
+            }
+            this.in = grow(this.in, this.in.capacity());
+        }
+    }
+
+    /**
+     * Close the connection now, dropping anything not yet written, and
+     * tell the server so it can clean up.
+     */
+    void close() {
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+        }
+        try {
+            this.channel.close();
+        } catch (IOException ioe) {
+            // squash
+        }
+        this.loop.connectionClosed(this);
+    }
+
+    /**
+     * Make a bigger copy of a buffer in write mode.
+     *
+     * @param buffer the buffer
+     * @param needed how many more bytes must fit
+     * @return the new buffer, with the same contents
+     */
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        int size = Math.max(buffer.capacity() * 2, buffer.position() + needed);
+        ByteBuffer bigger = ByteBuffer.allocate(size);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+}
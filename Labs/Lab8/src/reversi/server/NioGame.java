@@ -0,0 +1,163 @@
+package reversi.server;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+import reversi.ReversiProtocol;
+
+/**
+ * A game played over {@link NioConnection non-blocking connections}.  It
+ * plays the same game as {@link ReversiGame}, but instead of a thread that
+ * waits for each player's answer, it is a state machine that moves on
+ * whenever a message arrives from the player whose turn it is.
+ * <p>
+ * The two players may be owned by different event loops, so every method
+ * is synchronized.
+ */
+class NioGame implements ReversiProtocol {
+    /**
+     * Where the game is.
+     */
+    enum State {
+        /** waiting for player one to move */
+        PLAYER_ONE_TO_MOVE,
+        /** waiting for player two to move */
+        PLAYER_TWO_TO_MOVE,
+        /** finished, one way or another */
+        OVER
+    }
+
+    /** first player */
+    private final NioConnection playerOne;
+    /** second player */
+    private final NioConnection playerTwo;
+    /** the game board */
+    private final Reversi game;
+    /** where the game is */
+    private State state;
+
+    /**
+     * Create a game between two connected players.
+     *
+     * @param DIM square dimension of board
+     * @param playerOne first player
+     * @param playerTwo second player
+     */
+    NioGame(int DIM, NioConnection playerOne, NioConnection playerTwo) {
+        this.playerOne = playerOne;
+        this.playerTwo = playerTwo;
+        // a refereed game never takes a move back, so keep no undo stack
+        this.game = new Reversi(DIM, false);
+        playerOne.setGame(this);
+        playerTwo.setGame(this);
+    }
+
+    /**
+     * Ask player one for the first move.
+     */
+    synchronized void start() {
+        this.state = State.PLAYER_ONE_TO_MOVE;
+        this.playerOne.send(MAKE_MOVE);
+    }
+
+    /**
+     * Is the game finished?
+     *
+     * @return true once it is over
+     */
+    synchronized boolean isOver() {
+        return this.state == State.OVER;
+    }
+
+    /**
+     * Handle a message from one of the players.  Anything but a valid
+     * {@link #MOVE} from the player whose turn it is ends the game with an
+     * {@link #ERROR}, just as {@link ReversiGame} does.
+     *
+     * @param from the player who sent it
+     * @param line the message
+     */
+    synchronized void lineReceived(NioConnection from, String line) {
+        if (this.state == State.OVER) {
+            return;
+        }
+        NioConnection turn = this.state == State.PLAYER_ONE_TO_MOVE ? this.playerOne : this.playerTwo;
+        NioConnection other = turn == this.playerOne ? this.playerTwo : this.playerOne;
+        try {
+            if (from != turn) {
+                throw new ReversiException("Move out of turn: " + line);
+            }
+            int[] coord = parseMove(line);
+            this.game.makeMove(coord[0], coord[1]);
+            turn.send(MOVE_MADE + " " + coord[0] + " " + coord[1]);
+            other.send(MOVE_MADE + " " + coord[0] + " " + coord[1]);
+
+            if (this.game.gameOver()) {
+                switch (this.game.getWinner()) {
+                    case NONE:
+                        this.playerOne.send(GAME_TIED);
+                        this.playerTwo.send(GAME_TIED);
+                        break;
+                    case PLAYER_ONE:
+                        this.playerOne.send(GAME_WON);
+                        this.playerTwo.send(GAME_LOST);
+                        break;
+                    case PLAYER_TWO:
+                        this.playerTwo.send(GAME_WON);
+                        this.playerOne.send(GAME_LOST);
+                }
+                finish();
+            } else {
+                this.state = other == this.playerOne ? State.PLAYER_ONE_TO_MOVE : State.PLAYER_TWO_TO_MOVE;
+                other.send(MAKE_MOVE);
+            }
+        } catch (ReversiException e) {
+            this.playerOne.send(ERROR + " " + e.getMessage());
+            this.playerTwo.send(ERROR + " " + e.getMessage());
+            finish();
+        }
+    }
+
+    /**
+     * Handle one of the players going away.  The other player is told
+     * with an {@link #ERROR} and disconnected.
+     *
+     * @param gone the player whose connection closed
+     */
+    synchronized void disconnected(NioConnection gone) {
+        if (this.state == State.OVER) {
+            return;
+        }
+        NioConnection other = gone == this.playerOne ? this.playerTwo : this.playerOne;
+        other.send(ERROR + " Opponent disconnected");
+        finish();
+    }
+
+    /**
+     * End the game and disconnect both players once their last messages
+     * are written.
+     */
+    private void finish() {
+        this.state = State.OVER;
+        this.playerOne.closeWhenFlushed();
+        this.playerTwo.closeWhenFlushed();
+    }
+
+    /**
+     * Parse a {@link #MOVE} message.
+     *
+     * @param line the message
+     * @return the row and column
+     * @throws ReversiException if it is not a move
+     */
+    private static int[] parseMove(String line) throws ReversiException {
+        String[] tokens = line.split(" ");
+        if (tokens.length != 3 || !tokens[0].equals(MOVE)) {
+            throw new ReversiException("Invalid player response: " + line);
+        }
+        try {
+            return new int[] {Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2])};
+        } catch (NumberFormatException e) {
+            throw new ReversiException("Invalid player response: " + line);
+        }
+    }
+}
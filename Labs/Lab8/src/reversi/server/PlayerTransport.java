@@ -0,0 +1,74 @@
+package reversi.server;
+
+import reversi.ReversiException;
+
+import java.io.Closeable;
+
+/**
+ * How a {@link ReversiGame} talks to one of its players: the requests of
+ * the {@link reversi.ReversiProtocol}, as method calls.  A
+ * {@link ReversiPlayer} carries them over a socket to a remote client; a
+ * {@link LocalPlayer} hands them straight to a bot in the same JVM, so
+ * games can be played with no network at all.
+ */
+public interface PlayerTransport extends Closeable {
+    /**
+     * Ask the player for a move and wait for it.
+     *
+     * @return the row and column in which the player would like to move;
+     * the array may be reused by every call
+     * @throws ReversiException if the player's reply is invalid or the
+     * player is gone
+     */
+    int[] makeMove() throws ReversiException;
+
+    /**
+     * Tell the player a move has been made on the board, by either player.
+     *
+     * @param row the row in which the move has been made
+     * @param column the column in which the move has been made
+     */
+    void moveMade(int row, int column);
+
+    /**
+     * Tell the player they won.
+     */
+    void gameWon();
+
+    /**
+     * Tell the player they lost.
+     */
+    void gameLost();
+
+    /**
+     * Tell the player the game was tied.
+     */
+    void gameTied();
+
+    /**
+     * Tell the player the game ended in an error.
+     *
+     * @param message the error message
+     */
+    void error(String message);
+
+    /**
+     * Get the session token the player's game is journaled under.
+     *
+     * @return the token, or 0 if there is none
+     */
+    long getSession();
+
+    /**
+     * Make a {@link #makeMove()} waiting for the player give up, as if the
+     * player were gone.  Called from another thread when the player runs
+     * out of time.
+     */
+    void stopWaiting();
+
+    /**
+     * Let go of the player once the game is over.
+     */
+    @Override
+    void close();
+}
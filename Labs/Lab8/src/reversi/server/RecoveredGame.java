@@ -0,0 +1,190 @@
+package reversi.server;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+
+import java.util.Arrays;
+
+/**
+ * A game that was still being played when the server stopped, rebuilt
+ * from the {@link GameJournal} by replaying its moves.  It waits for both
+ * its players to come back with their session tokens, then carries on
+ * from the last move that reached the disk.
+ */
+public class RecoveredGame {
+    /** the game's number in the journal */
+    private final long id;
+    /** square dimension of board */
+    private final int DIM;
+    /** first player's session token */
+    private final long sessionOne;
+    /** second player's session token */
+    private final long sessionTwo;
+    /** the board, with every journaled move made */
+    private final Reversi game;
+    /** the moves made, row then column for each */
+    private int[] moves = new int[32];
+    /** how many moves were made */
+    private int moveCount;
+
+    /** first player, once back */
+    private ReversiPlayer playerOne;
+    /** second player, once back */
+    private ReversiPlayer playerTwo;
+
+    /**
+     * Start rebuilding a game from its first journal record.
+     *
+     * @param id the game's number
+     * @param DIM square dimension of board
+     * @param sessionOne first player's session token
+     * @param sessionTwo second player's session token
+     */
+    RecoveredGame(long id, int DIM, long sessionOne, long sessionTwo) {
+        this.id = id;
+        this.DIM = DIM;
+        this.sessionOne = sessionOne;
+        this.sessionTwo = sessionTwo;
+        // a refereed game never takes a move back, so keep no undo stack
+        this.game = new Reversi(DIM, false);
+    }
+
+    /**
+     * Make the next journaled move.
+     *
+     * @param row the row
+     * @param col the column
+     * @throws ReversiException if the move is not valid, so the journal
+     *                          cannot be trusted for this game
+     */
+    void replay(int row, int col) throws ReversiException {
+        this.game.makeMove(row, col);
+        if (2 * this.moveCount + 2 > this.moves.length) {
+            this.moves = Arrays.copyOf(this.moves, 2 * this.moves.length);
+        }
+        this.moves[2 * this.moveCount] = row;
+        this.moves[2 * this.moveCount + 1] = col;
+        ++this.moveCount;
+    }
+
+    /**
+     * Seat a player who has come back, replacing any earlier connection
+     * for the same seat.
+     *
+     * @param session the session token the player gave
+     * @param player the player
+     * @return the connection it replaced, if any
+     */
+    ReversiPlayer seat(long session, ReversiPlayer player) {
+        ReversiPlayer old;
+        if (session == this.sessionOne) {
+            old = this.playerOne;
+            this.playerOne = player;
+        } else {
+            old = this.playerTwo;
+            this.playerTwo = player;
+        }
+        return old;
+    }
+
+    /**
+     * Get whether both players are back.
+     *
+     * @return true if the game can go on
+     */
+    boolean isReady() {
+        return this.playerOne != null && this.playerTwo != null;
+    }
+
+    /**
+     * Get the first player, if back.
+     *
+     * @return the player, or null
+     */
+    ReversiPlayer getPlayerOne() {
+        return this.playerOne;
+    }
+
+    /**
+     * Get the second player, if back.
+     *
+     * @return the player, or null
+     */
+    ReversiPlayer getPlayerTwo() {
+        return this.playerTwo;
+    }
+
+    /**
+     * Get the game's number in the journal.
+     *
+     * @return the number
+     */
+    public long getId() {
+        return this.id;
+    }
+
+    /**
+     * Get the square dimension of the board.
+     *
+     * @return the dimension
+     */
+    public int getDIM() {
+        return this.DIM;
+    }
+
+    /**
+     * Get the first player's session token.
+     *
+     * @return the token
+     */
+    public long getSessionOne() {
+        return this.sessionOne;
+    }
+
+    /**
+     * Get the second player's session token.
+     *
+     * @return the token
+     */
+    public long getSessionTwo() {
+        return this.sessionTwo;
+    }
+
+    /**
+     * Get the board, with every journaled move made.
+     *
+     * @return the board
+     */
+    public Reversi getGame() {
+        return this.game;
+    }
+
+    /**
+     * Get how many moves were made before the server stopped.
+     *
+     * @return the move count
+     */
+    public int getMoveCount() {
+        return this.moveCount;
+    }
+
+    /**
+     * Get the row of a move.
+     *
+     * @param move which move, from 0
+     * @return the row
+     */
+    public int getRow(int move) {
+        return this.moves[2 * move];
+    }
+
+    /**
+     * Get the column of a move.
+     *
+     * @param move which move, from 0
+     * @return the column
+     */
+    public int getCol(int move) {
+        return this.moves[2 * move + 1];
+    }
+}
@@ -2,20 +2,75 @@ package reversi.server;
 
 import reversi.Reversi;
 import reversi.ReversiException;
+import reversi.record.GameRecord;
+import reversi.record.GameRecordWriter;
+
+import java.util.function.BooleanSupplier;
 
 /**
  * The server side representation of the game state and players in the game.
+ * The players are {@link PlayerTransport}s: clients on sockets when the
+ * game is served, or {@link LocalPlayer}s to play it in this JVM.
+ * <p>
+ * Given a {@link GameJournal}, the game journals its start, every move and
+ * its end, and a game {@link RecoveredGame recovered} from the journal
+ * can be carried on from where it stopped.
+ * <p>
+ * Under a {@link TimeControl}, the player to move has a clock running on
+ * the shared {@link TimingWheel}.  A player who runs out of time loses,
+ * and is told so with {@link PlayerTransport#gameLost()} while the opponent
+ * is told {@link PlayerTransport#gameWon()}.
+ * <p>
+ * Moves are made through a {@link GameBroadcast}, so that
+ * {@link Spectator spectators} can {@link #watch} the game.
+ * <p>
+ * Given a {@link GameRecordWriter}, the game is written to it as a
+ * {@link GameRecord} when it ends, however it ends.
+ * <p>
+ * A new game in a lobby may find that one of its players is not a player
+ * after all, when that one answers its first {@link PlayerTransport#makeMove()}
+ * with something else.  Until both players have answered, the first
+ * player is not told of its own first move, so the lobby can
+ * {@link #setTakeBack take both back} as if they had never been paired.
  *
  * @author Robert St Jacques @ RIT SE
  * @author Sean Strout @ RIT CS
  */
 public class ReversiGame {
     /** first player */
-    private ReversiPlayer playerOne;
+    private PlayerTransport playerOne;
     /** second player */
-    private ReversiPlayer playerTwo;
+    private PlayerTransport playerTwo;
     /** the game board */
     private Reversi game;
+    /** sends the game to its spectators */
+    private GameBroadcast broadcast;
+    /** the server's metrics */
+    private ServerMetrics metrics;
+    /** where the moves are journaled, or null if they are not */
+    private GameJournal journal;
+    /** the game's number in the journal */
+    private long id;
+    /** the game this one carries on with, or null if it is new */
+    private RecoveredGame recovered;
+    /** the time limits */
+    private TimeControl timeControl = TimeControl.NONE;
+    /** time each player has left for the game, in nanoseconds */
+    private final long[] timeLeft = {Long.MAX_VALUE, Long.MAX_VALUE};
+    /** the player who ran out of time, if one did */
+    private PlayerTransport flagged;
+    /** where the game is recorded when it ends, or null if it is not */
+    private GameRecordWriter records;
+    /** the record of the game, if it is being recorded */
+    private GameRecord record;
+    /** asked to take the players back if the game ends before they are both seated, or null */
+    private BooleanSupplier takeBack;
+    /** whether both players have answered a move request, or could not be taken back anyway */
+    private boolean seated;
+    /** the first move, not yet sent to the player who made it */
+    private int[] held;
+    /** whether the players were taken back, and so are not the game's to close */
+    private boolean takenBack;
 
     /**
      * Create the server side game.
@@ -24,19 +79,138 @@ public class ReversiGame {
      * @param playerOne first player
      * @param playerTwo second player
      */
-    public ReversiGame(int DIM, ReversiPlayer playerOne, ReversiPlayer playerTwo) {
+    public ReversiGame(int DIM, PlayerTransport playerOne, PlayerTransport playerTwo) {
+        this(DIM, playerOne, playerTwo, new ServerMetrics());
+    }
+
+    /**
+     * Create the server side game, counting its moves in the server's
+     * metrics.
+     *
+     * @param DIM square dimension of board
+     * @param playerOne first player
+     * @param playerTwo second player
+     * @param metrics the server's metrics
+     */
+    public ReversiGame(int DIM, PlayerTransport playerOne, PlayerTransport playerTwo, ServerMetrics metrics) {
+        this(DIM, playerOne, playerTwo, metrics, null);
+    }
+
+    /**
+     * Create the server side game, counting its moves in the server's
+     * metrics and journaling them.
+     *
+     * @param DIM square dimension of board
+     * @param playerOne first player
+     * @param playerTwo second player
+     * @param metrics the server's metrics
+     * @param journal where to journal the game, or null not to
+     */
+    public ReversiGame(int DIM, PlayerTransport playerOne, PlayerTransport playerTwo, ServerMetrics metrics,
+                       GameJournal journal) {
         this.playerOne = playerOne;
         this.playerTwo = playerTwo;
-        this.game = new Reversi(DIM);
+        // a refereed game never takes a move back, so keep no undo stack
+        this.game = new Reversi(DIM, false);
+        this.broadcast = new GameBroadcast(this.game);
+        this.metrics = metrics;
+        this.journal = journal;
+        if(journal != null) {
+            this.id = journal.start(DIM, playerOne.getSession(), playerTwo.getSession());
+        }
+    }
+
+    /**
+     * Create the server side game to carry on with a game recovered from
+     * the journal, once both its players are back.
+     *
+     * @param recovered the recovered game
+     * @param playerOne first player
+     * @param playerTwo second player
+     * @param metrics the server's metrics
+     * @param journal the journal the game was recovered from
+     */
+    public ReversiGame(RecoveredGame recovered, PlayerTransport playerOne, PlayerTransport playerTwo,
+                       ServerMetrics metrics, GameJournal journal) {
+        this.playerOne = playerOne;
+        this.playerTwo = playerTwo;
+        this.game = recovered.getGame();
+        this.broadcast = new GameBroadcast(this.game);
+        this.metrics = metrics;
+        this.journal = journal;
+        this.id = recovered.getId();
+        this.recovered = recovered;
+    }
+
+    /**
+     * Set the time limits the game is played under, before it is played.
+     *
+     * @param timeControl the limits
+     */
+    public void setTimeControl(TimeControl timeControl) {
+        this.timeControl = timeControl;
+        this.timeLeft[0] = timeControl.getGameNanos();
+        this.timeLeft[1] = timeControl.getGameNanos();
+    }
+
+    /**
+     * Record the game when it ends, before it is played.
+     *
+     * @param records where to write the record
+     */
+    public void setRecords(GameRecordWriter records) {
+        this.records = records;
+    }
+
+    /**
+     * Let the lobby take the players back, before the game is played, if
+     * one of them answers its first move request with something other
+     * than a move.
+     *
+     * @param takeBack takes both players back and returns true if one of
+     *                 them is not a player, or returns false
+     */
+    void setTakeBack(BooleanSupplier takeBack) {
+        this.takeBack = takeBack;
+    }
+
+    /**
+     * Let a spectator watch the game from now on.
+     *
+     * @param spectator the spectator
+     * @return false if the game is already over
+     */
+    boolean watch(Spectator spectator) {
+        return this.broadcast.watch(spectator);
     }
 
     /**
      * Conduct the gameplay.
      */
     public void run() {
-        boolean go = true;
-        while(go) {
-            try {
+        // boards too big for the record format are played but not recorded
+        if(this.records != null && this.game.getDimension() <= GameRecord.MAX_DIM) {
+            this.record = new GameRecord(this.game.getDimension());
+        }
+        this.seated = this.recovered != null || this.takeBack == null;
+        try {
+            if(this.recovered != null) {
+                // bring both players up to date
+                for(int i = 0; i < this.recovered.getMoveCount(); ++i) {
+                    this.playerOne.moveMade(this.recovered.getRow(i), this.recovered.getCol(i));
+                    this.playerTwo.moveMade(this.recovered.getRow(i), this.recovered.getCol(i));
+                    if(this.record != null) {
+                        this.record.addMove(this.recovered.getRow(i), this.recovered.getCol(i));
+                    }
+                }
+            }
+
+            boolean go = true;
+            // a recovered game may stop on either player's turn
+            if(!this.game.isP1Turn()) {
+                go = !makeMove(this.playerTwo, this.playerOne);
+            }
+            while(go) {
                 if(makeMove(this.playerOne, this.playerTwo)) {
                     go = false;
                 }
@@ -44,15 +218,81 @@ public class ReversiGame {
                     go = false;
                 }
             }
-            catch(ReversiException e) {
+        }
+        catch(ReversiException e) {
+            if(this.flagged != null) {
+                this.metrics.timeout();
+                (this.flagged == this.playerOne ? this.playerTwo : this.playerOne).gameWon();
+                this.flagged.gameLost();
+                Reversi.Move winner = this.flagged == this.playerOne ?
+                        Reversi.Move.PLAYER_TWO : Reversi.Move.PLAYER_ONE;
+                this.broadcast.gameOver(winner);
+                if(this.record != null) {
+                    this.record.setResult(winner, true);
+                }
+            }
+            else if(!this.seated && this.takeBack.getAsBoolean()) {
+                // never really started; the lobby pairs them again
+                this.takenBack = true;
+            }
+            else {
+                this.metrics.protocolError();
                 this.playerOne.error(e.getMessage());
                 this.playerTwo.error(e.getMessage());
-                go = false;
+                this.broadcast.abandon(e.getMessage());
+            }
+        }
+        finally {
+            // a no-op unless the game ended some other way
+            this.broadcast.abandon("Game abandoned");
+            if(this.journal != null) {
+                this.journal.end(this.id);
             }
+            if(!this.takenBack) {
+                if(this.record != null) {
+                    // unfinished unless a result was set
+                    this.records.write(this.record);
+                }
+                this.playerOne.close();
+                this.playerTwo.close();
+            }
+        }
+    }
+
+    /**
+     * Start a player's clock for a move.
+     *
+     * @param turn the player to move
+     * @return the clock, or null if there are no time limits
+     */
+    private TimingWheel.Timeout startClock(PlayerTransport turn) {
+        if(this.timeControl.isUnlimited()) {
+            return null;
         }
+        return this.timeControl.start(turn, this.timeLeft[turn == this.playerOne ? 0 : 1]);
+    }
+
+    /**
+     * Stop a player's clock once the move has arrived, or the wait for it
+     * has ended some other way, and take the time from what the player
+     * has left.
+     *
+     * @param turn the player who was to move
+     * @param clock the clock, or null if there are no time limits
+     * @param asked when the player was asked to move
+     * @throws ReversiException if the clock ran out first
+     */
+    private void stopClock(PlayerTransport turn, TimingWheel.Timeout clock, long asked)
+        throws ReversiException {
 
-        this.playerOne.close();
-        this.playerTwo.close();
+        if(clock == null) {
+            return;
+        }
+        if(!clock.cancel()) {
+            this.flagged = turn;
+            throw new ReversiException("Out of time");
+        }
+        this.timeLeft[turn == this.playerOne ? 0 : 1] -= System.nanoTime() - asked;
     }
 
     /**
@@ -63,19 +303,51 @@ public class ReversiGame {
      * @return whether the game ended or not on this move
      * @throws ReversiException if there is any game playing problem
      */
-    private boolean makeMove(ReversiPlayer turn, ReversiPlayer other)
+    private boolean makeMove(PlayerTransport turn, PlayerTransport other)
         throws ReversiException {
 
-        // get the move from the player whose turn it is
-        int[] coord = turn.makeMove();
-        this.game.makeMove(coord[0], coord[1]);
+        // get the move from the player whose turn it is, on the clock
+        long asked = System.nanoTime();
+        TimingWheel.Timeout clock = startClock(turn);
+        int[] coord;
+        try {
+            coord = turn.makeMove();
+        }
+        finally {
+            stopClock(turn, clock, asked);
+        }
+        long replied = System.nanoTime();
+        this.broadcast.makeMove(coord[0], coord[1]);
+        if(this.journal != null) {
+            this.journal.move(this.id, coord[0], coord[1]);
+        }
+        if(this.record != null) {
+            this.record.addMove(coord[0], coord[1]);
+        }
 
         // communicate the move to both players
-        turn.moveMade(coord[0], coord[1]);
-        other.moveMade(coord[0], coord[1]);
+        if(!this.seated && this.held == null && !this.game.gameOver()) {
+            // the other may still turn out not to be a player
+            this.held = new int[] {coord[0], coord[1]};
+            other.moveMade(coord[0], coord[1]);
+        }
+        else {
+            if(this.held != null) {
+                other.moveMade(this.held[0], this.held[1]);
+                this.held = null;
+            }
+            this.seated = true;
+            turn.moveMade(coord[0], coord[1]);
+            other.moveMade(coord[0], coord[1]);
+        }
+        this.metrics.moveMade(replied - asked, System.nanoTime() - replied);
 
         // check if the game ended on this move
         if(this.game.gameOver()) {
+            this.broadcast.gameOver(this.game.getWinner());
+            if(this.record != null) {
+                this.record.setResult(this.game.getWinner(), false);
+            }
             // determine winner
             switch (this.game.getWinner()) {
                 case NONE:
@@ -0,0 +1,516 @@
+package reversi.server;
+
+import reversi.BinaryProtocol;
+import reversi.record.GameRecordWriter;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link ReversiLobby} pairs {@link ReversiPlayer players} off as they
+ * arrive and plays their {@link ReversiGame games} on threads of their
+ * own, so one server can host many games at once.
+ * <p>
+ * Both limits push back on the players arriving instead of piling up work:
+ * <ul>
+ *     <li>at most a fixed number of games are played at once, and a pair
+ *     of players waits for a game to finish before starting theirs;</li>
+ *     <li>at most a fixed number of players wait to be paired, and
+ *     {@link #join(ReversiPlayer)} blocks once the queue is full, so the
+ *     server stops accepting connections until there is room.</li>
+ * </ul>
+ * <p>
+ * Games run on a fixed pool of platform threads, or with virtual threads
+ * on a new virtual thread each (see {@link ServerThreads}).
+ * <p>
+ * Connections that ask for {@link ReversiPlayer#STATS} rather than to play
+ * are noticed while they wait, answered and let go.
+ * <p>
+ * With a {@link GameJournal}, every game is journaled, and the games
+ * recovered from it wait for their players to {@link ReversiPlayer#RESUME}
+ * them.  Game slots are kept for them.  Recovered games whose players
+ * have not both come back after a while are abandoned.
+ * <p>
+ * Connections that ask to {@link ReversiPlayer#WATCH} a game become
+ * {@link Spectator spectators} of it, written to on a small pool of
+ * threads of their own (or virtual threads) so that no game thread waits
+ * on a spectator, with deadlines on a {@link TimingWheel} of their own.
+ * <p>
+ * Players are paired as soon as there are two, so a connection may be
+ * paired before its {@link ReversiPlayer#RESUME} or
+ * {@link ReversiPlayer#WATCH} has been read.  Its new game then
+ * {@link ReversiGame#setTakeBack hands back} both players when it answers
+ * its first move request with it: that one is dealt with as if it had
+ * asked while waiting, and its opponent is paired again ahead of the
+ * players waiting.
+ */
+public class ReversiLobby implements Closeable {
+    /** how often waiting connections are checked for commands */
+    private static final long POLL_MILLIS = 100;
+    /** how long recovered games wait for their players */
+    private static final long RESUME_MILLIS = 60_000L;
+    /** platform threads that write to spectators */
+    private static final int SPECTATOR_WRITERS = 4;
+    /** tick of the wheel spectators' write deadlines run on */
+    private static final long DEADLINE_TICK_MILLIS = 50;
+    /** buckets in the wheel spectators' write deadlines run on */
+    private static final int DEADLINE_BUCKETS = 64;
+
+    /** square dimension of board for every game */
+    private final int DIM;
+    /** players waiting to be paired, oldest first */
+    private final BlockingQueue<ReversiPlayer> waiting;
+    /** players handed back by games that turned out not to be games, paired first */
+    private final Queue<ReversiPlayer> returned = new ConcurrentLinkedQueue<>();
+    /** one permit for each game that may be played at once */
+    private final Semaphore gameSlots;
+    /** threads that play the games */
+    private final ExecutorService games;
+    /** thread that pairs waiting players off */
+    private final Thread matchmaker;
+    /** threads that write to spectators */
+    private final ExecutorService spectatorWriters;
+    /** spectators' write deadlines, made when the first one arrives */
+    private volatile TimingWheel spectatorDeadlines;
+    /** the games being played, by number */
+    private final ConcurrentNavigableMap<Long, ReversiGame> playing = new ConcurrentSkipListMap<>();
+
+    /** the server's metrics, which count the games */
+    private final ServerMetrics metrics;
+    /** where the games are journaled, or null if they are not */
+    private final GameJournal journal;
+    /** recovered games waiting for their players, by both their sessions */
+    private final Map<Long, RecoveredGame> resuming = new HashMap<>();
+    /** when recovered games stop waiting for their players */
+    private final long resumeDeadline;
+    /** the time limits games are played under */
+    private volatile TimeControl timeControl = TimeControl.NONE;
+    /** where finished games are recorded, or null if they are not */
+    private volatile GameRecordWriter records;
+
+    /**
+     * Creates a new {@link ReversiLobby} that plays games on platform
+     * threads, and starts pairing players.
+     *
+     * @param DIM square dimension of board
+     * @param maxGames the most games that may be played at once
+     * @param maxWaiting the most players that may wait to be paired
+     */
+    public ReversiLobby(int DIM, int maxGames, int maxWaiting) {
+        this(DIM, maxGames, maxWaiting, false);
+    }
+
+    /**
+     * Creates a new {@link ReversiLobby} and starts pairing players.
+     *
+     * @param DIM square dimension of board
+     * @param maxGames the most games that may be played at once
+     * @param maxWaiting the most players that may wait to be paired
+     * @param virtualThreads whether to play each game on its own virtual
+     *                       thread instead of a pool of platform threads
+     */
+    public ReversiLobby(int DIM, int maxGames, int maxWaiting, boolean virtualThreads) {
+        this(DIM, maxGames, maxWaiting, virtualThreads, new ServerMetrics());
+    }
+
+    /**
+     * Creates a new {@link ReversiLobby} that counts its games in the
+     * server's metrics, and starts pairing players.
+     *
+     * @param DIM square dimension of board
+     * @param maxGames the most games that may be played at once
+     * @param maxWaiting the most players that may wait to be paired
+     * @param virtualThreads whether to play each game on its own virtual
+     *                       thread instead of a pool of platform threads
+     * @param metrics the server's metrics
+     */
+    public ReversiLobby(int DIM, int maxGames, int maxWaiting, boolean virtualThreads,
+                        ServerMetrics metrics) {
+        this(DIM, maxGames, maxWaiting, virtualThreads, metrics, null);
+    }
+
+    /**
+     * Creates a new {@link ReversiLobby} that counts its games in the
+     * server's metrics and journals them, and starts pairing players.
+     * The games recovered from the journal wait for their players.
+     *
+     * @param DIM square dimension of board
+     * @param maxGames the most games that may be played at once
+     * @param maxWaiting the most players that may wait to be paired
+     * @param virtualThreads whether to play each game on its own virtual
+     *                       thread instead of a pool of platform threads
+     * @param metrics the server's metrics
+     * @param journal where to journal the games, or null not to
+     */
+    public ReversiLobby(int DIM, int maxGames, int maxWaiting, boolean virtualThreads,
+                        ServerMetrics metrics, GameJournal journal) {
+        this.DIM = DIM;
+        this.metrics = metrics;
+        this.journal = journal;
+        this.waiting = new ArrayBlockingQueue<>(Math.max(2, maxWaiting));
+        this.gameSlots = new Semaphore(maxGames);
+        if (journal != null) {
+            for (RecoveredGame game : journal.getRecovered()) {
+                // keep a slot for each, as it had before the restart
+                if (game.getDIM() == DIM && this.gameSlots.tryAcquire()) {
+                    this.resuming.put(game.getSessionOne(), game);
+                    this.resuming.put(game.getSessionTwo(), game);
+                } else {
+                    journal.end(game.getId());
+                }
+            }
+        }
+        this.resumeDeadline = System.nanoTime() + RESUME_MILLIS * 1_000_000L;
+        ThreadFactory threads = ServerThreads.forMode("game-", virtualThreads);
+        // the semaphore already limits the games, so virtual threads need no pool
+        this.games = virtualThreads ? Executors.newCachedThreadPool(threads) :
+                Executors.newFixedThreadPool(maxGames, threads);
+        ThreadFactory writers = ServerThreads.forMode("spectator-", virtualThreads);
+        this.spectatorWriters = virtualThreads ? Executors.newCachedThreadPool(writers) :
+                Executors.newFixedThreadPool(SPECTATOR_WRITERS, writers);
+        this.matchmaker = new Thread(this::pairPlayers, "matchmaker");
+        this.matchmaker.setDaemon(true);
+        this.matchmaker.start();
+    }
+
+    /**
+     * Sets the time limits for the games started from now on.
+     *
+     * @param timeControl the limits
+     */
+    public void setTimeControl(TimeControl timeControl) {
+        this.timeControl = timeControl;
+    }
+
+    /**
+     * Records the games started from now on when they end.
+     *
+     * @param records where to write the records, or null not to
+     */
+    public void setRecords(GameRecordWriter records) {
+        this.records = records;
+    }
+
+    /**
+     * Adds a connected player to the lobby, waiting if the lobby is full.
+     *
+     * @param player the player, who has already been sent
+     *               {@link ReversiPlayer#connect(int)}
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    public void join(ReversiPlayer player) throws InterruptedException {
+        this.waiting.put(player);
+    }
+
+    /**
+     * Pairs waiting players off in the order they arrived until the lobby
+     * is closed, answering and dropping any connections that turn out not
+     * to be players.
+     */
+    private void pairPlayers() {
+        ReversiPlayer playerOne = null;
+        try {
+            while (true) {
+                ReversiPlayer next = this.returned.poll();
+                if (next == null) {
+                    next = this.waiting.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (!this.resuming.isEmpty() && System.nanoTime() - this.resumeDeadline > 0) {
+                    abandonResuming();
+                }
+                if (playerOne != null && notAPlayer(playerOne)) {
+                    playerOne = null;
+                }
+                if (next == null || notAPlayer(next)) {
+                    continue;
+                }
+                if (playerOne == null) {
+                    playerOne = next;
+                    continue;
+                }
+
+                // wait for room, still answering the connections that wait
+                while (!this.gameSlots.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    this.waiting.removeIf(this::notAPlayer);
+                }
+                boolean oneGone = notAPlayer(playerOne);
+                boolean twoGone = notAPlayer(next);
+                if (oneGone || twoGone) {
+                    this.gameSlots.release();
+                    playerOne = oneGone ? (twoGone ? null : next) : playerOne;
+                    continue;
+                }
+                startGame(playerOne, next, null);
+                playerOne = null;
+            }
+        } catch (InterruptedException ie) {
+            // the lobby is closing
+            if (playerOne != null) {
+                playerOne.close();
+            }
+        }
+    }
+
+    /**
+     * Answers and lets go of a waiting connection if it has asked for
+     * {@link ReversiPlayer#STATS} rather than to play, seats it in its
+     * recovered game if it has asked to {@link ReversiPlayer#RESUME}, or
+     * makes it a spectator if it has asked to {@link ReversiPlayer#WATCH},
+     * here or in answer to its game's first move request.
+     *
+     * @param player the waiting connection
+     * @return true if it was not a new player after all
+     */
+    private boolean notAPlayer(ReversiPlayer player) {
+        if (askedNotToPlay(player) || player.pollCommands()) {
+            if (player.getResume() != 0) {
+                resume(player);
+            } else if (player.getWatch() >= 0) {
+                watch(player);
+            } else {
+                player.close();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets whether a connection has already asked to resume or watch a
+     * game.
+     *
+     * @param player the connection
+     * @return true if it has
+     */
+    private static boolean askedNotToPlay(ReversiPlayer player) {
+        return player.getResume() != 0 || player.getWatch() >= 0;
+    }
+
+    /**
+     * Takes back the players of a new game whose first move request one
+     * of them answered by asking to resume or watch, to be paired again.
+     * Called on the game's thread.
+     *
+     * @param playerOne first player
+     * @param playerTwo second player
+     * @return false if neither asked, so the game really is over
+     */
+    private boolean takeBack(ReversiPlayer playerOne, ReversiPlayer playerTwo) {
+        if (!askedNotToPlay(playerOne) && !askedNotToPlay(playerTwo)) {
+            return false;
+        }
+        this.returned.add(playerOne);
+        this.returned.add(playerTwo);
+        return true;
+    }
+
+    /**
+     * Seats a player in the recovered game it asked to resume, and starts
+     * the game once both players are back.
+     *
+     * @param player the player
+     */
+    private void resume(ReversiPlayer player) {
+        long session = player.getResume();
+        RecoveredGame game = this.resuming.get(session);
+        if (game == null) {
+            player.error("No game to resume");
+            player.close();
+            return;
+        }
+        ReversiPlayer old = game.seat(session, player);
+        if (old != null) {
+            // the player reconnected again; keep the latest
+            old.close();
+        }
+        if (game.isReady()) {
+            this.resuming.remove(game.getSessionOne());
+            this.resuming.remove(game.getSessionTwo());
+            // the slot was kept for it
+            startGame(game.getPlayerOne(), game.getPlayerTwo(), game);
+        }
+    }
+
+    /**
+     * Makes a connection a spectator of the game it asked to watch, or of
+     * the newest game still being played if it did not say.
+     *
+     * @param player the connection
+     */
+    private void watch(ReversiPlayer player) {
+        long number = player.getWatch();
+        ReversiGame asked = number > 0 ? this.playing.get(number) : null;
+        // a game that has just ended stays here until its thread is done
+        Collection<ReversiGame> games = number > 0 ?
+                (asked == null ? List.of() : List.of(asked)) :
+                this.playing.descendingMap().values();
+        if (games.isEmpty()) {
+            player.error("No such game");
+            player.close();
+            return;
+        }
+        if (this.DIM > BinaryProtocol.MAX_BOARD_DIM) {
+            // the snapshot a spectator starts with would not fit in a frame
+            player.error("Board too large to watch");
+            player.close();
+            return;
+        }
+        if (this.spectatorDeadlines == null) {
+            this.spectatorDeadlines = new TimingWheel(DEADLINE_TICK_MILLIS, TimeUnit.MILLISECONDS,
+                    DEADLINE_BUCKETS);
+        }
+        Spectator spectator = new Spectator(player, this.spectatorWriters, this.spectatorDeadlines,
+                this.metrics);
+        for (ReversiGame game : games) {
+            if (game.watch(spectator)) {
+                return;
+            }
+        }
+        player.error(number > 0 ? "Game over" : "No such game");
+        spectator.close();
+    }
+
+    /**
+     * Gives up on the recovered games whose players have not both come
+     * back, freeing their slots.
+     */
+    private void abandonResuming() {
+        Set<RecoveredGame> abandoned = new LinkedHashSet<>(this.resuming.values());
+        this.resuming.clear();
+        for (RecoveredGame game : abandoned) {
+            for (ReversiPlayer player : new ReversiPlayer[] {game.getPlayerOne(), game.getPlayerTwo()}) {
+                if (player != null) {
+                    player.error("Opponent did not come back");
+                    player.close();
+                }
+            }
+            this.journal.end(game.getId());
+            this.gameSlots.release();
+        }
+        System.out.println("Abandoned " + abandoned.size() + " recovered games");
+    }
+
+    /**
+     * Plays a game between two players on the game threads.
+     *
+     * @param playerOne first player
+     * @param playerTwo second player
+     * @param recovered the recovered game they are resuming, or null to
+     *                  play a new one
+     */
+    private void startGame(ReversiPlayer playerOne, ReversiPlayer playerTwo, RecoveredGame recovered) {
+        this.metrics.gameStarted();
+        long number = this.metrics.getGamesStarted();
+        System.out.println((recovered == null ? "Starting game " : "Resuming game ") + number +
+                "! (" + this.metrics.getActiveGames() + " playing)");
+        ReversiGame game = recovered == null ?
+                new ReversiGame(this.DIM, playerOne, playerTwo, this.metrics, this.journal) :
+                new ReversiGame(recovered, playerOne, playerTwo, this.metrics, this.journal);
+        game.setTimeControl(this.timeControl);
+        game.setRecords(this.records);
+        if (recovered == null) {
+            game.setTakeBack(() -> takeBack(playerOne, playerTwo));
+        }
+        this.playing.put(number, game);
+        this.games.execute(() -> {
+            try {
+                game.run();
+            } catch (RuntimeException e) {
+                // a bug; the game tells players of their own errors and lost connections
+                System.err.println("Game " + number + " abandoned: " + e);
+                this.metrics.protocolError();
+                playerOne.close();
+                playerTwo.close();
+            } finally {
+                this.playing.remove(number);
+                this.metrics.gameFinished();
+                this.gameSlots.release();
+            }
+        });
+    }
+
+    /**
+     * Gets how many players are waiting to be paired.
+     *
+     * @return the number of waiting players
+     */
+    public int getWaiting() {
+        return this.waiting.size();
+    }
+
+    /**
+     * Gets how many games are being played right now.
+     *
+     * @return the number of active games
+     */
+    public int getActiveGames() {
+        return (int) this.metrics.getActiveGames();
+    }
+
+    /**
+     * Gets how many games have been started.
+     *
+     * @return the number of games started
+     */
+    public long getGamesStarted() {
+        return this.metrics.getGamesStarted();
+    }
+
+    /**
+     * Gets how many games have finished.
+     *
+     * @return the number of games finished
+     */
+    public long getGamesFinished() {
+        return this.metrics.getGamesFinished();
+    }
+
+    /**
+     * Stops pairing players, abandons the games being played and
+     * disconnects everyone still waiting, including the players back for
+     * recovered games.
+     */
+    @Override
+    public void close() {
+        this.matchmaker.interrupt();
+        try {
+            this.matchmaker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.games.shutdownNow();
+        this.spectatorWriters.shutdownNow();
+        if (this.spectatorDeadlines != null) {
+            this.spectatorDeadlines.close();
+        }
+        List<ReversiPlayer> left = new ArrayList<>();
+        this.waiting.drainTo(left);
+        left.addAll(this.returned);
+        // recovered games stay unfinished in the journal, for next time
+        for (RecoveredGame game : this.resuming.values()) {
+            left.add(game.getPlayerOne());
+            left.add(game.getPlayerTwo());
+        }
+        left.removeIf(player -> player == null);
+        for (ReversiPlayer player : left) {
+            player.close();
+        }
+    }
+}
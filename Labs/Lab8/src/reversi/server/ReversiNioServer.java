@@ -0,0 +1,372 @@
+package reversi.server;
+
+import reversi.ReversiException;
+import reversi.ReversiProtocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Reversi server that does not need a thread per player.  Connections
+ * are non-blocking and shared out over a few event loops, each with its
+ * own {@link Selector}.  Messages are framed into lines as they arrive,
+ * and each {@link NioGame game} moves on as its players' moves come in, so
+ * an idle connection costs only its buffers.
+ * <p>
+ * Clients see the same text {@link ReversiProtocol protocol} as with
+ * {@link ReversiServer}: they are sent {@link #CONNECT} as soon as they
+ * connect, and are paired off in the order they arrive.  The
+ * {@link reversi.BinaryProtocol} is not offered, so clients stay with text.
+ */
+public class ReversiNioServer implements ReversiProtocol, Closeable {
+    /** the socket incoming connections arrive on */
+    private final ServerSocketChannel server;
+    /** square dimension of board for every game */
+    private final int DIM;
+    /** the event loops; the first one also accepts connections */
+    private final EventLoop[] loops;
+    /** which loop gets the next connection */
+    private int nextLoop;
+
+    /** a connected player with no opponent yet, or null */
+    private NioConnection waiting;
+    /** guards {@link #waiting} */
+    private final Object pairLock = new Object();
+
+    /** how many connections are open */
+    private final AtomicInteger connections = new AtomicInteger();
+    /** how many games have been started */
+    private final AtomicLong gamesStarted = new AtomicLong();
+
+    /**
+     * Creates a new {@link ReversiNioServer} that listens for incoming
+     * connections on the specified port.
+     *
+     * @param port the port to listen on
+     * @param DIM square dimension of board
+     * @param loopCount how many event loop threads to use
+     * @throws ReversiException if the server socket or selectors cannot be
+     *                          opened
+     */
+    public ReversiNioServer(int port, int DIM, int loopCount) throws ReversiException {
+        this.DIM = DIM;
+        this.loops = new EventLoop[Math.max(1, loopCount)];
+        try {
+            this.server = ServerSocketChannel.open();
+            this.server.bind(new InetSocketAddress(port), 1024);
+            this.server.configureBlocking(false);
+            for (int i = 0; i < this.loops.length; ++i) {
+                this.loops[i] = new EventLoop(i);
+            }
+            this.server.register(this.loops[0].selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            throw new ReversiException(e);
+        }
+    }
+
+    /**
+     * Runs the event loops until the server is closed.  The first loop
+     * runs on the calling thread.
+     */
+    public void run() {
+        System.out.println("Listening with " + this.loops.length + " event loops...");
+        for (int i = 1; i < this.loops.length; ++i) {
+            Thread thread = new Thread(this.loops[i], "event-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        this.loops[0].run();
+    }
+
+    /**
+     * Accepts every connection waiting on the server socket and hands each
+     * to an event loop.
+     */
+    private void acceptAll() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = this.server.accept();
+                if (channel == null) {
+                    return;
+                }
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+            } catch (IOException e) {
+                System.err.println("Failed to accept connection: " + e.getMessage());
+                return;
+            }
+            EventLoop loop = this.loops[this.nextLoop];
+            this.nextLoop = (this.nextLoop + 1) % this.loops.length;
+            loop.adopt(new NioConnection(channel, loop));
+        }
+    }
+
+    /**
+     * Greets a newly registered connection and pairs it with the waiting
+     * player if there is one.
+     *
+     * @param connection the new connection
+     */
+    private void connected(NioConnection connection) {
+        this.connections.incrementAndGet();
+        connection.send(CONNECT + " " + this.DIM);
+        NioGame game = null;
+        synchronized (this.pairLock) {
+            if (this.waiting == null) {
+                this.waiting = connection;
+            } else {
+                game = new NioGame(this.DIM, this.waiting, connection);
+                this.waiting = null;
+            }
+        }
+        if (game != null) {
+            this.gamesStarted.incrementAndGet();
+            game.start();
+        }
+    }
+
+    /**
+     * Passes a line from a client on to its game.
+     *
+     * @param connection the client
+     * @param line the line, without its newline
+     */
+    void lineReceived(NioConnection connection, String line) {
+        NioGame game = connection.getGame();
+        if (game != null) {
+            game.lineReceived(connection, line);
+        } else {
+            // nobody asked a waiting player for anything
+            connection.send(ERROR + " No game yet: " + line);
+            connection.closeWhenFlushed();
+        }
+    }
+
+    /**
+     * Cleans up after a connection closes.
+     *
+     * @param connection the connection
+     */
+    private void disconnected(NioConnection connection) {
+        this.connections.decrementAndGet();
+        synchronized (this.pairLock) {
+            if (this.waiting == connection) {
+                this.waiting = null;
+            }
+        }
+        NioGame game = connection.getGame();
+        if (game != null) {
+            game.disconnected(connection);
+        }
+    }
+
+    /**
+     * Gets how many client connections are open.
+     *
+     * @return the connection count
+     */
+    public int getConnections() {
+        return this.connections.get();
+    }
+
+    /**
+     * Gets how many games have been started.
+     *
+     * @return the number of games started
+     */
+    public long getGamesStarted() {
+        return this.gamesStarted.get();
+    }
+
+    /**
+     * Closes the server socket and stops the event loops.
+     */
+    @Override
+    public void close() {
+        try {
+            this.server.close();
+        } catch (IOException ioe) {
+            // squash
+        }
+        for (EventLoop loop : this.loops) {
+            if (loop != null) {
+                loop.close();
+            }
+        }
+    }
+
+    /**
+     * One thread with its own {@link Selector}, serving the connections
+     * handed to it.  Other threads never touch its selector directly; they
+     * leave work in its queues and wake it up.
+     */
+    class EventLoop implements Runnable {
+        /** the loop's selector */
+        private final Selector selector;
+        /** number of the loop, for messages */
+        private final int number;
+        /** new connections to register */
+        private final Queue<NioConnection> adopted = new ConcurrentLinkedQueue<>();
+        /** connections with output to write */
+        private final Queue<NioConnection> toFlush = new ConcurrentLinkedQueue<>();
+        /** the thread running the loop, once it has started */
+        private volatile Thread thread;
+
+        /**
+         * Create an event loop.
+         *
+         * @param number number of the loop
+         * @throws IOException if the selector cannot be opened
+         */
+        EventLoop(int number) throws IOException {
+            this.selector = Selector.open();
+            this.number = number;
+        }
+
+        /**
+         * Take over a new connection.
+         *
+         * @param connection the connection
+         */
+        void adopt(NioConnection connection) {
+            this.adopted.add(connection);
+            wakeUp();
+        }
+
+        /**
+         * Arrange for a connection's output to be written.  From the loop's
+         * own thread it is written straight away.
+         *
+         * @param connection the connection
+         */
+        void flushSoon(NioConnection connection) {
+            if (Thread.currentThread() == this.thread) {
+                connection.flush();
+            } else {
+                this.toFlush.add(connection);
+                wakeUp();
+            }
+        }
+
+        /**
+         * Tell the server a connection owned by this loop has closed.
+         *
+         * @param connection the connection
+         */
+        void connectionClosed(NioConnection connection) {
+            disconnected(connection);
+        }
+
+        /**
+         * Wake the selector so it sees new work.
+         */
+        private void wakeUp() {
+            if (Thread.currentThread() != this.thread) {
+                this.selector.wakeup();
+            }
+        }
+
+        /**
+         * Serve connections until the selector is closed.
+         */
+        @Override
+        public void run() {
+            this.thread = Thread.currentThread();
+            try {
+                while (this.selector.isOpen()) {
+                    this.selector.select();
+                    Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            acceptAll();
+                            continue;
+                        }
+                        NioConnection connection = (NioConnection) key.attachment();
+                        if (key.isReadable()) {
+                            connection.read(ReversiNioServer.this);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    }
+                    // after the keys, to pick up connections this loop just accepted
+                    runQueues();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (this.selector.isOpen()) {
+                    System.err.println("Event loop " + this.number + " failed: " + e);
+                }
+            }
+        }
+
+        /**
+         * Register adopted connections and write queued output.
+         */
+        private void runQueues() {
+            NioConnection connection;
+            while ((connection = this.adopted.poll()) != null) {
+                try {
+                    SelectionKey key = connection.getChannel().register(this.selector,
+                            SelectionKey.OP_READ, connection);
+                    connection.setKey(key);
+                    connected(connection);
+                } catch (IOException e) {
+                    connection.close();
+                }
+            }
+            while ((connection = this.toFlush.poll()) != null) {
+                connection.flush();
+            }
+        }
+
+        /**
+         * Stop the loop.
+         */
+        void close() {
+            try {
+                this.selector.close();
+            } catch (IOException ioe) {
+                // squash
+            }
+        }
+    }
+
+    /**
+     * Starts a new {@link ReversiNioServer}.
+     *
+     * @param args the board dimension, the port to listen on and
+     *             optionally how many event loops to run
+     */
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            System.out.println("Usage: java ReversiNioServer DIM port [event-loops]");
+            System.exit(1);
+        }
+        int loops = args.length > 2 ? Integer.parseInt(args[2]) :
+                Math.min(4, Runtime.getRuntime().availableProcessors());
+        try (ReversiNioServer server =
+                new ReversiNioServer(Integer.parseInt(args[1]), Integer.parseInt(args[0]), loops)) {
+            server.run();
+        } catch (ReversiException e) {
+            System.err.println("Failed to start server!");
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,34 +1,86 @@
 package reversi.server;
 
+import reversi.BinaryProtocol;
 import reversi.ReversiException;
 import reversi.ReversiProtocol;
 
-import java.io.Closeable;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.net.Socket;
-import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * A class that manages the requests and responses to a single client.
+ * A class that manages the requests and responses to a single client: the
+ * {@link PlayerTransport} for a client on a socket.
+ * <p>
+ * Every client is offered the {@link BinaryProtocol} along with
+ * {@link #CONNECT}.  Until it takes up the offer everything is sent as
+ * text; after that everything is sent as frames built in a buffer kept
+ * for the purpose.  Replies are read as text or frames, whichever the
+ * client sent.
+ * <p>
+ * A connection that sends {@link #STATS} instead of playing is answered
+ * with the server's {@link ServerMetrics metrics}, and one that sends
+ * {@link #RESUME} is after a game the server had before it restarted.
+ * One that sends {@link #WATCH} wants to be a spectator, and is handed to
+ * a {@link Spectator} to be written to in batches.
  *
  * @author Robert St Jacques @ RIT SE
  * @author Sean Strout @ RIT CS
  */
-public class ReversiPlayer implements ReversiProtocol, Closeable {
+public class ReversiPlayer implements ReversiProtocol, PlayerTransport {
     /** The {@link Socket} used to communicate with the client. */
     private Socket sock;
 
     /**
-     * The {@link Scanner} used to read responses from the client.
+     * The buffered {@link InputStream} used to read responses from the
+     * client, as text lines or frames.
      */
-    private Scanner scanner;
+    private InputStream in;
 
     /**
-     * The {@link PrintStream} used to send requests to the client.
+     * The {@link PrintStream} used to send text requests to the client.
      */
     private PrintStream printer;
 
+    /**
+     * The {@link OutputStream} frames are written to.
+     */
+    private OutputStream out;
+
+    /** whether the client has switched to the {@link BinaryProtocol} */
+    private boolean binary;
+
+    /** buffer outgoing frames are built in */
+    private final byte[] outFrame = new byte[BinaryProtocol.BUFFER_SIZE];
+
+    /** buffer incoming frames are read into */
+    private final byte[] inFrame = new byte[BinaryProtocol.MAX_FRAME];
+
+    /** buffer incoming text lines are read into */
+    private final byte[] line = new byte[BinaryProtocol.MAX_LINE];
+
+    /** the move returned by {@link #makeMove()} */
+    private final int[] coord = new int[2];
+
+    /** the server's metrics */
+    private final ServerMetrics metrics;
+
+    /** the session token sent with {@link #CONNECT}, or 0 if none */
+    private long session;
+
+    /** the session token of the game the client asked to resume, or 0 */
+    private long resume;
+
+    /** the game the client asked to {@link #WATCH}, 0 for the newest, or -1 */
+    private long watch = -1;
+
+    /** whether the connection has been closed */
+    private final AtomicBoolean closed = new AtomicBoolean();
+
     /**
      * Creates a new {@link ReversiPlayer} that will use the specified
      * {@link Socket} to communicate with the client.
@@ -39,23 +91,309 @@ public class ReversiPlayer implements ReversiProtocol, Closeable {
      * communication with the client.
      */
     public ReversiPlayer(Socket sock) throws ReversiException {
+        this(sock, new ServerMetrics());
+    }
+
+    /**
+     * Creates a new {@link ReversiPlayer} that will use the specified
+     * {@link Socket} to communicate with the client, and counts its
+     * traffic in the server's metrics.
+     *
+     * @param sock The {@link Socket} used to communicate with the client.
+     * @param metrics the server's metrics
+     *
+     * @throws ReversiException If there is a problem establishing
+     * communication with the client.
+     */
+    public ReversiPlayer(Socket sock, ServerMetrics metrics) throws ReversiException {
         this.sock = sock;
+        this.metrics = metrics;
         try {
-            this.scanner = new Scanner(sock.getInputStream());
-            this.printer = new PrintStream(sock.getOutputStream());
+            // requests are tiny and each waits on the last; do not batch them
+            sock.setTcpNoDelay(true);
+            this.in = new BufferedInputStream(metrics.countIn(sock.getInputStream()));
+            this.out = metrics.countOut(sock.getOutputStream());
+            this.printer = new PrintStream(this.out);
         }
         catch (IOException e) {
             throw new ReversiException(e);
         }
+        metrics.playerConnected();
     }
 
     /**
-     * Sends the initial {@link #CONNECT} request to the client
+     * Sends the initial {@link #CONNECT} request to the client, offering
+     * it the {@link BinaryProtocol}.
      *
      * @param DIM square dimension of board
      */
     public void connect(int DIM) {
-        this.printer.println(CONNECT + " " + DIM);
+        this.printer.println(CONNECT + " " + DIM + " " + BINARY);
+    }
+
+    /**
+     * Sends the initial {@link #CONNECT} request to the client with a
+     * {@link #SESSION} token, offering it the {@link BinaryProtocol}.
+     *
+     * @param DIM square dimension of board
+     * @param session the session token, not 0
+     */
+    public void connect(int DIM, long session) {
+        this.session = session;
+        this.printer.println(CONNECT + " " + DIM + " " + SESSION + " " +
+                Long.toHexString(session) + " " + BINARY);
+    }
+
+    /**
+     * Gets the session token sent with {@link #CONNECT}.
+     *
+     * @return the token, or 0 if none was sent
+     */
+    public long getSession() {
+        return this.session;
+    }
+
+    /**
+     * Gets the session token of the game the client asked to
+     * {@link #RESUME}.
+     *
+     * @return the token, or 0 if the client has not asked
+     */
+    public long getResume() {
+        return this.resume;
+    }
+
+    /**
+     * Gets the number of the game the client asked to {@link #WATCH}.
+     *
+     * @return the game number, 0 for the newest game, or -1 if the client
+     * has not asked
+     */
+    public long getWatch() {
+        return this.watch;
+    }
+
+    /**
+     * Gets whether the client has switched to the {@link BinaryProtocol}.
+     *
+     * @return true if it has
+     */
+    boolean isBinary() {
+        return this.binary;
+    }
+
+    /**
+     * Switches to the {@link BinaryProtocol} because the client asked to,
+     * telling it so in the last text line it is sent.
+     */
+    private void switchToBinary() {
+        this.printer.println(BINARY);
+        this.binary = true;
+    }
+
+    /**
+     * Answers a {@link #STATS} command with the server's metrics.
+     */
+    private void stats() {
+        this.printer.println(STATS + " " + this.metrics.report());
+    }
+
+    /**
+     * Takes up any commands the client has sent without being asked, as
+     * far as whole lines of them have arrived, without waiting for more,
+     * so that it never blocks the lobby's thread: a switch to the
+     * {@link BinaryProtocol}, {@link #STATS}, which is answered, or
+     * {@link #RESUME} or {@link #WATCH}, which are noted for
+     * {@link #getResume()} and {@link #getWatch()}.  Anything
+     * else is left for {@link #makeMove()} to complain about.
+     * <p>
+     * This is done by the lobby for clients waiting for an opponent.
+     *
+     * @return true if the client asked for {@link #STATS}, to
+     * {@link #RESUME} or to {@link #WATCH}, and so is not a new player
+     */
+    boolean pollCommands() {
+        try {
+            while(this.in.available() > 0) {
+                this.in.mark(BinaryProtocol.MAX_LINE + 1);
+                int first = this.in.read();
+                this.in.reset();
+                if(first != BINARY.charAt(0) && first != STATS.charAt(0) &&
+                        first != RESUME.charAt(0) && first != WATCH.charAt(0)) {
+                    return false;
+                }
+                if(!lineBuffered()) {
+                    // the rest of it is still on its way; never wait for it
+                    return false;
+                }
+                this.in.mark(BinaryProtocol.MAX_LINE + 1);
+                String command = BinaryProtocol.readLine(this.in, this.line);
+                if(!this.binary && command.equals(BINARY)) {
+                    switchToBinary();
+                }
+                else if(command.equals(STATS)) {
+                    stats();
+                    return true;
+                }
+                else if(noteRequest(command)) {
+                    return true;
+                }
+                else {
+                    this.in.reset();
+                    return false;
+                }
+            }
+        }
+        catch (IOException e) {
+            // the next read finds out
+        }
+        return false;
+    }
+
+    /**
+     * Takes up a switch to the {@link BinaryProtocol} if a text client has
+     * sent one, as far as it has arrived, without waiting for more, so that
+     * it is not sent text after asking for frames for longer than it has to
+     * be.  Anything else the client sent is left for {@link #makeMove()}.
+     * This is done before each request is sent, until the client switches.
+     */
+    private void pollSwitch() {
+        if(this.binary) {
+            return;
+        }
+        try {
+            if(this.in.available() == 0) {
+                return;
+            }
+            this.in.mark(BinaryProtocol.MAX_LINE + 1);
+            int first = this.in.read();
+            this.in.reset();
+            if(first != BINARY.charAt(0) || !lineBuffered()) {
+                return;
+            }
+            this.in.mark(BinaryProtocol.MAX_LINE + 1);
+            if(BinaryProtocol.readLine(this.in, this.line).equals(BINARY)) {
+                switchToBinary();
+            }
+            else {
+                this.in.reset();
+            }
+        }
+        catch (IOException e) {
+            // the next read finds out
+        }
+    }
+
+    /**
+     * Looks through the bytes that have already arrived, without waiting
+     * for any more, for the end of a line, and leaves the stream where it
+     * was.  Reading a line is then certain not to block.
+     *
+     * @return true if a whole line has arrived, or more than a line's
+     * worth of bytes, so that reading it fails at once
+     * @throws IOException if the stream fails
+     */
+    private boolean lineBuffered() throws IOException {
+        int available = Math.min(this.in.available(), BinaryProtocol.MAX_LINE + 1);
+        this.in.mark(available);
+        try {
+            for(int i = 0; i < available; i++) {
+                if(this.in.read() == '\n') {
+                    return true;
+                }
+            }
+            return available > BinaryProtocol.MAX_LINE;
+        }
+        finally {
+            this.in.reset();
+        }
+    }
+
+    /**
+     * Notes a {@link #RESUME} or {@link #WATCH} command for
+     * {@link #getResume()} or {@link #getWatch()}.
+     *
+     * @param command the command
+     * @return false if it is neither
+     */
+    private boolean noteRequest(String command) {
+        if(this.resume == 0 && command.startsWith(RESUME + " ") &&
+                parseResume(command.substring(RESUME.length() + 1))) {
+            return true;
+        }
+        if(command.equals(WATCH) || (command.startsWith(WATCH + " ") &&
+                parseWatch(command.substring(WATCH.length() + 1)))) {
+            if(this.watch < 0) {
+                this.watch = 0;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Notes the session token of a {@link #RESUME} command.
+     *
+     * @param token the token, in hex
+     * @return false if the token is not a number
+     */
+    private boolean parseResume(String token) {
+        try {
+            this.resume = Long.parseUnsignedLong(token.trim(), 16);
+            return this.resume != 0;
+        }
+        catch(NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Notes the game number of a {@link #WATCH} command.
+     *
+     * @param number the game number
+     * @return false if it is not a game number
+     */
+    private boolean parseWatch(String number) {
+        try {
+            long game = Long.parseLong(number.trim());
+            if(game > 0) {
+                this.watch = game;
+            }
+            return game > 0;
+        }
+        catch(NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes bytes already encoded for the client's protocol, as they
+     * are.  Used for spectators, who are sent nothing else.
+     *
+     * @param bytes the bytes
+     * @param offset where they start
+     * @param length how many there are
+     * @throws IOException if the connection fails
+     */
+    void write(byte[] bytes, int offset, int length) throws IOException {
+        this.out.write(bytes, offset, length);
+    }
+
+    /**
+     * Sends a request that has nothing but its name.
+     *
+     * @param text the request as text
+     * @param opcode the request as a {@link BinaryProtocol} opcode
+     */
+    private void send(String text, byte opcode) {
+        pollSwitch();
+        if(this.binary) {
+            BinaryProtocol.write(this.out, this.outFrame,
+                    BinaryProtocol.encode(this.outFrame, opcode));
+        }
+        else {
+            this.printer.println(text);
+        }
     }
 
     /**
@@ -63,31 +401,82 @@ public class ReversiPlayer implements ReversiProtocol, Closeable {
      * in which the client would like to move.
      *
      * @return The row and column in which the client would like to move.
+     * The same array is reused by every call.
      *
      * @throws ReversiException If the client's response is invalid, i.e.
-     * not {@link #MOVE} and a column number.
+     * not {@link #MOVE} and a column number, or the connection is lost.
+     * A {@link #RESUME} or {@link #WATCH} is noted, as by
+     * {@link #pollCommands()}, before it is complained about.
      */
     public int[] makeMove() throws ReversiException {
-        this.printer.println(MAKE_MOVE);
-        String response = scanner.nextLine();
-
-        if(response.startsWith(MOVE)) {
-            String[] tokens = response.split(" ");
-            if(tokens.length == 3) {
-                int[] coord = new int[2];
-                coord[0] = Integer.parseInt(tokens[1]);
-                coord[1] = Integer.parseInt(tokens[2]);
-                return coord;
-            }
-            else {
-                throw new ReversiException("Invalid player response: " +
-                        response);
+        send(MAKE_MOVE, BinaryProtocol.MAKE_MOVE);
+        try {
+            while(true) {
+                this.in.mark(1);
+                int first = this.in.read();
+                this.in.reset();
+                if(BinaryProtocol.isFrameStart(first)) {
+                    return readMoveFrame();
+                }
+
+                String response = BinaryProtocol.readLine(this.in, this.line);
+                if(!this.binary && response.equals(BINARY)) {
+                    // the reply to MAKE_MOVE follows
+                    switchToBinary();
+                }
+                else if(response.equals(STATS)) {
+                    // not a player after all; it will hang up in time
+                    stats();
+                }
+                else if(noteRequest(response)) {
+                    // paired before the lobby read it; the game hands it back
+                    throw new ReversiException("Not a player: " + response);
+                }
+                else if(response.startsWith(MOVE)) {
+                    String[] tokens = response.split(" ");
+                    if(tokens.length == 3) {
+                        try {
+                            this.coord[0] = Integer.parseInt(tokens[1]);
+                            this.coord[1] = Integer.parseInt(tokens[2]);
+                        }
+                        catch(NumberFormatException e) {
+                            throw new ReversiException("Invalid player response: " +
+                                    response);
+                        }
+                        return this.coord;
+                    }
+                    else {
+                        throw new ReversiException("Invalid player response: " +
+                                response);
+                    }
+                }
+                else {
+                    throw new ReversiException("Invalid player response: " +
+                            response);
+                }
             }
         }
-        else {
-            throw new ReversiException("Invalid player response: " +
-                    response);
+        catch (IOException e) {
+            throw new ReversiException("Lost connection to player: " + e);
+        }
+    }
+
+    /**
+     * Reads a {@link BinaryProtocol#MOVE} frame.
+     *
+     * @return the row and column in which the client would like to move
+     * @throws IOException if the connection fails or the frame is malformed
+     * @throws ReversiException if the frame is not a move
+     */
+    private int[] readMoveFrame() throws IOException, ReversiException {
+        int length = BinaryProtocol.readFrame(this.in, this.inFrame);
+        if(this.inFrame[0] != BinaryProtocol.MOVE || length != BinaryProtocol.MOVE_LENGTH) {
+            throw new ReversiException("Invalid player response: frame " +
+                    this.inFrame[0] + " of length " + length);
         }
+        this.coord[0] = BinaryProtocol.row(this.inFrame);
+        this.coord[1] = BinaryProtocol.col(this.inFrame);
+        return this.coord;
     }
 
     /**
@@ -98,7 +487,14 @@ public class ReversiPlayer implements ReversiProtocol, Closeable {
      * @param column The column in which the move has been made.
      */
     public void moveMade(int row, int column) {
-        this.printer.println(MOVE_MADE + " " + row + " " + column);
+        pollSwitch();
+        if(this.binary) {
+            BinaryProtocol.write(this.out, this.outFrame, BinaryProtocol.encodeMove(
+                    this.outFrame, BinaryProtocol.MOVE_MADE, row, column));
+        }
+        else {
+            this.printer.println(MOVE_MADE + " " + row + " " + column);
+        }
     }
 
     /**
@@ -106,7 +502,7 @@ public class ReversiPlayer implements ReversiProtocol, Closeable {
      * player's most recent move won the game.
      */
     public void gameWon() {
-        this.printer.println(GAME_WON);
+        send(GAME_WON, BinaryProtocol.GAME_WON);
     }
 
     /**
@@ -114,7 +510,7 @@ public class ReversiPlayer implements ReversiProtocol, Closeable {
      * player's most recent move won the game.
      */
     public void gameTied() {
-        this.printer.println(GAME_TIED);
+        send(GAME_TIED, BinaryProtocol.GAME_TIED);
     }
 
     /**
@@ -122,7 +518,7 @@ public class ReversiPlayer implements ReversiProtocol, Closeable {
      * other player's most recent move wont the game.
      */
     public void gameLost()  {
-        this.printer.println(GAME_LOST);
+        send(GAME_LOST, BinaryProtocol.GAME_LOST);
     }
 
     /**
@@ -132,7 +528,28 @@ public class ReversiPlayer implements ReversiProtocol, Closeable {
      * @param message The error message.
      */
     public void error(String message) {
-        this.printer.println(ERROR + " " + message);
+        pollSwitch();
+        if(this.binary) {
+            BinaryProtocol.write(this.out, this.outFrame,
+                    BinaryProtocol.encodeError(this.outFrame, message));
+        }
+        else {
+            this.printer.println(ERROR + " " + message);
+        }
+    }
+
+    /**
+     * Makes a {@link #makeMove()} waiting for the client give up, as if
+     * the connection were lost, by shutting down its input.  Requests can
+     * still be sent.  Called when the player runs out of time.
+     */
+    public void stopWaiting() {
+        try {
+            this.sock.shutdownInput();
+        }
+        catch(IOException ioe) {
+            // already closed, so nothing is waiting
+        }
     }
 
     /**
@@ -140,6 +557,10 @@ public class ReversiPlayer implements ReversiProtocol, Closeable {
      */
     @Override
     public void close() {
+        if(!this.closed.compareAndSet(false, true)) {
+            return;
+        }
+        this.metrics.playerDisconnected();
         try {
             this.sock.close();
         }
@@ -2,25 +2,78 @@ package reversi.server;
 
 import reversi.ReversiException;
 import reversi.ReversiProtocol;
+import reversi.record.GameRecordWriter;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The {@link ReversiServer} waits for incoming client connections and
  * pairs them off to play {@link ReversiGame games}.
+ * <p>
+ * The server keeps {@link ServerMetrics metrics} as it goes.  When it
+ * hosts many games at once it logs them periodically, and a client that
+ * connects and sends {@link #STATS} is answered with them.
+ * <p>
+ * Hosting many games, the server can also keep a {@link GameJournal}, so
+ * that the games being played when it stops can be resumed when it
+ * starts again.
+ * <p>
+ * Either way, players can be held to time limits for each move and for
+ * each game.  The clocks of all the games run on one {@link TimingWheel}.
+ * And every finished game can be written to a file of
+ * {@link reversi.record.GameRecord game records}.
  *
  * @author Robert St Jacques @ RIT SE
  * @author Sean Strout @ RIT CS
  */
 public class ReversiServer implements ReversiProtocol, Closeable {
+    /** command line switch for playing games on virtual threads */
+    public static final String VIRTUAL_THREADS = "--virtual-threads";
+    /** command line option for the journal file */
+    public static final String JOURNAL = "--journal";
+    /** command line option for the game record file */
+    public static final String RECORDS = "--records";
+    /** command line option for the seconds allowed for each move */
+    public static final String MOVE_TIME = "--move-time";
+    /** command line option for the seconds allowed for all of a player's moves */
+    public static final String GAME_TIME = "--game-time";
+    /** precision of the clocks */
+    private static final long CLOCK_TICK_MILLIS = 10;
+    /** buckets in the clocks' wheel; about ten seconds' worth of ticks */
+    private static final int CLOCK_BUCKETS = 1024;
+    /** connections the operating system may queue before they are accepted */
+    private static final int BACKLOG = 1024;
+    /** how often the metrics are logged when hosting many games */
+    private static final long METRICS_PERIOD_SECONDS = 10;
+
     /**
      * The {@link ServerSocket} used to wait for incoming client connections.
      */
     private ServerSocket server;
 
+    /** counts players, games, moves and traffic */
+    private final ServerMetrics metrics = new ServerMetrics();
+
+    /** runs the clocks, once there are time limits */
+    private TimingWheel clocks;
+
+    /** the time limits games are played under */
+    private TimeControl timeControl = TimeControl.NONE;
+
+    /** where finished games are recorded, or null if they are not */
+    private GameRecordWriter records;
+
     /**
      * Creates a new {@link ReversiServer} that listens for incoming
      * connections on the specified port.
@@ -32,12 +85,56 @@ public class ReversiServer implements ReversiProtocol, Closeable {
      */
     public ReversiServer(int port) throws ReversiException {
         try {
-            this.server = new ServerSocket(port);
+            this.server = new ServerSocket(port, BACKLOG);
         } catch (IOException e) {
             throw new ReversiException(e);
         }
     }
 
+    /**
+     * Gets the port the server is listening on, which is useful when it
+     * was created with port 0 to pick any free port.
+     *
+     * @return the local port
+     */
+    public int getPort() {
+        return this.server.getLocalPort();
+    }
+
+    /**
+     * Gets the server's metrics.
+     *
+     * @return the metrics
+     */
+    public ServerMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Sets the time limits for the games started from now on.  A player
+     * who takes too long over a move, or over the game, loses it.
+     *
+     * @param moveMillis the most a player may take over a move, in
+     *                   milliseconds, or 0 for no limit
+     * @param gameMillis the most a player may take over all their moves in
+     *                   a game, in milliseconds, or 0 for no limit
+     */
+    public void setTimeControl(long moveMillis, long gameMillis) {
+        if (this.clocks == null && (moveMillis > 0 || gameMillis > 0)) {
+            this.clocks = new TimingWheel(CLOCK_TICK_MILLIS, TimeUnit.MILLISECONDS, CLOCK_BUCKETS);
+        }
+        this.timeControl = new TimeControl(this.clocks, moveMillis, gameMillis);
+    }
+
+    /**
+     * Records the games started from now on when they end.
+     *
+     * @param records where to write the records, or null not to
+     */
+    public void setRecords(GameRecordWriter records) {
+        this.records = records;
+    }
+
     /**
      * Closes the client {@link Socket}.
      */
@@ -48,6 +145,9 @@ public class ReversiServer implements ReversiProtocol, Closeable {
         } catch (IOException ioe) {
             // squash
         }
+        if (this.clocks != null) {
+            this.clocks.close();
+        }
     }
 
     /**
@@ -64,19 +164,21 @@ public class ReversiServer implements ReversiProtocol, Closeable {
             System.out.println("Waiting for player one...");
             Socket playerOneSocket = server.accept();
             try (ReversiPlayer playerOne =
-                    new ReversiPlayer(playerOneSocket)) {
+                    new ReversiPlayer(playerOneSocket, this.metrics)) {
                 playerOne.connect(DIM);
                 System.out.println("Player one connected! " + playerOneSocket);
                 System.out.println("Waiting for player two...");
                 Socket playerTwoSocket = server.accept();
                 try (ReversiPlayer playerTwo =
-                        new ReversiPlayer(playerTwoSocket)) {
+                        new ReversiPlayer(playerTwoSocket, this.metrics)) {
                     playerTwo.connect(DIM);
                     System.out.println("Player two connected! " + playerTwoSocket);
 
                     System.out.println("Starting game!");
                     ReversiGame game =
-                            new ReversiGame(DIM, playerOne, playerTwo);
+                            new ReversiGame(DIM, playerOne, playerTwo, this.metrics);
+                    game.setTimeControl(this.timeControl);
+                    game.setRecords(this.records);
                     game.run();
                 }
             }
@@ -89,22 +191,231 @@ public class ReversiServer implements ReversiProtocol, Closeable {
         }
     }
 
+    /**
+     * Accepts clients until the server is closed, and hands each one to a
+     * {@link ReversiLobby} that pairs them off and plays many games at
+     * once on platform threads.  When the lobby is full, no more clients
+     * are accepted until there is room for them.
+     *
+     * @param DIM square dimension of board
+     * @param maxGames the most games to play at once
+     * @param maxWaiting the most clients to keep waiting for an opponent
+     */
+    public void run(int DIM, int maxGames, int maxWaiting) {
+        run(DIM, maxGames, maxWaiting, false);
+    }
+
+    /**
+     * Accepts clients until the server is closed, and hands each one to a
+     * {@link ReversiLobby} that pairs them off and plays many games at
+     * once.
+     * <p>
+     * With platform threads, clients are greeted on the accepting thread,
+     * so when the lobby is full no more clients are accepted until there
+     * is room for them.  With virtual threads, every client is greeted
+     * and waits for the lobby on a virtual thread of its own, and every
+     * game runs on one too.
+     * <p>
+     * The metrics are logged every ten seconds.
+     *
+     * @param DIM square dimension of board
+     * @param maxGames the most games to play at once
+     * @param maxWaiting the most clients to keep waiting for an opponent
+     * @param virtualThreads whether to use a virtual thread per client and
+     *                       per game
+     */
+    public void run(int DIM, int maxGames, int maxWaiting, boolean virtualThreads) {
+        run(DIM, maxGames, maxWaiting, virtualThreads, null);
+    }
+
+    /**
+     * Accepts clients and plays many games at once, as in
+     * {@link #run(int, int, int, boolean)}, journaling the games.  The
+     * games left unfinished in the journal the last time are recovered and
+     * wait for their players to resume them, and every client is sent a
+     * {@link #SESSION} token so that it can do the same.
+     *
+     * @param DIM square dimension of board
+     * @param maxGames the most games to play at once
+     * @param maxWaiting the most clients to keep waiting for an opponent
+     * @param virtualThreads whether to use a virtual thread per client and
+     *                       per game
+     * @param journalFile the journal file, or null not to keep one
+     */
+    public void run(int DIM, int maxGames, int maxWaiting, boolean virtualThreads, Path journalFile) {
+        GameJournal journal = null;
+        if (journalFile != null) {
+            try {
+                long start = System.nanoTime();
+                journal = new GameJournal(journalFile);
+                System.out.printf("Recovered %d games from %s in %d ms%n", journal.getRecovered().size(),
+                        journalFile, (System.nanoTime() - start) / 1_000_000L);
+                if (journal.getDropped() > 0) {
+                    System.out.println("Left out " + journal.getDropped() + " damaged bytes at the end");
+                }
+            } catch (ReversiException e) {
+                System.err.println("Failed to open the journal!");
+                e.printStackTrace();
+                return;
+            }
+        }
+        try {
+            runLobby(DIM, maxGames, maxWaiting, virtualThreads, journal);
+        } finally {
+            if (journal != null) {
+                journal.close();
+            }
+        }
+    }
+
+    /**
+     * Accepts clients and plays many games at once until the server is
+     * closed.
+     *
+     * @param DIM square dimension of board
+     * @param maxGames the most games to play at once
+     * @param maxWaiting the most clients to keep waiting for an opponent
+     * @param virtualThreads whether to use a virtual thread per client and
+     *                       per game
+     * @param journal where to journal the games, or null not to
+     */
+    private void runLobby(int DIM, int maxGames, int maxWaiting, boolean virtualThreads,
+                          GameJournal journal) {
+        if (virtualThreads && !ServerThreads.virtualThreadsAvailable()) {
+            System.out.println("No virtual threads in this JVM; using small platform threads");
+        }
+        ThreadFactory clientThreads = virtualThreads ? ServerThreads.virtual("client-") : null;
+        ScheduledExecutorService logger =
+                Executors.newSingleThreadScheduledExecutor(ServerThreads.platform("metrics-", 0));
+        logger.scheduleAtFixedRate(() -> {
+            this.metrics.tick();
+            System.out.println("Metrics: " + this.metrics.report());
+        }, METRICS_PERIOD_SECONDS, METRICS_PERIOD_SECONDS, TimeUnit.SECONDS);
+        try (ReversiLobby lobby = new ReversiLobby(DIM, maxGames, maxWaiting, virtualThreads,
+                this.metrics, journal)) {
+            lobby.setTimeControl(this.timeControl);
+            lobby.setRecords(this.records);
+            System.out.println("Lobby open for up to " + maxGames + " games...");
+            boolean sessions = journal != null;
+            while (!this.server.isClosed()) {
+                Socket socket = this.server.accept();
+                if (clientThreads == null) {
+                    greet(socket, DIM, lobby, sessions);
+                } else {
+                    clientThreads.newThread(() -> greet(socket, DIM, lobby, sessions)).start();
+                }
+            }
+        } catch (IOException e) {
+            if (!this.server.isClosed()) {
+                System.err.println("Something has gone horribly wrong!");
+                e.printStackTrace();
+            }
+        } finally {
+            logger.shutdownNow();
+        }
+    }
+
+    /**
+     * Sends a new client {@link #CONNECT} and puts it in the lobby,
+     * waiting for room if the lobby is full.
+     *
+     * @param socket the client's socket
+     * @param DIM square dimension of board
+     * @param lobby the lobby
+     * @param sessions whether to send the client a {@link #SESSION} token
+     */
+    private void greet(Socket socket, int DIM, ReversiLobby lobby, boolean sessions) {
+        try {
+            ReversiPlayer player = new ReversiPlayer(socket, this.metrics);
+            if (sessions) {
+                player.connect(DIM, GameJournal.newSession());
+            } else {
+                player.connect(DIM);
+            }
+            lobby.join(player);
+        } catch (ReversiException e) {
+            System.err.println("Failed to create player! " + e.getMessage());
+            try {
+                socket.close();
+            } catch (IOException ioe) {
+                // squash
+            }
+        } catch (InterruptedException e) {
+            // shutting down
+            try {
+                socket.close();
+            } catch (IOException ioe) {
+                // squash
+            }
+        }
+    }
+
     /**
      * Starts a new {@link ReversiServer}. Simply creates the server and
-     * calls {@link #run(int)}
+     * calls {@link #run(int)}, or {@link #run(int, int, int, boolean, Path)}
+     * if a game limit is given.
      *
-     * @param args Used to specify the port on which the server should listen
-     *             for incoming client connections.
+     * @param args Used to specify the board dimension, the port on which
+     *             the server should listen for incoming client connections
+     *             and, optionally, how many games to play at once and how
+     *             many clients may wait for an opponent.  The
+     *             {@code --virtual-threads} switch, anywhere in the
+     *             arguments, plays the games on virtual threads,
+     *             {@code --journal FILE} journals them,
+     *             {@code --records FILE} records them as they end, and
+     *             {@code --move-time S} and {@code --game-time S} give
+     *             players that many seconds for each move and for the
+     *             game.
      * @throws ReversiException If there is an error starting the server.
      */
     public static void main(String[] args) throws ReversiException {
-        if (args.length != 2) {
-            System.out.println("Usage: java ReversiServer DIM port");
+        boolean virtualThreads = false;
+        Path journal = null;
+        Path records = null;
+        double moveSeconds = 0;
+        double gameSeconds = 0;
+        List<String> rest = new ArrayList<>();
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals(VIRTUAL_THREADS)) {
+                virtualThreads = true;
+            } else if (args[i].equals(JOURNAL) && i + 1 < args.length) {
+                journal = Paths.get(args[++i]);
+            } else if (args[i].equals(RECORDS) && i + 1 < args.length) {
+                records = Paths.get(args[++i]);
+            } else if (args[i].equals(MOVE_TIME) && i + 1 < args.length) {
+                moveSeconds = Double.parseDouble(args[++i]);
+            } else if (args[i].equals(GAME_TIME) && i + 1 < args.length) {
+                gameSeconds = Double.parseDouble(args[++i]);
+            } else {
+                rest.add(args[i]);
+            }
+        }
+        args = rest.toArray(new String[0]);
+        if (args.length < 2 || args.length > 4 ||
+                ((journal != null || virtualThreads) && args.length < 3)) {
+            System.out.println("Usage: java ReversiServer [" + VIRTUAL_THREADS + "] [" + JOURNAL +
+                    " FILE] [" + RECORDS + " FILE] [" + MOVE_TIME + " S] [" + GAME_TIME +
+                    " S] DIM port [max-games [max-waiting]]");
+            System.out.println("  " + VIRTUAL_THREADS + " and " + JOURNAL + " need max-games");
             System.exit(1);
         }
 
-        try (ReversiServer server = new ReversiServer(Integer.parseInt(args[1]))) {
-            server.run(Integer.parseInt(args[0]));
+        try (ReversiServer server = new ReversiServer(Integer.parseInt(args[1]));
+             GameRecordWriter writer = records == null ? null : new GameRecordWriter(records)) {
+            int DIM = Integer.parseInt(args[0]);
+            server.setTimeControl((long) (moveSeconds * 1000), (long) (gameSeconds * 1000));
+            server.setRecords(writer);
+            if (writer != null) {
+                // a server is usually stopped by a signal; keep the buffered games
+                Runtime.getRuntime().addShutdownHook(new Thread(writer::close, "records"));
+            }
+            if (args.length > 2) {
+                int maxGames = Integer.parseInt(args[2]);
+                int maxWaiting = args.length > 3 ? Integer.parseInt(args[3]) : 2 * maxGames;
+                server.run(DIM, maxGames, maxWaiting, virtualThreads, journal);
+            } else {
+                server.run(DIM);
+            }
         } catch (ReversiException e) {
             System.err.println("Failed to start server!");
             e.printStackTrace();
@@ -0,0 +1,379 @@
+package reversi.server;
+
+import reversi.util.LatencyHistogram;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters for a server: players, spectators, games, moves, protocol
+ * errors, timeouts and bytes on the wire, with histograms of how long moves take.
+ * <p>
+ * Everything recorded on the move path is a {@link LongAdder} or a
+ * {@link LatencyHistogram}, so game threads never wait on each other to
+ * count.  {@link #report()} reads it all as one line of
+ * {@code name=value} pairs, which is both the periodic log line and the
+ * answer to the {@link reversi.ReversiProtocol#STATS} command.
+ */
+public class ServerMetrics {
+    /** when the metrics were created */
+    private final long startNanos = System.nanoTime();
+
+    /** players connected */
+    private final LongAdder playersConnected = new LongAdder();
+    /** players disconnected */
+    private final LongAdder playersDisconnected = new LongAdder();
+    /** spectators that have started watching */
+    private final LongAdder spectatorsJoined = new LongAdder();
+    /** spectators that have stopped watching, however they stopped */
+    private final LongAdder spectatorsLeft = new LongAdder();
+    /** spectators dropped for falling behind */
+    private final LongAdder spectatorsDropped = new LongAdder();
+    /** games started */
+    private final LongAdder gamesStarted = new LongAdder();
+    /** games over, however they ended */
+    private final LongAdder gamesFinished = new LongAdder();
+    /** moves made */
+    private final LongAdder moves = new LongAdder();
+    /** games ended by a bad or missing reply */
+    private final LongAdder protocolErrors = new LongAdder();
+    /** games lost by a player running out of time */
+    private final LongAdder timeouts = new LongAdder();
+    /** bytes read from players */
+    private final LongAdder bytesIn = new LongAdder();
+    /** bytes written to players */
+    private final LongAdder bytesOut = new LongAdder();
+
+    /** from asking a player for a move until the reply arrives */
+    private final LatencyHistogram replyTime = new LatencyHistogram();
+    /** from a reply arriving until both players have been told the move */
+    private final LatencyHistogram moveTime = new LatencyHistogram();
+
+    /** moves counted at the last {@link #tick()} */
+    private long tickMoves;
+    /** time of the last {@link #tick()} */
+    private long tickNanos = this.startNanos;
+    /** moves per second between the last two ticks, or -1 before any */
+    private volatile double movesPerSecond = -1;
+
+    /**
+     * An {@link InputStream} that counts the bytes read through it.
+     */
+    private class CountingInputStream extends FilterInputStream {
+        /**
+         * Wrap a stream.
+         *
+         * @param in the stream to count
+         */
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                ServerMetrics.this.bytesIn.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                ServerMetrics.this.bytesIn.add(n);
+            }
+            return n;
+        }
+    }
+
+    /**
+     * An {@link OutputStream} that counts the bytes written through it.
+     */
+    private class CountingOutputStream extends FilterOutputStream {
+        /**
+         * Wrap a stream.
+         *
+         * @param out the stream to count
+         */
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.out.write(b);
+            ServerMetrics.this.bytesOut.increment();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+            ServerMetrics.this.bytesOut.add(len);
+        }
+    }
+
+    /**
+     * Wrap a player's input so the bytes read are counted.
+     *
+     * @param in the socket's input
+     * @return the counted input
+     */
+    InputStream countIn(InputStream in) {
+        return new CountingInputStream(in);
+    }
+
+    /**
+     * Wrap a player's output so the bytes written are counted.
+     *
+     * @param out the socket's output
+     * @return the counted output
+     */
+    OutputStream countOut(OutputStream out) {
+        return new CountingOutputStream(out);
+    }
+
+    /**
+     * Count a player connecting.
+     */
+    void playerConnected() {
+        this.playersConnected.increment();
+    }
+
+    /**
+     * Count a player disconnecting.
+     */
+    void playerDisconnected() {
+        this.playersDisconnected.increment();
+    }
+
+    /**
+     * Count a spectator starting to watch.
+     */
+    void spectatorJoined() {
+        this.spectatorsJoined.increment();
+    }
+
+    /**
+     * Count a spectator no longer watching.
+     */
+    void spectatorLeft() {
+        this.spectatorsLeft.increment();
+    }
+
+    /**
+     * Count a spectator dropped for falling behind.
+     */
+    void spectatorDropped() {
+        this.spectatorsDropped.increment();
+    }
+
+    /**
+     * Count a game starting.
+     */
+    void gameStarted() {
+        this.gamesStarted.increment();
+    }
+
+    /**
+     * Count a game ending.
+     */
+    void gameFinished() {
+        this.gamesFinished.increment();
+    }
+
+    /**
+     * Count a game ended by a bad reply or lost connection.
+     */
+    void protocolError() {
+        this.protocolErrors.increment();
+    }
+
+    /**
+     * Count a game lost by a player running out of time.
+     */
+    void timeout() {
+        this.timeouts.increment();
+    }
+
+    /**
+     * Count a move.
+     *
+     * @param replyNanos how long the player took to reply
+     * @param moveNanos how long the server took to play the move and tell
+     *                  both players
+     */
+    void moveMade(long replyNanos, long moveNanos) {
+        this.moves.increment();
+        this.replyTime.record(replyNanos);
+        this.moveTime.record(moveNanos);
+    }
+
+    /**
+     * Get how many players are connected right now.
+     *
+     * @return the player count
+     */
+    public long getPlayers() {
+        // disconnections first, so a player never shows as gone before arriving
+        long gone = this.playersDisconnected.sum();
+        return this.playersConnected.sum() - gone;
+    }
+
+    /**
+     * Get how many spectators are watching right now.
+     *
+     * @return the spectator count
+     */
+    public long getSpectators() {
+        long gone = this.spectatorsLeft.sum();
+        return this.spectatorsJoined.sum() - gone;
+    }
+
+    /**
+     * Get how many spectators have been dropped for falling behind.
+     *
+     * @return the dropped count
+     */
+    public long getSpectatorsDropped() {
+        return this.spectatorsDropped.sum();
+    }
+
+    /**
+     * Get how many games are being played right now.
+     *
+     * @return the game count
+     */
+    public long getActiveGames() {
+        long finished = this.gamesFinished.sum();
+        return this.gamesStarted.sum() - finished;
+    }
+
+    /**
+     * Get how many games have been started.
+     *
+     * @return the number of games started
+     */
+    public long getGamesStarted() {
+        return this.gamesStarted.sum();
+    }
+
+    /**
+     * Get how many games have finished.
+     *
+     * @return the number of games finished
+     */
+    public long getGamesFinished() {
+        return this.gamesFinished.sum();
+    }
+
+    /**
+     * Get how many moves have been made.
+     *
+     * @return the move count
+     */
+    public long getMoves() {
+        return this.moves.sum();
+    }
+
+    /**
+     * Get how many games ended in a protocol error.
+     *
+     * @return the error count
+     */
+    public long getProtocolErrors() {
+        return this.protocolErrors.sum();
+    }
+
+    /**
+     * Get how many games were lost by a player running out of time.
+     *
+     * @return the timeout count
+     */
+    public long getTimeouts() {
+        return this.timeouts.sum();
+    }
+
+    /**
+     * Get how long players take to reply to a move request.
+     *
+     * @return the histogram, in nanoseconds
+     */
+    public LatencyHistogram getReplyTime() {
+        return this.replyTime;
+    }
+
+    /**
+     * Get how long the server takes to play each move and tell both
+     * players.
+     *
+     * @return the histogram, in nanoseconds
+     */
+    public LatencyHistogram getMoveTime() {
+        return this.moveTime;
+    }
+
+    /**
+     * Mark the end of a reporting interval, so that moves per second can
+     * be given for it.  Called by whoever logs the metrics periodically.
+     */
+    synchronized void tick() {
+        long now = System.nanoTime();
+        long total = this.moves.sum();
+        this.movesPerSecond = (total - this.tickMoves) * 1e9 / Math.max(1, now - this.tickNanos);
+        this.tickMoves = total;
+        this.tickNanos = now;
+    }
+
+    /**
+     * Get moves per second over the last reporting interval, or since
+     * the start if there has not been one.
+     *
+     * @return the rate
+     */
+    public double getMovesPerSecond() {
+        double rate = this.movesPerSecond;
+        if (rate < 0) {
+            rate = this.moves.sum() * 1e9 / Math.max(1, System.nanoTime() - this.startNanos);
+        }
+        return rate;
+    }
+
+    /**
+     * Summarize a histogram of nanoseconds in microseconds.
+     *
+     * @param name prefix for the names
+     * @param histogram the histogram
+     * @return the summary
+     */
+    private static String summarize(String name, LatencyHistogram histogram) {
+        return String.format(" %s_p50_us=%d %s_p99_us=%d %s_p999_us=%d %s_max_us=%d",
+                name, histogram.getValueAtPercentile(50) / 1000,
+                name, histogram.getValueAtPercentile(99) / 1000,
+                name, histogram.getValueAtPercentile(99.9) / 1000,
+                name, histogram.getMax() / 1000);
+    }
+
+    /**
+     * Describe the metrics in one line of {@code name=value} pairs.
+     *
+     * @return the report
+     */
+    public String report() {
+        return String.format("uptime_s=%d players=%d spectators=%d spectators_dropped=%d active_games=%d " +
+                        "games_started=%d games_finished=%d moves=%d moves_per_s=%.1f protocol_errors=%d " +
+                        "timeouts=%d bytes_in=%d bytes_out=%d",
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - this.startNanos),
+                getPlayers(), getSpectators(), getSpectatorsDropped(),
+                getActiveGames(), getGamesStarted(), getGamesFinished(),
+                getMoves(), getMovesPerSecond(), getProtocolErrors(), getTimeouts(),
+                this.bytesIn.sum(), this.bytesOut.sum()) +
+                summarize("reply", this.replyTime) + summarize("move", this.moveTime);
+    }
+}
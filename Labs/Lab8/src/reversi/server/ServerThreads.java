@@ -0,0 +1,108 @@
+package reversi.server;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes the threads the servers run players and games on: ordinary
+ * platform threads, or virtual threads when the JVM has them.
+ * <p>
+ * Virtual threads arrived in Java 21.  They are looked up reflectively so
+ * the servers still build and run on older JVMs, which fall back to
+ * platform threads with a small stack.
+ */
+public class ServerThreads {
+    /** stack size for fallback platform threads; games need very little */
+    private static final long SMALL_STACK = 256 * 1024;
+
+    /** whether this JVM has virtual threads */
+    private static final boolean VIRTUAL_AVAILABLE = hasVirtualThreads();
+
+    /**
+     * Not instantiable.
+     */
+    private ServerThreads() {
+    }
+
+    /**
+     * Look for {@code Thread.ofVirtual()}.
+     *
+     * @return true if this JVM has virtual threads
+     */
+    private static boolean hasVirtualThreads() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Make a virtual thread factory through reflection.
+     *
+     * @param prefix thread name prefix
+     * @return the factory
+     * @throws ReflectiveOperationException if the methods are missing
+     */
+    private static ThreadFactory virtualFactory(String prefix) throws ReflectiveOperationException {
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+        return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    }
+
+    /**
+     * Can this JVM make virtual threads?
+     *
+     * @return true on Java 21 and later
+     */
+    public static boolean virtualThreadsAvailable() {
+        return VIRTUAL_AVAILABLE;
+    }
+
+    /**
+     * Get a factory for daemon platform threads.
+     *
+     * @param prefix thread name prefix; a number is added to each name
+     * @param stackSize stack size for each thread, or 0 for the default
+     * @return the factory
+     */
+    public static ThreadFactory platform(String prefix, long stackSize) {
+        AtomicInteger number = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(null, r, prefix + number.getAndIncrement(), stackSize);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Get a factory for virtual threads, or for small-stack platform
+     * threads if this JVM has no virtual threads.
+     *
+     * @param prefix thread name prefix; a number is added to each name
+     * @return the factory
+     */
+    public static ThreadFactory virtual(String prefix) {
+        if (VIRTUAL_AVAILABLE) {
+            try {
+                return virtualFactory(prefix);
+            } catch (ReflectiveOperationException e) {
+                // fall through to platform threads
+            }
+        }
+        return platform(prefix, SMALL_STACK);
+    }
+
+    /**
+     * Get a factory for the thread mode a server was asked for.
+     *
+     * @param prefix thread name prefix; a number is added to each name
+     * @param virtualThreads whether virtual threads were asked for
+     * @return the factory
+     */
+    public static ThreadFactory forMode(String prefix, boolean virtualThreads) {
+        return virtualThreads ? virtual(prefix) : platform(prefix, 0);
+    }
+}
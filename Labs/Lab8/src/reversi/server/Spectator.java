@@ -0,0 +1,157 @@
+package reversi.server;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A connection watching a game through its {@link GameBroadcast}.
+ * <p>
+ * Messages wait in a bounded queue of the spectator's own, and are
+ * written on a shared pool of threads rather than the game's: whenever
+ * there is something queued and no write under way, one is started, and
+ * it writes everything queued by then in one go, so a spectator that is a
+ * little behind catches up in a few large writes rather than many small
+ * ones.  A spectator that falls so far behind that its queue fills is
+ * dropped, so that a slow or stalled reader costs the game and the other
+ * spectators nothing.
+ * <p>
+ * The writes block, and one to a spectator that has stopped reading
+ * blocks once its socket's buffers are full.  So that it cannot hold a
+ * writing thread, and with it other spectators, for long, each write has
+ * a deadline on a {@link TimingWheel}; a spectator whose write misses it
+ * is dropped, and closing its socket ends the write.
+ */
+class Spectator implements Runnable {
+    /** most messages that may wait for a spectator before it is dropped */
+    static final int MAX_QUEUED = 64;
+    /** longest a write may block before the spectator is dropped */
+    static final long WRITE_TIMEOUT_MILLIS = 500;
+
+    /** the connection */
+    private final ReversiPlayer player;
+    /** the pool the writes are done on */
+    private final Executor writers;
+    /** the wheel the write deadlines run on */
+    private final TimingWheel deadlines;
+    /** the server's metrics */
+    private final ServerMetrics metrics;
+    /** messages not yet written */
+    private final BlockingQueue<GameBroadcast.Message> queue = new ArrayBlockingQueue<>(MAX_QUEUED);
+    /** whether a write has been started and not yet finished */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    /** whether the spectator has been let go */
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /** the messages of one write, end to end; writing thread only */
+    private byte[] batch = new byte[4096];
+
+    /**
+     * Create a spectator.
+     *
+     * @param player the connection, which has asked to watch
+     * @param writers the pool to write on
+     * @param deadlines the wheel to run write deadlines on
+     * @param metrics the server's metrics
+     */
+    Spectator(ReversiPlayer player, Executor writers, TimingWheel deadlines, ServerMetrics metrics) {
+        this.player = player;
+        this.writers = writers;
+        this.deadlines = deadlines;
+        this.metrics = metrics;
+        metrics.spectatorJoined();
+    }
+
+    /**
+     * Queue a message for the spectator, dropping the spectator if its
+     * queue is full.
+     *
+     * @param message the message
+     * @return false if the spectator is gone
+     */
+    boolean send(GameBroadcast.Message message) {
+        if (this.closed.get()) {
+            return false;
+        }
+        if (!this.queue.offer(message)) {
+            drop();
+            return false;
+        }
+        if (this.scheduled.compareAndSet(false, true)) {
+            try {
+                this.writers.execute(this);
+            } catch (RejectedExecutionException e) {
+                // the server is closing
+                close();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write everything queued, in one write each time round, until the
+     * queue is empty.
+     */
+    @Override
+    public void run() {
+        do {
+            int length = 0;
+            boolean last = false;
+            GameBroadcast.Message message;
+            while (!last && (message = this.queue.poll()) != null) {
+                byte[] bytes = this.player.isBinary() ? message.frame : message.text;
+                if (length + bytes.length > this.batch.length) {
+                    byte[] bigger = new byte[Math.max(2 * this.batch.length, length + bytes.length)];
+                    System.arraycopy(this.batch, 0, bigger, 0, length);
+                    this.batch = bigger;
+                }
+                System.arraycopy(bytes, 0, this.batch, length, bytes.length);
+                length += bytes.length;
+                last = message.last;
+            }
+            if (length > 0 && !this.closed.get()) {
+                TimingWheel.Timeout deadline = this.deadlines.schedule(this::drop,
+                        WRITE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                try {
+                    this.player.write(this.batch, 0, length);
+                } catch (IOException e) {
+                    last = true;
+                } finally {
+                    deadline.cancel();
+                }
+            }
+            if (last) {
+                close();
+                return;
+            }
+            this.scheduled.set(false);
+            // a message queued after the poll found nothing, but before the
+            // flag was cleared, would otherwise wait for the next one
+        } while (!this.queue.isEmpty() && !this.closed.get() && this.scheduled.compareAndSet(false, true));
+    }
+
+    /**
+     * Let the spectator go for falling behind.
+     */
+    private void drop() {
+        if (this.closed.compareAndSet(false, true)) {
+            this.metrics.spectatorDropped();
+            this.metrics.spectatorLeft();
+            this.player.close();
+        }
+    }
+
+    /**
+     * Let the spectator go.
+     */
+    void close() {
+        if (this.closed.compareAndSet(false, true)) {
+            this.metrics.spectatorLeft();
+            this.player.close();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package reversi.server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time limits games are played under: how long a player may take
+ * over one move, and over all their moves in a game.  A player who runs
+ * out of either loses.  The clocks of every game run on one shared
+ * {@link TimingWheel}.
+ */
+public class TimeControl {
+    /** no limits at all */
+    public static final TimeControl NONE = new TimeControl(null, 0, 0);
+
+    /** the wheel the clocks run on, or null if there are no limits */
+    private final TimingWheel wheel;
+    /** longest a player may take over a move, or 0 for no limit */
+    private final long moveNanos;
+    /** longest a player may take over a game, or 0 for no limit */
+    private final long gameNanos;
+
+    /**
+     * Create time limits.
+     *
+     * @param wheel the wheel the clocks run on
+     * @param moveMillis longest a player may take over a move, in
+     *                   milliseconds, or 0 for no limit
+     * @param gameMillis longest a player may take over all their moves in
+     *                   a game, in milliseconds, or 0 for no limit
+     */
+    public TimeControl(TimingWheel wheel, long moveMillis, long gameMillis) {
+        this.wheel = wheel;
+        this.moveNanos = TimeUnit.MILLISECONDS.toNanos(moveMillis);
+        this.gameNanos = TimeUnit.MILLISECONDS.toNanos(gameMillis);
+    }
+
+    /**
+     * Get whether there are any limits.
+     *
+     * @return true if players may take as long as they like
+     */
+    public boolean isUnlimited() {
+        return this.wheel == null || (this.moveNanos <= 0 && this.gameNanos <= 0);
+    }
+
+    /**
+     * Get the time each player starts a game with.
+     *
+     * @return nanoseconds, or {@link Long#MAX_VALUE} for no limit
+     */
+    long getGameNanos() {
+        return this.gameNanos > 0 ? this.gameNanos : Long.MAX_VALUE;
+    }
+
+    /**
+     * Start a player's clock for one move.
+     *
+     * @param player the player to move
+     * @param timeLeft how long the player has left for the game, in
+     *                 nanoseconds
+     * @return the clock, to stop when the move arrives; if it has fired by
+     * then the player was out of time
+     */
+    TimingWheel.Timeout start(PlayerTransport player, long timeLeft) {
+        long limit = this.moveNanos > 0 ? Math.min(this.moveNanos, timeLeft) : timeLeft;
+        return this.wheel.schedule(player::stopWaiting, limit, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,290 @@
+package reversi.server;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timing wheel: one thread and one ring of buckets keep any
+ * number of timeouts, so every game on a server can have its clocks
+ * running without a timer or thread of its own.
+ * <p>
+ * Time is cut into ticks, and a timeout goes in the bucket for the tick
+ * it falls due in, modulo the size of the ring, with a count of how many
+ * more times round the ring it must wait.  Every tick the wheel thread
+ * looks at one bucket only, firing what is due and counting the rest down
+ * a round.  Scheduling and cancelling are a queue operation each, whatever
+ * the number of timeouts, and timeouts fire up to a tick late, never
+ * early.
+ * <p>
+ * Timeouts are handed to the wheel thread through queues, so any thread
+ * may schedule or cancel one.  Cancelled timeouts are taken out of their
+ * buckets at the next tick rather than left to take up room until they
+ * would have fired.  The tasks run on the wheel thread and must be quick.
+ */
+public class TimingWheel implements Closeable {
+    /** a timeout that has not fired or been cancelled */
+    private static final int PENDING = 0;
+    /** a timeout that was cancelled */
+    private static final int CANCELLED = 1;
+    /** a timeout that has fired */
+    private static final int EXPIRED = 2;
+
+    /**
+     * A task scheduled on the wheel.
+     */
+    public static class Timeout {
+        /** changes {@link #state} atomically */
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        /** the wheel it is scheduled on */
+        private final TimingWheel wheel;
+        /** what to do when it fires */
+        private final Runnable task;
+        /** when it falls due, in nanoseconds since the wheel started */
+        private final long deadline;
+        /** pending, cancelled or expired */
+        private volatile int state;
+
+        /** times round the ring still to wait; wheel thread only */
+        private long rounds;
+        /** the bucket it is in, or null; wheel thread only */
+        private Bucket bucket;
+        /** the one before it in its bucket; wheel thread only */
+        private Timeout prev;
+        /** the one after it in its bucket; wheel thread only */
+        private Timeout next;
+
+        /**
+         * Create a timeout.
+         *
+         * @param wheel the wheel it is scheduled on
+         * @param task what to do when it fires
+         * @param deadline when it falls due
+         */
+        private Timeout(TimingWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Stop the timeout from firing.
+         *
+         * @return true if it was stopped, false if it had already fired or
+         * been cancelled
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                return false;
+            }
+            this.wheel.cancelled.add(this);
+            return true;
+        }
+
+        /**
+         * Get whether the timeout has fired.
+         *
+         * @return true if it has
+         */
+        public boolean isExpired() {
+            return this.state == EXPIRED;
+        }
+
+        /**
+         * Fire the timeout, unless it has been cancelled.  Called on the
+         * wheel thread.
+         */
+        private void expire() {
+            if (!STATE.compareAndSet(this, PENDING, EXPIRED)) {
+                return;
+            }
+            try {
+                this.task.run();
+            } catch (RuntimeException e) {
+                System.err.println("Timeout task failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * The timeouts that fall due in one slot of the ring.
+     */
+    private static class Bucket {
+        /** first timeout */
+        private Timeout head;
+        /** last timeout */
+        private Timeout tail;
+
+        /**
+         * Add a timeout at the end.
+         *
+         * @param timeout the timeout
+         */
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = this.tail;
+            timeout.next = null;
+            if (this.tail == null) {
+                this.head = timeout;
+            } else {
+                this.tail.next = timeout;
+            }
+            this.tail = timeout;
+        }
+
+        /**
+         * Take a timeout out.
+         *
+         * @param timeout the timeout, which must be in this bucket
+         * @return the timeout after it
+         */
+        Timeout remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev == null) {
+                this.head = next;
+            } else {
+                timeout.prev.next = next;
+            }
+            if (next == null) {
+                this.tail = timeout.prev;
+            } else {
+                next.prev = timeout.prev;
+            }
+            timeout.bucket = null;
+            timeout.prev = null;
+            timeout.next = null;
+            return next;
+        }
+    }
+
+    /** length of a tick */
+    private final long tickNanos;
+    /** the ring of buckets, a power of two in size */
+    private final Bucket[] buckets;
+    /** picks a bucket from a tick number */
+    private final int mask;
+    /** when the wheel started */
+    private final long startNanos = System.nanoTime();
+    /** timeouts scheduled but not yet put in a bucket */
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    /** timeouts cancelled but maybe still in a bucket */
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    /** the wheel thread */
+    private final Thread thread;
+    /** whether the wheel has been closed */
+    private volatile boolean closed;
+    /** timeouts in buckets; written by the wheel thread only */
+    private volatile int size;
+
+    /**
+     * Create a wheel and start its thread.
+     *
+     * @param tick length of a tick, the precision of the timeouts
+     * @param unit unit of the tick
+     * @param ticksPerWheel number of buckets, rounded up to a power of two;
+     *                      timeouts longer than this many ticks go round
+     *                      the ring more than once
+     */
+    public TimingWheel(long tick, TimeUnit unit, int ticksPerWheel) {
+        this.tickNanos = Math.max(1, unit.toNanos(tick));
+        int size = Integer.highestOneBit(Math.max(1, ticksPerWheel - 1)) << 1;
+        this.buckets = new Bucket[size];
+        for (int i = 0; i < size; ++i) {
+            this.buckets[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.thread = new Thread(this::run, "timing-wheel");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Schedule a task to run once a delay has passed.
+     *
+     * @param task the task, which runs on the wheel thread and must be
+     *             quick
+     * @param delay the delay
+     * @param unit unit of the delay
+     * @return the timeout, to cancel it with
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long now = System.nanoTime() - this.startNanos;
+        // far enough off that it will never fire, without overflowing
+        long deadline = now + Math.min(unit.toNanos(Math.max(0, delay)), Long.MAX_VALUE / 2);
+        Timeout timeout = new Timeout(this, task, deadline);
+        this.scheduled.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Get how many timeouts are waiting to fire, as of the last tick.
+     *
+     * @return the count
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Turn the wheel until it is closed.
+     */
+    private void run() {
+        long tick = 0;
+        int count = 0;
+        while (!this.closed) {
+            long wait = (tick + 1) * this.tickNanos - (System.nanoTime() - this.startNanos);
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+
+            Timeout timeout;
+            while ((timeout = this.cancelled.poll()) != null) {
+                if (timeout.bucket != null) {
+                    timeout.bucket.remove(timeout);
+                    --count;
+                }
+            }
+            while ((timeout = this.scheduled.poll()) != null) {
+                if (timeout.state != PENDING) {
+                    continue;
+                }
+                long due = timeout.deadline / this.tickNanos;
+                timeout.rounds = (due - tick) >> Integer.numberOfTrailingZeros(this.buckets.length);
+                // one already overdue goes in this tick's bucket
+                this.buckets[(int) (Math.max(due, tick) & this.mask)].add(timeout);
+                ++count;
+            }
+
+            Bucket bucket = this.buckets[(int) (tick & this.mask)];
+            timeout = bucket.head;
+            while (timeout != null) {
+                if (timeout.rounds <= 0) {
+                    Timeout due = timeout;
+                    timeout = bucket.remove(due);
+                    --count;
+                    due.expire();
+                } else {
+                    --timeout.rounds;
+                    timeout = timeout.next;
+                }
+            }
+            this.size = count;
+            ++tick;
+        }
+    }
+
+    /**
+     * Stop the wheel.  Timeouts still waiting never fire.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        LockSupport.unpark(this.thread);
+    }
+}
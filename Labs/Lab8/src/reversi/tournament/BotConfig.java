@@ -0,0 +1,164 @@
+package reversi.tournament;
+
+import reversi.ReversiException;
+import reversi.bot.AlphaBetaSearch;
+import reversi.bot.Bot;
+import reversi.bot.BookBot;
+import reversi.bot.MonteCarloSearch;
+import reversi.bot.OpeningBook;
+import reversi.bot.ParallelSearch;
+import reversi.bot.RandomBot;
+
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongFunction;
+
+/**
+ * A named engine configuration that takes part in a {@link Tournament}:
+ * a way of making as many bots of one kind, set up one way, as the
+ * tournament's threads need.  Any {@link Bot} can take part by giving a
+ * factory for it; the bots in {@link reversi.bot} can also be described
+ * in a line of text, as {@code [name=]engine[:key=value,...]}:
+ * <ul>
+ *     <li>{@code random}: {@link RandomBot};</li>
+ *     <li>{@code alphabeta:ms=M,depth=D}: {@link AlphaBetaSearch};</li>
+ *     <li>{@code parallel:ms=M,depth=D,threads=T}: {@link ParallelSearch};</li>
+ *     <li>{@code mcts:ms=M,threads=T,nodes=N}: {@link MonteCarloSearch}.</li>
+ * </ul>
+ * Any engine also takes {@code book=FILE} to play from an
+ * {@link OpeningBook} first.  Every key is optional.  With a fixed depth
+ * and a time limit long enough never to be reached, a search plays the
+ * same however busy the machine is, which is what makes results repeat.
+ */
+public class BotConfig {
+    /** time per move when none is given, in milliseconds */
+    private static final long DEFAULT_MILLIS = 100;
+
+    /** the configuration's name in the results */
+    private final String name;
+    /** makes a bot from a seed */
+    private final LongFunction<Bot> factory;
+
+    /**
+     * Create a configuration.
+     *
+     * @param name the name in the results
+     * @param factory makes a bot, given a seed for any randomness it has
+     */
+    public BotConfig(String name, LongFunction<Bot> factory) {
+        this.name = name;
+        this.factory = factory;
+    }
+
+    /**
+     * Get the configuration's name.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Make a bot.
+     *
+     * @param seed seed for any randomness the bot has
+     * @return a new bot
+     */
+    public Bot create(long seed) {
+        return this.factory.apply(seed);
+    }
+
+    /**
+     * Read a configuration from its description.
+     *
+     * @param spec the description, as {@code [name=]engine[:key=value,...]}
+     * @return the configuration
+     * @throws ReversiException if the description is not understood, or
+     *                          its opening book cannot be read
+     */
+    public static BotConfig parse(String spec) throws ReversiException {
+        String name = spec;
+        String rest = spec;
+        int equals = spec.indexOf('=');
+        int colon = spec.indexOf(':');
+        if (equals >= 0 && (colon < 0 || equals < colon)) {
+            name = spec.substring(0, equals);
+            rest = spec.substring(equals + 1);
+            colon = rest.indexOf(':');
+        }
+        String engine = colon < 0 ? rest : rest.substring(0, colon);
+        Map<String, String> options = new HashMap<>();
+        if (colon >= 0) {
+            for (String option : rest.substring(colon + 1).split(",")) {
+                String[] pair = option.split("=", 2);
+                if (pair.length != 2) {
+                    throw new ReversiException("Expected key=value in " + spec + ": " + option);
+                }
+                options.put(pair[0].trim(), pair[1].trim());
+            }
+        }
+
+        long millis = number(options, "ms", DEFAULT_MILLIS, spec);
+        int depth = (int) number(options, "depth", AlphaBetaSearch.MAX_DEPTH, spec);
+        int threads = (int) number(options, "threads", 1, spec);
+        int nodes = (int) number(options, "nodes", MonteCarloSearch.DEFAULT_MAX_NODES, spec);
+        String bookFile = options.remove("book");
+        if (!options.isEmpty()) {
+            throw new ReversiException("Unknown options in " + spec + ": " + options.keySet());
+        }
+
+        LongFunction<Bot> search;
+        switch (engine) {
+            case "random":
+                search = RandomBot::new;
+                break;
+            case "alphabeta":
+                search = seed -> new AlphaBetaSearch(millis, depth);
+                break;
+            case "parallel":
+                search = seed -> new ParallelSearch(millis, depth, threads,
+                        AlphaBetaSearch.DEFAULT_TABLE_ENTRIES);
+                break;
+            case "mcts":
+                search = seed -> new MonteCarloSearch(millis, threads, nodes);
+                break;
+            default:
+                throw new ReversiException("Unknown engine in " + spec + ": " + engine);
+        }
+        if (bookFile == null) {
+            return new BotConfig(name, search);
+        }
+        OpeningBook book = OpeningBook.open(Paths.get(bookFile));
+        return new BotConfig(name, seed -> new BookBot(book, search.apply(seed)));
+    }
+
+    /**
+     * Take a number out of the options.
+     *
+     * @param options the options, which lose the key
+     * @param key the key
+     * @param otherwise the value if the key is not there
+     * @param spec the whole description, for errors
+     * @return the value
+     * @throws ReversiException if the value is not a number
+     */
+    private static long number(Map<String, String> options, String key, long otherwise, String spec)
+            throws ReversiException {
+        String value = options.remove(key);
+        if (value == null) {
+            return otherwise;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new ReversiException("Expected a number for " + key + " in " + spec + ": " + value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
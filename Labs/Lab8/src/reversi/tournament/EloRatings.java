@@ -0,0 +1,222 @@
+package reversi.tournament;
+
+import java.util.Arrays;
+
+/**
+ * Elo ratings for the players of a {@link Tournament}, kept up to date
+ * as results come in.
+ * <p>
+ * Recording a result only counts it against the pairing, so it costs the
+ * same however many games have been played.  The ratings are fitted to
+ * every result so far when asked for, by the Bradley-Terry model that Elo
+ * rests on: each player's rating is the one under which its expected
+ * score against the players it met matches its actual score, a draw
+ * counting as half a win.  The fit is iterated from the last one, so
+ * while games run each fit takes a few rounds.  One draw against each
+ * opponent is assumed to start with, which keeps a player that has won
+ * or lost everything from flying off to infinity.  The first player is
+ * held at 0.
+ * <p>
+ * The error bars are 95% intervals from the spread of each player's own
+ * results, taking its opponents' ratings as known: the usual figure for
+ * an engine match, and a fair one for a player's standing in a big
+ * tournament.
+ */
+public class EloRatings {
+    /** the z value of a 95% interval */
+    private static final double Z95 = 1.96;
+    /** rounds of fitting at most each time */
+    private static final int MAX_ROUNDS = 1000;
+    /** how close two fits must be, in Elo, to stop */
+    private static final double TOLERANCE = 1e-6;
+
+    /** the players' names */
+    private final String[] names;
+    /** wins[i][j]: games player i won against player j */
+    private final long[][] wins;
+    /** draws[i][j]: games drawn between players i and j, both ways */
+    private final long[][] draws;
+    /** the ratings as last fitted, as Bradley-Terry strengths */
+    private final double[] strength;
+
+    /**
+     * Start with no results.
+     *
+     * @param names the players' names
+     */
+    public EloRatings(String[] names) {
+        int n = names.length;
+        this.names = names.clone();
+        this.wins = new long[n][n];
+        this.draws = new long[n][n];
+        this.strength = new double[n];
+        Arrays.fill(this.strength, 1.0);
+    }
+
+    /**
+     * Count a game.
+     *
+     * @param one the player who moved first
+     * @param two the other player
+     * @param scoreOne 1 if the first player won, 0 if it lost, 0.5 for a
+     *                 draw
+     */
+    public synchronized void record(int one, int two, double scoreOne) {
+        if (scoreOne > 0.5) {
+            ++this.wins[one][two];
+        } else if (scoreOne < 0.5) {
+            ++this.wins[two][one];
+        } else {
+            ++this.draws[one][two];
+            ++this.draws[two][one];
+        }
+    }
+
+    /**
+     * Get the games played between two players.
+     *
+     * @param i one player
+     * @param j the other
+     * @return the count
+     */
+    private long games(int i, int j) {
+        return this.wins[i][j] + this.wins[j][i] + this.draws[i][j];
+    }
+
+    /**
+     * Fit the ratings to the results so far, starting from the last fit.
+     */
+    private void fit() {
+        int n = this.names.length;
+        for (int round = 0; round < MAX_ROUNDS; ++round) {
+            double change = 0;
+            for (int i = 0; i < n; ++i) {
+                double score = 0;
+                double expected = 0;
+                for (int j = 0; j < n; ++j) {
+                    long games = games(i, j);
+                    if (j == i || games == 0) {
+                        continue;
+                    }
+                    // one draw assumed against each opponent
+                    score += this.wins[i][j] + 0.5 * this.draws[i][j] + 0.5;
+                    expected += (games + 1) / (this.strength[i] + this.strength[j]);
+                }
+                if (expected > 0) {
+                    double next = score / expected;
+                    change = Math.max(change, Math.abs(Math.log10(next / this.strength[i])));
+                    this.strength[i] = next;
+                }
+            }
+            // hold the first player at 0
+            double anchor = this.strength[0];
+            for (int i = 0; i < n; ++i) {
+                this.strength[i] /= anchor;
+            }
+            if (400 * change < TOLERANCE) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Get the ratings.
+     *
+     * @return each player's rating, the first player's being 0
+     */
+    public synchronized double[] getRatings() {
+        fit();
+        double[] ratings = new double[this.names.length];
+        for (int i = 0; i < ratings.length; ++i) {
+            ratings[i] = 400 * Math.log10(this.strength[i]);
+        }
+        return ratings;
+    }
+
+    /**
+     * Get how far each rating may be out, at 95% confidence.
+     *
+     * @return each player's error bar, in Elo, or infinity before it has
+     * played
+     */
+    public synchronized double[] getErrors() {
+        int n = this.names.length;
+        double[] errors = new double[n];
+        for (int i = 0; i < n; ++i) {
+            long won = 0;
+            long drawn = 0;
+            long games = 0;
+            for (int j = 0; j < n; ++j) {
+                if (j != i) {
+                    won += this.wins[i][j];
+                    drawn += this.draws[i][j];
+                    games += games(i, j);
+                }
+            }
+            errors[i] = error(won, drawn, games);
+        }
+        return errors;
+    }
+
+    /**
+     * Work out the error bar of a score.
+     *
+     * @param won games won
+     * @param drawn games drawn
+     * @param games games played
+     * @return the 95% error bar in Elo
+     */
+    private static double error(long won, long drawn, long games) {
+        if (games == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double score = (won + 0.5 * drawn) / games;
+        double lost = games - won - drawn;
+        double variance = (won * (1 - score) * (1 - score) + drawn * (0.5 - score) * (0.5 - score) +
+                lost * score * score) / games;
+        // a score of all or nothing says nothing of its spread; keep it off the ends
+        double edge = 0.5 / games;
+        score = Math.min(1 - edge, Math.max(edge, score));
+        double slope = 400 / (Math.log(10) * score * (1 - score));
+        return Z95 * slope * Math.sqrt(Math.max(variance, edge * (1 - edge)) / games);
+    }
+
+    /**
+     * Describe the standings: each player's rating, error bar and record,
+     * best first.
+     *
+     * @return the table, a line for each player
+     */
+    public synchronized String report() {
+        double[] ratings = getRatings();
+        double[] errors = getErrors();
+        Integer[] order = new Integer[this.names.length];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(ratings[b], ratings[a]));
+        int width = 4;
+        for (String name : this.names) {
+            width = Math.max(width, name.length());
+        }
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%-" + width + "s %8s %7s %8s %8s %8s %7s%n",
+                "name", "elo", "+/-", "games", "won", "drawn", "score"));
+        for (int i : order) {
+            long won = 0;
+            long drawn = 0;
+            long games = 0;
+            for (int j = 0; j < this.names.length; ++j) {
+                if (j != i) {
+                    won += this.wins[i][j];
+                    drawn += this.draws[i][j];
+                    games += games(i, j);
+                }
+            }
+            table.append(String.format("%-" + width + "s %8.1f %7.1f %8d %8d %8d %6.1f%%%n",
+                    this.names[i], ratings[i], errors[i], games, won, drawn,
+                    games == 0 ? 0.0 : 100.0 * (won + 0.5 * drawn) / games));
+        }
+        return table.toString();
+    }
+}
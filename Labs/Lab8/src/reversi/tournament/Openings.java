@@ -0,0 +1,156 @@
+package reversi.tournament;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The starting positions of a {@link Tournament}'s games, each given as
+ * the moves that lead to it.  Playing every pairing from the same spread
+ * of positions, each one with both colours, keeps the results from
+ * hanging on how the bots open.
+ * <p>
+ * Openings come from a file, one per line, as moves of the form
+ * {@code row,col} separated by spaces; blank lines and lines starting
+ * with {@code #} are skipped.  Or they are made up by playing random
+ * moves.  Either way a seed decides their order, so a tournament can be
+ * played again exactly.
+ */
+public class Openings {
+    /** the openings, each as squares */
+    private final List<int[]> lines;
+
+    /**
+     * Wrap a list of openings.
+     *
+     * @param lines the openings, each as squares
+     */
+    private Openings(List<int[]> lines) {
+        this.lines = lines;
+    }
+
+    /**
+     * Read openings from a file, in an order shuffled by a seed.
+     *
+     * @param file the file
+     * @param DIM square dimension of board
+     * @param seed seed for the order
+     * @return the openings
+     * @throws ReversiException if the file cannot be read, has no
+     *                          openings, or has one that cannot be played
+     *                          or is off the board
+     */
+    public static Openings load(Path file, int DIM, long seed) throws ReversiException {
+        List<String> text;
+        try {
+            text = Files.readAllLines(file);
+        } catch (IOException e) {
+            throw new ReversiException(e);
+        }
+        List<int[]> lines = new ArrayList<>();
+        for (int n = 0; n < text.size(); ++n) {
+            String line = text.get(n).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] moves = line.split("\\s+");
+            int[] squares = new int[moves.length];
+            try {
+                for (int i = 0; i < moves.length; ++i) {
+                    String[] coord = moves[i].split(",");
+                    if (coord.length != 2) {
+                        throw new ReversiException("Expected row,col: " + moves[i]);
+                    }
+                    int row = Integer.parseInt(coord[0]);
+                    int col = Integer.parseInt(coord[1]);
+                    // packed off the board, a square would wrap onto another
+                    if (row < 0 || row >= DIM || col < 0 || col >= DIM) {
+                        throw new ReversiException("Off the board: " + moves[i]);
+                    }
+                    squares[i] = row * DIM + col;
+                }
+                // check it can be played
+                play(new Reversi(DIM), squares);
+            } catch (NumberFormatException | ReversiException e) {
+                throw new ReversiException(file + " line " + (n + 1) + ": " + e.getMessage());
+            }
+            lines.add(squares);
+        }
+        if (lines.isEmpty()) {
+            throw new ReversiException(file + " has no openings");
+        }
+        Collections.shuffle(lines, new Random(seed));
+        return new Openings(lines);
+    }
+
+    /**
+     * Make up openings by playing random moves.
+     *
+     * @param DIM square dimension of board
+     * @param count how many openings
+     * @param plies how many moves in each
+     * @param seed seed for the moves
+     * @return the openings
+     */
+    public static Openings random(int DIM, int count, int plies, long seed) {
+        Random rng = new Random(seed);
+        int[] valid = new int[DIM * DIM];
+        List<int[]> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            Reversi game = new Reversi(DIM);
+            int length = Math.min(plies, DIM * DIM - game.getNumMoves() - 1);
+            int[] squares = new int[Math.max(0, length)];
+            try {
+                for (int ply = 0; ply < squares.length; ++ply) {
+                    squares[ply] = valid[rng.nextInt(game.validMoves(valid))];
+                    game.makeMove(squares[ply] / DIM, squares[ply] % DIM);
+                }
+            } catch (ReversiException e) {
+                throw new IllegalStateException("Valid move rejected", e);
+            }
+            lines.add(squares);
+        }
+        return new Openings(lines);
+    }
+
+    /**
+     * Get an opening.  There are as many as asked for, or as many as the
+     * file has; past the end they start again.
+     *
+     * @param index which opening
+     * @return its moves, as squares; not to be changed
+     */
+    public int[] get(int index) {
+        return this.lines.get(index % this.lines.size());
+    }
+
+    /**
+     * Get how many different openings there are.
+     *
+     * @return the count
+     */
+    public int size() {
+        return this.lines.size();
+    }
+
+    /**
+     * Play an opening on a board.
+     *
+     * @param game the board, usually new
+     * @param squares the opening's moves
+     * @throws ReversiException if a move cannot be played
+     */
+    public static void play(Reversi game, int[] squares) throws ReversiException {
+        int DIM = game.getDimension();
+        for (int square : squares) {
+            game.makeMove(square / DIM, square % DIM);
+        }
+    }
+}
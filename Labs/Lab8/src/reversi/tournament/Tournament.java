@@ -0,0 +1,506 @@
+package reversi.tournament;
+
+import reversi.Reversi;
+import reversi.ReversiException;
+import reversi.bot.Bot;
+import reversi.record.GameRecord;
+import reversi.record.GameRecordWriter;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plays many games between {@link BotConfig bot configurations} at once,
+ * to see which is stronger and by how much.
+ * <p>
+ * The pairings are every configuration against every other (a round
+ * robin), or the first against each of the rest (a gauntlet).  Each
+ * pairing plays the same {@link Openings}, each one twice with the
+ * colours swapped.  The games are split up on a work-stealing
+ * {@link ForkJoinPool}, so threads that draw quick games take work from
+ * those stuck with long ones, and each thread keeps one bot of each
+ * configuration for all the games it plays.
+ * <p>
+ * Every game is written to the results file as it ends, one line of
+ * comma separated values, and counted in the {@link EloRatings}, which
+ * can be read while the games run.  A bot that throws or makes an
+ * invalid move forfeits the game.  Given a {@link GameRecordWriter}, the
+ * games are also written as {@link GameRecord}s, the forfeited ones as
+ * unfinished.
+ */
+public class Tournament implements Closeable {
+    /** the header of the results file */
+    private static final String HEADER = "game,opening,one,two,result,disks_one,disks_two,forfeit,millis";
+    /** longest the results file goes without being flushed */
+    private static final long FLUSH_NANOS = 1_000_000_000L;
+    /** seconds between standings when none is given */
+    private static final long DEFAULT_REPORT_SECONDS = 10;
+    /** random openings each pairing plays when no count is given */
+    private static final int DEFAULT_OPENINGS = 100;
+
+    /** square dimension of board */
+    private final int DIM;
+    /** the configurations playing */
+    private final BotConfig[] configs;
+    /** the openings every pairing plays */
+    private final Openings openings;
+    /** seed the bots' seeds are made from */
+    private final long seed;
+    /** the ratings so far */
+    private final EloRatings ratings;
+    /** where the results are written, or null */
+    private final BufferedWriter results;
+    /** when the results file was last flushed; guarded by it */
+    private long flushed = System.nanoTime();
+    /** where the games are recorded, or null if they are not */
+    private volatile GameRecordWriter records;
+    /** the threads that play */
+    private final ForkJoinPool pool;
+    /** each thread's bots, one per configuration, made as needed */
+    private final ThreadLocal<Bot[]> seats;
+    /** numbers the bots as they are made, for their seeds */
+    private final AtomicInteger botNumbers = new AtomicInteger();
+    /** every bot made, to close at the end */
+    private final Queue<Bot> made = new ConcurrentLinkedQueue<>();
+    /** games finished */
+    private final AtomicLong finished = new AtomicLong();
+    /** games forfeited */
+    private final AtomicLong forfeits = new AtomicLong();
+
+    /**
+     * Get a tournament ready.
+     *
+     * @param DIM square dimension of board
+     * @param configs the configurations playing
+     * @param openings the openings every pairing plays
+     * @param threads how many games to play at once
+     * @param resultsFile where to write the results, or null not to
+     * @param seed seed the bots' seeds are made from
+     * @throws ReversiException if the results file cannot be written
+     */
+    public Tournament(int DIM, BotConfig[] configs, Openings openings, int threads, Path resultsFile,
+                      long seed) throws ReversiException {
+        this.DIM = DIM;
+        this.configs = configs.clone();
+        this.openings = openings;
+        this.seed = seed;
+        String[] names = new String[configs.length];
+        for (int i = 0; i < names.length; ++i) {
+            names[i] = configs[i].getName();
+        }
+        this.ratings = new EloRatings(names);
+        try {
+            this.results = resultsFile == null ? null : Files.newBufferedWriter(resultsFile);
+            if (this.results != null) {
+                this.results.write(HEADER);
+                this.results.newLine();
+            }
+        } catch (IOException e) {
+            throw new ReversiException(e);
+        }
+        this.pool = new ForkJoinPool(threads);
+        this.seats = ThreadLocal.withInitial(() -> new Bot[this.configs.length]);
+    }
+
+    /**
+     * Record the games played from now on.
+     *
+     * @param records where to write the records, or null not to
+     */
+    public void setRecords(GameRecordWriter records) {
+        this.records = records;
+    }
+
+    /**
+     * Pair every configuration with every other.
+     *
+     * @param count how many configurations
+     * @return the pairings
+     */
+    public static int[][] roundRobin(int count) {
+        List<int[]> pairings = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            for (int j = i + 1; j < count; ++j) {
+                pairings.add(new int[] {i, j});
+            }
+        }
+        return pairings.toArray(new int[0][]);
+    }
+
+    /**
+     * Pair the first configuration with each of the others.
+     *
+     * @param count how many configurations
+     * @return the pairings
+     */
+    public static int[][] gauntlet(int count) {
+        int[][] pairings = new int[Math.max(0, count - 1)][];
+        for (int j = 1; j < count; ++j) {
+            pairings[j - 1] = new int[] {0, j};
+        }
+        return pairings;
+    }
+
+    /**
+     * Play the games of some pairings, and wait for them all to finish.
+     *
+     * @param pairings the pairings, as pairs of configuration indexes
+     * @param openingsEach how many openings each pairing plays, each one
+     *                     twice
+     */
+    public void play(int[][] pairings, int openingsEach) {
+        // game g: pairing g / (2 * openingsEach), opening g / 2, colours g % 2
+        int[][] games = new int[pairings.length * openingsEach * 2][];
+        int g = 0;
+        for (int[] pairing : pairings) {
+            for (int opening = 0; opening < openingsEach; ++opening) {
+                games[g++] = new int[] {pairing[0], pairing[1], opening};
+                games[g++] = new int[] {pairing[1], pairing[0], opening};
+            }
+        }
+        this.pool.invoke(new Games(games, 0, games.length));
+    }
+
+    /**
+     * A range of the games, split in two until it is one game.
+     */
+    private class Games extends RecursiveAction {
+        /** the games are never serialized, but RecursiveAction is Serializable */
+        private static final long serialVersionUID = 1L;
+
+        /** every game, as first player, second player and opening */
+        private final int[][] games;
+        /** the first game in the range */
+        private final int from;
+        /** just past the last game in the range */
+        private final int to;
+
+        /**
+         * Make a range.
+         *
+         * @param games every game
+         * @param from the first game in the range
+         * @param to just past the last game in the range
+         */
+        Games(int[][] games, int from, int to) {
+            this.games = games;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from == 1) {
+                int[] game = this.games[this.from];
+                playGame(this.from, game[0], game[1], game[2]);
+            } else if (this.to > this.from) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new Games(this.games, this.from, middle), new Games(this.games, middle, this.to));
+            }
+        }
+    }
+
+    /**
+     * Get this thread's bot for a configuration, making it if need be.
+     *
+     * @param config the configuration's index
+     * @return the bot
+     */
+    private Bot seat(int config) {
+        Bot[] bots = this.seats.get();
+        if (bots[config] == null) {
+            long number = this.botNumbers.incrementAndGet();
+            bots[config] = this.configs[config].create(this.seed + number * this.configs.length + config);
+            this.made.add(bots[config]);
+        }
+        return bots[config];
+    }
+
+    /**
+     * Play one game and record it.
+     *
+     * @param number the game's number
+     * @param one the configuration that moves first
+     * @param two the other configuration
+     * @param opening the opening's index
+     */
+    private void playGame(int number, int one, int two, int opening) {
+        long start = System.nanoTime();
+        Reversi game = new Reversi(this.DIM);
+        Bot first = seat(one);
+        Bot second = seat(two);
+        GameRecordWriter records = this.records;
+        GameRecord record = records == null ? null : new GameRecord(this.DIM);
+        String forfeit = "";
+        double scoreOne;
+        try {
+            int[] squares = this.openings.get(opening);
+            Openings.play(game, squares);
+            for (int i = 0; record != null && i < squares.length; ++i) {
+                record.addMove(squares[i] / this.DIM, squares[i] % this.DIM);
+            }
+        } catch (ReversiException e) {
+            throw new IllegalStateException("Opening " + opening + " cannot be played", e);
+        }
+        while (!game.gameOver()) {
+            boolean firstToMove = game.isP1Turn();
+            try {
+                int[] move = (firstToMove ? first : second).chooseMove(game);
+                game.makeMove(move[0], move[1]);
+                if (record != null) {
+                    record.addMove(move[0], move[1]);
+                }
+            } catch (ReversiException | RuntimeException e) {
+                forfeit = this.configs[firstToMove ? one : two].getName() + ": " + e.getMessage();
+                this.forfeits.incrementAndGet();
+                break;
+            }
+        }
+        if (!forfeit.isEmpty()) {
+            scoreOne = game.isP1Turn() ? 0 : 1;
+        } else {
+            switch (game.getWinner()) {
+                case PLAYER_ONE:
+                    scoreOne = 1;
+                    break;
+                case PLAYER_TWO:
+                    scoreOne = 0;
+                    break;
+                default:
+                    scoreOne = 0.5;
+            }
+        }
+        this.ratings.record(one, two, scoreOne);
+        if (record != null) {
+            if (forfeit.isEmpty()) {
+                record.setResult(game.getWinner(), false);
+            }
+            records.write(record);
+        }
+        this.finished.incrementAndGet();
+        if (this.results != null) {
+            String result = scoreOne == 1 ? "1-0" : scoreOne == 0 ? "0-1" : "1/2-1/2";
+            write(number + "," + opening + "," + this.configs[one].getName() + "," +
+                    this.configs[two].getName() + "," + result + "," +
+                    game.countDisks(Reversi.Move.PLAYER_ONE) + "," + game.countDisks(Reversi.Move.PLAYER_TWO) +
+                    "," + forfeit.replace(',', ';') + "," + (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * Write a line of results, flushing the file every so often so that
+     * it can be followed while the games run.
+     *
+     * @param line the line
+     */
+    private void write(String line) {
+        synchronized (this.results) {
+            try {
+                this.results.write(line);
+                this.results.newLine();
+                long now = System.nanoTime();
+                if (now - this.flushed > FLUSH_NANOS) {
+                    this.results.flush();
+                    this.flushed = now;
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot write results", e);
+            }
+        }
+    }
+
+    /**
+     * Get the ratings, which are kept up to date as games finish.
+     *
+     * @return the ratings
+     */
+    public EloRatings getRatings() {
+        return this.ratings;
+    }
+
+    /**
+     * Get how many games have finished.
+     *
+     * @return the count
+     */
+    public long getFinished() {
+        return this.finished.get();
+    }
+
+    /**
+     * Get how many games were forfeited.
+     *
+     * @return the count
+     */
+    public long getForfeits() {
+        return this.forfeits.get();
+    }
+
+    /**
+     * Stop the threads, close the bots that need closing and the results
+     * file.
+     *
+     * @throws IOException if the results cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        this.pool.shutdown();
+        for (Bot bot : this.made) {
+            if (bot instanceof Closeable) {
+                ((Closeable) bot).close();
+            }
+        }
+        if (this.results != null) {
+            synchronized (this.results) {
+                this.results.close();
+            }
+        }
+    }
+
+    /**
+     * Print the usage message and quit.
+     */
+    private static void usage() {
+        System.out.println("Usage: java reversi.tournament.Tournament [options] bot bot...");
+        System.out.println("  bot                [name=]engine[:key=value,...], engine one of random, alphabeta,");
+        System.out.println("                     parallel, mcts; keys ms, depth, threads, nodes, book");
+        System.out.println("  --dim N            board size (default 6)");
+        System.out.println("  --gauntlet         the first bot plays each of the others (default round robin)");
+        System.out.println("  --openings N       openings each pairing plays, each with both colours (default 100,");
+        System.out.println("                     or every opening in the file)");
+        System.out.println("  --opening-file F   openings to play, one per line as row,col moves");
+        System.out.println("  --plies N          moves in each random opening, without a file (default 4)");
+        System.out.println("  --threads N        games played at once (default one per processor)");
+        System.out.println("  --results F        where to write each game (default tournament.csv)");
+        System.out.println("  --records F        also add each game's moves to a game record file");
+        System.out.println("  --report S         seconds between standings (default 10)");
+        System.out.println("  --seed S           seed for the openings and bots (default 2017)");
+        System.exit(1);
+    }
+
+    /**
+     * Run a tournament.
+     *
+     * @param args the options, then the bots
+     * @throws ReversiException if a bot or the openings cannot be set up
+     * @throws IOException if the results cannot be written
+     */
+    public static void main(String[] args) throws ReversiException, IOException {
+        int DIM = 6;
+        boolean gauntlet = false;
+        int openingsEach = 0;
+        Path openingFile = null;
+        int plies = 4;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path resultsFile = Paths.get("tournament.csv");
+        Path recordFile = null;
+        long report = DEFAULT_REPORT_SECONDS;
+        long seed = 2017;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("--"); i += 2) {
+            if (args[i].equals("--gauntlet")) {
+                gauntlet = true;
+                --i;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                usage();
+            }
+            switch (args[i]) {
+                case "--dim":
+                    DIM = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--openings":
+                    openingsEach = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--opening-file":
+                    openingFile = Paths.get(args[i + 1]);
+                    break;
+                case "--plies":
+                    plies = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--results":
+                    resultsFile = Paths.get(args[i + 1]);
+                    break;
+                case "--records":
+                    recordFile = Paths.get(args[i + 1]);
+                    break;
+                case "--report":
+                    report = Long.parseLong(args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                default:
+                    usage();
+            }
+        }
+        if (args.length - i < 2) {
+            usage();
+        }
+        BotConfig[] configs = new BotConfig[args.length - i];
+        for (int c = 0; c < configs.length; ++c) {
+            configs[c] = BotConfig.parse(args[i + c]);
+        }
+        Openings openings;
+        if (openingFile != null) {
+            openings = Openings.load(openingFile, DIM, seed);
+            // replaying openings would only make the error bars look smaller
+            if (openingsEach > openings.size()) {
+                throw new ReversiException(openingFile + " has only " + openings.size() +
+                        " openings, not " + openingsEach);
+            }
+            if (openingsEach == 0) {
+                openingsEach = openings.size();
+            }
+        } else {
+            if (openingsEach == 0) {
+                openingsEach = DEFAULT_OPENINGS;
+            }
+            openings = Openings.random(DIM, openingsEach, plies, seed);
+        }
+        int[][] pairings = gauntlet ? gauntlet(configs.length) : roundRobin(configs.length);
+        long total = (long) pairings.length * openingsEach * 2;
+        System.out.printf("%,d games of %dx%d: %d pairings, %d openings each with both colours, %d threads%n",
+                total, DIM, DIM, pairings.length, openingsEach, threads);
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "standings");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        try (Tournament tournament = new Tournament(DIM, configs, openings, threads, resultsFile, seed);
+             GameRecordWriter records = recordFile == null ? null : new GameRecordWriter(recordFile)) {
+            tournament.setRecords(records);
+            reporter.scheduleAtFixedRate(() -> System.out.printf("%,d/%,d games, %.1f s%n%s",
+                            tournament.getFinished(), total, (System.nanoTime() - start) / 1e9,
+                            tournament.getRatings().report()),
+                    report, report, TimeUnit.SECONDS);
+            tournament.play(pairings, openingsEach);
+            reporter.shutdownNow();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%,d games in %.1f s, %,.0f games/s, %,d forfeited%n%s", tournament.getFinished(),
+                    seconds, tournament.getFinished() / seconds, tournament.getForfeits(),
+                    tournament.getRatings().report());
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package reversi.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies, or any other non-negative values, that many
+ * threads can record into at once without locking.
+ * <p>
+ * Buckets are log-linear, in the manner of HdrHistogram: every power of
+ * two is split into {@link #SUB_BUCKETS} equal buckets, so a value is
+ * known to within about 3% however large it is, and the whole range of a
+ * {@code long} fits in a couple of thousand counters.  Recording a value
+ * is a few shifts and one atomic increment.
+ * <p>
+ * Reading while others record gives a view that may be a few values
+ * behind, which is fine for reporting.
+ */
+public class LatencyHistogram {
+    /** log2 of the number of buckets each power of two is split into */
+    private static final int SUB_BITS = 5;
+    /** number of buckets each power of two is split into */
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+    /** enough buckets for any non-negative long */
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_BUCKETS;
+
+    /** how many values fell in each bucket */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    /** how many values were recorded */
+    private final LongAdder count = new LongAdder();
+    /** the sum of the values recorded */
+    private final LongAdder sum = new LongAdder();
+    /** the largest value recorded */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Find the bucket a value goes in.
+     *
+     * @param value the value, not negative
+     * @return the bucket index
+     */
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        int mantissa = (int) (value >>> shift);
+        return (shift + 1) * SUB_BUCKETS + mantissa - SUB_BUCKETS;
+    }
+
+    /**
+     * Find the largest value that goes in a bucket.
+     *
+     * @param bucket the bucket index
+     * @return the largest value in it
+     */
+    private static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Record a value.  Negative values are recorded as 0.
+     *
+     * @param value the value
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        this.counts.incrementAndGet(bucket(value));
+        this.count.increment();
+        this.sum.add(value);
+        long seen = this.max.get();
+        while (value > seen && !this.max.compareAndSet(seen, value)) {
+            seen = this.max.get();
+        }
+    }
+
+    /**
+     * Add every value recorded in another histogram to this one.
+     *
+     * @param other the other histogram
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; ++i) {
+            long n = other.counts.get(i);
+            if (n != 0) {
+                this.counts.addAndGet(i, n);
+            }
+        }
+        this.count.add(other.count.sum());
+        this.sum.add(other.sum.sum());
+        long otherMax = other.max.get();
+        long seen = this.max.get();
+        while (otherMax > seen && !this.max.compareAndSet(seen, otherMax)) {
+            seen = this.max.get();
+        }
+    }
+
+    /**
+     * Forget everything recorded.  Values recorded while this runs may be
+     * half forgotten.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            this.counts.set(i, 0);
+        }
+        this.count.reset();
+        this.sum.reset();
+        this.max.set(0);
+    }
+
+    /**
+     * Get how many values were recorded.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * Get the mean of the values recorded.
+     *
+     * @return the mean, or 0 if there are none
+     */
+    public double getMean() {
+        long n = this.count.sum();
+        return n == 0 ? 0 : (double) this.sum.sum() / n;
+    }
+
+    /**
+     * Get the largest value recorded.
+     *
+     * @return the largest value, or 0 if there are none
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Get the value that the given percentage of values are no larger
+     * than, to within the bucket size.
+     *
+     * @param percentile the percentage, from 0 to 100
+     * @return the value, or 0 if there are none
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            total += this.counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += this.counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValue(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+}
@@ -1,5 +1,7 @@
 package reversi2;
 
+import reversi.BitBoard;
+import reversi.Reversi;
 import reversi.ReversiException;
 
 import java.util.EnumMap;
@@ -8,7 +10,8 @@ import java.util.Observable;
 /**
  * A copy of the board state kept by client code at the site of the player.
  * It acts as a model in an MVC pattern because the local UI observes changes
- * in it.
+ * in it.  Every notification carries a {@link BoardChange} saying what
+ * changed, so an observer need only redraw the squares a move touched.
  */
 public class Board extends Observable {
     /**
@@ -37,22 +40,6 @@ public class Board extends Observable {
         }
     }
 
-    /**
-     * All eight directions that are considered when dealing with
-     * Reversi moves
-     */
-    private enum Dir {
-        N(-1,0), NE(-1,1), E(0,1), SE(1,1),
-        S(1,0), SW(1,-1), W(0,-1), NW(-1,-1);
-
-        public final int rd, cd;
-
-        private Dir( int rowDelta, int colDelta ) {
-            this.rd = rowDelta;
-            this.cd = colDelta;
-        }
-    }
-
     /**
      * Possible statuses of game
      */
@@ -97,9 +84,9 @@ public class Board extends Observable {
     private Status status;
 
     /**
-     * The board matrix of squares
+     * The discs on the board
      */
-    private Board.Move[][] board;
+    private BitBoard board;
 
     /**
      * Initialize an empty board of a specified size.
@@ -113,8 +100,8 @@ public class Board extends Observable {
         if ( DIM < Board.MIN_DIM ) {
             throw new ReversiException( "Board too small to play" );
         }
-        // Allocate the matrix and set its dimensions (redundant).
-        this.board = new Board.Move[ DIM ][ DIM ];
+        // Allocate the bitboard and set its dimensions (redundant).
+        this.board = new BitBoard( DIM );
         this.DIM = DIM;
         this.movesLeft = DIM * DIM;
         this.status = Status.NOT_OVER;
@@ -129,16 +116,12 @@ public class Board extends Observable {
     public void initializeGame() {
 
         // Initialize all squares on the board to empty.
-        for ( int row = 0; row < this.DIM; ++row ) {
-            for ( int col = 0; col < this.DIM; ++col ) {
-                this.board[ row ][ col ] = Move.NONE;
-            }
-        }
+        this.board.clear();
         // populate the center of the board with pieces
-        this.board[ this.DIM / 2 - 1 ][ this.DIM / 2 - 1 ] = Move.PLAYER_ONE;
-        this.board[ this.DIM / 2 ][ this.DIM / 2 ] = Move.PLAYER_ONE;
-        this.board[ this.DIM / 2 - 1 ][ this.DIM / 2 ] = Move.PLAYER_TWO;
-        this.board[ this.DIM / 2 ][ this.DIM / 2 - 1 ] = Move.PLAYER_TWO;
+        this.board.set( this.DIM / 2 - 1, this.DIM / 2 - 1, BitBoard.PLAYER_ONE );
+        this.board.set( this.DIM / 2, this.DIM / 2, BitBoard.PLAYER_ONE );
+        this.board.set( this.DIM / 2 - 1, this.DIM / 2, BitBoard.PLAYER_TWO );
+        this.board.set( this.DIM / 2, this.DIM / 2 - 1, BitBoard.PLAYER_TWO );
         this.movesLeft -= 4;
 
         // It's never my turn unless the server tells me to make a move.
@@ -149,7 +132,7 @@ public class Board extends Observable {
 
         // finishing setting up all instance data
         super.setChanged();
-        super.notifyObservers();
+        super.notifyObservers( BoardChange.RESET );
     }
 
     /**
@@ -200,97 +183,96 @@ public class Board extends Observable {
      * @return the player (or {@link Board.Move#NONE}) at the given location
      */
     public Move getContents( int row, int col ) {
-        return this.board[ row ][ col ];
+        switch ( this.board.get( row, col ) ) {
+            case BitBoard.PLAYER_ONE:
+                return Move.PLAYER_ONE;
+            case BitBoard.PLAYER_TWO:
+                return Move.PLAYER_TWO;
+            default:
+                return Move.NONE;
+        }
     }
 
     /**
-     * When a new valid move is made, this helper routine flips all the pieces
-     * on the board that are affected.
+     * Convert a disc owner to the value the bitboard uses for it.
      *
-     * @param row the row
-     * @param col the column
+     * @param piece the player (or {@link Board.Move#NONE})
+     * @return the matching {@link BitBoard} constant
      */
-    private void flipPieces( int row, int col ) {
-        // figure out who made the move and who the other player is
-        Board.Move me = this.board[ row ][ col ];
-        Board.Move opp = me.opponent();
-
-        // generate row and column deltas [-1, 0, +1] to check the eight
-        // directions
-        // on the board.  this code comes courtesy of a port of python code from
-        // the great and mighty oracle himself, Jim. <3
-        //
-        // Changed by The Oracle to make it even more gorgeous.
-        for ( Dir d: Dir.values() ) {
-
-            int r = row + d.rd;
-            int c = col + d.cd;
-
-            // Continue in the current direction until we go off the end
-            // of the
-            // board or we reach a square that does not contain an
-            // opponent's disc.
-            while ( r >= 0 && r < this.DIM && c >= 0 && c < this.DIM &&
-                    this.board[ r ][ c ] == opp ) {
-                r += d.rd;
-                c += d.cd;
-            }
+    private static int bitBoardPlayer( Move piece ) {
+        return piece == Move.PLAYER_ONE ? BitBoard.PLAYER_ONE :
+               piece == Move.PLAYER_TWO ? BitBoard.PLAYER_TWO :
+               BitBoard.NONE;
+    }
 
-            // If we did not go off the board and the square we stopped on
-            // contains one of this player's discs, flips the ones in
-            // between.
-            if ( r >= 0 && r < this.DIM && c >= 0 && c < this.DIM &&
-                 this.board[ r ][ c ] == me ) {
-                // restart
-                r = row + d.rd;
-                c = col + d.cd;
-
-                while ( r >= 0 && r < this.DIM && c >= 0 &&
-                        c < this.DIM && this.board[ r ][ c ] == opp ) {
-                    this.board[ r ][ c ] = me;
-                    r += d.rd;
-                    c += d.cd;
-                }
-            }
-        }
+    /**
+     * Make a copy of the current position that the game rules (and
+     * anything built on them, like a search) can be run on.
+     *
+     * @return a new game in the same position as this board
+     */
+    public Reversi toReversi() {
+        return new Reversi( new BitBoard( this.board ),
+                            this.currentPiece == Move.PLAYER_ONE );
     }
 
     /**
-     * Check that there is an occupied neighbor - we relax the official rules
-     * here that say the neighbor must be the same color.
+     * When a new valid move is made, this helper routine flips all the pieces
+     * on the board that are affected.
      *
      * @param row the row
      * @param col the column
-     * @return whether there is an occupied neighbor or not
+     * @return the squares flipped, as row * DIM + col
      */
-    private boolean occupiedNeighbor( int row, int col ) {
-        for ( Dir d : Dir.values() ) {
-            int r = row + d.rd;
-            int c = col + d.cd;
-            if ( r >= 0 && r < this.DIM && c >= 0 &&
-                 c < this.DIM &&
-                 this.board[ r ][ c ] != Move.NONE ) {
-                return true;
-            }
+    private int[] flipPieces( int row, int col ) {
+        int[] flipped =
+                new int[ this.board.flip( row, col, this.board.get( row, col ) ) ];
+        for ( int i = 0; i < flipped.length; ++i ) {
+            flipped[ i ] = this.board.getFlipped( i );
         }
-        return false;
+        return flipped;
     }
 
     /**
      * Will this move be accepted as valid by the server?
      * This method is added so that a bad move is caught before it is sent
      * to the server, and the server quits.
+     * We relax the official rules here that say the neighbor must be the
+     * same color, so the valid moves are the board's frontier, which
+     * {@link #moveMade(int, int)} keeps up to date; this only tests a bit.
      *
      * @param row the row
      * @param col the column
-     * @return true iff the chosen square is adjacent to an occupied square
+     * @return true iff the chosen square is empty and adjacent to an
+     *         occupied square
      */
     public boolean isValidMove( int row, int col ) {
         return
                 ( row >= 0 && row < this.DIM ) &&
                 ( col >= 0 && col < this.DIM ) &&
-                ( this.board[ row ][ col ] == Move.NONE ) &&
-                this.occupiedNeighbor( row, col );
+                this.board.isFrontier( row, col );
+    }
+
+    /**
+     * Step through the valid moves without looking at every square:
+     * the first one is {@code nextValidMove( 0 )}, and each after that is
+     * {@code nextValidMove( previous + 1 )}.
+     *
+     * @param square the square to start at, as row * DIM + col
+     * @return the first valid move at or after it, as row * DIM + col,
+     *         or -1 if there are no more
+     */
+    public int nextValidMove( int square ) {
+        return this.board.nextFrontier( square );
+    }
+
+    /**
+     * How many valid moves are there?
+     *
+     * @return the number of squares {@link #isValidMove(int, int)} accepts
+     */
+    public int countValidMoves() {
+        return this.board.countFrontier();
     }
 
     /**
@@ -301,7 +283,7 @@ public class Board extends Observable {
         // Presumably all of this primes the UI to prompt for, and get, a move.
         this.myTurn = true;
         super.setChanged();
-        super.notifyObservers();
+        super.notifyObservers( BoardChange.TURN );
     }
 
     /**
@@ -313,16 +295,18 @@ public class Board extends Observable {
         // gets called as a result of the message from the server.
         // place piece on board
         this.movesLeft -= 1;
-        this.board[ row ][ col ] = this.currentPiece;
+        this.board.set( row, col, bitBoardPlayer( this.currentPiece ) );
 
         // flip opposite neighbors
-        flipPieces( row, col );
+        int[] flipped = flipPieces( row, col );
+        BoardChange change =
+                BoardChange.move( row * this.DIM + col, this.currentPiece, flipped );
 
         this.currentPiece = this.currentPiece.opponent();
         this.myTurn = false;
 
         super.setChanged();
-        super.notifyObservers();
+        super.notifyObservers( change );
     }
 
     /**
@@ -331,7 +315,7 @@ public class Board extends Observable {
     public void gameWon() {
         this.status = Status.I_WON;
         super.setChanged();
-        super.notifyObservers();
+        super.notifyObservers( BoardChange.STATUS );
     }
 
     /**
@@ -340,7 +324,7 @@ public class Board extends Observable {
     public void gameLost() {
         this.status = Status.I_LOST;
         super.setChanged();
-        super.notifyObservers();
+        super.notifyObservers( BoardChange.STATUS );
     }
 
     /**
@@ -349,7 +333,7 @@ public class Board extends Observable {
     public void gameTied() {
         this.status = Status.TIE;
         super.setChanged();
-        super.notifyObservers();
+        super.notifyObservers( BoardChange.STATUS );
     }
 
     /**
@@ -361,7 +345,7 @@ public class Board extends Observable {
         this.status = Status.ERROR;
         this.status.setMessage( arguments );
         super.setChanged();
-        super.notifyObservers();
+        super.notifyObservers( BoardChange.STATUS );
     }
 
     /**
@@ -371,7 +355,7 @@ public class Board extends Observable {
         // Tell user s/he may close at any time?
         // Currently it will say win/lose/tie/error.
         super.setChanged();
-        super.notifyObservers();
+        super.notifyObservers( BoardChange.STATUS );
     }
 
     static EnumMap< Move, Character > cmap = new EnumMap<>( Board.Move.class );
@@ -412,7 +396,7 @@ public class Board extends Observable {
             builder.append( r );
             for ( int c = 0; c < this.DIM; ++c ) {
                 builder.append( '[' );
-                builder.append( cmap.get( this.board[ r ][ c ] ) );
+                builder.append( cmap.get( this.getContents( r, c ) ) );
                 builder.append( ']' );
             }
             builder.append( '\n' );
@@ -0,0 +1,131 @@
+package reversi2;
+
+import java.util.Arrays;
+
+/**
+ * What changed in a {@link Board}, passed as the argument of every
+ * notification it sends its observers.  A move lists the square the disc
+ * went on and the squares it flipped, so a UI can repaint just those and
+ * leave the rest of the board alone.
+ * <p>
+ * Changes are immutable, so they can be handed to another thread as they
+ * are.
+ */
+public class BoardChange {
+    /**
+     * The kinds of change.
+     */
+    public enum Kind {
+        /** the board was set up for a new game; every square may differ */
+        RESET,
+        /** a disc was placed and others flipped */
+        MOVE,
+        /** it became this player's turn; no squares changed */
+        TURN,
+        /** the game ended or failed; no squares changed */
+        STATUS
+    }
+
+    /** the change for a new game */
+    static final BoardChange RESET = new BoardChange(Kind.RESET, -1, Board.Move.NONE, new int[0]);
+    /** the change for a move request */
+    static final BoardChange TURN = new BoardChange(Kind.TURN, -1, Board.Move.NONE, new int[0]);
+    /** the change for the end of the game */
+    static final BoardChange STATUS = new BoardChange(Kind.STATUS, -1, Board.Move.NONE, new int[0]);
+
+    /** the kind of change */
+    private final Kind kind;
+    /** the square the disc was placed on, as row * DIM + col, or -1 */
+    private final int placed;
+    /** who placed it */
+    private final Board.Move piece;
+    /** the squares that were flipped, as row * DIM + col */
+    private final int[] flipped;
+
+    /**
+     * Make a change.
+     *
+     * @param kind the kind of change
+     * @param placed the square a disc was placed on, or -1
+     * @param piece who placed it
+     * @param flipped the squares that were flipped; kept, not copied
+     */
+    private BoardChange(Kind kind, int placed, Board.Move piece, int[] flipped) {
+        this.kind = kind;
+        this.placed = placed;
+        this.piece = piece;
+        this.flipped = flipped;
+    }
+
+    /**
+     * Make the change for a move.
+     *
+     * @param placed the square the disc was placed on, as row * DIM + col
+     * @param piece who placed it
+     * @param flipped the squares that were flipped; kept, not copied
+     * @return the change
+     */
+    static BoardChange move(int placed, Board.Move piece, int[] flipped) {
+        return new BoardChange(Kind.MOVE, placed, piece, flipped);
+    }
+
+    /**
+     * Get the kind of change.
+     *
+     * @return the kind
+     */
+    public Kind getKind() {
+        return this.kind;
+    }
+
+    /**
+     * Get the square the disc was placed on.
+     *
+     * @return the square, as row * DIM + col, or -1 if this is not a move
+     */
+    public int getPlaced() {
+        return this.placed;
+    }
+
+    /**
+     * Get who made the move.
+     *
+     * @return the player, or {@link Board.Move#NONE} if this is not a move
+     */
+    public Board.Move getPiece() {
+        return this.piece;
+    }
+
+    /**
+     * Get how many discs the move flipped.
+     *
+     * @return the count
+     */
+    public int getFlipCount() {
+        return this.flipped.length;
+    }
+
+    /**
+     * Get one of the squares the move flipped.
+     *
+     * @param i which one, from 0 up to {@link #getFlipCount()}
+     * @return the square, as row * DIM + col
+     */
+    public int getFlipped(int i) {
+        return this.flipped[i];
+    }
+
+    /**
+     * Describe the change.
+     *
+     * @return the kind, and for a move the square and the flips
+     */
+    @Override
+    public String toString() {
+        if (this.kind != Kind.MOVE) {
+            return this.kind.toString();
+        }
+        return this.kind + " " + this.piece + " at " + this.placed + " flipping " +
+                Arrays.toString(this.flipped);
+    }
+}
@@ -0,0 +1,65 @@
+package reversi2;
+
+import java.util.BitSet;
+
+/**
+ * Gathers the squares that {@link BoardChange}s touch until a UI thread
+ * gets round to repainting them, so a burst of changes costs one repaint
+ * instead of one each.
+ * <p>
+ * The observer thread {@link #mark(BoardChange) marks} each change, and
+ * schedules a repaint only when the mark says none is pending yet.  The
+ * repaint {@link #take() takes} the squares marked so far, which also
+ * lets the next change schedule another.  A change that is not a move
+ * touches no squares, but still needs the text redrawn, so it is marked
+ * too.
+ */
+public class DirtySquares {
+    /** squares marked since the last take, as row * DIM + col; guarded by this */
+    private BitSet dirty = new BitSet();
+    /** whether every square needs repainting; guarded by this */
+    private boolean all = true;
+    /** whether a repaint has been scheduled and not yet taken; guarded by this */
+    private boolean pending;
+
+    /**
+     * Add the squares a change touched.
+     *
+     * @param change the change, or null if it is not known, in which case
+     *               every square is marked
+     * @return true if a repaint should be scheduled, false if one is
+     *         already on its way and will pick this change up
+     */
+    public synchronized boolean mark(BoardChange change) {
+        if (change == null || change.getKind() == BoardChange.Kind.RESET) {
+            this.all = true;
+        } else if (change.getKind() == BoardChange.Kind.MOVE) {
+            this.dirty.set(change.getPlaced());
+            for (int i = 0; i < change.getFlipCount(); ++i) {
+                this.dirty.set(change.getFlipped(i));
+            }
+        }
+        boolean schedule = !this.pending;
+        this.pending = true;
+        return schedule;
+    }
+
+    /**
+     * Take the squares marked since the last take, and let the next mark
+     * schedule a repaint again.
+     *
+     * @return the squares, as row * DIM + col, or null if every square
+     *         needs repainting
+     */
+    public synchronized BitSet take() {
+        this.pending = false;
+        if (this.all) {
+            this.all = false;
+            this.dirty.clear();
+            return null;
+        }
+        BitSet squares = this.dirty;
+        this.dirty = new BitSet();
+        return squares;
+    }
+}
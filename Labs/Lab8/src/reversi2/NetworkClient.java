@@ -1,13 +1,15 @@
 package reversi2;
 
+import reversi.BinaryProtocol;
 import reversi.ReversiException;
 import reversi.ReversiProtocol;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.net.Socket;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
 
 import static reversi.ReversiProtocol.*;
 
@@ -17,6 +19,14 @@ import static reversi.ReversiProtocol.*;
  * This class represents the controller part of a model-view-controller
  * triumvirate, in that part of its purpose is to forward user actions
  * to the remote server.
+ * <P>
+ * If the server offers the {@link BinaryProtocol}, the client switches
+ * to it unless told not to. Moves are then sent and received as frames
+ * in buffers kept for the purpose, with no parsing of text.
+ * <P>
+ * If the server journals its games it sends a session token, and a client
+ * cut off by the server stopping can get its game back with the token
+ * once the server is running again.
  *
  * @author Robert St Jacques @ RIT SE
  * @author Sean Strout @ RIT CS
@@ -46,15 +56,59 @@ public class NetworkClient {
     private Socket sock;
 
     /**
-     * The {@link Scanner} used to read requests from the reversi server.
+     * The buffered {@link InputStream} used to read requests from the
+     * reversi server, as text lines or frames.
      */
-    private Scanner networkIn;
+    private InputStream networkIn;
 
     /**
-     * The {@link PrintStream} used to write responses to the reversi server.
+     * The {@link PrintStream} used to write text responses to the reversi
+     * server.
      */
     private PrintStream networkOut;
 
+    /**
+     * The {@link OutputStream} frames are written to.
+     */
+    private OutputStream frameOut;
+
+    /**
+     * Whether to take up the {@link BinaryProtocol} if the server offers it
+     */
+    private boolean wantBinary;
+
+    /**
+     * The session token of this client's game, or null if the server
+     * sent none
+     */
+    private String session;
+
+    /**
+     * The session token of the game to resume, or null to play a new one
+     */
+    private String resume;
+
+    /**
+     * Whether the server has switched to the {@link BinaryProtocol}.
+     * Set by the network thread, read by whoever sends moves.
+     */
+    private volatile boolean binary;
+
+    /**
+     * Buffer incoming frames are read into
+     */
+    private final byte[] inFrame = new byte[ BinaryProtocol.MAX_FRAME ];
+
+    /**
+     * Buffer incoming text lines are read into
+     */
+    private final byte[] line = new byte[ BinaryProtocol.MAX_LINE ];
+
+    /**
+     * Buffer outgoing frames are built in
+     */
+    private final byte[] outFrame = new byte[ BinaryProtocol.BUFFER_SIZE ];
+
     /**
      * The {@link Board} used to keep track of the state of the game.
      */
@@ -98,16 +152,67 @@ public class NetworkClient {
      */
     public NetworkClient( String hostname, int port, Board model )
             throws ReversiException {
+        this( hostname, port, model, true );
+    }
+
+    /**
+     * Hook up with a Reversi game server, as in
+     * {@link #NetworkClient(String, int, Board)}, choosing whether to use
+     * the {@link BinaryProtocol} if the server offers it.
+     *
+     * @param hostname   the name of the host running the server program
+     * @param port       the port of the server socket on which the server
+     *                   is listening
+     * @param model      the local object holding the state of the game that
+     *                   must be updated upon receiving server messages
+     * @param wantBinary whether to switch to the binary protocol when the
+     *                   server offers it, rather than stay with text
+     * @throws ReversiException If there is a problem opening the connection
+     */
+    public NetworkClient( String hostname, int port, Board model,
+                          boolean wantBinary )
+            throws ReversiException {
+        this( hostname, port, model, wantBinary, null );
+    }
+
+    /**
+     * Hook up with a Reversi game server that has restarted, as in
+     * {@link #NetworkClient(String, int, Board, boolean)}, and ask it for
+     * the game this client was playing before. The server sends every move
+     * already made, so the model should start with a new board.
+     *
+     * @param hostname   the name of the host running the server program
+     * @param port       the port of the server socket on which the server
+     *                   is listening
+     * @param model      the local object holding the state of the game that
+     *                   must be updated upon receiving server messages
+     * @param wantBinary whether to switch to the binary protocol when the
+     *                   server offers it, rather than stay with text
+     * @param resume     the {@link #getSession() session} of the game to
+     *                   resume, or null to play a new one
+     * @throws ReversiException If there is a problem opening the connection
+     */
+    public NetworkClient( String hostname, int port, Board model,
+                          boolean wantBinary, String resume )
+            throws ReversiException {
         try {
             this.sock = new Socket( hostname, port );
-            this.networkIn = new Scanner( sock.getInputStream() );
-            this.networkOut = new PrintStream( sock.getOutputStream() );
+            // Moves are tiny and each waits on the last; do not batch them.
+            this.sock.setTcpNoDelay( true );
+            this.networkIn = new BufferedInputStream( sock.getInputStream() );
+            this.frameOut = sock.getOutputStream();
+            this.networkOut = new PrintStream( this.frameOut );
             this.game = model;
             this.go = true;
+            this.wantBinary = wantBinary;
+            this.resume = resume;
 
             // Block waiting for the CONNECT message from the server.
-            String request = this.networkIn.next();
-            String arguments = this.networkIn.nextLine();
+            String message =
+                    BinaryProtocol.readLine( this.networkIn, this.line );
+            int space = message.indexOf( ' ' );
+            String request = space < 0 ? message : message.substring( 0, space );
+            String arguments = space < 0 ? "" : message.substring( space );
             assert request.equals( ReversiProtocol.CONNECT ) :
                     "CONNECT not 1st";
             NetworkClient.dPrint( "Connected to server " + this.sock );
@@ -128,7 +233,10 @@ public class NetworkClient {
     /**
      * Called by the constructor to set up the game board for this player now
      * that the server has sent the board dimensions with the
-     * {@link ReversiProtocol#CONNECT} request.
+     * {@link ReversiProtocol#CONNECT} request. Takes up the server's offer
+     * of the {@link BinaryProtocol}, if it makes one and it is wanted,
+     * notes the {@link ReversiProtocol#SESSION} token, if any, and asks to
+     * resume a game if told to.
      *
      * @param arguments string from the server's message that
      *                  contains the square dimension of the board
@@ -141,6 +249,33 @@ public class NetworkClient {
 
         // Get the board state set up.
         this.game.allocate( DIM ); // may throw exception
+
+        if ( this.wantBinary && fields.length > 1 &&
+             fields[ fields.length - 1 ].equals( BINARY ) ) {
+            // The server keeps sending text until it acknowledges this.
+            this.networkOut.println( BINARY );
+        }
+
+        for ( int i = 1; i + 1 < fields.length; ++i ) {
+            if ( fields[ i ].equals( SESSION ) ) {
+                this.session = fields[ i + 1 ];
+            }
+        }
+        if ( this.resume != null ) {
+            // A resumed game keeps the session it started with.
+            this.networkOut.println( RESUME + " " + this.resume );
+            this.session = this.resume;
+        }
+    }
+
+    /**
+     * Get the session token of this client's game, with which it can be
+     * resumed if the server stops while it is being played.
+     *
+     * @return the token, or null if the server does not journal games
+     */
+    public String getSession() {
+        return this.session;
     }
 
     /**
@@ -236,8 +371,52 @@ public class NetworkClient {
      * @param row the row
      * @param col the column
      */
-    public void sendMove( int row, int col ) {
-        this.networkOut.println( MOVE + " " + row + " " + col );
+    public synchronized void sendMove( int row, int col ) {
+        if ( this.binary ) {
+            BinaryProtocol.write( this.frameOut, this.outFrame,
+                    BinaryProtocol.encodeMove( this.outFrame,
+                            BinaryProtocol.MOVE, row, col ) );
+        }
+        else {
+            this.networkOut.println( MOVE + " " + row + " " + col );
+        }
+    }
+
+    /**
+     * Read and act on one frame from the server.
+     *
+     * @throws IOException if the connection fails or the frame is
+     *                     malformed
+     */
+    private void readFrame() throws IOException {
+        int length = BinaryProtocol.readFrame( this.networkIn, this.inFrame );
+        switch ( this.inFrame[ 0 ] ) {
+            case BinaryProtocol.MAKE_MOVE:
+                makeMove();
+                break;
+            case BinaryProtocol.MOVE_MADE:
+                NetworkClient.dPrint( '!' + MOVE_MADE );
+                this.game.moveMade( BinaryProtocol.row( this.inFrame ),
+                                    BinaryProtocol.col( this.inFrame ) );
+                break;
+            case BinaryProtocol.GAME_WON:
+                gameWon();
+                break;
+            case BinaryProtocol.GAME_LOST:
+                gameLost();
+                break;
+            case BinaryProtocol.GAME_TIED:
+                gameTied();
+                break;
+            case BinaryProtocol.ERROR:
+                error( BinaryProtocol.errorMessage( this.inFrame, length ) );
+                break;
+            default:
+                System.err.println( "Unrecognized frame: " +
+                                    this.inFrame[ 0 ] );
+                this.stop();
+                break;
+        }
     }
 
     /**
@@ -249,8 +428,17 @@ public class NetworkClient {
 
         while ( this.goodToGo() ) {
             try {
-                String request = this.networkIn.next();
-                String arguments = this.networkIn.nextLine().trim();
+                if ( this.binary ) {
+                    this.readFrame();
+                    continue;
+                }
+                String message =
+                        BinaryProtocol.readLine( this.networkIn, this.line );
+                int space = message.indexOf( ' ' );
+                String request =
+                        space < 0 ? message : message.substring( 0, space );
+                String arguments =
+                        space < 0 ? "" : message.substring( space ).trim();
                 NetworkClient.dPrint( "Net message in = \"" + request + '"' );
 
                 switch ( request ) {
@@ -278,6 +466,10 @@ public class NetworkClient {
                     case ERROR:
                         error( arguments );
                         break;
+                    case BINARY:
+                        // The server has taken up the switch; frames follow.
+                        this.binary = true;
+                        break;
                     default:
                         System.err
                                 .println( "Unrecognized request: " + request );
@@ -285,7 +477,7 @@ public class NetworkClient {
                         break;
                 }
             }
-            catch( NoSuchElementException nse ) {
+            catch( IOException ioe ) {
                 // Looks like the connection shut down.
                 this.error( "Lost connection to server." );
                 this.stop();
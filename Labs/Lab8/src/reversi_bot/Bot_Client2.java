@@ -0,0 +1,142 @@
+package reversi_bot;
+
+import reversi.ReversiException;
+import reversi.bot.Bot;
+import reversi.bot.BookBot;
+import reversi.bot.MonteCarloSearch;
+import reversi.bot.OpeningBook;
+import reversi.bot.ParallelSearch;
+import reversi2.Board;
+import reversi2.NetworkClient;
+
+import java.nio.file.Paths;
+import java.util.Observable;
+import java.util.Observer;
+
+/**
+ * A headless Reversi client that plays by itself.  It connects to the
+ * server through {@link NetworkClient} just like the text and graphical
+ * clients do, and answers every move request with a search: a
+ * {@link ParallelSearch} by default, or a {@link MonteCarloSearch} for big
+ * boards.  Given an {@link OpeningBook}, it plays from the book until the
+ * game leaves it.
+ */
+public class Bot_Client2 implements Observer {
+    /** default thinking time per move, in milliseconds */
+    private static final long DEFAULT_BUDGET = 1000;
+
+    /** local copy of the game */
+    private Board model;
+
+    /** connection to the server */
+    private NetworkClient serverConn;
+
+    /** the search that picks each move */
+    private Bot search;
+
+    /**
+     * Connect to a server and get ready to play.
+     *
+     * @param host the server host
+     * @param port the server port
+     * @param budgetMillis how long to think about each move
+     * @param threads how many threads to search with
+     * @param mcts whether to use Monte Carlo Tree Search instead of
+     *             alpha-beta
+     * @param bookFile an opening book file, or null to search every move
+     * @throws ReversiException if the connection cannot be made or the
+     *                          book cannot be read
+     */
+    public Bot_Client2(String host, int port, long budgetMillis, int threads, boolean mcts,
+                       String bookFile) throws ReversiException {
+        OpeningBook book = bookFile == null ? null : OpeningBook.open(Paths.get(bookFile));
+        this.model = new Board();
+        this.serverConn = new NetworkClient(host, port, this.model);
+        this.model.initializeGame();
+        this.search = mcts ? new MonteCarloSearch(budgetMillis, threads) :
+                new ParallelSearch(budgetMillis, threads);
+        if (book != null) {
+            this.search = new BookBot(book, this.search);
+        }
+    }
+
+    /**
+     * Play until the server says the game is over.
+     */
+    public synchronized void play() {
+        this.model.addObserver(this);
+        // the move request may have arrived before we started observing
+        this.update(this.model, null);
+        while (this.model.getStatus() == Board.Status.NOT_OVER) {
+            try {
+                this.wait();
+            } catch (InterruptedException ie) {}
+        }
+        System.out.println(this.model);
+        System.out.println(this.model.getStatus().name());
+        if (this.search instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) this.search).close();
+            } catch (Exception e) {
+                // squash
+            }
+        }
+        this.serverConn.close();
+    }
+
+    /**
+     * Wake up {@link #play()} so it can check if the game is over.
+     */
+    private synchronized void gameChanged() {
+        this.notify();
+    }
+
+    /**
+     * Search for and send a move whenever the server asks for one.
+     *
+     * @param o the model
+     * @param arg not used
+     */
+    @Override
+    public void update(Observable o, Object arg) {
+        if (this.model.getStatus() == Board.Status.NOT_OVER && this.model.isMyTurn()) {
+            this.model.didMyTurn();
+            try {
+                int[] move = this.search.chooseMove(this.model.toReversi());
+                System.out.println("Moving to (" + move[0] + ", " + move[1] + "): " +
+                        this.search.getStatistics());
+                this.serverConn.sendMove(move[0], move[1]);
+            } catch (ReversiException e) {
+                System.err.println("Bot could not move: " + e.getMessage());
+                this.serverConn.close();
+            }
+        }
+        this.gameChanged();
+    }
+
+    /**
+     * Start a bot and play one game.
+     *
+     * @param args host, port and optionally the milliseconds per move,
+     *             the number of search threads, "mcts" to use Monte
+     *             Carlo Tree Search (or "ab" for alpha-beta) and an opening
+     *             book file
+     */
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 6) {
+            System.out.println("Usage: java Bot_Client2 host port [millis-per-move [threads [mcts|ab [book]]]]");
+            System.exit(0);
+        }
+        try {
+            long budget = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_BUDGET;
+            int threads = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+            boolean mcts = args.length > 4 && args[4].equals("mcts");
+            String book = args.length > 5 ? args[5] : null;
+            Bot_Client2 bot = new Bot_Client2(args[0], Integer.parseInt(args[1]), budget, threads, mcts, book);
+            bot.play();
+        } catch (ReversiException e) {
+            System.err.println("Failed to start bot!");
+            e.printStackTrace();
+        }
+    }
+}
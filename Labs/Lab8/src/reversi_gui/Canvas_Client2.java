@@ -0,0 +1,300 @@
+package reversi_gui;
+
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Label;
+import javafx.scene.image.Image;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Pane;
+import javafx.scene.layout.Priority;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+import reversi.ReversiException;
+import reversi.util.LatencyHistogram;
+import reversi2.Board;
+import reversi2.BoardChange;
+import reversi2.DirtySquares;
+import reversi2.NetworkClient;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+
+/**
+ * A UI for Reversi that draws the whole board on one {@link Canvas}, for
+ * boards too big for {@link GUI_Client2}'s grid of buttons.
+ * <p>
+ * The disc images are loaded once, already scaled to the size of a square,
+ * so drawing a square is a single image copy.  Only the squares the model's
+ * {@link BoardChange}s touched are redrawn, along with the valid moves that
+ * are highlighted when it is this player's turn, and a click is mapped back
+ * to the square under it.  The time each refresh takes on the JavaFX
+ * thread is kept, and printed when the window closes, to compare with the
+ * button grid.
+ */
+public class Canvas_Client2 extends Application implements Observer {
+    /** largest the board is drawn, in pixels on a side */
+    private static final int BOARD_PIXELS = 768;
+    /** size of the disc images, and so the largest a square is drawn */
+    private static final int MAX_SQUARE = 64;
+    /** smallest a square is drawn, however big the board */
+    private static final int MIN_SQUARE = 4;
+    /** drawn over the valid moves when it is this player's turn */
+    private static final Color HIGHLIGHT = Color.rgb(255, 255, 0, 0.35);
+
+    /** connection to the server */
+    private NetworkClient serverConn;
+    /** the board */
+    private Board model;
+    /** shows the moves left */
+    private Label moveCount;
+    /** shows whose turn it is, or how the game ended */
+    private Label gameStatus;
+    /** what the board is drawn on */
+    private Canvas canvas;
+    /** pixels on a side of each square */
+    private int square;
+    /** the empty square, scaled to size */
+    private Image emptyImage;
+    /** player one's disc, scaled to size */
+    private Image p1Image;
+    /** player two's disc, scaled to size */
+    private Image p2Image;
+    /** squares the model has changed since the last refresh */
+    private final DirtySquares dirty = new DirtySquares();
+    /** the valid moves highlighted by the last refresh */
+    private int[] highlighted;
+    /** how many squares are highlighted */
+    private int highlightedCount;
+    /** how long each refresh took, in nanoseconds */
+    private final LatencyHistogram frames = new LatencyHistogram();
+
+    /**
+     * Create the board model, create the network connection based on
+     * command line parameters, and use the first message received to
+     * allocate the board size the server is also using.  Then size the
+     * squares to fit the board on the screen and load the images at that
+     * size.
+     */
+    @Override
+    public void init() {
+        try {
+            List<String> args = getParameters().getRaw();
+            String host = args.get(0);
+            int port = Integer.parseInt(args.get(1));
+
+            this.model = new Board();
+            this.serverConn = new NetworkClient(host, port, this.model);
+            this.model.initializeGame();
+
+            int DIM = this.model.getDIM();
+            this.square = Math.max(MIN_SQUARE, Math.min(MAX_SQUARE, BOARD_PIXELS / DIM));
+            this.emptyImage = loadImage("empty.jpg");
+            this.p1Image = loadImage("p1.jpg");
+            this.p2Image = loadImage("p2.jpg");
+            this.highlighted = new int[DIM * DIM];
+        } catch (ReversiException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Load one of the images, scaled to the size of a square.
+     *
+     * @param name the image file, next to this class
+     * @return the image
+     */
+    private Image loadImage(String name) {
+        return new Image(getClass().getResourceAsStream(name), this.square, this.square, false, true);
+    }
+
+    /**
+     * Lay out the board and the status line, and draw the board.
+     *
+     * @param mainStage the window
+     */
+    @Override
+    public void start(Stage mainStage) {
+        this.model.addObserver(this);
+        int pixels = this.model.getDIM() * this.square;
+        this.canvas = new Canvas(pixels, pixels);
+        this.canvas.setOnMouseClicked(this::clicked);
+
+        HBox gameInfo = new HBox();
+        this.moveCount = new Label();
+        this.gameStatus = new Label();
+        Pane spacer = new Pane();
+        HBox.setHgrow(spacer, Priority.ALWAYS);
+        gameInfo.setPadding(new Insets(5));
+        gameInfo.getChildren().addAll(this.moveCount, spacer, this.gameStatus);
+
+        BorderPane layout = new BorderPane();
+        layout.setCenter(this.canvas);
+        layout.setBottom(gameInfo);
+
+        mainStage.setScene(new Scene(layout));
+        mainStage.setTitle("Reversi Client");
+
+        this.refresh();
+        mainStage.sizeToScene();
+        mainStage.setResizable(false);
+        mainStage.show();
+    }
+
+    /**
+     * Send the move under the mouse, if it is this player's turn and the
+     * move is valid.
+     *
+     * @param event the click
+     */
+    private void clicked(MouseEvent event) {
+        int row = (int) (event.getY() / this.square);
+        int col = (int) (event.getX() / this.square);
+        if (this.model.isMyTurn() && this.model.isValidMove(row, col)) {
+            this.model.didMyTurn();
+            this.serverConn.sendMove(row, col);
+        }
+    }
+
+    /**
+     * Bring the window up to date with the model, redrawing only the
+     * squares that changed, and time it.
+     */
+    private void refresh() {
+        long start = System.nanoTime();
+        updateText();
+        updateBoard(this.dirty.take());
+        this.frames.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Show the moves left and the game status.
+     */
+    private void updateText() {
+        int left = this.model.getMovesLeft();
+        this.moveCount.setText(left + (left == 1 ? " move remaining." : " moves remaining."));
+        switch (this.model.getStatus()) {
+            case I_LOST:
+                this.gameStatus.setText("YOU LOST!");
+                break;
+            case I_WON:
+                this.gameStatus.setText("YOU WON!");
+                break;
+            case TIE:
+                this.gameStatus.setText("TIE GAME!");
+                break;
+            case ERROR:
+                this.gameStatus.setText("ERROR");
+                break;
+            case NOT_OVER:
+                this.gameStatus.setText(this.model.isMyTurn() ? "YOUR TURN! MAKE A MOVE!" :
+                        "WAITING FOR OPPONENT");
+                break;
+        }
+    }
+
+    /**
+     * Redraw the squares given, take the highlight off the valid moves of
+     * last time, and put it on the valid moves now if it is this player's
+     * turn.
+     *
+     * @param squares the squares to redraw, as row * DIM + col, or null
+     *                for all of them
+     */
+    private void updateBoard(BitSet squares) {
+        GraphicsContext gc = this.canvas.getGraphicsContext2D();
+        int DIM = this.model.getDIM();
+        if (squares == null) {
+            for (int sq = 0; sq < DIM * DIM; ++sq) {
+                drawSquare(gc, sq);
+            }
+        } else {
+            for (int sq = squares.nextSetBit(0); sq >= 0; sq = squares.nextSetBit(sq + 1)) {
+                drawSquare(gc, sq);
+            }
+        }
+        for (int i = 0; i < this.highlightedCount; ++i) {
+            if (squares != null && !squares.get(this.highlighted[i])) {
+                drawSquare(gc, this.highlighted[i]);
+            }
+        }
+        this.highlightedCount = 0;
+        if (this.model.isMyTurn()) {
+            gc.setFill(HIGHLIGHT);
+            for (int sq = this.model.nextValidMove(0); sq >= 0; sq = this.model.nextValidMove(sq + 1)) {
+                gc.fillRect(sq % DIM * this.square, sq / DIM * this.square, this.square, this.square);
+                this.highlighted[this.highlightedCount++] = sq;
+            }
+        }
+    }
+
+    /**
+     * Draw one square with the disc on it, over whatever was there.
+     *
+     * @param gc where to draw
+     * @param sq the square, as row * DIM + col
+     */
+    private void drawSquare(GraphicsContext gc, int sq) {
+        int DIM = this.model.getDIM();
+        Image image;
+        switch (this.model.getContents(sq / DIM, sq % DIM)) {
+            case PLAYER_ONE:
+                image = this.p1Image;
+                break;
+            case PLAYER_TWO:
+                image = this.p2Image;
+                break;
+            default:
+                image = this.emptyImage;
+                break;
+        }
+        gc.drawImage(image, sq % DIM * this.square, sq / DIM * this.square);
+    }
+
+    /**
+     * Close the connection and report the refresh times.
+     */
+    @Override
+    public void stop() {
+        this.serverConn.close();
+        System.out.printf("%d refreshes: mean %.3f ms, p99 %.3f ms, max %.3f ms%n", this.frames.getCount(),
+                this.frames.getMean() / 1e6, this.frames.getValueAtPercentile(99) / 1e6,
+                this.frames.getMax() / 1e6);
+    }
+
+    /**
+     * Note what the model says changed, and refresh the window on the
+     * JavaFX thread.  Changes that arrive before that refresh has run are
+     * folded into it rather than queueing another.
+     *
+     * @param o the model
+     * @param arg the {@link BoardChange}
+     */
+    @Override
+    public void update(Observable o, Object arg) {
+        if (this.dirty.mark((BoardChange) arg)) {
+            Platform.runLater(this::refresh);
+        }
+    }
+
+    /**
+     * Launch the JavaFX GUI.
+     *
+     * @param args the host and port of the server
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.println("Usage: java Canvas_Client2 host port");
+            System.exit(0);
+        } else {
+            Application.launch(args);
+        }
+    }
+}
@@ -20,7 +20,10 @@ import javafx.scene.image.ImageView;
 import javafx.scene.layout.*;
 import javafx.stage.Stage;
 import reversi.ReversiException;
+import reversi.util.LatencyHistogram;
 import reversi2.Board;
+import reversi2.BoardChange;
+import reversi2.DirtySquares;
 import reversi2.NetworkClient;
 
 /**
@@ -37,6 +40,10 @@ public class GUI_Client2 extends Application implements Observer {
     private Image emptyBackground;
     private Image p1Background;
     private Image p2Background;
+    private final DirtySquares dirty = new DirtySquares();
+    private int[] enabled;
+    private int enabledCount;
+    private final LatencyHistogram frames = new LatencyHistogram();
 
     /**
      * Create the board model, create the network connection based on
@@ -69,6 +76,7 @@ public class GUI_Client2 extends Application implements Observer {
     public void start( Stage mainStage ) {
         model.addObserver(this);
         buttons = new Button[model.getDIM()][model.getDIM()];
+        enabled = new int[model.getDIM() * model.getDIM()];
 
         BorderPane layout = new BorderPane();
 
@@ -104,11 +112,15 @@ public class GUI_Client2 extends Application implements Observer {
     }
 
     /**
-     * A method used to update the GUI when the model sends an update
+     * A method used to update the GUI when the model sends an update.
+     * Only the squares changed since the last refresh are repainted.
+     * The time it takes is kept, to compare with {@link Canvas_Client2}.
      */
     private void refreshGUI(){
+        long start = System.nanoTime();
         updateText();
-        updateButtons();
+        updateButtons(dirty.take());
+        frames.record(System.nanoTime() - start);
     }
 
     /**
@@ -141,35 +153,65 @@ public class GUI_Client2 extends Application implements Observer {
     }
 
     /**
-     * Update all of the buttons to reflect which ones are valid moves, invalid moves,
-     * or occupied by a player
+     * Update the buttons to reflect which ones are valid moves, invalid moves,
+     * or occupied by a player.  Only the squares given are repainted; the
+     * buttons enabled last time are disabled, then the valid moves the model
+     * keeps are enabled, without testing each square.
+     *
+     * @param squares the squares to repaint, as row * DIM + col, or null
+     *                for all of them
      */
-    private void updateButtons(){
-        for(int i = 0; i < model.getDIM(); i++){
-            for(int j = 0; j < model.getDIM(); j++){
-                Board.Move move = model.getContents(i, j);
-                buttons[i][j].setDisable(true);
-                switch (move){
-                    case PLAYER_ONE:
-                        buttons[i][j].setGraphic(new ImageView(p1Background));
-                        break;
-                    case PLAYER_TWO:
-                        buttons[i][j].setGraphic(new ImageView(p2Background));
-                        break;
-                    case NONE:
-                        if(model.isValidMove(i, j) && model.isMyTurn()){
-                            buttons[i][j].setDisable(false);
-                        }
-                        buttons[i][j].setGraphic(new ImageView(emptyBackground));
-                        break;
+    private void updateButtons(BitSet squares){
+        int DIM = model.getDIM();
+        if(squares == null){
+            for(int i = 0; i < DIM; i++){
+                for(int j = 0; j < DIM; j++){
+                    buttons[i][j].setDisable(true);
+                    updateButton(i, j);
                 }
             }
+        }else{
+            for(int square = squares.nextSetBit(0); square >= 0; square = squares.nextSetBit(square + 1)){
+                updateButton(square / DIM, square % DIM);
+            }
+        }
+        for(int i = 0; i < enabledCount; i++){
+            buttons[enabled[i] / DIM][enabled[i] % DIM].setDisable(true);
+        }
+        enabledCount = 0;
+        if(model.isMyTurn()){
+            for(int square = model.nextValidMove(0); square >= 0; square = model.nextValidMove(square + 1)){
+                buttons[square / DIM][square % DIM].setDisable(false);
+                enabled[enabledCount++] = square;
+            }
+        }
+    }
+
+    /**
+     * Paint one button with the disc on its square.
+     *
+     * @param row the row
+     * @param col the column
+     */
+    private void updateButton(int row, int col){
+        switch (model.getContents(row, col)){
+            case PLAYER_ONE:
+                buttons[row][col].setGraphic(new ImageView(p1Background));
+                break;
+            case PLAYER_TWO:
+                buttons[row][col].setGraphic(new ImageView(p2Background));
+                break;
+            case NONE:
+                buttons[row][col].setGraphic(new ImageView(emptyBackground));
+                break;
         }
     }
 
     @Override
     public void stop(){
         this.serverConn.close();
+        System.out.printf("%d refreshes: mean %.3f ms, p99 %.3f ms, max %.3f ms%n", frames.getCount(),
+                frames.getMean() / 1e6, frames.getValueAtPercentile(99) / 1e6, frames.getMax() / 1e6);
     }
 
     /**
@@ -187,8 +229,18 @@ public class GUI_Client2 extends Application implements Observer {
         }
     }
 
+    /**
+     * Note what the model says changed, and refresh the GUI on the JavaFX
+     * thread.  Changes that arrive before that refresh has run are folded
+     * into it rather than queueing another.
+     *
+     * @param o the model
+     * @param arg the {@link BoardChange}
+     */
     @Override
     public void update(Observable o, Object arg) {
-        Platform.runLater(this::refreshGUI);
+        if(dirty.mark((BoardChange) arg)){
+            Platform.runLater(this::refreshGUI);
+        }
     }
 }
@@ -1,8 +1,11 @@
 package reversi_ptui;
 
 import javafx.stage.Stage;
+import reversi.Reversi;
 import reversi.ReversiException;
+import reversi.bot.Ponderer;
 import reversi2.Board;
+import reversi2.BoardChange;
 import reversi2.NetworkClient;
 
 import java.io.PrintWriter;
@@ -36,6 +39,17 @@ public class PTUI_Client2 extends ConsoleApplication implements Observer {
      */
     private PrintWriter userOut;
 
+    /**
+     * Thinks about the game in the background, so the user can ask for a
+     * hint; null unless the client was started with --assist
+     */
+    private Ponderer ponderer;
+
+    /**
+     * Which player this client is, once the server first asks it to move
+     */
+    private Board.Move myPiece;
+
     /**
      * Create the board model, create the network connection based on
      * command line parameters, and use the first message received to
@@ -56,6 +70,10 @@ public class PTUI_Client2 extends ConsoleApplication implements Observer {
             this.serverConn = new NetworkClient( host, port, this.model );
 
             this.model.initializeGame();
+
+            if ( args.size() > 2 && args.get( 2 ).equals( "--assist" ) ) {
+                this.ponderer = new Ponderer();
+            }
         }
         catch( ReversiException |
                 ArrayIndexOutOfBoundsException |
@@ -85,6 +103,9 @@ public class PTUI_Client2 extends ConsoleApplication implements Observer {
         this.model.addObserver( this );
         // Manually force a display of all board state, since it's too late
         // to trigger update().
+        if ( this.ponderer != null && this.model.isMyTurn() ) {
+            this.ponderMyTurn();
+        }
         this.refresh();
         while ( this.model.getStatus() == Board.Status.NOT_OVER ) {
             try {
@@ -104,6 +125,9 @@ public class PTUI_Client2 extends ConsoleApplication implements Observer {
         this.userIn.close();
         this.userOut.close();
         this.serverConn.close();
+        if ( this.ponderer != null ) {
+            this.ponderer.close();
+        }
     }
 
     private synchronized void endGame() {
@@ -142,9 +166,22 @@ public class PTUI_Client2 extends ConsoleApplication implements Observer {
         else {
             boolean done = false;
             do {
-                this.userOut.print("type move as row◻︎column: ");
+                this.userOut.print( this.ponderer == null ?
+                                    "type move as row◻︎column: " :
+                                    "type move as row◻︎column, or hint: " );
                 this.userOut.flush();
-                int row = this.userIn.nextInt();
+                String first = this.userIn.next();
+                if ( this.ponderer != null && first.equals( "hint" ) ) {
+                    this.hint();
+                    continue;
+                }
+                int row;
+                try {
+                    row = Integer.parseInt( first );
+                }
+                catch( NumberFormatException e ) {
+                    continue;
+                }
                 int col = this.userIn.nextInt();
                 if (this.model.isValidMove(row, col)) {
                     this.userOut.println(this.userIn.nextLine());
@@ -155,19 +192,94 @@ public class PTUI_Client2 extends ConsoleApplication implements Observer {
         }
     }
 
+    /**
+     * Show the move the ponderer thinks best right now.  It answers from
+     * what it has already found, so this does not keep the user waiting.
+     */
+    private void hint() {
+        int DIM = this.model.getDIM();
+        int square = this.ponderer.hint( this.model.toReversi() );
+        if ( square < 0 ) {
+            this.userOut.println( "No hint." );
+        }
+        else {
+            this.userOut.println( "Hint: " + square / DIM + ' ' + square % DIM +
+                                  " (depth " + this.ponderer.getHintDepth() +
+                                  ')' );
+        }
+    }
+
+    /**
+     * Keep the ponderer thinking about the position the model is in.
+     * A move by the opponent leaves this player to move, and one by this
+     * player leaves the opponent to move, so the ponderer predicts their
+     * reply.  Any move seen before the server first asks this player to
+     * move must be the opponent's.
+     *
+     * @param change what changed in the model
+     */
+    private void ponder( BoardChange change ) {
+        switch ( change.getKind() ) {
+            case TURN:
+                this.ponderMyTurn();
+                break;
+            case MOVE:
+                this.ponderer.ponder( this.model.toReversi(),
+                                      change.getPiece() != this.myPiece );
+                break;
+            case STATUS:
+                this.ponderer.stop();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Keep the ponderer thinking about this player's move, and note which
+     * player that is.
+     */
+    private void ponderMyTurn() {
+        Reversi position = this.model.toReversi();
+        this.myPiece = position.isP1Turn() ?
+                       Board.Move.PLAYER_ONE : Board.Move.PLAYER_TWO;
+        this.ponderer.ponder( position, true );
+    }
+
+    /**
+     * Say what a move did, since the text board does not show it.
+     *
+     * @param change the move
+     */
+    private void report( BoardChange change ) {
+        int DIM = this.model.getDIM();
+        this.userOut.println( change.getPiece() + " moved to (" +
+                              change.getPlaced() / DIM + ", " +
+                              change.getPlaced() % DIM + "), flipping " +
+                              change.getFlipCount() + '.' );
+    }
+
     /**
      * Update the UI when the model calls notify.
-     * Currently no information is passed as to what changed,
-     * so everything is redone.
+     * The model says what changed, but a text board cannot be redrawn a
+     * square at a time, so everything is redone, after a line saying what
+     * a move did.
      *
      * @param t An Observable -- assumed to be the model.
-     * @param o An Object -- not used.
+     * @param o the {@link BoardChange}
      */
     @Override
     public void update( Observable t, Object o ) {
 
         assert t == this.model: "Update from non-model Observable";
 
+        BoardChange change = (BoardChange) o;
+        if ( change != null && change.getKind() == BoardChange.Kind.MOVE ) {
+            this.report( change );
+        }
+        if ( this.ponderer != null && change != null ) {
+            this.ponder( change );
+        }
         this.refresh();
 
     }
@@ -175,12 +287,13 @@ public class PTUI_Client2 extends ConsoleApplication implements Observer {
     /**
      * Launch the JavaFX GUI.
      *
-     * @param args not used, here, but named arguments are passed to the GUI.
-     *             <code>--host=<i>hostname</i> --port=<i>portnum</i></code>
+     * @param args the host and port of the server, and optionally
+     *             <code>--assist</code> to be able to ask for hints
      */
     public static void main( String[] args ) {
-        if (args.length != 2) {
-            System.out.println("Usage: java PTUI_Client2 host port");
+        if (args.length < 2 || args.length > 3 ||
+                (args.length == 3 && !args[2].equals("--assist"))) {
+            System.out.println("Usage: java PTUI_Client2 host port [--assist]");
             System.exit(0);
         } else {
             ConsoleApplication.launch(PTUI_Client2.class, args);